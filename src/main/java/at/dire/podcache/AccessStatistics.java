@@ -0,0 +1,209 @@
+package at.dire.podcache;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import at.dire.podcache.data.AccessCount;
+import at.dire.podcache.data.AccessCountRepository;
+import at.dire.podcache.data.FeedStatistics;
+
+/**
+ * Counts feed polls, content file downloads and bytes served per feed and file.
+ *
+ * <p>
+ * Requests are counted in memory using striped {@link LongAdder counters}, so serving a file does not need a database
+ * transaction and concurrent requests do not contend on a single value. Counting allocates nothing once a file has
+ * been requested. The counts are added to the database in batches, so several serving processes may share it.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class AccessStatistics {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(AccessStatistics.class);
+
+	/** DB repository */
+	private final AccessCountRepository countRepo;
+
+	/** Counters not written to the database yet, by feed and file name */
+	private final ConcurrentHashMap<String, ConcurrentHashMap<String, Counter>> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param countRepo DB repository
+	 */
+	@Autowired
+	public AccessStatistics(AccessCountRepository countRepo) {
+		this.countRepo = Objects.requireNonNull(countRepo);
+	}
+
+	/**
+	 * Records a request of the given feed's file.
+	 *
+	 * @param feedName name of the feed
+	 * @return counter of the feed file, used to record the bytes served
+	 */
+	public Counter recordPoll(String feedName) {
+		Counter counter = getCounter(feedName, ContentManager.FEED_FILE);
+		counter.requests.increment();
+		return counter;
+	}
+
+	/**
+	 * Records a download of the given content file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName file name
+	 * @return counter of the file, used to record the bytes served
+	 */
+	public Counter recordDownload(String feedName, String fileName) {
+		Counter counter = getCounter(feedName, fileName);
+		counter.requests.increment();
+		return counter;
+	}
+
+	/**
+	 * Returns the counter for bytes served of the given file without counting a request, e.g. for requests of
+	 * further ranges of a file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName file name
+	 * @return counter
+	 */
+	public Counter getCounter(String feedName, String fileName) {
+		// Avoid computeIfAbsent for known files, it locks even if present.
+		ConcurrentHashMap<String, Counter> files = this.counters.get(feedName);
+
+		if(files == null)
+			files = this.counters.computeIfAbsent(feedName, (key) -> new ConcurrentHashMap<>());
+
+		Counter counter = files.get(fileName);
+
+		if(counter == null)
+			counter = files.computeIfAbsent(fileName, (key) -> new Counter());
+
+		return counter;
+	}
+
+	/**
+	 * Returns the counts of all feeds as last written to the database.
+	 *
+	 * @return statistics per feed
+	 */
+	public List<FeedStatistics> getFeedStatistics() {
+		return this.countRepo.findFeedStatistics(ContentManager.FEED_FILE);
+	}
+
+	/**
+	 * Returns the counts of all files of the given feed as last written to the database.
+	 *
+	 * @param feedName name of the feed
+	 * @return counts, most requested files first
+	 */
+	public List<AccessCount> getFileStatistics(String feedName) {
+		return this.countRepo.findByFeedNameOrderByRequestCountDesc(feedName);
+	}
+
+	/**
+	 * Runs regularly to add the recorded counts to the database. Counts are only removed from memory once written.
+	 */
+	@Scheduled(fixedDelayString = "${podcache.stats.flush-interval}")
+	@PreDestroy
+	public void flush() {
+		Date now = new Date();
+		int written = 0;
+
+		for(Map.Entry<String, ConcurrentHashMap<String, Counter>> feed : this.counters.entrySet()) {
+			for(Map.Entry<String, Counter> file : feed.getValue().entrySet()) {
+				Counter counter = file.getValue();
+				long requests = counter.requests.sum();
+				long bytes = counter.bytes.sum();
+
+				if(requests == 0 && bytes == 0)
+					continue;
+
+				try {
+					add(feed.getKey(), file.getKey(), requests, bytes, now);
+				} catch(DataAccessException e) {
+					LOG.error("Failed to write access counts. Will try again.", e);
+					return;
+				}
+
+				// Keep counts recorded in the meantime.
+				counter.requests.add(-requests);
+				counter.bytes.add(-bytes);
+				written++;
+			}
+		}
+
+		if(written > 0)
+			LOG.debug("Wrote access counts of {} files.", written);
+	}
+
+	/**
+	 * Remove all counts of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 */
+	public void delete(String feedName) {
+		this.counters.remove(feedName);
+		this.countRepo.deleteByFeedName(feedName);
+	}
+
+	/**
+	 * Add to the counts of the given file in the database.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName file name
+	 * @param requests number of requests
+	 * @param bytes number of bytes served
+	 * @param now current date
+	 */
+	private void add(String feedName, String fileName, long requests, long bytes, Date now) {
+		if(this.countRepo.add(feedName, fileName, requests, bytes, now) > 0)
+			return;
+
+		try {
+			this.countRepo.save(new AccessCount(feedName, fileName, requests, bytes, now));
+		} catch(DataIntegrityViolationException e) {
+			LOG.debug("Counts of '{}/{}' have been created by another process.", feedName, fileName, e);
+			this.countRepo.add(feedName, fileName, requests, bytes, now);
+		}
+	}
+
+	/**
+	 * Requests and bytes served of a single file, not written to the database yet.
+	 */
+	public static final class Counter {
+		/** Number of requests */
+		private final LongAdder requests = new LongAdder();
+
+		/** Number of bytes served */
+		private final LongAdder bytes = new LongAdder();
+
+		/**
+		 * Records bytes served.
+		 *
+		 * @param count number of bytes
+		 */
+		public void addBytes(long count) {
+			this.bytes.add(count);
+		}
+	}
+}
@@ -1,6 +1,8 @@
 package at.dire.podcache;
 
+import org.springframework.boot.DefaultApplicationArguments;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
@@ -17,11 +19,19 @@ import org.springframework.transaction.annotation.EnableTransactionManagement;
 @EnableTransactionManagement
 public class Application {
 	/**
-	 * Main method.
+	 * Main method. The {@link Role} selected by the arguments is available as a bean.
 	 * 
 	 * @param args command line arguments
 	 */
 	public static void main(String[] args) {
-		SpringApplication.run(Application.class, args);
+		Role role = Role.fromArguments(new DefaultApplicationArguments(args));
+		SpringApplication application = new SpringApplication(Application.class);
+
+		// Updating processes don't serve clients.
+		if(!role.isServing())
+			application.setWebApplicationType(WebApplicationType.NONE);
+
+		application.addInitializers((context) -> context.getBeanFactory().registerSingleton("role", role));
+		application.run(args);
 	}
 }
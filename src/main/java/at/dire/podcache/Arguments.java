@@ -8,4 +8,7 @@ package at.dire.podcache;
 public interface Arguments {
 	/** Force update of all feeds on startup */
 	public static final String UPDATE = "update";
+
+	/** Role of this process, see {@link Role} */
+	public static final String ROLE = "role";
 }
@@ -0,0 +1,270 @@
+package at.dire.podcache;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Objects;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import at.dire.podcache.util.Downloader;
+import at.dire.podcache.util.SingleFlight;
+
+/**
+ * Handles the artwork of feeds and entries (channel images and <code>itunes:image</code>). Artwork is downloaded
+ * like any other content file by the {@link FeedUpdater}. This component creates resized variants of these files on
+ * first request and keeps them in the {@link ContentManager#VARIANTS_DIR variants directory} of the feed.
+ *
+ * @author diredev
+ */
+@Component
+public class ArtworkManager {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ArtworkManager.class);
+
+	/** Used to access content files */
+	private final ContentManager contentManager;
+
+	/** True to download artwork and rewrite its URLs */
+	private final boolean enabled;
+
+	/** Supported sizes of variants in pixels, sorted */
+	private final int[] sizes;
+
+	/** Size of the variant referenced by feeds or 0 for the original */
+	private final int feedSize;
+
+	/** Time in seconds clients may cache artwork */
+	private final long maxAge;
+
+	/** Images with more pixels are not resized */
+	private final long maxPixels;
+
+	/** Variants currently being created, by target file */
+	private final SingleFlight<Path, Path> inFlight = new SingleFlight<>();
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param contentManager content manager
+	 * @param enabled true to download artwork
+	 * @param sizes supported sizes of variants in pixels
+	 * @param feedSize size of the variant referenced by feeds, 0 for the original
+	 * @param maxAge time in seconds clients may cache artwork
+	 * @param maxPixels images with more pixels are served as they are
+	 */
+	@Autowired
+	public ArtworkManager(ContentManager contentManager, @Value("${podcache.artwork.enabled}") boolean enabled,
+			@Value("${podcache.artwork.sizes}") int[] sizes, @Value("${podcache.artwork.feed-size}") int feedSize,
+			@Value("${podcache.artwork.max-age}") long maxAge,
+			@Value("${podcache.artwork.max-pixels}") long maxPixels) {
+		this.contentManager = Objects.requireNonNull(contentManager);
+		this.enabled = enabled;
+		this.sizes = Arrays.stream(sizes).filter((size) -> size > 0).sorted().distinct().toArray();
+		this.feedSize = feedSize;
+		this.maxAge = maxAge;
+		this.maxPixels = maxPixels;
+
+		if(feedSize != 0 && !isSupportedSize(feedSize))
+			throw new IllegalArgumentException(String.format("Feed artwork size %d is not a supported size.",
+					feedSize));
+	}
+
+	/**
+	 * Returns true if artwork should be downloaded.
+	 *
+	 * @return boolean
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Returns true if variants of the given size may be requested.
+	 *
+	 * @param size size in pixels
+	 * @return boolean
+	 */
+	public boolean isSupportedSize(int size) {
+		return Arrays.binarySearch(this.sizes, size) >= 0;
+	}
+
+	/**
+	 * Returns the size of the variant referenced by feeds.
+	 *
+	 * @return size in pixels or 0 for the original
+	 */
+	public int getFeedSize() {
+		return this.feedSize;
+	}
+
+	/**
+	 * Returns the time clients may cache artwork.
+	 *
+	 * @return time in seconds
+	 */
+	public long getMaxAge() {
+		return this.maxAge;
+	}
+
+	/**
+	 * Returns a variant of the given image that fits into a square of the given size, creating it if necessary.
+	 * Images that are already small enough or can't be resized are returned as they are.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName file name of the image
+	 * @param size a {@link #isSupportedSize(int) supported} size in pixels
+	 * @return variant, the original image or null if the image does not exist
+	 * @throws IOException when reading or writing fails
+	 */
+	public @Nullable Path getVariant(String feedName, String fileName, int size) throws IOException {
+		if(!isSupportedSize(size))
+			throw new IllegalArgumentException(String.format("Size %d is not supported.", size));
+
+		Path source = this.contentManager.getFile(feedName, fileName);
+		Path target = this.contentManager.getVariantFile(feedName, fileName, size);
+
+		if(Files.exists(target))
+			return target;
+		if(Files.notExists(source))
+			return null;
+
+		return this.inFlight.run(target, () -> resize(source, target, size));
+	}
+
+	/**
+	 * Write a resized copy of the source image to the target file. Large images are subsampled while reading, so only
+	 * about twice the target size is held in memory. Images exceeding the {@link #maxPixels pixel limit} are not
+	 * read at all.
+	 *
+	 * @param source source image
+	 * @param target target file
+	 * @param size maximum width and height in pixels
+	 * @return the target file or the source if it doesn't need to be resized
+	 * @throws IOException when reading or writing fails
+	 */
+	private Path resize(Path source, Path target, int size) throws IOException {
+		BufferedImage image;
+		String format;
+
+		try(ImageInputStream in = ImageIO.createImageInputStream(source.toFile())) {
+			Iterator<ImageReader> readers = (in != null ? ImageIO.getImageReaders(in) : null);
+
+			if(readers == null || !readers.hasNext()) {
+				LOG.debug("File '{}' is not a supported image. Not resizing.", source);
+				return source;
+			}
+
+			ImageReader reader = readers.next();
+
+			try {
+				reader.setInput(in, true, true);
+				format = reader.getFormatName();
+
+				// Only the header is read, so small images are cheap to check.
+				int width = reader.getWidth(0);
+				int height = reader.getHeight(0);
+
+				if(width <= size && height <= size)
+					return source;
+
+				if((long) width * height > this.maxPixels) {
+					LOG.warn("Image '{}' has {}x{} pixels, more than the limit of {}. Not resizing.", source, width,
+							height, this.maxPixels);
+					return source;
+				}
+
+				// Skip pixels that would be scaled away anyway.
+				ImageReadParam param = reader.getDefaultReadParam();
+				int subsampling = Math.max(Math.max(width, height) / (size * 2), 1);
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+				image = reader.read(0, param);
+			} finally {
+				reader.dispose();
+			}
+		}
+
+		Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+
+		if(!writers.hasNext()) {
+			LOG.debug("Can't write images of format '{}'. Not resizing '{}'.", format, source);
+			return source;
+		}
+
+		LOG.debug("Creating {} pixel variant of '{}'.", size, source);
+		BufferedImage resized = scale(image, size, !"jpeg".equalsIgnoreCase(format));
+
+		Files.createDirectories(target.getParent());
+		Path tempFile = Downloader.createTempFile(target);
+		ImageWriter writer = writers.next();
+
+		try {
+			try(ImageOutputStream out = ImageIO.createImageOutputStream(tempFile.toFile())) {
+				writer.setOutput(out);
+				writer.write(resized);
+			}
+
+			Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			writer.dispose();
+			Files.deleteIfExists(tempFile);
+		}
+
+		return target;
+	}
+
+	/**
+	 * Scale the given image to fit into a square of the given size. The image is halved repeatedly before the last
+	 * step, which keeps the quality of large reductions close to area averaging.
+	 *
+	 * @param image image to scale
+	 * @param size maximum width and height in pixels
+	 * @param alpha true to keep transparency
+	 * @return scaled image
+	 */
+	private static BufferedImage scale(BufferedImage image, int size, boolean alpha) {
+		double factor = (double) size / Math.max(image.getWidth(), image.getHeight());
+		int targetWidth = Math.max((int) Math.round(image.getWidth() * factor), 1);
+		int targetHeight = Math.max((int) Math.round(image.getHeight() * factor), 1);
+		int type = (alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		BufferedImage result = image;
+
+		do {
+			int width = Math.max(result.getWidth() / 2, targetWidth);
+			int height = Math.max(result.getHeight() / 2, targetHeight);
+			BufferedImage step = new BufferedImage(width, height, type);
+			Graphics2D graphics = step.createGraphics();
+
+			try {
+				graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+				graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+				graphics.drawImage(result, 0, 0, width, height, null);
+			} finally {
+				graphics.dispose();
+			}
+
+			result = step;
+		} while(result.getWidth() > targetWidth || result.getHeight() > targetHeight);
+
+		return result;
+	}
+}
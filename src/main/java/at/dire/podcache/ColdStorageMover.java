@@ -0,0 +1,290 @@
+package at.dire.podcache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import at.dire.podcache.data.ContentAccess;
+import at.dire.podcache.data.ContentAccessRepository;
+import at.dire.podcache.data.Feed;
+
+/**
+ * Moves content files that haven't been served for a while to the cold storage directory of the
+ * {@link ContentManager}. Files that are served from cold storage are optionally moved back.
+ *
+ * <p>
+ * Access times are collected in memory and written to the database before each run, so serving a file does not
+ * need a database transaction. Files without any recorded access use their modification time instead.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class ColdStorageMover {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ColdStorageMover.class);
+
+	/** Separates feed and file name in keys of {@link #accessTimes}. */
+	private static final char KEY_SEPARATOR = '/';
+
+	/** Maximum number of files waiting to be moved back from cold storage. */
+	private static final int PROMOTE_QUEUE_SIZE = 100;
+
+	/** Feed manager */
+	private final FeedManager feedManager;
+
+	/** Access records */
+	private final ContentAccessRepository accessRepo;
+
+	/** Role of this process */
+	private final Role role;
+
+	/** Elects the process moving files */
+	private final FeedLeaseManager leaseManager;
+
+	/** Files are moved after not being served for this number of days */
+	private final int afterDays;
+
+	/** True to move files back to the main directory when served */
+	private final boolean promote;
+
+	/** Access times not written to the database yet, by feed and file name */
+	private final Map<String, Long> accessTimes = new ConcurrentHashMap<>();
+
+	/** Files waiting to be or being moved back from cold storage, by feed and file name */
+	private final Set<String> promoting = ConcurrentHashMap.newKeySet();
+
+	/** Moves files back from cold storage, one at a time */
+	private final ThreadPoolExecutor promoteExecutor;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param feedManager feed manager
+	 * @param accessRepo access record repository
+	 * @param role role of this process
+	 * @param leaseManager elects the process moving files
+	 * @param afterDays number of days after which files are moved
+	 * @param promote true to move files back when served
+	 */
+	@Autowired
+	public ColdStorageMover(FeedManager feedManager, ContentAccessRepository accessRepo, Role role,
+			FeedLeaseManager leaseManager, @Value("${podcache.content.cold.after-days}") int afterDays,
+			@Value("${podcache.content.cold.promote}") boolean promote) {
+		this.feedManager = Objects.requireNonNull(feedManager);
+		this.accessRepo = Objects.requireNonNull(accessRepo);
+		this.role = Objects.requireNonNull(role);
+		this.leaseManager = Objects.requireNonNull(leaseManager);
+		this.afterDays = afterDays;
+		this.promote = promote;
+		this.promoteExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(PROMOTE_QUEUE_SIZE), (runnable) -> {
+					Thread thread = new Thread(runnable, "cold-promote");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Records that the given file has been served.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName file name
+	 */
+	public void recordAccess(String feedName, String fileName) {
+		if(getContentManager().isColdStorageEnabled())
+			this.accessTimes.put(feedName + KEY_SEPARATOR + fileName, System.currentTimeMillis());
+	}
+
+	/**
+	 * Returns true if files served from cold storage should be moved back.
+	 *
+	 * @return boolean
+	 */
+	public boolean isPromoteEnabled() {
+		return this.promote;
+	}
+
+	/**
+	 * Move the given file back from cold storage to the main directory in the background. The copy in cold storage is
+	 * removed on the next {@link #moveAll() run}, so requests currently served from there aren't interrupted.
+	 *
+	 * <p>
+	 * Files are moved one at a time. Requests for a file that is already waiting to be moved are ignored, as are
+	 * requests while too many files are waiting. The file will be moved on a later request in that case.
+	 * </p>
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName file name
+	 */
+	public void promote(String feedName, String fileName) {
+		String key = feedName + KEY_SEPARATOR + fileName;
+
+		if(!this.promoting.add(key))
+			return;
+
+		try {
+			this.promoteExecutor.execute(() -> {
+				try {
+					synchronized(this) {
+						if(getContentManager().copyToHot(feedName, fileName))
+							LOG.info("Moved file '{}' of feed '{}' back from cold storage.", fileName, feedName);
+					}
+				} catch(IOException e) {
+					LOG.error("Failed to move file '{}' of feed '{}' back from cold storage.", fileName, feedName, e);
+				} finally {
+					this.promoting.remove(key);
+				}
+			});
+		} catch(RejectedExecutionException e) {
+			LOG.debug("Too many files waiting to be moved back from cold storage. Skipping '{}'.", key);
+			this.promoting.remove(key);
+		}
+	}
+
+	/**
+	 * Runs regularly to move files that haven't been served for a while to cold storage. Serving processes only
+	 * write their access times, files are moved by the updating process. Of several updating processes, only the
+	 * {@link FeedLeaseManager#isPrimary() primary} one moves files.
+	 */
+	@Scheduled(fixedDelayString = "${podcache.content.cold.interval}")
+	public void moveAll() {
+		if(!getContentManager().isColdStorageEnabled())
+			return;
+
+		flush();
+
+		if(!this.role.isUpdating() || !this.leaseManager.isPrimary())
+			return;
+
+		long threshold = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(this.afterDays);
+
+		for(Feed feed : this.feedManager.getFeeds()) {
+			try {
+				move(feed.getName(), threshold);
+			} catch(IOException e) {
+				LOG.error("Failed to move files of feed '{}' to cold storage.", feed.getName(), e);
+			}
+		}
+	}
+
+	/**
+	 * Move all files of the given feed that haven't been served since the given time.
+	 *
+	 * @param feedName name of the feed
+	 * @param threshold time in milliseconds
+	 * @throws IOException when moving fails
+	 */
+	private void move(String feedName, long threshold) throws IOException {
+		ContentManager contentManager = getContentManager();
+		Map<String, Long> lastServed = new HashMap<>();
+
+		for(ContentAccess access : this.accessRepo.findByFeedName(feedName))
+			lastServed.put(access.getFileName(), access.getLastServed().getTime());
+
+		int count = 0;
+
+		synchronized(this) {
+			contentManager.deleteColdCopies(feedName);
+		}
+
+		for(String fileName : contentManager.getHotFiles(feedName)) {
+			Long time = lastServed.get(fileName);
+
+			if(time == null) {
+				Path file = contentManager.getFile(feedName, fileName);
+				time = Files.getLastModifiedTime(file).toMillis();
+			}
+
+			// Skip if served in the meantime.
+			if(time >= threshold || this.accessTimes.containsKey(feedName + KEY_SEPARATOR + fileName))
+				continue;
+
+			synchronized(this) {
+				if(contentManager.moveToCold(feedName, fileName))
+					count++;
+			}
+		}
+
+		if(count > 0)
+			LOG.info("Moved {} files of feed '{}' to cold storage.", count, feedName);
+	}
+
+	/**
+	 * Stop moving files back from cold storage and write all recorded access times to the database. Files waiting to
+	 * be moved stay in cold storage.
+	 */
+	@PreDestroy
+	public void close() {
+		this.promoteExecutor.shutdownNow();
+		flush();
+	}
+
+	/**
+	 * Write all recorded access times to the database.
+	 */
+	public void flush() {
+		Iterator<Map.Entry<String, Long>> entries = this.accessTimes.entrySet().iterator();
+
+		while(entries.hasNext()) {
+			Map.Entry<String, Long> entry = entries.next();
+			int separator = entry.getKey().indexOf(KEY_SEPARATOR);
+			String feedName = entry.getKey().substring(0, separator);
+			String fileName = entry.getKey().substring(separator + 1);
+			Date lastServed = new Date(entry.getValue());
+
+			ContentAccess access = this.accessRepo.findOneByFeedNameAndFileName(feedName, fileName);
+
+			if(access == null)
+				access = new ContentAccess(feedName, fileName, lastServed);
+			else
+				access.setLastServed(lastServed);
+
+			this.accessRepo.save(access);
+
+			// Keep newer access times for the next run.
+			this.accessTimes.remove(entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Remove all access records of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 */
+	public void delete(String feedName) {
+		String prefix = feedName + KEY_SEPARATOR;
+
+		this.accessTimes.keySet().removeIf((key) -> key.startsWith(prefix));
+		this.accessRepo.deleteByFeedName(feedName);
+	}
+
+	/**
+	 * Returns the content manager.
+	 *
+	 * @return content manager
+	 */
+	private ContentManager getContentManager() {
+		return this.feedManager.getContentManager();
+	}
+}
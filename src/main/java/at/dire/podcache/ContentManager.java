@@ -1,11 +1,21 @@
 package at.dire.podcache;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,14 +29,20 @@ import com.rometools.rome.feed.synd.SyndFeed;
 
 import at.dire.podcache.data.Feed;
 import at.dire.podcache.util.DownloadResponse;
+import at.dire.podcache.util.DownloadedFile;
 import at.dire.podcache.util.Downloader;
 import at.dire.podcache.util.FeedUtils;
-import at.dire.podcache.util.FileUtils;
 import at.dire.podcache.util.ResourceInfo;
+import at.dire.podcache.util.SingleFlight;
 
 /**
  * Component responsible for holding {@link Feed feed's} file and content files.
  * 
+ * <p>
+ * Content files may optionally be moved to a secondary cold storage directory, see {@link ColdStorageMover}. Files
+ * are found on either directory transparently. New files are always stored in the main directory.
+ * </p>
+ * 
  * @author diredev
  */
 @Component
@@ -34,50 +50,180 @@ public class ContentManager {
 	/** Logger */
 	private static final Logger LOG = LoggerFactory.getLogger(ContentManager.class);
 
-	/** Used to hold the original feed's file. */
+	/** Used to hold the original feed's file. Replaced by the {@link OriginalFeedStore}, only read for migration. */
 	public static final String ORIGINAL_FEED_FILE = "_feed.origin.xml";
 
 	/** Used to hold the feed's file. */
 	public static final String FEED_FILE = "_feed.xml";
 
+	/** Directory below a feed's directory holding resized variants of artwork, one sub directory per size. */
+	public static final String VARIANTS_DIR = "_variants";
+
+	/** Directory holding deleted feed directories. Can't clash with feed names. */
+	public static final String TRASH_DIR = ".trash";
+
+	/** Directory holding feed directories while they are imported. Can't clash with feed names. */
+	public static final String IMPORT_DIR = ".import";
+
 	/** Component for downloading files */
 	private final Downloader downloader;
 
 	/** The root directory to hold all files. Use Spring configuration. */
 	private final Path dataDir;
 
+	/** The root directory for content files in cold storage or null if disabled. */
+	private final @Nullable Path coldDir;
+
+	/** Content file downloads currently running */
+	private final SingleFlight<DownloadKey, DownloadedFile> inFlight = new SingleFlight<>();
+
 	/**
 	 * Creates a new instance.
 	 * 
 	 * @param downloader used to download files
 	 * @param dataDir root data directory
+	 * @param coldDir root directory for cold storage or an empty string to disable
 	 * @throws IOException when I cannot connect to my work directory
 	 */
 	@Autowired
 	public ContentManager(Downloader downloader,
-			@Value("${podcache.content.directory}") Path dataDir) throws IOException {
+			@Value("${podcache.content.directory}") Path dataDir,
+			@Value("${podcache.content.cold.directory}") String coldDir) throws IOException {
 		this.dataDir = Objects.requireNonNull(dataDir).toAbsolutePath();
+		this.coldDir = (coldDir.trim().isEmpty() ? null : Paths.get(coldDir.trim()).toAbsolutePath());
 		this.downloader = Objects.requireNonNull(downloader);
 
 		LOG.info("Initializing content manager on directory '{}'.", this.dataDir);
 		Files.createDirectories(this.dataDir);
+
+		if(this.coldDir != null) {
+			LOG.info("Using cold storage directory '{}'.", this.coldDir);
+			Files.createDirectories(this.coldDir);
+		}
+	}
+
+	/**
+	 * Returns true if cold storage is enabled.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isColdStorageEnabled() {
+		return(this.coldDir != null);
 	}
 
 	/**
-	 * Delete the feed directory and all content.
+	 * Delete the feed directory and all content. The directory is moved to the {@link #TRASH_DIR trash} and removed
+	 * in the background by the {@link TrashReaper}.
 	 * 
 	 * @param feedName name of the feed
-	 * @throws IOException when deleting fails
+	 * @throws IOException when moving the directory fails
 	 */
 	public void delete(String feedName) throws IOException {
+		if(this.coldDir != null)
+			moveToTrash(this.coldDir, feedName);
 
-		Path feedDir = getFeedDir(feedName);
+		moveToTrash(this.dataDir, feedName);
+	}
+
+	/**
+	 * Move the feed's directory below the given root directory to the trash of the root directory.
+	 * 
+	 * @param rootDir root directory
+	 * @param feedName name of the feed
+	 * @throws IOException when moving fails
+	 */
+	private static void moveToTrash(Path rootDir, String feedName) throws IOException {
+		Path feedDir = rootDir.resolve(feedName);
 
 		if(Files.notExists(feedDir))
 			return;
 
-		LOG.debug("Deleting feed directory '{}' and all it's content.", feedDir);
-		FileUtils.deleteDirectoryAndContent(getFeedDir(feedName));
+		Path trashDir = Files.createDirectories(rootDir.resolve(TRASH_DIR));
+		Path target = trashDir.resolve(feedName + "." + System.currentTimeMillis());
+
+		for(int i = 1; Files.exists(target); i++)
+			target = trashDir.resolve(feedName + "." + System.currentTimeMillis() + "-" + i);
+
+		LOG.debug("Moving feed directory '{}' to trash '{}'.", feedDir, target);
+		Files.move(feedDir, target, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns true if a directory exists for the given feed, either in the main directory or in cold storage.
+	 * 
+	 * @param feedName name of the feed
+	 * @return boolean
+	 */
+	public boolean exists(String feedName) {
+		return Files.exists(getFeedDir(feedName))
+				|| (this.coldDir != null && Files.exists(this.coldDir.resolve(feedName)));
+	}
+
+	/**
+	 * Creates a new directory to unpack an imported feed to. Once complete, the directory is moved into place by
+	 * {@link #completeImport(Path, String)} or discarded by {@link #discardImport(Path)}.
+	 * 
+	 * @param feedName name of the imported feed
+	 * @return new, empty directory
+	 * @throws IOException when creating the directory fails
+	 */
+	public Path createImportDir(String feedName) throws IOException {
+		Path importDir = Files.createDirectories(this.dataDir.resolve(IMPORT_DIR));
+		Path directory = importDir.resolve(feedName + "." + System.currentTimeMillis());
+
+		for(int i = 1; Files.exists(directory); i++)
+			directory = importDir.resolve(feedName + "." + System.currentTimeMillis() + "-" + i);
+
+		return Files.createDirectory(directory);
+	}
+
+	/**
+	 * Move the given imported directory into place as the feed's directory.
+	 * 
+	 * @param directory directory created by {@link #createImportDir(String)}
+	 * @param feedName name of the imported feed
+	 * @throws IOException when the feed's directory exists already or moving fails
+	 */
+	public void completeImport(Path directory, String feedName) throws IOException {
+		Path feedDir = getFeedDir(feedName);
+
+		// Renaming would silently replace an empty directory.
+		if(exists(feedName))
+			throw new FileAlreadyExistsException(feedDir.toString());
+
+		LOG.debug("Moving imported directory '{}' to '{}'.", directory, feedDir);
+		Files.move(directory, feedDir, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Discard the given imported directory. The directory is moved to the {@link #TRASH_DIR trash}.
+	 * 
+	 * @param directory directory created by {@link #createImportDir(String)}
+	 * @throws IOException when moving the directory fails
+	 */
+	public void discardImport(Path directory) throws IOException {
+		if(Files.notExists(directory))
+			return;
+
+		Path trashDir = Files.createDirectories(this.dataDir.resolve(TRASH_DIR));
+
+		LOG.debug("Moving imported directory '{}' to trash.", directory);
+		Files.move(directory, trashDir.resolve(directory.getFileName()), StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Returns the trash directories holding deleted feed directories. May not exist.
+	 * 
+	 * @return trash directories
+	 */
+	public List<Path> getTrashDirectories() {
+		List<Path> result = new ArrayList<>();
+		result.add(this.dataDir.resolve(TRASH_DIR));
+
+		if(this.coldDir != null)
+			result.add(this.coldDir.resolve(TRASH_DIR));
+
+		return result;
 	}
 
 	/**
@@ -90,11 +236,24 @@ public class ContentManager {
 	public void deleteFile(String feedName, String fileName) throws IOException {
 		Path file = getFeedDir(feedName).resolve(fileName);
 
-		if(Files.notExists(file))
-			return;
+		if(Files.exists(file)) {
+			LOG.debug("Removing feed file '{}'.", file);
+			Files.delete(file);
+		}
 
-		LOG.debug("Removing feed file '{}'.", file);
-		Files.delete(file);
+		// Also remove any copy in cold storage.
+		if(this.coldDir != null)
+			Files.deleteIfExists(this.coldDir.resolve(feedName).resolve(fileName));
+
+		// And all resized variants.
+		Path variantsDir = getFeedDir(feedName).resolve(VARIANTS_DIR);
+
+		if(Files.exists(variantsDir)) {
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(variantsDir)) {
+				for(Path sizeDir : stream)
+					Files.deleteIfExists(sizeDir.resolve(fileName));
+			}
+		}
 	}
 
 	/**
@@ -203,36 +362,317 @@ public class ContentManager {
 	}
 
 	/**
-	 * Download the given URL into the feed's directory.
+	 * Download the given URL into the feed's directory using the given file name. The directory is created by the
+	 * feed's first update, it is not created again once the feed has been deleted.
 	 *
 	 * @param feedName name of the feed
 	 * @param url url of the file
+	 * @param fileName name of the local file
 	 * @param overwrite overwrite existing files
-	 * @return the path of the downloaded file
+	 * @return the downloaded file or null if the file already exists or the feed's directory has been removed
 	 * @throws IOException when downloading fails
 	 */
-	public Path download(String feedName, URL url, boolean overwrite) throws IOException {
-		Path feedDir = createFeedDir(feedName);
-		Path targetFile = feedDir.resolve(Paths.get(url.getFile()).getFileName());
-		// TODO: Problematic. Need to make sure that names contain no invalid characters. Unlikely in URL.
+	public @Nullable DownloadedFile download(String feedName, URL url, String fileName, boolean overwrite)
+			throws IOException {
+		Path feedDir = getFeedDir(feedName);
+		Path targetFile = feedDir.resolve(fileName);
 
-		if(overwrite || Files.notExists(targetFile))
-			this.downloader.download(url, targetFile, null);
-		else
-			LOG.debug("File '{}' already exists. Not downloading.", targetFile);
+		if(!Files.isDirectory(feedDir)) {
+			LOG.debug("Directory of feed '{}' has been removed. Not downloading '{}'.", feedName, fileName);
+			return null;
+		}
 
-		return targetFile;
+		if(overwrite || Files.notExists(getFile(feedName, fileName))) {
+			// Concurrent downloads of the same file will share a single download.
+			return this.inFlight.run(new DownloadKey(url, targetFile),
+					() -> this.downloader.download(url, targetFile, null));
+		}
+
+		LOG.debug("File '{}' already exists. Not downloading.", targetFile);
+		return null;
+	}
+
+	/**
+	 * Remove a content file that has been downloaded after its download has been cancelled, e.g. because the feed
+	 * has been deleted or the file has been pruned in the meantime. The feed's directory is removed if it is empty.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName file name
+	 * @throws IOException when deleting fails
+	 */
+	public void discardDownload(String feedName, String fileName) throws IOException {
+		Path feedDir = getFeedDir(feedName);
+		Files.deleteIfExists(feedDir.resolve(fileName));
+
+		try {
+			Files.deleteIfExists(feedDir);
+		} catch(DirectoryNotEmptyException e) {
+			// Still in use.
+		}
+	}
+
+	/**
+	 * Replace the given content file by a hard link to another file of the feed with the same content, so that
+	 * identical episodes found under several URLs are only stored once. Both names stay valid, removing one of them
+	 * keeps the other. Files in cold storage are not linked.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName name of the file to replace
+	 * @param existingName name of the file with the same content
+	 * @return true if the file has been replaced
+	 * @throws IOException when checking the files fails
+	 */
+	public boolean linkDuplicate(String feedName, String fileName, String existingName) throws IOException {
+		Path file = getFeedDir(feedName).resolve(fileName);
+		Path existing = getFile(feedName, existingName);
+
+		if(Files.notExists(file) || Files.notExists(existing) || isCold(existing))
+			return false;
+
+		if(Files.isSameFile(file, existing))
+			return true;
+
+		if(Files.size(file) != Files.size(existing))
+			return false;
+
+		Path tempFile = Downloader.createTempFile(file);
+
+		try {
+			Files.delete(tempFile);
+			Files.createLink(tempFile, existing);
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch(IOException | UnsupportedOperationException e) {
+			LOG.debug("Failed to link file '{}' to '{}'. Keeping both.", file, existing, e);
+			return false;
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the local file name that was used for the content file at the given URL before enclosures were tracked
+	 * by the {@link EnclosureResolver}.
+	 *
+	 * @param url url of the file
+	 * @return file name or null if the URL has no usable file name
+	 */
+	public @Nullable String getLegacyFileName(String url) {
+		try {
+			Path fileName = Paths.get(new URL(url).getFile()).getFileName();
+			return (fileName != null ? fileName.toString() : null);
+		} catch(MalformedURLException | InvalidPathException e) {
+			return null;
+		}
 	}
 
 	/**
-	 * Return the content file for the given feed. May not exist.
+	 * Return the content file for the given feed. May not exist. Files in cold storage are returned if they do not
+	 * exist in the main directory.
 	 * 
 	 * @param feedName name of the feed
 	 * @param fileName file name
 	 * @return path to the content file
 	 */
 	public Path getFile(String feedName, String fileName) {
-		return getFeedDir(feedName).resolve(fileName);
+		Path file = getFeedDir(feedName).resolve(fileName);
+
+		if(this.coldDir != null && Files.notExists(file)) {
+			Path coldFile = this.coldDir.resolve(feedName).resolve(fileName);
+
+			if(Files.exists(coldFile))
+				return coldFile;
+		}
+
+		return file;
+	}
+
+	/**
+	 * Return the file holding a resized variant of the given content file. Variants are always kept in the main
+	 * directory. May not exist.
+	 * 
+	 * @param feedName name of the feed
+	 * @param fileName file name of the original
+	 * @param size size of the variant
+	 * @return path to the variant
+	 */
+	public Path getVariantFile(String feedName, String fileName, int size) {
+		return getFeedDir(feedName).resolve(VARIANTS_DIR).resolve(Integer.toString(size)).resolve(fileName);
+	}
+
+	/**
+	 * Returns true if the given file is in cold storage.
+	 * 
+	 * @param file file as returned by {@link #getFile(String, String)}
+	 * @return boolean
+	 */
+	public boolean isCold(Path file) {
+		return(this.coldDir != null && file.startsWith(this.coldDir));
+	}
+
+	/**
+	 * Returns the names of all content files of the given feed in the main directory. Feed files and files still
+	 * being downloaded are not included.
+	 * 
+	 * @param feedName name of the feed
+	 * @return file names
+	 * @throws IOException when listing the directory fails
+	 */
+	public List<String> getHotFiles(String feedName) throws IOException {
+		Path feedDir = getFeedDir(feedName);
+		List<String> result = new ArrayList<>();
+
+		if(Files.notExists(feedDir))
+			return result;
+
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(feedDir)) {
+			for(Path file : stream) {
+				String fileName = file.getFileName().toString();
+
+				if(!fileName.startsWith("_") && !fileName.endsWith(Downloader.PARTIAL_SUFFIX)
+						&& Files.isRegularFile(file))
+					result.add(fileName);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the names of all content files of the given feed, in the main directory or in cold storage. Feed files
+	 * and files still being downloaded are not included.
+	 * 
+	 * @param feedName name of the feed
+	 * @return file names, sorted
+	 * @throws IOException when listing a directory fails
+	 */
+	public SortedSet<String> getContentFiles(String feedName) throws IOException {
+		SortedSet<String> result = new TreeSet<>(getHotFiles(feedName));
+
+		if(this.coldDir == null)
+			return result;
+
+		Path coldFeedDir = this.coldDir.resolve(feedName);
+
+		if(Files.notExists(coldFeedDir))
+			return result;
+
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(coldFeedDir)) {
+			for(Path file : stream) {
+				String fileName = file.getFileName().toString();
+
+				if(!fileName.startsWith("_") && !fileName.endsWith(Downloader.PARTIAL_SUFFIX)
+						&& Files.isRegularFile(file))
+					result.add(fileName);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Move the given content file to cold storage.
+	 * 
+	 * @param feedName name of the feed
+	 * @param fileName file name
+	 * @return true if the file was moved
+	 * @throws IOException when moving fails
+	 */
+	public boolean moveToCold(String feedName, String fileName) throws IOException {
+		if(this.coldDir == null)
+			return false;
+
+		return moveFile(getFeedDir(feedName).resolve(fileName), this.coldDir.resolve(feedName).resolve(fileName));
+	}
+
+	/**
+	 * Copy the given content file from cold storage back to the main directory. The copy in cold storage is kept, as
+	 * it may still be served, and removed by {@link #deleteColdCopies(String)} later.
+	 * 
+	 * @param feedName name of the feed
+	 * @param fileName file name
+	 * @return true if the file was copied
+	 * @throws IOException when copying fails
+	 */
+	public boolean copyToHot(String feedName, String fileName) throws IOException {
+		if(this.coldDir == null)
+			return false;
+
+		return copyFile(this.coldDir.resolve(feedName).resolve(fileName), getFeedDir(feedName).resolve(fileName));
+	}
+
+	/**
+	 * Remove all files of the given feed from cold storage that also exist in the main directory.
+	 * 
+	 * @param feedName name of the feed
+	 * @return number of removed files
+	 * @throws IOException when deleting fails
+	 */
+	public int deleteColdCopies(String feedName) throws IOException {
+		if(this.coldDir == null)
+			return 0;
+
+		Path coldFeedDir = this.coldDir.resolve(feedName);
+		Path feedDir = getFeedDir(feedName);
+		int count = 0;
+
+		if(Files.notExists(coldFeedDir))
+			return count;
+
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(coldFeedDir)) {
+			for(Path coldFile : stream) {
+				if(Files.exists(feedDir.resolve(coldFile.getFileName()))) {
+					LOG.debug("Removing file '{}', which has been moved back from cold storage.", coldFile);
+					Files.delete(coldFile);
+					count++;
+				}
+			}
+		}
+
+		return count;
+	}
+
+	/**
+	 * Move a file between storage directories.
+	 * 
+	 * @param source source file
+	 * @param target target file
+	 * @return true if the file was moved
+	 * @throws IOException when moving fails
+	 */
+	private static boolean moveFile(Path source, Path target) throws IOException {
+		if(!copyFile(source, target))
+			return false;
+
+		Files.delete(source);
+		return true;
+	}
+
+	/**
+	 * Copy a file between storage directories. The file is copied to a temporary file first, so that the target
+	 * file is either complete or missing.
+	 * 
+	 * @param source source file
+	 * @param target target file
+	 * @return true if the file was copied
+	 * @throws IOException when copying fails
+	 */
+	private static boolean copyFile(Path source, Path target) throws IOException {
+		if(Files.notExists(source) || Files.exists(target))
+			return false;
+
+		Files.createDirectories(target.getParent());
+		Path tempFile = Downloader.createTempFile(target);
+
+		try {
+			Files.copy(source, tempFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+			Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tempFile);
+		}
+
+		return true;
 	}
 
 	/**
@@ -258,4 +698,42 @@ public class ContentManager {
 		Files.createDirectories(feedDir);
 		return feedDir;
 	}
+
+	/**
+	 * Identifies a running content file download.
+	 * 
+	 * @author diredev
+	 */
+	private static final class DownloadKey {
+		/** Downloaded URL */
+		private final String url;
+
+		/** Target file */
+		private final Path targetFile;
+
+		/**
+		 * Creates a new instance.
+		 * 
+		 * @param url downloaded URL
+		 * @param targetFile target file
+		 */
+		public DownloadKey(URL url, Path targetFile) {
+			this.url = url.toString();
+			this.targetFile = targetFile;
+		}
+
+		@Override
+		public boolean equals(@Nullable Object obj) {
+			if(!(obj instanceof DownloadKey))
+				return false;
+
+			DownloadKey other = (DownloadKey)obj;
+			return this.url.equals(other.url) && this.targetFile.equals(other.targetFile);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.url, this.targetFile);
+		}
+	}
 }
@@ -0,0 +1,107 @@
+package at.dire.podcache;
+
+import java.nio.file.Path;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.hsqldb.server.Server;
+import org.hsqldb.server.ServerConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Makes the file database of this process available to other processes, e.g. serving processes running next to the
+ * updating one (see {@link Role}). Those connect using
+ * <code>jdbc:hsqldb:hsql://&lt;address&gt;:&lt;port&gt;/podcache</code> as their data source URL. The database is
+ * shared with the connections of this process.
+ *
+ * <p>
+ * Disabled unless a port is configured.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class DatabaseServer {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(DatabaseServer.class);
+
+	/** Name of the database used by clients */
+	public static final String DATABASE_NAME = "podcache";
+
+	/** File name of the database, see the data source URL */
+	private static final String DATABASE_FILE = "hsql-db";
+
+	/** Directory holding the database */
+	private final Path directory;
+
+	/** Address to listen on */
+	private final String address;
+
+	/** Port to listen on or 0 if disabled */
+	private final int port;
+
+	/** The server or null if not running */
+	private @Nullable Server server;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param directory directory holding the database
+	 * @param address address to listen on
+	 * @param port port to listen on, 0 to disable the server
+	 */
+	@Autowired
+	public DatabaseServer(@Value("${podcache.db.directory}") Path directory,
+			@Value("${podcache.db.server.address}") String address, @Value("${podcache.db.server.port}") int port) {
+		this.directory = directory.toAbsolutePath();
+		this.address = address;
+		this.port = port;
+	}
+
+	/**
+	 * Start the server, if enabled.
+	 */
+	@PostConstruct
+	public synchronized void start() {
+		if(this.port <= 0 || this.server != null)
+			return;
+
+		Server hsqlServer = new Server();
+		hsqlServer.setLogWriter(null);
+		hsqlServer.setSilent(true);
+		hsqlServer.setDatabaseName(0, DATABASE_NAME);
+		hsqlServer.setDatabasePath(0, "file:" + this.directory.resolve(DATABASE_FILE) + ";hsqldb.tx=mvlocks");
+		hsqlServer.setAddress(this.address);
+		hsqlServer.setPort(this.port);
+		hsqlServer.setNoSystemExit(true);
+
+		LOG.info("Serving database on {}:{}.", this.address, this.port);
+		hsqlServer.start();
+
+		if(hsqlServer.getState() != ServerConstants.SERVER_STATE_ONLINE)
+			throw new IllegalStateException("Failed to start database server.", hsqlServer.getServerError());
+
+		this.server = hsqlServer;
+	}
+
+	/**
+	 * Stop the server. The database itself is closed with the data source.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		Server hsqlServer = this.server;
+
+		if(hsqlServer == null)
+			return;
+
+		LOG.info("Stopping database server.");
+		hsqlServer.stop();
+		this.server = null;
+	}
+}
@@ -0,0 +1,532 @@
+package at.dire.podcache;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import at.dire.podcache.data.DownloadTask;
+import at.dire.podcache.data.DownloadTask.State;
+import at.dire.podcache.data.DownloadTaskRepository;
+import at.dire.podcache.event.FeedEvent;
+import at.dire.podcache.util.DownloadedFile;
+import at.dire.podcache.util.HostUnavailableException;
+
+/**
+ * A persistent, prioritized queue of content file downloads.
+ *
+ * <p>
+ * {@link FeedUpdater} only adds missing files to this queue. The files are then downloaded by a pool of workers that
+ * is independent of feed updates. Tasks are stored in the database, so a restart will continue where the last run
+ * stopped. Failed downloads are retried with exponential backoff.
+ * </p>
+ *
+ * <p>
+ * Running tasks are claimed by the process running them, using the node ID and lease time of the
+ * {@link FeedLeaseManager}. Claims are renewed while downloading. When updating together with other processes, a
+ * starting process only resets its own tasks and those of crashed processes, whose claims have expired.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class DownloadQueue implements ApplicationRunner {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(DownloadQueue.class);
+
+	/** Maximum delay between two attempts. */
+	private static final long MAX_RETRY_DELAY = 24 * 60 * 60 * 1000L;
+
+	/** The DB repository for tasks */
+	private final DownloadTaskRepository taskRepo;
+
+	/** Used to download the files */
+	private final ContentManager contentManager;
+
+	/** Records the results of downloads */
+	private final EnclosureResolver enclosureResolver;
+
+	/** Publishes completed and failed downloads */
+	private final ApplicationEventPublisher eventPublisher;
+
+	/** Role of this process */
+	private final Role role;
+
+	/** Provides the node ID and lease time of this process */
+	private final FeedLeaseManager leaseManager;
+
+	/** IDs of the tasks run by this process */
+	private final Set<Long> runningIds = ConcurrentHashMap.newKeySet();
+
+	/** Number of workers */
+	private final int workerCount;
+
+	/** Maximum number of attempts before a task is marked as failed */
+	private final int maxAttempts;
+
+	/** Delay after the first failure in milliseconds. Doubled on every further failure. */
+	private final long retryDelay;
+
+	/** Interval in which idle workers check for new tasks in milliseconds. */
+	private final long pollInterval;
+
+	/** Used to wake up idle workers. */
+	private final Object signal = new Object();
+
+	/** Worker threads, created on startup. */
+	private @Nullable ExecutorService workers;
+
+	/** Renews the claims of running tasks, created on startup. */
+	private @Nullable ScheduledExecutorService heartbeat;
+
+	/** Set to false to stop all workers. */
+	private volatile boolean running = false;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param taskRepo DB repository
+	 * @param contentManager content manager
+	 * @param enclosureResolver enclosure resolver
+	 * @param eventPublisher publishes completed and failed downloads
+	 * @param role role of this process
+	 * @param leaseManager provides the node ID and lease time
+	 * @param workerCount number of workers
+	 * @param maxAttempts maximum number of attempts per task
+	 * @param retryDelay delay after the first failure in seconds
+	 * @param pollInterval interval for idle workers in seconds
+	 */
+	@Autowired
+	public DownloadQueue(DownloadTaskRepository taskRepo, ContentManager contentManager,
+			EnclosureResolver enclosureResolver, ApplicationEventPublisher eventPublisher, Role role,
+			FeedLeaseManager leaseManager, @Value("${podcache.download.workers}") int workerCount,
+			@Value("${podcache.download.retry.attempts}") int maxAttempts,
+			@Value("${podcache.download.retry.delay}") long retryDelay,
+			@Value("${podcache.download.poll-interval}") long pollInterval) {
+		this.taskRepo = Objects.requireNonNull(taskRepo);
+		this.contentManager = Objects.requireNonNull(contentManager);
+		this.enclosureResolver = Objects.requireNonNull(enclosureResolver);
+		this.eventPublisher = Objects.requireNonNull(eventPublisher);
+		this.role = Objects.requireNonNull(role);
+		this.leaseManager = Objects.requireNonNull(leaseManager);
+		this.workerCount = workerCount;
+		this.maxAttempts = maxAttempts;
+		this.retryDelay = retryDelay * 1000;
+		this.pollInterval = pollInterval * 1000;
+
+		if(workerCount < 1)
+			throw new IllegalArgumentException("Need at least one download worker.");
+	}
+
+	/**
+	 * Add a file to the queue unless it is already queued. A task that has previously {@link State#FAILED failed} will
+	 * be retried.
+	 *
+	 * <p>
+	 * Workers are notified once the current transaction commits.
+	 * </p>
+	 *
+	 * @param feedName name of the feed
+	 * @param url URL to download
+	 * @param fileName local file name
+	 * @param priority higher values are downloaded first
+	 */
+	public void enqueue(String feedName, String url, String fileName, long priority) {
+		DownloadTask task = this.taskRepo.findOneByFeedNameAndFileName(feedName, fileName);
+
+		if(task == null) {
+			LOG.debug("Queueing download of '{}' to '{}/{}'.", url, feedName, fileName);
+			this.taskRepo.save(new DownloadTask(feedName, url, fileName, priority));
+		} else if(task.getState() == State.FAILED) {
+			LOG.debug("Retrying failed download '{}'.", task);
+			task.setState(State.PENDING);
+			task.setAttempts(0);
+			task.setNextAttempt(new Date());
+			this.taskRepo.save(task);
+		} else
+			return;
+
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					wakeUp();
+				}
+			});
+		} else
+			wakeUp();
+	}
+
+	/**
+	 * Returns the task for the given file if it has not been downloaded yet.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @return task or null
+	 */
+	public @Nullable DownloadTask getTask(String feedName, String fileName) {
+		return this.taskRepo.findOneByFeedNameAndFileName(feedName, fileName);
+	}
+
+	/**
+	 * Returns true if there are unfinished (pending or running) tasks for the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return true if files are still missing
+	 */
+	public boolean hasPending(String feedName) {
+		return this.taskRepo.countByFeedNameAndState(feedName, State.PENDING) > 0
+				|| this.taskRepo.countByFeedNameAndState(feedName, State.RUNNING) > 0;
+	}
+
+	/**
+	 * Remove all tasks of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 */
+	public void cancel(String feedName) {
+		int removed = this.taskRepo.deleteByFeedName(feedName);
+
+		if(removed > 0)
+			LOG.debug("Removed {} queued downloads of feed '{}'.", removed, feedName);
+	}
+
+	/**
+	 * Remove the task of the given file, if any. A download already in progress is not interrupted.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 */
+	public void cancel(String feedName, String fileName) {
+		DownloadTask task = this.taskRepo.findOneByFeedNameAndFileName(feedName, fileName);
+
+		if(task != null) {
+			LOG.debug("Removing queued download '{}'.", task);
+			this.taskRepo.delete(task);
+		}
+	}
+
+	/**
+	 * Start the workers. Tasks that were running when the application stopped are reset first. If other processes
+	 * update together with this one, their running tasks are kept. Serving processes only queue files, they are
+	 * downloaded by the updating process.
+	 */
+	@Override
+	public synchronized void run(ApplicationArguments args) {
+		if(this.running || !this.role.isUpdating())
+			return;
+
+		int resumed;
+
+		if(this.leaseManager.isEnabled())
+			resumed = this.taskRepo.resetOwned(State.RUNNING, State.PENDING, this.leaseManager.getNodeId(), new Date());
+		else
+			resumed = this.taskRepo.resetAll(State.RUNNING, State.PENDING);
+
+		if(resumed > 0)
+			LOG.info("Resuming {} interrupted downloads.", resumed);
+
+		LOG.info("Starting {} download workers.", this.workerCount);
+		this.running = true;
+
+		ScheduledExecutorService heartbeatExecutor = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "download-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long interval = this.leaseManager.getHeartbeatInterval();
+		heartbeatExecutor.scheduleWithFixedDelay(this::renew, interval, interval, TimeUnit.MILLISECONDS);
+		this.heartbeat = heartbeatExecutor;
+
+		ExecutorService executor = Executors.newFixedThreadPool(this.workerCount, new WorkerThreadFactory());
+
+		for(int i = 0; i < this.workerCount; i++)
+			executor.execute(this::work);
+
+		this.workers = executor;
+	}
+
+	/**
+	 * Stop all workers. Downloads in progress are resumed on next start.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		ExecutorService executor = this.workers;
+
+		if(executor == null)
+			return;
+
+		LOG.info("Stopping download workers.");
+		this.running = false;
+		this.workers = null;
+		wakeUp();
+		executor.shutdownNow();
+
+		ScheduledExecutorService heartbeatExecutor = this.heartbeat;
+
+		if(heartbeatExecutor != null) {
+			heartbeatExecutor.shutdownNow();
+			this.heartbeat = null;
+		}
+	}
+
+	/**
+	 * Wake up idle workers.
+	 */
+	private void wakeUp() {
+		synchronized(this.signal) {
+			this.signal.notifyAll();
+		}
+	}
+
+	/**
+	 * The loop run by each worker.
+	 */
+	private void work() {
+		while(this.running) {
+			DownloadTask task;
+
+			try {
+				task = claimNext();
+			} catch(RuntimeException e) {
+				LOG.error("Failed to read download queue.", e);
+				task = null;
+			}
+
+			if(task != null) {
+				process(task);
+				continue;
+			}
+
+			// Nothing to do. Wait for new tasks.
+			synchronized(this.signal) {
+				try {
+					this.signal.wait(this.pollInterval);
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the due task with the highest priority and mark it as running by this process.
+	 *
+	 * @return the claimed task or null if there is nothing to do
+	 */
+	private @Nullable DownloadTask claimNext() {
+		Date now = new Date();
+		Date expires = new Date(now.getTime() + this.leaseManager.getLeaseTime());
+		String owner = this.leaseManager.getNodeId();
+		List<DownloadTask> candidates = this.taskRepo.findDue(State.PENDING, now,
+				PageRequest.of(0, this.workerCount * 2));
+
+		for(DownloadTask task : candidates) {
+			Long id = Objects.requireNonNull(task.getId());
+
+			// Another worker or process might have claimed the same task in the meantime.
+			if(this.taskRepo.claim(id, State.PENDING, State.RUNNING, owner, expires) > 0) {
+				task.setState(State.RUNNING);
+				this.runningIds.add(id);
+				return task;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Extend the claims of all running tasks and reset tasks of crashed processes. Runs on the heartbeat thread.
+	 */
+	private void renew() {
+		Date now = new Date();
+		List<Long> ids = new ArrayList<>(this.runningIds);
+
+		try {
+			if(!ids.isEmpty())
+				this.taskRepo.renew(ids, this.leaseManager.getNodeId(),
+						new Date(now.getTime() + this.leaseManager.getLeaseTime()));
+
+			int reset = this.taskRepo.resetExpired(State.RUNNING, State.PENDING, now);
+
+			if(reset > 0) {
+				LOG.info("Resuming {} downloads of stopped processes.", reset);
+				wakeUp();
+			}
+		} catch(DataAccessException e) {
+			LOG.warn("Failed to renew running downloads {}.", ids, e);
+		}
+	}
+
+	/**
+	 * Download the task's file and remove the task on success. Tasks are only changed while they are still running,
+	 * so tasks removed in the meantime, e.g. of deleted feeds, are not added again.
+	 *
+	 * @param task task
+	 */
+	private void process(DownloadTask task) {
+		try {
+			download(task);
+		} finally {
+			this.runningIds.remove(task.getId());
+		}
+	}
+
+	/**
+	 * Download the task's file and remove the task on success.
+	 *
+	 * @param task task
+	 */
+	private void download(DownloadTask task) {
+		LOG.debug("Downloading '{}' from '{}'.", task, task.getUrl());
+
+		try {
+			DownloadedFile downloaded = this.contentManager.download(task.getFeedName(), new URL(task.getUrl()),
+					task.getFileName(), false);
+
+			if(this.taskRepo.complete(Objects.requireNonNull(task.getId()), this.leaseManager.getNodeId()) == 0) {
+				LOG.debug("Download '{}' has been cancelled while running. Discarding file.", task);
+
+				if(downloaded != null)
+					this.contentManager.discardDownload(task.getFeedName(), task.getFileName());
+
+				return;
+			}
+
+			if(downloaded != null) {
+				this.enclosureResolver.recordDownload(task.getFeedName(), task.getFileName(), downloaded);
+				linkDuplicate(task, downloaded);
+			}
+
+			this.eventPublisher.publishEvent(FeedEvent.downloadCompleted(task.getFeedName(), task.getFileName()));
+		} catch(HostUnavailableException e) {
+			// Host is known to be down. Does not count as an attempt.
+			LOG.debug("Postponing download '{}' until {}.", task, e.getRetryAt());
+			task.setState(State.PENDING);
+			task.setNextAttempt(e.getRetryAt());
+			finishAttempt(task);
+		} catch(MalformedURLException e) {
+			LOG.warn("Invalid URL '{}' for download '{}'. Giving up.", task.getUrl(), task);
+			task.setState(State.FAILED);
+			task.setLastError(e.getMessage());
+
+			if(finishAttempt(task))
+				this.eventPublisher.publishEvent(FeedEvent.failed(task.getFeedName(), task.getFileName(),
+						e.getMessage()));
+		} catch(IOException e) {
+			fail(task, e);
+		} catch(RuntimeException e) {
+			LOG.error(String.format("Unexpected error while downloading '%s'.", task), e);
+			fail(task, e);
+		}
+	}
+
+	/**
+	 * Store the downloaded file only once if the feed holds the same content under another name, e.g. when the
+	 * feed's URLs carry a parameter that changes on every poll.
+	 *
+	 * @param task task
+	 * @param downloaded the downloaded file
+	 */
+	private void linkDuplicate(DownloadTask task, DownloadedFile downloaded) {
+		String existing = this.enclosureResolver.findDuplicate(task.getFeedName(), task.getFileName(),
+				downloaded.getDigest());
+
+		if(existing == null)
+			return;
+
+		try {
+			if(this.contentManager.linkDuplicate(task.getFeedName(), task.getFileName(), existing))
+				LOG.info("Downloaded file '{}' is identical to '{}'. Storing it once.", task, existing);
+		} catch(IOException e) {
+			LOG.warn("Failed to link downloaded file '{}' to '{}'.", task, existing, e);
+		}
+	}
+
+	/**
+	 * Record a failed attempt and schedule the next one.
+	 *
+	 * @param task task
+	 * @param error cause
+	 */
+	private void fail(DownloadTask task, Exception error) {
+		int attempts = task.getAttempts() + 1;
+		task.setAttempts(attempts);
+		task.setLastError(String.valueOf(error.getMessage()));
+
+		if(attempts >= this.maxAttempts) {
+			LOG.error(String.format("Failed to download '%s' from '%s' after %d attempts. Giving up.", task,
+					task.getUrl(), attempts), error);
+			task.setState(State.FAILED);
+		} else {
+			long delay = Math.min(this.retryDelay << Math.min(attempts - 1, 30), MAX_RETRY_DELAY);
+			LOG.warn("Failed to download '{}' ({}). Will retry in {} seconds.", task, error.getMessage(),
+					delay / 1000);
+			task.setState(State.PENDING);
+			task.setNextAttempt(new Date(System.currentTimeMillis() + delay));
+		}
+
+		if(finishAttempt(task))
+			this.eventPublisher.publishEvent(FeedEvent.failed(task.getFeedName(), task.getFileName(),
+					error.getMessage()));
+	}
+
+	/**
+	 * Store the result of an attempt of a running task.
+	 *
+	 * @param task task
+	 * @return true if stored, false if the task has been removed in the meantime
+	 */
+	private boolean finishAttempt(DownloadTask task) {
+		if(this.taskRepo.finishAttempt(Objects.requireNonNull(task.getId()), this.leaseManager.getNodeId(),
+				task.getState(), task.getAttempts(), task.getNextAttempt(), task.getLastError()) > 0)
+			return true;
+
+		LOG.debug("Download '{}' has been cancelled while running.", task);
+		return false;
+	}
+
+	/**
+	 * Creates named worker threads.
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory {
+		/** Counter for thread names */
+		private final AtomicInteger counter = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "download-" + this.counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
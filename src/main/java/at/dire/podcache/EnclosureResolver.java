@@ -0,0 +1,278 @@
+package at.dire.podcache;
+
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import at.dire.podcache.data.Enclosure;
+import at.dire.podcache.data.EnclosureRepository;
+import at.dire.podcache.util.DownloadedFile;
+import at.dire.podcache.util.FileDigest;
+import at.dire.podcache.util.UrlUtils;
+
+/**
+ * Component that maps the enclosure URLs found in feeds to local files.
+ *
+ * <p>
+ * Enclosures are identified by their {@link UrlUtils#canonicalize(String) canonical URL} rather than the raw URL. A
+ * feed that wraps its enclosures in changing analytics redirects will therefore not cause files to be downloaded
+ * again. Different enclosures that would end up with the same file name are given unique names.
+ * </p>
+ *
+ * <p>
+ * Canonical URLs keep the query of the URL, so wrappers that change a query parameter on every poll still lead to
+ * new files. These are found once downloaded, by {@link #findDuplicate(String, String, FileDigest) checksum}, and
+ * share the storage of the existing file.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class EnclosureResolver {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(EnclosureResolver.class);
+
+	/** The DB repository for enclosures */
+	private final EnclosureRepository enclosureRepo;
+
+	/** Used to check for existing files */
+	private final ContentManager contentManager;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param enclosureRepo DB repository
+	 * @param contentManager content manager
+	 */
+	@Autowired
+	public EnclosureResolver(EnclosureRepository enclosureRepo, ContentManager contentManager) {
+		this.enclosureRepo = Objects.requireNonNull(enclosureRepo);
+		this.contentManager = Objects.requireNonNull(contentManager);
+	}
+
+	/**
+	 * Returns the enclosure for the given URL, creating it if necessary. URLs with the same canonical URL share the
+	 * same enclosure file.
+	 *
+	 * @param feedName name of the feed
+	 * @param url URL as found in the feed
+	 * @return enclosure
+	 */
+	@Transactional
+	public Enclosure resolve(String feedName, String url) {
+		// Known URL?
+		Enclosure enclosure = this.enclosureRepo.findOneByFeedNameAndSourceUrl(feedName, url);
+
+		if(enclosure != null)
+			return enclosure;
+
+		// Known canonical URL?
+		String canonicalUrl = UrlUtils.canonicalize(url);
+		Enclosure existing = this.enclosureRepo.findFirstByFeedNameAndCanonicalUrl(feedName, canonicalUrl);
+
+		if(existing != null) {
+			LOG.debug("URL '{}' is identical to known enclosure '{}'.", url, existing);
+			enclosure = new Enclosure(feedName, url, canonicalUrl, existing.getFileName());
+
+			// Same file, same digest.
+			enclosure.setChecksum(existing.getChecksum());
+			enclosure.setFileSize(existing.getFileSize());
+			enclosure.setVerified(existing.getVerified());
+
+			return this.enclosureRepo.save(enclosure);
+		}
+
+		return this.enclosureRepo.save(new Enclosure(feedName, url, canonicalUrl,
+				getUniqueFileName(feedName, url, canonicalUrl)));
+	}
+
+	/**
+	 * Add copies of the given enclosures to the given feed, e.g. when importing a feed from an archive. IDs of the
+	 * given enclosures are ignored.
+	 *
+	 * @param feedName name of the feed
+	 * @param enclosures enclosures to copy
+	 */
+	@Transactional
+	public void restore(String feedName, Iterable<Enclosure> enclosures) {
+		for(Enclosure source : enclosures) {
+			Enclosure enclosure = new Enclosure(feedName, source.getSourceUrl(), source.getCanonicalUrl(),
+					source.getFileName());
+
+			enclosure.setResolvedUrl(source.getResolvedUrl());
+			enclosure.setEtag(source.getEtag());
+			enclosure.setLastModified(source.getLastModified());
+			enclosure.setContentLength(source.getContentLength());
+			enclosure.setChecksum(source.getChecksum());
+			enclosure.setFileSize(source.getFileSize());
+			enclosure.setVerified(source.getVerified());
+
+			this.enclosureRepo.save(enclosure);
+		}
+	}
+
+	/**
+	 * Returns the enclosure for the given URL or any enclosure with the same canonical URL. Unlike
+	 * {@link #resolve(String, String)}, nothing is created.
+	 *
+	 * @param feedName name of the feed
+	 * @param url URL as found in the feed
+	 * @return enclosure or null if unknown
+	 */
+	public @Nullable Enclosure find(String feedName, String url) {
+		Enclosure enclosure = this.enclosureRepo.findOneByFeedNameAndSourceUrl(feedName, url);
+
+		if(enclosure != null)
+			return enclosure;
+
+		return this.enclosureRepo.findFirstByFeedNameAndCanonicalUrl(feedName, UrlUtils.canonicalize(url));
+	}
+
+	/**
+	 * Record the result of a download for all URLs stored in the given file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @param resource the downloaded file
+	 */
+	@Transactional
+	public void recordDownload(String feedName, String fileName, DownloadedFile resource) {
+		URI location = resource.getLocation();
+		long contentLength = resource.getContentLength();
+		Date now = new Date();
+
+		for(Enclosure enclosure : this.enclosureRepo.findByFeedNameAndFileName(feedName, fileName)) {
+			enclosure.setResolvedUrl(location != null ? location.toString() : null);
+			enclosure.setEtag(resource.getETag());
+			enclosure.setLastModified(resource.getLastModified());
+			enclosure.setContentLength(contentLength >= 0 ? contentLength : null);
+			enclosure.setChecksum(resource.getDigest().getChecksum());
+			enclosure.setFileSize(resource.getDigest().getSize());
+			enclosure.setVerified(now);
+			this.enclosureRepo.save(enclosure);
+		}
+	}
+
+	/**
+	 * Returns another file of the given feed with the same content as the given file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @param digest digest of the file
+	 * @return name of the other file or null if there is none
+	 */
+	public @Nullable String findDuplicate(String feedName, String fileName, FileDigest digest) {
+		List<String> fileNames = this.enclosureRepo.findFileNamesByContent(feedName, digest.getChecksum(),
+				digest.getSize(), fileName);
+
+		return (fileNames.isEmpty() ? null : fileNames.get(0));
+	}
+
+	/**
+	 * Record the result of verifying the given file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @param digest digest of the file or null if the file is missing or has been removed
+	 */
+	@Transactional
+	public void recordVerification(String feedName, String fileName, @Nullable FileDigest digest) {
+		Date now = new Date();
+
+		for(Enclosure enclosure : this.enclosureRepo.findByFeedNameAndFileName(feedName, fileName)) {
+			enclosure.setChecksum(digest != null ? digest.getChecksum() : null);
+			enclosure.setFileSize(digest != null ? digest.getSize() : null);
+			enclosure.setVerified(now);
+			this.enclosureRepo.save(enclosure);
+		}
+	}
+
+	/**
+	 * Returns the enclosures whose files are due for verification.
+	 *
+	 * @param before files verified after this date are not returned
+	 * @param count maximum number of enclosures
+	 * @return enclosures, least recently verified first
+	 */
+	public List<Enclosure> findUnverified(Date before, int count) {
+		return this.enclosureRepo.findUnverified(before, PageRequest.of(0, count));
+	}
+
+	/**
+	 * Returns all enclosures of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return enclosures in the order they were added
+	 */
+	public List<Enclosure> findByFeed(String feedName) {
+		return this.enclosureRepo.findByFeedNameOrderById(feedName);
+	}
+
+	/**
+	 * Returns all enclosures stored in the given file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @return enclosures
+	 */
+	public List<Enclosure> findByFile(String feedName, String fileName) {
+		return this.enclosureRepo.findByFeedNameAndFileName(feedName, fileName);
+	}
+
+	/**
+	 * Remove all enclosures of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 */
+	@Transactional
+	public void delete(String feedName) {
+		this.enclosureRepo.deleteByFeedName(feedName);
+	}
+
+	/**
+	 * Remove all enclosures stored in the given file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 */
+	@Transactional
+	public void delete(String feedName, String fileName) {
+		this.enclosureRepo.deleteAll(this.enclosureRepo.findByFeedNameAndFileName(feedName, fileName));
+	}
+
+	/**
+	 * Returns a file name for a new canonical URL that is not used by any other enclosure.
+	 *
+	 * @param feedName name of the feed
+	 * @param url URL as found in the feed
+	 * @param canonicalUrl canonical URL
+	 * @return file name
+	 */
+	private String getUniqueFileName(String feedName, String url, String canonicalUrl) {
+		// Files downloaded before enclosures were tracked are named after the raw URL. Keep using those.
+		String legacyName = this.contentManager.getLegacyFileName(url);
+
+		if(legacyName != null && !this.enclosureRepo.existsByFeedNameAndFileName(feedName, legacyName)
+				&& Files.exists(this.contentManager.getFile(feedName, legacyName)))
+			return legacyName;
+
+		String fileName = UrlUtils.toFileName(canonicalUrl);
+
+		if(this.enclosureRepo.existsByFeedNameAndFileName(feedName, fileName)) {
+			fileName = UrlUtils.addHash(fileName, canonicalUrl);
+			LOG.debug("File name for '{}' is already in use. Using '{}' instead.", url, fileName);
+		}
+
+		return fileName;
+	}
+}
@@ -0,0 +1,498 @@
+package at.dire.podcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StreamUtils;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import at.dire.podcache.data.Enclosure;
+import at.dire.podcache.data.Feed;
+import at.dire.podcache.util.ArchiveEntry;
+import at.dire.podcache.util.Downloader;
+import at.dire.podcache.util.FileDigest;
+import at.dire.podcache.util.InvalidArchiveException;
+import at.dire.podcache.util.TarFormat;
+
+/**
+ * Exports a whole feed as an archive and imports such archives as new feeds, e.g. to move a feed to another
+ * instance.
+ *
+ * <p>
+ * All entries are stored below a directory named after the feed. The first entry is a {@link #MANIFEST_FILE manifest}
+ * holding the feed's settings and its enclosures, followed by the feed file, the original feed store and all content
+ * files. Resized variants of artwork are not included, they are created again on demand.
+ * </p>
+ *
+ * <p>
+ * Archives are imported while they are read, nothing is buffered. Files are unpacked to a new directory that is only
+ * moved into place once all files have been written and their checksums match the manifest.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class FeedArchiver {
+	/** Name of the manifest, always the first entry of an archive. */
+	public static final String MANIFEST_FILE = "_archive.json";
+
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(FeedArchiver.class);
+
+	/** Version of the manifest format */
+	private static final int VERSION = 1;
+
+	/** Manages feeds */
+	private final FeedManager feedManager;
+
+	/** The content manager */
+	private final ContentManager contentManager;
+
+	/** Holds the enclosures of feeds */
+	private final EnclosureResolver enclosureResolver;
+
+	/** Reads and writes the manifest */
+	private final ObjectMapper objectMapper;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param feedManager feed manager
+	 * @param enclosureResolver enclosure resolver
+	 * @param objectMapper reads and writes the manifest
+	 */
+	@Autowired
+	public FeedArchiver(FeedManager feedManager, EnclosureResolver enclosureResolver, ObjectMapper objectMapper) {
+		this.feedManager = Objects.requireNonNull(feedManager);
+		this.contentManager = feedManager.getContentManager();
+		this.enclosureResolver = Objects.requireNonNull(enclosureResolver);
+		this.objectMapper = Objects.requireNonNull(objectMapper);
+	}
+
+	/**
+	 * Returns the entries of the archive of the given feed. Sizes and modification dates of the files are read now,
+	 * files changed before they are written will fail the transfer.
+	 *
+	 * @param feedName name of the feed
+	 * @return entries or null if the feed does not exist
+	 * @throws IOException when reading the feed's files fails
+	 */
+	public @Nullable List<ArchiveEntry> getEntries(String feedName) throws IOException {
+		Feed feed = this.feedManager.getFeed(feedName);
+		Path feedFile = this.feedManager.getFeedFile(feedName);
+
+		if(feed == null || feed.isMarkedForDeletion() || Files.notExists(feedFile))
+			return null;
+
+		String prefix = feedName + "/";
+		List<ArchiveEntry> entries = new ArrayList<>();
+
+		Manifest manifest = new Manifest(VERSION, feed, this.enclosureResolver.findByFeed(feedName));
+		entries.add(ArchiveEntry.of(prefix + MANIFEST_FILE, this.objectMapper.writeValueAsBytes(manifest),
+				Files.getLastModifiedTime(feedFile).toMillis()));
+		entries.add(ArchiveEntry.of(prefix + ContentManager.FEED_FILE, feedFile));
+
+		// The original feed store, including snapshots.
+		Path originDir = this.contentManager.getFile(feedName, OriginalFeedStore.ORIGIN_DIR);
+
+		if(Files.isDirectory(originDir)) {
+			List<Path> files;
+
+			try(Stream<Path> stream = Files.walk(originDir)) {
+				files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+			}
+
+			for(Path file : files) {
+				String name = originDir.getParent().relativize(file).toString().replace(file.getFileSystem()
+						.getSeparator(), "/");
+				entries.add(ArchiveEntry.of(prefix + name, file));
+			}
+		}
+
+		for(String fileName : this.contentManager.getContentFiles(feedName)) {
+			ArchiveEntry entry;
+
+			try {
+				entry = ArchiveEntry.of(prefix + fileName, this.contentManager.getFile(feedName, fileName));
+			} catch(NoSuchFileException e) {
+				// Moved to cold storage in the meantime.
+				entry = ArchiveEntry.of(prefix + fileName, this.contentManager.getFile(feedName, fileName));
+			}
+
+			entries.add(entry);
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Import the given archive as a new feed. The feed is added as it was exported, including its name.
+	 *
+	 * @param in the archive
+	 * @param format format of the archive
+	 * @return the new feed
+	 * @throws InvalidArchiveException when the archive is invalid, incomplete or a checksum does not match
+	 * @throws FileAlreadyExistsException when the feed exists already
+	 * @throws IOException when reading the archive or writing files fails
+	 */
+	public Feed importArchive(InputStream in, Format format) throws IOException {
+		Import target = new Import();
+
+		try {
+			if(format == Format.ZIP) {
+				ZipInputStream zip = new ZipInputStream(in);
+				ZipEntry entry;
+
+				while((entry = zip.getNextEntry()) != null)
+					target.add(entry.getName(), entry.isDirectory(), entry.getSize(), entry.getTime(),
+							StreamUtils.nonClosing(zip));
+			} else {
+				TarFormat.Reader tar = new TarFormat.Reader(in);
+				TarFormat.Entry entry;
+
+				while((entry = tar.next()) != null) {
+					if(!entry.isFile() && !entry.isDirectory())
+						throw new InvalidArchiveException("Entry '" + entry + "' is not a regular file.");
+
+					target.add(entry.getName(), entry.isDirectory(), entry.getSize(), entry.getLastModified(),
+							tar.getContent());
+				}
+			}
+
+			return target.complete();
+		} catch(ZipException e) {
+			target.discard();
+			throw new InvalidArchiveException("Zip archive is invalid.", e);
+		} catch(IOException | RuntimeException e) {
+			target.discard();
+			throw e;
+		}
+	}
+
+	/**
+	 * Formats of archives.
+	 */
+	public enum Format {
+		/** Tar archive, supports resuming and zero-copy transfers */
+		TAR(MediaType.valueOf("application/x-tar"), "tar"),
+
+		/** Zip archive without compression */
+		ZIP(MediaType.valueOf("application/zip"), "zip");
+
+		/** Media type */
+		private final MediaType mediaType;
+
+		/** File extension */
+		private final String extension;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param mediaType media type
+		 * @param extension file extension
+		 */
+		Format(MediaType mediaType, String extension) {
+			this.mediaType = mediaType;
+			this.extension = extension;
+		}
+
+		/**
+		 * Returns the media type of archives.
+		 *
+		 * @return media type
+		 */
+		public MediaType getMediaType() {
+			return this.mediaType;
+		}
+
+		/**
+		 * Returns the file extension of archives.
+		 *
+		 * @return extension without dot
+		 */
+		public String getExtension() {
+			return this.extension;
+		}
+
+		/**
+		 * Returns the format of the given file extension.
+		 *
+		 * @param extension file extension without dot
+		 * @return format or null if not supported
+		 */
+		public static @Nullable Format of(String extension) {
+			for(Format format : values()) {
+				if(format.extension.equalsIgnoreCase(extension.trim()))
+					return format;
+			}
+
+			return null;
+		}
+
+		/**
+		 * Returns the format of the given media type.
+		 *
+		 * @param mediaType media type
+		 * @return format or null if not supported
+		 */
+		public static @Nullable Format of(MediaType mediaType) {
+			for(Format format : values()) {
+				if(format.mediaType.isCompatibleWith(mediaType))
+					return format;
+			}
+
+			return null;
+		}
+	}
+
+	/**
+	 * Content of the {@link FeedArchiver#MANIFEST_FILE manifest}.
+	 */
+	public static final class Manifest {
+		/** Version of the format */
+		private final int version;
+
+		/** The feed */
+		private final Feed feed;
+
+		/** Enclosures of the feed */
+		private final List<Enclosure> enclosures;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param version version of the format
+		 * @param feed the feed
+		 * @param enclosures enclosures of the feed
+		 */
+		@JsonCreator
+		public Manifest(@JsonProperty("version") int version, @JsonProperty("feed") Feed feed,
+				@JsonProperty("enclosures") @Nullable List<Enclosure> enclosures) {
+			this.version = version;
+			this.feed = Objects.requireNonNull(feed);
+			this.enclosures = (enclosures != null ? enclosures : new ArrayList<>());
+		}
+
+		/**
+		 * Returns the version of the format.
+		 *
+		 * @return version
+		 */
+		public int getVersion() {
+			return this.version;
+		}
+
+		/**
+		 * Returns the feed.
+		 *
+		 * @return feed
+		 */
+		public Feed getFeed() {
+			return this.feed;
+		}
+
+		/**
+		 * Returns the enclosures of the feed.
+		 *
+		 * @return enclosures
+		 */
+		public List<Enclosure> getEnclosures() {
+			return this.enclosures;
+		}
+	}
+
+	/**
+	 * State of a running import.
+	 */
+	private final class Import {
+		/** The manifest, null until read */
+		private @Nullable Manifest manifest;
+
+		/** Directory of the feed within the archive, including a trailing slash */
+		private String prefix = "";
+
+		/** Directory the files are unpacked to */
+		private @Nullable Path directory;
+
+		/** Digests of the unpacked files by path relative to {@link #directory} */
+		private final Map<String, FileDigest> digests = new HashMap<>();
+
+		/**
+		 * Add an entry of the archive.
+		 *
+		 * @param name path within the archive
+		 * @param isDirectory true if the entry is a directory
+		 * @param size size of the content or a negative number if unknown
+		 * @param lastModified modification date in milliseconds since the epoch or a negative number if unknown
+		 * @param content content of the entry, not closed
+		 * @throws IOException when the entry is invalid or writing fails
+		 */
+		void add(String name, boolean isDirectory, long size, long lastModified, InputStream content)
+				throws IOException {
+			Path directory = this.directory;
+
+			if(directory == null) {
+				// Directories may precede the manifest.
+				if(!isDirectory)
+					readManifest(name, content);
+
+				return;
+			}
+
+			if(!name.startsWith(this.prefix))
+				throw new InvalidArchiveException("Entry '" + name + "' is outside of the feed's directory.");
+
+			String relativeName = name.substring(this.prefix.length());
+
+			while(relativeName.endsWith("/"))
+				relativeName = relativeName.substring(0, relativeName.length() - 1);
+
+			if(relativeName.isEmpty())
+				return;
+
+			for(String segment : relativeName.split("/")) {
+				if(segment.isEmpty() || segment.equals(".") || segment.equals("..") || segment.contains("\\"))
+					throw new InvalidArchiveException("Entry '" + name + "' has an invalid name.");
+			}
+
+			Path target = directory.resolve(relativeName).normalize();
+
+			if(!target.startsWith(directory) || target.equals(directory))
+				throw new InvalidArchiveException("Entry '" + name + "' has an invalid name.");
+
+			if(isDirectory) {
+				Files.createDirectories(target);
+				return;
+			}
+
+			if(this.digests.containsKey(relativeName))
+				throw new InvalidArchiveException("Entry '" + name + "' is contained twice.");
+
+			Files.createDirectories(target.getParent());
+			FileDigest digest = Downloader.download(content, target, -1);
+
+			if(size >= 0 && digest.getSize() != size)
+				throw new InvalidArchiveException(String.format("Entry '%s' is incomplete: %d of %d bytes.", name,
+						digest.getSize(), size));
+
+			this.digests.put(relativeName, digest);
+
+			// Keep the modification date of the exported file.
+			if(lastModified >= 0)
+				Files.setLastModifiedTime(target, FileTime.fromMillis(lastModified));
+		}
+
+		/**
+		 * Read the manifest, which must be the first file of the archive, and create the directory to unpack to.
+		 *
+		 * @param name path within the archive
+		 * @param content content of the entry
+		 * @throws IOException when the manifest is invalid or the feed exists already
+		 */
+		private void readManifest(String name, InputStream content) throws IOException {
+			int separator = name.lastIndexOf('/');
+
+			if(separator < 1 || name.indexOf('/') != separator || !name.endsWith("/" + MANIFEST_FILE))
+				throw new InvalidArchiveException("Archive must start with the manifest '<feed>/" + MANIFEST_FILE
+						+ "' but found '" + name + "'.");
+
+			Manifest manifest;
+
+			try {
+				// Do not let the parser close the archive.
+				manifest = objectMapper.readValue(StreamUtils.copyToByteArray(content), Manifest.class);
+			} catch(IOException | RuntimeException e) {
+				throw new InvalidArchiveException("Manifest of the archive is invalid.", e);
+			}
+
+			String feedName = manifest.getFeed().getName();
+
+			if(manifest.getVersion() != VERSION)
+				throw new InvalidArchiveException("Unsupported archive version " + manifest.getVersion() + ".");
+
+			if(feedName == null || !FeedManager.isValidName(feedName))
+				throw new InvalidArchiveException("Archive holds an invalid feed name '" + feedName + "'.");
+
+			if(feedManager.getFeed(feedName) != null || contentManager.exists(feedName))
+				throw new FileAlreadyExistsException(feedName, null, "Feed exists already.");
+
+			LOG.info("Importing feed '{}' from archive.", feedName);
+
+			this.manifest = manifest;
+			this.prefix = name.substring(0, separator + 1);
+			this.directory = contentManager.createImportDir(feedName);
+		}
+
+		/**
+		 * Verify the unpacked files and add the feed.
+		 *
+		 * @return the new feed
+		 * @throws IOException when verification fails or the feed cannot be added
+		 */
+		Feed complete() throws IOException {
+			Manifest manifest = this.manifest;
+			Path directory = this.directory;
+
+			if(manifest == null || directory == null)
+				throw new InvalidArchiveException("Archive is empty.");
+
+			if(!this.digests.containsKey(ContentManager.FEED_FILE))
+				throw new InvalidArchiveException("Archive holds no feed file.");
+
+			// Several enclosures may share a file.
+			for(Enclosure enclosure : manifest.getEnclosures()) {
+				FileDigest digest = this.digests.get(enclosure.getFileName());
+				String checksum = enclosure.getChecksum();
+
+				if(digest != null && checksum != null && !checksum.equals(digest.getChecksum()))
+					throw new InvalidArchiveException(String.format("File '%s' is damaged: expected %s, found %s.",
+							enclosure.getFileName(), checksum, digest.getChecksum()));
+			}
+
+			Feed feed = feedManager.restore(manifest.getFeed(), manifest.getEnclosures(), directory);
+			LOG.info("Imported feed '{}' with {} files.", feed, this.digests.size());
+
+			return feed;
+		}
+
+		/**
+		 * Discard the unpacked files after a failure.
+		 */
+		void discard() {
+			Path directory = this.directory;
+
+			if(directory == null)
+				return;
+
+			try {
+				contentManager.discardImport(directory);
+			} catch(IOException e) {
+				LOG.error("Failed to discard imported directory '{}'.", directory, e);
+			}
+		}
+	}
+}
@@ -0,0 +1,376 @@
+package at.dire.podcache;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import at.dire.podcache.data.Feed;
+import at.dire.podcache.data.FeedLease;
+import at.dire.podcache.data.FeedLeaseRepository;
+import at.dire.podcache.data.JobLease;
+import at.dire.podcache.data.JobLeaseRepository;
+
+/**
+ * Coordinates several updating processes sharing the database. Instead of locking all feeds for a whole run, each
+ * process claims small batches of feeds using {@link FeedLease leases}. Held leases are renewed regularly by a
+ * heartbeat, leases of crashed processes expire and their feeds are claimed by the remaining processes.
+ *
+ * <p>
+ * Background jobs that must not run on several processes at once, like writing the search index, only run on the
+ * {@link #isPrimary() primary} process. It is elected using a {@link JobLease job lease} that is renewed by the same
+ * heartbeat.
+ * </p>
+ *
+ * <p>
+ * The clocks of all processes must be roughly synchronized, the lease time has to be much larger than their
+ * difference.
+ * </p>
+ *
+ * @author diredev
+ * @see FeedRefresher#refreshAll(boolean)
+ */
+@Component
+public class FeedLeaseManager {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(FeedLeaseManager.class);
+
+	/** Number of heartbeats per lease time */
+	private static final int HEARTBEATS_PER_LEASE = 3;
+
+	/** Name of the job lease held by the primary process */
+	private static final String PRIMARY_LEASE = "primary";
+
+	/** DB repository */
+	private final FeedLeaseRepository leaseRepo;
+
+	/** Used to list feeds */
+	private final FeedManager feedManager;
+
+	/** DB repository for the primary lease */
+	private final JobLeaseRepository jobLeaseRepo;
+
+	/** Role of this process */
+	private final Role role;
+
+	/** True if feeds are updated together with other processes */
+	private final boolean enabled;
+
+	/** ID of this process */
+	private final String nodeId;
+
+	/** Time in milliseconds after which leases expire unless renewed */
+	private final long leaseTime;
+
+	/** Maximum number of feeds claimed at once */
+	private final int batchSize;
+
+	/** Names of the feeds leased by this process */
+	private final Set<String> held = ConcurrentHashMap.newKeySet();
+
+	/** Time in milliseconds until which this process is the primary one, 0 if it isn't */
+	private volatile long primaryUntil = 0;
+
+	/** Renews held leases or null if not running */
+	private @Nullable ScheduledExecutorService heartbeat;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param leaseRepo DB repository
+	 * @param feedManager feed manager
+	 * @param jobLeaseRepo DB repository for the primary lease
+	 * @param role role of this process
+	 * @param enabled true to update feeds together with other processes
+	 * @param nodeId ID of this process, empty to use the process ID and host name
+	 * @param leaseTime time in seconds after which leases expire
+	 * @param batchSize maximum number of feeds claimed at once
+	 */
+	@Autowired
+	public FeedLeaseManager(FeedLeaseRepository leaseRepo, FeedManager feedManager, JobLeaseRepository jobLeaseRepo,
+			Role role, @Value("${podcache.cluster.enabled}") boolean enabled, @Value("${podcache.cluster.node-id}") String nodeId,
+			@Value("${podcache.cluster.lease}") long leaseTime, @Value("${podcache.cluster.batch}") int batchSize) {
+		this.leaseRepo = Objects.requireNonNull(leaseRepo);
+		this.feedManager = Objects.requireNonNull(feedManager);
+		this.jobLeaseRepo = Objects.requireNonNull(jobLeaseRepo);
+		this.role = Objects.requireNonNull(role);
+		this.enabled = enabled;
+		this.nodeId = (nodeId.isEmpty() ? ManagementFactory.getRuntimeMXBean().getName() : nodeId);
+		this.leaseTime = TimeUnit.SECONDS.toMillis(leaseTime);
+		this.batchSize = batchSize;
+
+		if(enabled && (leaseTime < HEARTBEATS_PER_LEASE || batchSize < 1))
+			throw new IllegalArgumentException("Lease time and batch size are too small.");
+	}
+
+	/**
+	 * Returns true if feeds are updated together with other processes.
+	 *
+	 * @return boolean
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Returns true if this process runs the background jobs that must only run on a single updating process. Always
+	 * true if feeds aren't updated together with other processes. Serving processes are never elected.
+	 *
+	 * @return boolean
+	 */
+	public boolean isPrimary() {
+		return !this.enabled || System.currentTimeMillis() < this.primaryUntil;
+	}
+
+	/**
+	 * Returns the ID of this process.
+	 *
+	 * @return node ID
+	 */
+	public String getNodeId() {
+		return this.nodeId;
+	}
+
+	/**
+	 * Returns the time after which leases expire unless renewed.
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getLeaseTime() {
+		return this.leaseTime;
+	}
+
+	/**
+	 * Returns the interval in which held leases are renewed.
+	 *
+	 * @return time in milliseconds
+	 */
+	public long getHeartbeatInterval() {
+		return this.leaseTime / HEARTBEATS_PER_LEASE;
+	}
+
+	/**
+	 * Start the heartbeat, if enabled. Updating processes also try to become the primary process.
+	 */
+	@PostConstruct
+	public synchronized void start() {
+		if(!this.enabled || this.heartbeat != null)
+			return;
+
+		LOG.info("Updating feeds together with other processes as '{}'.", this.nodeId);
+
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "lease-heartbeat");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		long interval = getHeartbeatInterval();
+		executor.scheduleWithFixedDelay(this::renew, 0, interval, TimeUnit.MILLISECONDS);
+		this.heartbeat = executor;
+	}
+
+	/**
+	 * Stop the heartbeat and free all held leases.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		ScheduledExecutorService executor = this.heartbeat;
+
+		if(executor == null)
+			return;
+
+		executor.shutdownNow();
+		this.heartbeat = null;
+		release(new ArrayList<>(this.held));
+
+		if(this.primaryUntil == 0)
+			return;
+
+		this.primaryUntil = 0;
+
+		try {
+			this.jobLeaseRepo.release(PRIMARY_LEASE, this.nodeId);
+		} catch(DataAccessException e) {
+			LOG.warn("Failed to release the primary lease. It will expire.", e);
+		}
+	}
+
+	/**
+	 * Claim the next batch of feeds that have not been updated since the given date. Feeds leased by other processes
+	 * are skipped.
+	 *
+	 * @param since start of the update run
+	 * @param skipFeeds names of feeds not to claim
+	 * @return names of the claimed feeds, empty if there are none left to claim
+	 */
+	public List<String> claim(Date since, Collection<String> skipFeeds) {
+		createMissing();
+
+		Date now = new Date();
+		Date expires = new Date(now.getTime() + this.leaseTime);
+		List<String> candidates = new ArrayList<>(this.leaseRepo.findClaimable(since, now));
+		List<String> claimed = new ArrayList<>();
+
+		candidates.removeAll(skipFeeds);
+
+		// Processes claiming at the same time should try different feeds.
+		Collections.shuffle(candidates);
+
+		for(String feedName : candidates) {
+			if(claimed.size() >= this.batchSize)
+				break;
+
+			if(this.leaseRepo.claim(feedName, this.nodeId, expires, since, now) > 0) {
+				this.held.add(feedName);
+				claimed.add(feedName);
+			}
+		}
+
+		LOG.debug("Claimed feeds {}.", claimed);
+		return claimed;
+	}
+
+	/**
+	 * Returns the names of all feeds that have not been updated since the given date by any process.
+	 *
+	 * @param since start of the update run
+	 * @return feed names
+	 */
+	public List<String> getPending(Date since) {
+		return this.leaseRepo.findPending(since);
+	}
+
+	/**
+	 * Free the lease of the given feed after it has been updated.
+	 *
+	 * @param feedName name of the feed
+	 */
+	public void complete(String feedName) {
+		if(!this.held.remove(feedName))
+			return;
+
+		if(this.leaseRepo.complete(feedName, this.nodeId, new Date()) == 0)
+			LOG.warn("Lease of feed '{}' expired while updating. It may have been updated twice.", feedName);
+	}
+
+	/**
+	 * Free the leases of the given feeds without updating them.
+	 *
+	 * @param feedNames names of the feeds
+	 */
+	public void release(Collection<String> feedNames) {
+		if(feedNames.isEmpty())
+			return;
+
+		this.held.removeAll(feedNames);
+
+		try {
+			this.leaseRepo.release(feedNames, this.nodeId);
+		} catch(DataAccessException e) {
+			LOG.warn("Failed to release leases of feeds {}. They will expire.", feedNames, e);
+		}
+	}
+
+	/**
+	 * Remove the lease of a deleted feed. Call as part of a transaction.
+	 *
+	 * @param feedName name of the feed
+	 */
+	public void delete(String feedName) {
+		this.held.remove(feedName);
+
+		if(this.leaseRepo.existsById(feedName))
+			this.leaseRepo.deleteById(feedName);
+	}
+
+	/**
+	 * Create the leases of feeds that don't have one yet.
+	 */
+	private void createMissing() {
+		Set<String> existing = new HashSet<>();
+		this.leaseRepo.findAll().forEach((lease) -> existing.add(lease.getFeedName()));
+
+		for(Feed feed : this.feedManager.getFeeds()) {
+			if(existing.contains(feed.getName()))
+				continue;
+
+			try {
+				this.leaseRepo.save(new FeedLease(feed.getName()));
+			} catch(DataAccessException e) {
+				LOG.debug("Lease of feed '{}' has been created by another process.", feed, e);
+			}
+		}
+	}
+
+	/**
+	 * Extend all held leases and try to become or stay the primary process. Runs on the heartbeat thread.
+	 */
+	private void renew() {
+		if(this.role.isUpdating())
+			claimPrimary();
+
+		if(this.held.isEmpty())
+			return;
+
+		List<String> feedNames = new ArrayList<>(this.held);
+
+		try {
+			int renewed = this.leaseRepo.renew(feedNames, this.nodeId, new Date(System.currentTimeMillis()
+					+ this.leaseTime));
+
+			// Leases completed in the meantime are not renewed.
+			if(renewed < feedNames.size())
+				LOG.debug("Renewed {} of {} leases.", renewed, feedNames.size());
+		} catch(DataAccessException e) {
+			LOG.warn("Failed to renew leases of feeds {}.", feedNames, e);
+		}
+	}
+
+	/**
+	 * Take or extend the primary lease, if free.
+	 */
+	private void claimPrimary() {
+		Date now = new Date();
+		Date expires = new Date(now.getTime() + this.leaseTime);
+
+		try {
+			if(!this.jobLeaseRepo.existsById(PRIMARY_LEASE)) {
+				try {
+					this.jobLeaseRepo.save(new JobLease(PRIMARY_LEASE));
+				} catch(DataAccessException e) {
+					LOG.debug("Primary lease has been created by another process.", e);
+				}
+			}
+
+			boolean primary = (this.jobLeaseRepo.claim(PRIMARY_LEASE, this.nodeId, expires, now) > 0);
+
+			if(primary != isPrimary())
+				LOG.info(primary ? "Running single-process jobs as primary process." : "No longer the primary process.");
+
+			this.primaryUntil = (primary ? expires.getTime() : 0);
+		} catch(DataAccessException e) {
+			LOG.warn("Failed to renew the primary lease.", e);
+		}
+	}
+}
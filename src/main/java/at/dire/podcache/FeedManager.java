@@ -2,20 +2,24 @@ package at.dire.podcache;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
+import at.dire.podcache.data.Enclosure;
 import at.dire.podcache.data.Feed;
+import at.dire.podcache.event.FeedEvent;
 import at.dire.podcache.data.FeedRepository;
+import at.dire.podcache.util.FeedUtils;
 
 /**
  * Component used to manage {@link Feed feeds}.
@@ -36,6 +40,18 @@ public class FeedManager {
 	/** Used to manage feed files */
 	private final ContentManager contentManager;
 
+	/** Subscribes to hubs advertised by feeds */
+	private final WebSubSubscriber webSubSubscriber;
+
+	/** Stores the original content of feeds */
+	private final OriginalFeedStore originalStore;
+
+	/** Publishes changes of feeds */
+	private final ApplicationEventPublisher eventPublisher;
+
+	/** Maps enclosures to local files */
+	private final EnclosureResolver enclosureResolver;
+
 	/**
 	 * Returns the content manager.
 	 * 
@@ -50,11 +66,31 @@ public class FeedManager {
 	 * 
 	 * @param feedRepo DB repository
 	 * @param contentManager content manager
+	 * @param webSubSubscriber WebSub subscriber
+	 * @param originalStore store for original feed content
+	 * @param eventPublisher publishes changes of feeds
+	 * @param enclosureResolver maps enclosures to local files
 	 */
 	@Autowired
-	public FeedManager(FeedRepository feedRepo, ContentManager contentManager) {
+	public FeedManager(FeedRepository feedRepo, ContentManager contentManager, WebSubSubscriber webSubSubscriber,
+			OriginalFeedStore originalStore, ApplicationEventPublisher eventPublisher,
+			EnclosureResolver enclosureResolver) {
 		this.feedRepo = feedRepo;
 		this.contentManager = contentManager;
+		this.webSubSubscriber = webSubSubscriber;
+		this.originalStore = originalStore;
+		this.eventPublisher = eventPublisher;
+		this.enclosureResolver = enclosureResolver;
+	}
+
+	/**
+	 * Returns true if the given name may be used for a feed.
+	 * 
+	 * @param name name
+	 * @return true if only letters, numbers, '-' and '_' are used
+	 */
+	public static boolean isValidName(String name) {
+		return NAME_PATTERN.matcher(name).matches();
 	}
 
 	/**
@@ -87,6 +123,16 @@ public class FeedManager {
 		return feedRepo.findOneByName(name);
 	}
 
+	/**
+	 * Find the feed of the given name and lock the record. Call as part of a transaction.
+	 * 
+	 * @param name name
+	 * @return feed or null
+	 */
+	public @Nullable Feed getFeedAndLock(String name) {
+		return feedRepo.findOneByNamePessimistic(name);
+	}
+
 	/**
 	 * Return a feed's file.
 	 * 
@@ -119,7 +165,7 @@ public class FeedManager {
 	@Transactional(rollbackFor = IOException.class)
 	public Feed add(String name, URL url) throws IOException {
 		// Validate the name, must only contain letters and numbers.
-		if(!NAME_PATTERN.matcher(name).matches())
+		if(!isValidName(name))
 			throw new IllegalArgumentException("Invalid feed name. Must only contain letters and numbers.");
 
 		Path tempFile = Files.createTempFile("feed", ".xml");
@@ -132,19 +178,23 @@ public class FeedManager {
 			this.feedRepo.save(feed);
 
 			// If that was OK, we add the file to the content manager.
-			Path originalFeedFile = this.contentManager.getFile(name, ContentManager.ORIGINAL_FEED_FILE);
 			Path actualFeedFile = this.contentManager.getFile(name, ContentManager.FEED_FILE);
 
-			// Copy to original file location.
-			Files.createDirectories(originalFeedFile.getParent());
-			Files.move(tempFile, originalFeedFile, StandardCopyOption.REPLACE_EXISTING);
+			// Subscribe to the feed's hub, if any.
+			if(this.webSubSubscriber.isEnabled())
+				this.webSubSubscriber.discover(name, url, FeedUtils.read(tempFile));
 
 			// Copy to modified location, if the file does not exist already.
 			if(Files.notExists(actualFeedFile)) {
-				Files.copy(originalFeedFile, actualFeedFile);
+				Files.createDirectories(actualFeedFile.getParent());
+				Files.copy(tempFile, actualFeedFile);
 			} else
 				LOG.warn("Feed file '{}' already exists. Will merge on next update.", actualFeedFile);
 
+			// Move to the original feed store.
+			this.originalStore.create(name, tempFile);
+
+			this.eventPublisher.publishEvent(FeedEvent.changed(feed));
 			return feed;
 		} finally {
 			// Remove the temporary file.
@@ -152,6 +202,44 @@ public class FeedManager {
 		}
 	}
 
+	/**
+	 * Add a feed whose files have been unpacked from an archive, see {@link FeedArchiver}. The directory is moved into
+	 * place once the feed and its enclosures have been added to the database.
+	 * 
+	 * @param feed the feed
+	 * @param enclosures enclosures of the feed
+	 * @param directory directory holding the feed's files
+	 * @return the new feed
+	 * @throws FileAlreadyExistsException when the feed or its directory exists already
+	 * @throws IOException when moving the directory fails
+	 */
+	@Transactional(rollbackFor = IOException.class)
+	public Feed restore(Feed feed, Iterable<Enclosure> enclosures, Path directory) throws IOException {
+		String name = feed.getName();
+
+		if(!isValidName(name))
+			throw new IllegalArgumentException("Invalid feed name. Must only contain letters and numbers.");
+
+		if(this.feedRepo.existsById(name))
+			throw new FileAlreadyExistsException(name, null, "Feed exists already.");
+
+		// Add as a new feed.
+		feed.setNew(true);
+		feed.setMarkedForDeletion(false);
+		this.feedRepo.save(feed);
+		this.enclosureResolver.restore(name, enclosures);
+
+		// Rolls back the database if the directory exists already.
+		this.contentManager.completeImport(directory, name);
+
+		// Subscribe to the feed's hub, if any.
+		if(this.webSubSubscriber.isEnabled())
+			this.webSubSubscriber.discover(name, feed.getUrl(), FeedUtils.read(getFeedFile(name)));
+
+		this.eventPublisher.publishEvent(FeedEvent.changed(feed));
+		return feed;
+	}
+
 	/**
 	 * Update the list of feeds in the database.
 	 * 
@@ -159,7 +247,8 @@ public class FeedManager {
 	 */
 	@Transactional
 	public void update(Iterable<Feed> feeds) {
-		this.feedRepo.saveAll(feeds);
+		for(Feed feed : this.feedRepo.saveAll(feeds))
+			this.eventPublisher.publishEvent(FeedEvent.changed(feed));
 	}
 
 	/**
@@ -169,7 +258,7 @@ public class FeedManager {
 	 */
 	@Transactional
 	public void update(Feed feed) {
-		this.feedRepo.save(feed);
+		this.eventPublisher.publishEvent(FeedEvent.changed(this.feedRepo.save(feed)));
 	}
 
 	/**
@@ -181,8 +270,15 @@ public class FeedManager {
 	public void markForDeletion(String name) {
 		LOG.info("Marking feed '{}' for deletion.", name);
 
-		if(feedRepo.markForDeletion(name) == 0)
+		if(feedRepo.markForDeletion(name) == 0) {
 			LOG.debug("Feed '{}' not found. Not deleting anything.", name);
+			return;
+		}
+
+		Feed feed = feedRepo.findOneByName(name);
+
+		if(feed != null)
+			this.eventPublisher.publishEvent(FeedEvent.changed(feed));
 	}
 
 	/**
@@ -195,7 +291,7 @@ public class FeedManager {
 		// Remove the entry from the database.
 		LOG.info("Marking feed '{}' for deletion.", feed);
 		feed.setMarkedForDeletion(true);
-		this.feedRepo.save(feed);
+		this.eventPublisher.publishEvent(FeedEvent.changed(this.feedRepo.save(feed)));
 	}
 
 	/**
@@ -207,5 +303,6 @@ public class FeedManager {
 	public void delete(Feed feed) {
 		LOG.info("Removing feed '{}' from database.", feed);
 		this.feedRepo.delete(feed);
+		this.eventPublisher.publishEvent(FeedEvent.removed(feed.getName()));
 	}
 }
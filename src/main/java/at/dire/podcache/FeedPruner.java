@@ -0,0 +1,287 @@
+package at.dire.podcache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jdom2.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import com.rometools.rome.feed.synd.SyndEnclosure;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndFeed;
+
+import at.dire.podcache.data.Enclosure;
+import at.dire.podcache.data.Feed;
+import at.dire.podcache.util.FeedUtils;
+
+/**
+ * Applies the retention settings of a {@link Feed} ({@link Feed#getMaxEntries() entries},
+ * {@link Feed#getMaxAgeDays() age} and {@link Feed#getMaxBytes() size}). Entries outside the window are removed from
+ * the feed's data and their content files are deleted.
+ *
+ * <p>
+ * Entries are ordered by publishing date, newest first. Entries without a date are considered the oldest. The newest
+ * entry is always kept, regardless of its size.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class FeedPruner {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(FeedPruner.class);
+
+	/** Orders entries by publishing date, newest first. */
+	private static final Comparator<SyndEntry> NEWEST_FIRST = Comparator.comparing(SyndEntry::getPublishedDate,
+			Comparator.nullsLast(Comparator.reverseOrder()));
+
+	/** Used to access content files */
+	private final ContentManager contentManager;
+
+	/** Maps enclosure URLs to local files */
+	private final EnclosureResolver enclosureResolver;
+
+	/** Queue for content file downloads */
+	private final DownloadQueue downloadQueue;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param contentManager content manager
+	 * @param enclosureResolver enclosure resolver
+	 * @param downloadQueue download queue
+	 */
+	@Autowired
+	public FeedPruner(ContentManager contentManager, EnclosureResolver enclosureResolver,
+			DownloadQueue downloadQueue) {
+		this.contentManager = Objects.requireNonNull(contentManager);
+		this.enclosureResolver = Objects.requireNonNull(enclosureResolver);
+		this.downloadQueue = Objects.requireNonNull(downloadQueue);
+	}
+
+	/**
+	 * Returns true if the given feed has any retention settings.
+	 *
+	 * @param feed the feed
+	 * @return boolean
+	 */
+	public static boolean hasRetention(Feed feed) {
+		return(feed.getMaxEntries() != null || feed.getMaxAgeDays() != null || feed.getMaxBytes() != null);
+	}
+
+	/**
+	 * Returns true if the retention settings of the given feed are valid, i.e. each limit is either unset or at least
+	 * 1. Lower limits would remove every entry and all of the feed's files.
+	 *
+	 * @param feed the feed
+	 * @return boolean
+	 */
+	public static boolean isValidRetention(Feed feed) {
+		return((feed.getMaxEntries() == null || feed.getMaxEntries() >= 1)
+				&& (feed.getMaxAgeDays() == null || feed.getMaxAgeDays() >= 1)
+				&& (feed.getMaxBytes() == null || feed.getMaxBytes() >= 1));
+	}
+
+	/**
+	 * Remove all entries outside the feed's retention window from the given data. Files are not deleted, see
+	 * {@link #deleteFiles(Feed, List, SyndFeed)}.
+	 *
+	 * @param feed the feed
+	 * @param feedData the feed's data, changed in place
+	 * @return removed entries
+	 */
+	public List<SyndEntry> prune(Feed feed, SyndFeed feedData) {
+		if(!hasRetention(feed))
+			return new ArrayList<>();
+
+		Integer maxEntries = feed.getMaxEntries();
+		Integer maxAgeDays = feed.getMaxAgeDays();
+		Long maxBytes = feed.getMaxBytes();
+		long minPublished = (maxAgeDays != null
+				? System.currentTimeMillis() - TimeUnit.DAYS.toMillis(maxAgeDays) : Long.MIN_VALUE);
+
+		List<SyndEntry> sorted = new ArrayList<>(feedData.getEntries());
+		sorted.sort(NEWEST_FIRST);
+
+		Set<SyndEntry> pruned = new HashSet<>();
+		long bytes = 0;
+		int kept = 0;
+
+		for(SyndEntry entry : sorted) {
+			Date published = entry.getPublishedDate();
+			boolean keep;
+
+			if(maxEntries != null && kept >= maxEntries)
+				keep = false;
+			else if(published != null && published.getTime() < minPublished)
+				keep = false;
+			else if(maxBytes != null) {
+				bytes += getSize(feed, entry);
+				keep = (kept == 0 || bytes <= maxBytes);
+			} else
+				keep = true;
+
+			if(keep)
+				kept++;
+			else
+				pruned.add(entry);
+		}
+
+		if(pruned.isEmpty())
+			return new ArrayList<>();
+
+		LOG.info("Pruning {} of {} entries of feed '{}'.", pruned.size(), sorted.size(), feed);
+
+		List<SyndEntry> remaining = new ArrayList<>();
+		List<SyndEntry> result = new ArrayList<>();
+
+		for(SyndEntry entry : feedData.getEntries())
+			(pruned.contains(entry) ? result : remaining).add(entry);
+
+		feedData.setEntries(remaining);
+		return result;
+	}
+
+	/**
+	 * Delete the content files and artwork of the given pruned entries, unless the feed or a remaining entry uses the
+	 * same file. Queued downloads of these files are removed as well.
+	 *
+	 * @param feed the feed
+	 * @param prunedEntries pruned entries
+	 * @param remaining the feed data without the pruned entries
+	 * @throws IOException when deleting fails
+	 */
+	public void deleteFiles(Feed feed, List<SyndEntry> prunedEntries, SyndFeed remaining) throws IOException {
+		Set<String> keptFiles = new HashSet<>();
+
+		// The feed's artwork may be used by entries as well.
+		if(remaining.getImage() != null)
+			addFileName(feed, remaining.getImage().getUrl(), keptFiles);
+
+		for(Element image : FeedUtils.getITunesImages(remaining.getForeignMarkup()))
+			addFileName(feed, image.getAttributeValue(FeedUtils.ITUNES_IMAGE_HREF), keptFiles);
+
+		for(SyndEntry entry : remaining.getEntries())
+			keptFiles.addAll(getFileNames(feed, entry));
+
+		int count = 0;
+
+		for(SyndEntry entry : prunedEntries) {
+			for(String fileName : getFileNames(feed, entry)) {
+				if(!keptFiles.add(fileName))
+					continue;
+
+				this.downloadQueue.cancel(feed.getName(), fileName);
+				this.contentManager.deleteFile(feed.getName(), fileName);
+				this.enclosureResolver.delete(feed.getName(), fileName);
+				count++;
+			}
+		}
+
+		if(count > 0)
+			LOG.info("Removed {} content files of pruned entries of feed '{}'.", count, feed);
+	}
+
+	/**
+	 * Returns the size of the given entry's content files. Uses the size of the local file, if already downloaded,
+	 * or the size given by the feed.
+	 *
+	 * @param feed the feed
+	 * @param entry the entry
+	 * @return size in bytes
+	 */
+	private long getSize(Feed feed, SyndEntry entry) {
+		long size = 0;
+
+		for(SyndEnclosure enclosure : entry.getEnclosures()) {
+			String fileName = getFileName(feed, enclosure);
+			Path file = (fileName != null ? this.contentManager.getFile(feed.getName(), fileName) : null);
+
+			try {
+				if(file != null && Files.exists(file)) {
+					size += Files.size(file);
+					continue;
+				}
+			} catch(IOException e) {
+				LOG.debug("Failed to read size of '{}'. Using size given by the feed.", file, e);
+			}
+
+			size += Math.max(enclosure.getLength(), 0);
+		}
+
+		return size;
+	}
+
+	/**
+	 * Returns the names of the local files of the given entry's enclosures and artwork.
+	 *
+	 * @param feed the feed
+	 * @param entry the entry
+	 * @return file names of known enclosures and images
+	 */
+	private List<String> getFileNames(Feed feed, SyndEntry entry) {
+		List<String> result = new ArrayList<>();
+
+		for(SyndEnclosure enclosure : entry.getEnclosures())
+			addFileName(feed, enclosure.getUrl(), result);
+
+		for(Element image : FeedUtils.getITunesImages(entry.getForeignMarkup()))
+			addFileName(feed, image.getAttributeValue(FeedUtils.ITUNES_IMAGE_HREF), result);
+
+		return result;
+	}
+
+	/**
+	 * Add the name of the local file of the given URL, if known.
+	 *
+	 * @param feed the feed
+	 * @param url URL as found in the feed or null
+	 * @param fileNames collection to add to
+	 */
+	private void addFileName(Feed feed, @Nullable String url, Collection<String> fileNames) {
+		String fileName = getFileName(feed, url);
+
+		if(fileName != null)
+			fileNames.add(fileName);
+	}
+
+	/**
+	 * Returns the name of the local file of the given enclosure.
+	 *
+	 * @param feed the feed
+	 * @param enclosure the enclosure
+	 * @return file name or null if unknown
+	 */
+	private @Nullable String getFileName(Feed feed, SyndEnclosure enclosure) {
+		return getFileName(feed, enclosure.getUrl());
+	}
+
+	/**
+	 * Returns the name of the local file of the given URL.
+	 *
+	 * @param feed the feed
+	 * @param url URL as found in the feed or null
+	 * @return file name or null if unknown
+	 */
+	private @Nullable String getFileName(Feed feed, @Nullable String url) {
+		if(url == null || url.isEmpty())
+			return null;
+
+		Enclosure known = this.enclosureResolver.find(feed.getName(), url);
+		return(known != null ? known.getFileName() : null);
+	}
+}
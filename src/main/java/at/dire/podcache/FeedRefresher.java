@@ -0,0 +1,414 @@
+package at.dire.podcache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.rometools.rome.feed.synd.SyndFeed;
+
+import at.dire.podcache.data.Feed;
+import at.dire.podcache.data.RefreshRequest;
+import at.dire.podcache.data.RefreshRequestRepository;
+import at.dire.podcache.event.FeedEvent;
+import at.dire.podcache.util.FreshnessTracker;
+
+/**
+ * Runs feed updates of the {@link FeedUpdater} on a bounded pool of workers.
+ *
+ * <p>
+ * Concurrent refreshes of the same feed are merged into a single run, all callers receive its result. An update of
+ * all feeds claims every feed it is going to update, so refreshes requested in the meantime wait for it instead of
+ * updating the feed again. Feeds that are already being refreshed are skipped by the update of all feeds. Only one
+ * update of all feeds runs at a time.
+ * </p>
+ * 
+ * <p>
+ * If enabled, all feeds are updated together with other processes sharing the database. Feeds are then claimed in
+ * batches using the {@link FeedLeaseManager} and each feed is updated in a transaction of its own.
+ * </p>
+ *
+ * <p>
+ * Serving processes don't update feeds. They {@link #request(String) request} refreshes instead, which are picked up
+ * by the updating process.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class FeedRefresher {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(FeedRefresher.class);
+
+	/** The updater */
+	private final FeedUpdater updater;
+
+	/** Feed manager */
+	private final FeedManager feedManager;
+
+	/** Publishes the start and end of updates */
+	private final ApplicationEventPublisher eventPublisher;
+
+	/** Leases of feeds updated together with other processes */
+	private final FeedLeaseManager leaseManager;
+
+	/** Freshness of upstream responses */
+	private final FreshnessTracker freshness;
+
+	/** Refreshes requested by serving processes */
+	private final RefreshRequestRepository requestRepo;
+
+	/** Role of this process */
+	private final Role role;
+
+	/** Runs the updates */
+	private final ThreadPoolExecutor executor;
+
+	/** Updates in flight by feed name, true once complete if the feed was updated. Synchronized on this instance. */
+	private final Map<String, CompletableFuture<Boolean>> inFlight = new HashMap<>();
+
+	/** The running update of all feeds or null. Synchronized on this instance. */
+	private @Nullable CompletableFuture<Void> allInFlight;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param updater feed updater
+	 * @param feedManager feed manager
+	 * @param eventPublisher publishes the start and end of updates
+	 * @param leaseManager feed lease manager
+	 * @param freshness freshness tracker for upstream responses
+	 * @param requestRepo refresh requests of serving processes
+	 * @param role role of this process
+	 * @param workerCount number of workers
+	 * @param queueSize maximum number of waiting updates
+	 */
+	@Autowired
+	public FeedRefresher(FeedUpdater updater, FeedManager feedManager, ApplicationEventPublisher eventPublisher,
+			FeedLeaseManager leaseManager, FreshnessTracker freshness, RefreshRequestRepository requestRepo, Role role,
+			@Value("${podcache.refresh.workers}") int workerCount,
+			@Value("${podcache.refresh.queue}") int queueSize) {
+		this.updater = Objects.requireNonNull(updater);
+		this.feedManager = Objects.requireNonNull(feedManager);
+		this.eventPublisher = Objects.requireNonNull(eventPublisher);
+		this.leaseManager = Objects.requireNonNull(leaseManager);
+		this.freshness = Objects.requireNonNull(freshness);
+		this.requestRepo = Objects.requireNonNull(requestRepo);
+		this.role = Objects.requireNonNull(role);
+
+		if(workerCount < 1 || queueSize < 1)
+			throw new IllegalArgumentException("Need at least one refresh worker and queue slot.");
+
+		AtomicInteger counter = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueSize), (runnable) -> {
+					Thread thread = new Thread(runnable, "refresh-" + counter.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Refresh the given feed. If the feed is already being updated, the running update is returned instead. The feed
+	 * is requested even if its last response is still fresh.
+	 *
+	 * @param feedName name of the feed
+	 * @return completes once the update is done, true if the feed was found and updated
+	 * @throws RejectedExecutionException when too many updates are waiting
+	 */
+	public CompletableFuture<Boolean> refresh(String feedName) {
+		return refresh(feedName, null);
+	}
+
+	/**
+	 * Refresh the given feed using content pushed by its hub. If the feed is already being updated, the running
+	 * update may have read the feed before the change. The pushed content is applied once it is done in that case.
+	 * Without content, the running update is returned, as with {@link #refresh(String)}.
+	 *
+	 * @param feedName name of the feed
+	 * @param content content pushed by the feed's hub or null to download the feed
+	 * @return completes once the update is done, true if the feed was found and updated
+	 * @throws RejectedExecutionException when too many updates are waiting
+	 */
+	public synchronized CompletableFuture<Boolean> refresh(String feedName, @Nullable SyndFeed content) {
+		CompletableFuture<Boolean> running = this.inFlight.get(feedName);
+
+		if(running != null && content == null) {
+			LOG.debug("Feed '{}' is already being updated. Waiting for the running update.", feedName);
+			return running;
+		}
+
+		if(running != null) {
+			LOG.debug("Feed '{}' is already being updated. Applying pushed content afterwards.", feedName);
+			return running.handle((updated, error) -> null).thenCompose((ignored) -> refresh(feedName, content));
+		}
+
+		CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+		// Note: The task can't complete before it has been registered, as it needs this instance's lock.
+		this.executor.execute(() -> runRefresh(feedName, content, future));
+		this.inFlight.put(feedName, future);
+
+		return future;
+	}
+
+	/**
+	 * Update all feeds. If an update of all feeds is already running, it is returned instead.
+	 *
+	 * @param forceUpdateURLs true to force update of files and URLs
+	 * @return completes once the update is done
+	 * @throws RejectedExecutionException when too many updates are waiting
+	 */
+	public synchronized CompletableFuture<Void> refreshAll(boolean forceUpdateURLs) {
+		CompletableFuture<Void> running = this.allInFlight;
+
+		if(running != null) {
+			LOG.debug("All feeds are already being updated. Waiting for the running update.");
+			return running;
+		}
+
+		CompletableFuture<Void> future = new CompletableFuture<>();
+		this.executor.execute(() -> runRefreshAll(forceUpdateURLs, future));
+		this.allInFlight = future;
+
+		return future;
+	}
+
+	/**
+	 * Returns true if feeds are refreshed by this process. Otherwise refreshes have to be {@link #request(String)
+	 * requested}.
+	 *
+	 * @return boolean
+	 */
+	public boolean isUpdating() {
+		return this.role.isUpdating();
+	}
+
+	/**
+	 * Ask the updating process to refresh the given feed. Used by serving processes, which don't update feeds. The
+	 * request is picked up within {@link #takeRequests() the configured interval}. Requests for a feed that is
+	 * already waiting are merged.
+	 *
+	 * @param feedName name of the feed
+	 */
+	public void request(String feedName) {
+		try {
+			this.requestRepo.save(new RefreshRequest(feedName, new Date()));
+		} catch(DataAccessException e) {
+			// Another process has requested it at the same time.
+			LOG.debug("Failed to request refresh of feed '{}'.", feedName, e);
+		}
+	}
+
+	/**
+	 * Refresh the feeds requested by serving processes. Run regularly by updating processes. Each request is taken
+	 * by a single process. Requests that can't be started right away are kept for the next run.
+	 */
+	@Scheduled(fixedDelayString = "${podcache.refresh.request-interval}")
+	public void takeRequests() {
+		if(!this.role.isUpdating())
+			return;
+
+		for(RefreshRequest request : this.requestRepo.findAll()) {
+			String feedName = request.getFeedName();
+
+			if(this.requestRepo.take(feedName, request.getRequested()) == 0)
+				continue;
+
+			LOG.debug("Refreshing feed '{}' as requested by a serving process.", feedName);
+
+			try {
+				refresh(feedName);
+			} catch(RejectedExecutionException e) {
+				LOG.debug("Postponing requested refresh of feed '{}', too many updates are waiting.", feedName);
+				request(feedName);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Stop all workers. Waiting updates are dropped.
+	 */
+	@PreDestroy
+	public void stop() {
+		this.executor.shutdownNow();
+	}
+
+	/**
+	 * Update a single feed. Runs on a worker.
+	 *
+	 * @param feedName name of the feed
+	 * @param content content pushed by the feed's hub or null to download the feed
+	 * @param future completed with the result
+	 */
+	private void runRefresh(String feedName, @Nullable SyndFeed content, CompletableFuture<Boolean> future) {
+		boolean updated = false;
+		Throwable error = null;
+
+		this.eventPublisher.publishEvent(FeedEvent.updateStarted(feedName));
+
+		try {
+			// Asked for explicitly, so don't rely on the last response. Pushed content is used as is.
+			Feed feed = (content == null ? this.feedManager.getFeed(feedName) : null);
+
+			if(feed != null)
+				this.freshness.expire(feed.getUrl());
+
+			updated = this.updater.update(feedName, content);
+		} catch(IOException | RuntimeException e) {
+			LOG.error("Failed to refresh feed '{}'.", feedName, e);
+			this.eventPublisher.publishEvent(FeedEvent.failed(feedName, null, e.getMessage()));
+			error = e;
+		}
+
+		this.eventPublisher.publishEvent(FeedEvent.updateFinished(feedName));
+
+		synchronized(this) {
+			this.inFlight.remove(feedName, future);
+		}
+
+		if(error != null)
+			future.completeExceptionally(error);
+		else
+			future.complete(updated);
+	}
+
+	/**
+	 * Update all feeds that are not being updated already. Runs on a worker.
+	 *
+	 * @param forceUpdateURLs true to force update of files and URLs
+	 * @param future completed with the result
+	 */
+	private void runRefreshAll(boolean forceUpdateURLs, CompletableFuture<Void> future) {
+		CompletableFuture<Boolean> feedFuture = new CompletableFuture<>();
+		List<String> claimed = new ArrayList<>();
+		Set<String> skipped = new HashSet<>();
+		Throwable error = null;
+
+		this.eventPublisher.publishEvent(FeedEvent.updateStarted(null));
+
+		try {
+			// Claim all feeds, so refreshes wait for this update.
+			synchronized(this) {
+				for(Feed feed : this.feedManager.getFeeds()) {
+					if(this.inFlight.putIfAbsent(feed.getName(), feedFuture) == null)
+						claimed.add(feed.getName());
+					else
+						skipped.add(feed.getName());
+				}
+			}
+
+			if(!skipped.isEmpty())
+				LOG.debug("Feeds {} are already being updated. Skipping.", skipped);
+
+			if(this.leaseManager.isEnabled())
+				updateLeased(forceUpdateURLs, skipped);
+			else
+				this.updater.updateAll(forceUpdateURLs, skipped);
+		} catch(IOException | RuntimeException e) {
+			LOG.error("Failed to update all feeds.", e);
+			this.eventPublisher.publishEvent(FeedEvent.failed(null, null, e.getMessage()));
+			error = e;
+		}
+
+		this.eventPublisher.publishEvent(FeedEvent.updateFinished(null));
+
+		synchronized(this) {
+			claimed.forEach((feedName) -> this.inFlight.remove(feedName, feedFuture));
+			this.allInFlight = null;
+		}
+
+		if(error != null) {
+			feedFuture.completeExceptionally(error);
+			future.completeExceptionally(error);
+		} else {
+			feedFuture.complete(true);
+			future.complete(null);
+		}
+	}
+
+	/**
+	 * Update all feeds together with other processes. Claims batches of feeds until all of them have been updated
+	 * by any process. Feeds leased by other processes are waited for, they are taken over if their leases expire.
+	 * 
+	 * @param forceUpdateURLs true to force update of files and URLs
+	 * @param skipFeeds names of feeds not to update, as they are being updated already
+	 * @throws IOException when interrupted
+	 */
+	private void updateLeased(boolean forceUpdateURLs, Set<String> skipFeeds) throws IOException {
+		// Feeds updated by another process shortly before count as updated, its run started at about the same time.
+		Date since = new Date(System.currentTimeMillis() - this.leaseManager.getLeaseTime());
+
+		LOG.info("Updating all known feeds together with other processes.");
+
+		while(true) {
+			List<String> claimed = this.leaseManager.claim(since, skipFeeds);
+
+			if(claimed.isEmpty()) {
+				List<String> pending = this.leaseManager.getPending(since);
+				pending.removeAll(skipFeeds);
+
+				if(pending.isEmpty())
+					break;
+
+				LOG.debug("Waiting for feeds {} being updated by other processes.", pending);
+
+				try {
+					Thread.sleep(this.leaseManager.getHeartbeatInterval());
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("Interrupted while waiting for other processes.");
+				}
+
+				continue;
+			}
+
+			for(int i = 0; i < claimed.size(); i++) {
+				String feedName = claimed.get(i);
+
+				// Stopping? Leave the remaining feeds to other processes.
+				if(Thread.currentThread().isInterrupted()) {
+					this.leaseManager.release(claimed.subList(i, claimed.size()));
+					throw new InterruptedIOException("Interrupted while updating feeds.");
+				}
+
+				try {
+					this.updater.updateOrDelete(feedName, forceUpdateURLs);
+				} catch(IOException | RuntimeException e) {
+					// Not retried by other processes, as with a single process.
+					LOG.error("Failed to update feed '{}'.", feedName, e);
+					this.eventPublisher.publishEvent(FeedEvent.failed(feedName, null, e.getMessage()));
+				} finally {
+					this.leaseManager.complete(feedName);
+				}
+			}
+		}
+
+		LOG.info("All feeds have been updated.");
+	}
+}
@@ -1,33 +1,42 @@
 package at.dire.podcache;
 
 import java.io.IOException;
-import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 
+import org.jdom2.Element;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.scheduling.annotation.Async;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.rometools.rome.feed.synd.SyndEnclosure;
 import com.rometools.rome.feed.synd.SyndEntry;
 import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.feed.synd.SyndImage;
 
 import at.dire.podcache.data.Feed;
+import at.dire.podcache.event.FeedEvent;
+import at.dire.podcache.jfr.FeedUpdateEvent;
 import at.dire.podcache.service.FeedURLBuilder;
 import at.dire.podcache.util.DownloadResponse;
 import at.dire.podcache.util.FeedUtils;
+import at.dire.podcache.util.HostUnavailableException;
 
 /**
- * Component used to update a {@link Feed}'s content. Will also download all of the attachments of the feed
- * automatically.
+ * Component used to update a {@link Feed}'s content. Missing attachments of the feed are added to the
+ * {@link DownloadQueue} automatically.
  * 
  * @author diredev
  */
@@ -42,65 +51,131 @@ public class FeedUpdater {
 	/** Component used to build URLs */
 	private final FeedURLBuilder urlBuilder;
 
+	/** Queue for content file downloads */
+	private final DownloadQueue downloadQueue;
+
+	/** Maps enclosure URLs to local files */
+	private final EnclosureResolver enclosureResolver;
+
+	/** Keeps the version history of feed files */
+	private final FeedVersionManager versionManager;
+
+	/** Subscribes to hubs advertised by feeds */
+	private final WebSubSubscriber webSubSubscriber;
+
+	/** Stores the original content of feeds */
+	private final OriginalFeedStore originalStore;
+
+	/** Full text index over all entries */
+	private final SearchIndex searchIndex;
+
+	/** Moves unused content files to cold storage */
+	private final ColdStorageMover coldStorage;
+
+	/** Applies retention settings */
+	private final FeedPruner pruner;
+
+	/** Handles feed and entry artwork */
+	private final ArtworkManager artworkManager;
+
+	/** Publishes the progress of updates */
+	private final ApplicationEventPublisher eventPublisher;
+
+	/** Leases of feeds updated together with other processes */
+	private final FeedLeaseManager leaseManager;
+
+	/** Counts polls and downloads */
+	private final AccessStatistics statistics;
+
 	/**
 	 * Creates a new instance
 	 * 
 	 * @param feedManager the feed manager
 	 * @param urlBuilder URL builder
+	 * @param downloadQueue download queue
+	 * @param enclosureResolver enclosure resolver
+	 * @param versionManager version history of feed files
+	 * @param webSubSubscriber WebSub subscriber
+	 * @param originalStore store for original feed content
+	 * @param searchIndex full text index
+	 * @param coldStorage cold storage mover
+	 * @param pruner feed pruner
+	 * @param artworkManager artwork manager
+	 * @param eventPublisher publishes the progress of updates
+	 * @param leaseManager feed lease manager
+	 * @param statistics access statistics
 	 */
 	@Autowired
-	public FeedUpdater(FeedManager feedManager, FeedURLBuilder urlBuilder) {
+	public FeedUpdater(FeedManager feedManager, FeedURLBuilder urlBuilder, DownloadQueue downloadQueue,
+			EnclosureResolver enclosureResolver, FeedVersionManager versionManager,
+			WebSubSubscriber webSubSubscriber, OriginalFeedStore originalStore, SearchIndex searchIndex,
+			ColdStorageMover coldStorage, FeedPruner pruner, ArtworkManager artworkManager,
+			ApplicationEventPublisher eventPublisher, FeedLeaseManager leaseManager, AccessStatistics statistics) {
 		this.feedManager = Objects.requireNonNull(feedManager);
 		this.urlBuilder = Objects.requireNonNull(urlBuilder);
-	}
-
-	/**
-	 * The same as {@link #updateAll(boolean)} but called asynchronously through Spring.
-	 * 
-	 * @param forceUpdateURLs true to force update of files and URLs
-	 * @throws IOException when the update fails
-	 */
-	@Async
-	@Transactional(rollbackFor = IOException.class)
-	public void updateAllAsync(boolean forceUpdateURLs) throws IOException {
-		try {
-			updateAll(forceUpdateURLs);
-		} catch(IOException e) {
-			LOG.error("Failed to update all feeds", e);
-			throw e;
-		}
+		this.downloadQueue = Objects.requireNonNull(downloadQueue);
+		this.enclosureResolver = Objects.requireNonNull(enclosureResolver);
+		this.versionManager = Objects.requireNonNull(versionManager);
+		this.webSubSubscriber = Objects.requireNonNull(webSubSubscriber);
+		this.originalStore = Objects.requireNonNull(originalStore);
+		this.searchIndex = Objects.requireNonNull(searchIndex);
+		this.coldStorage = Objects.requireNonNull(coldStorage);
+		this.pruner = Objects.requireNonNull(pruner);
+		this.artworkManager = Objects.requireNonNull(artworkManager);
+		this.eventPublisher = Objects.requireNonNull(eventPublisher);
+		this.leaseManager = Objects.requireNonNull(leaseManager);
+		this.statistics = Objects.requireNonNull(statistics);
 	}
 
 	/**
 	 * Update all feeds and download all attachments. Will also delete all feeds that have been
-	 * {@link Feed#isMarkedForDeletion() marked} for deletion.
+	 * {@link Feed#isMarkedForDeletion() marked} for deletion. Feeds whose host is
+	 * {@link HostUnavailableException unavailable} or has asked to slow down are skipped.
 	 * 
 	 * @param forceUpdateURLs true to force update of files and URLs
+	 * @param skipFeeds names of feeds not to update, as they are being updated already
 	 * @throws IOException when the update fails
+	 * @see FeedRefresher#refreshAll(boolean)
 	 */
 	@Transactional(rollbackFor = IOException.class)
-	public void updateAll(boolean forceUpdateURLs) throws IOException {
+	public void updateAll(boolean forceUpdateURLs, Collection<String> skipFeeds) throws IOException {
 		List<Feed> feedsToUpdate = new ArrayList<>();
 
 		LOG.info("Updating all known feeds.");
 
 		// Iterate over all feeds while also locking all feed entries.
-		for(Feed feed : this.feedManager.getFeedsAndLock()) {
-			// Check if we have to delete this feed
-			if(feed.isMarkedForDeletion()) {
-				LOG.info("Removing feed entry and content for '{}'.", feed);
+		List<Feed> feeds = new ArrayList<>();
+		this.feedManager.getFeedsAndLock().forEach(feeds::add);
+		int index = 0;
 
-				// Feed is marked for deletion. Remove content and delete.
-				this.feedManager.getContentManager().delete(feed.getName());
+		for(Feed feed : feeds) {
+			index++;
 
-				// Remove from database
-				this.feedManager.delete(feed);
+			// Check if we have to delete this feed
+			if(feed.isMarkedForDeletion()) {
+				delete(feed);
+			} else if(skipFeeds.contains(feed.getName())) {
+				LOG.debug("Feed '{}' is being updated already. Skipping.", feed);
 			} else {
 				// Feed isn't going to be deleted. Update the feed's files.
-				if(update(feed, forceUpdateURLs)) {
+				boolean updated;
+
+				try {
+					updated = update(feed, forceUpdateURLs, null);
+				} catch(HostUnavailableException e) {
+					// Skipped before anything was changed. Don't let a dead or throttled host hold up all other feeds.
+					LOG.warn("Skipping update of feed '{}'. {}", feed, e.getMessage());
+					this.eventPublisher.publishEvent(FeedEvent.failed(feed.getName(), null, e.getMessage()));
+					updated = false;
+				}
+
+				if(updated) {
 					LOG.info("Updating feed '{}' from URL '{}'.", feed, feed.getUrl());
 					feedsToUpdate.add(feed);
 				}
+
+				this.eventPublisher.publishEvent(FeedEvent.updateProgress(feed.getName(), index, feeds.size(),
+						updated));
 			}
 		}
 
@@ -111,89 +186,274 @@ public class FeedUpdater {
 	}
 
 	/**
-	 * Update the {@link ContentManager#ORIGINAL_FEED_FILE feed file} for the given feed.
+	 * Update a single feed or delete it if it has been {@link Feed#isMarkedForDeletion() marked}, as
+	 * {@link #updateAll(boolean, Collection)} does for each feed. Used to update feeds together with other processes,
+	 * which only lock the feed they are updating.
+	 * 
+	 * @param feedName name of the feed
+	 * @param forceUpdateURLs true to force update of files and URLs
+	 * @return true if the feed was updated
+	 * @throws IOException when the update fails
+	 * @see FeedLeaseManager
+	 */
+	@Transactional(rollbackFor = IOException.class)
+	public boolean updateOrDelete(String feedName, boolean forceUpdateURLs) throws IOException {
+		Feed feed = this.feedManager.getFeedAndLock(feedName);
+
+		if(feed == null) {
+			LOG.debug("Feed '{}' has been removed by another process.", feedName);
+			this.leaseManager.delete(feedName);
+			return false;
+		}
+
+		if(feed.isMarkedForDeletion()) {
+			delete(feed);
+			return false;
+		}
+
+		boolean updated = update(feed, forceUpdateURLs, null);
+		this.eventPublisher.publishEvent(FeedEvent.updateProgress(feedName, 1, 1, updated));
+
+		if(!updated)
+			return false;
+
+		LOG.info("Updating feed '{}' from URL '{}'.", feed, feed.getUrl());
+		this.feedManager.update(feed);
+		return true;
+	}
+
+	/**
+	 * Update a single feed and queue its missing attachments. Feeds that are marked for deletion are not updated.
+	 * 
+	 * @param feedName name of the feed
+	 * @param content content pushed by the feed's hub or null to download the feed
+	 * @return true if the feed was found and updated
+	 * @throws IOException when the update fails
+	 */
+	@Transactional(rollbackFor = IOException.class)
+	public boolean update(String feedName, @Nullable SyndFeed content) throws IOException {
+		Feed feed = this.feedManager.getFeedAndLock(feedName);
+
+		if(feed == null || feed.isMarkedForDeletion()) {
+			LOG.debug("Feed '{}' not found. Not updating anything.", feedName);
+			return false;
+		}
+
+		LOG.info("Updating feed '{}'.", feed);
+
+		boolean updated = update(feed, false, content);
+		this.eventPublisher.publishEvent(FeedEvent.updateProgress(feedName, 1, 1, updated));
+
+		if(!updated)
+			return false;
+
+		this.feedManager.update(feed);
+		return true;
+	}
+
+	/**
+	 * Delete a feed that has been marked for deletion, including its queued downloads and content.
+	 * 
+	 * @param feed the feed
+	 * @throws IOException when deleting the content fails
+	 */
+	private void delete(Feed feed) throws IOException {
+		LOG.info("Removing feed entry and content for '{}'.", feed);
+
+		// Feed is marked for deletion. Remove queued downloads and content and delete.
+		this.downloadQueue.cancel(feed.getName());
+		this.enclosureResolver.delete(feed.getName());
+		this.versionManager.delete(feed.getName());
+		this.webSubSubscriber.unsubscribe(feed.getName());
+		this.feedManager.getContentManager().delete(feed.getName());
+		this.originalStore.delete(feed.getName());
+		this.searchIndex.remove(feed.getName());
+		this.coldStorage.delete(feed.getName());
+		this.leaseManager.delete(feed.getName());
+		this.statistics.delete(feed.getName());
+
+		// Remove from database
+		this.feedManager.delete(feed);
+	}
+
+	/**
+	 * Update the original content of the given feed in the {@link OriginalFeedStore} and apply the feed's retention
+	 * settings. Pruned entries are removed from the store and remembered, so they aren't added again by later
+	 * updates.
+	 * 
+	 * @param feed the feed
+	 * @param content content pushed by the feed's hub or null to download the feed
+	 * @return the new feed's data
+	 * @throws IOException when the download fails
+	 */
+	private OriginalFeedData updateOriginalFeed(Feed feed, @Nullable SyndFeed content) throws IOException {
+		OriginalFeedData merged = mergeOriginalFeed(feed, content);
+		List<SyndEntry> prunedEntries = this.pruner.prune(feed, merged.getData());
+
+		if(prunedEntries.isEmpty())
+			return merged;
+
+		// Rewrite the store without the pruned entries.
+		this.originalStore.create(feed.getName(), merged.getData());
+
+		Set<String> prunedURIs = this.originalStore.getPrunedEntries(feed.getName());
+		prunedURIs.addAll(FeedUtils.getURIs(prunedEntries));
+		this.originalStore.setPrunedEntries(feed.getName(), prunedURIs);
+
+		List<SyndEntry> addedEntries = new ArrayList<>(merged.getAddedEntries());
+		addedEntries.removeAll(prunedEntries);
+
+		return new OriginalFeedData(merged.getData(), true, addedEntries, prunedEntries);
+	}
+
+	/**
+	 * Merge new content into the original content of the given feed in the {@link OriginalFeedStore}.
 	 * 
 	 * <p>
-	 * This method takes last update date and file existence into account. When the method is done, the (merged)
-	 * original feed file will exist on the file system.
+	 * This method takes last update date and store content into account. When the method is done, the store will hold
+	 * the (merged) original feed. Only new entries are written. Entries that have been pruned before are skipped.
 	 * </p>
 	 * 
 	 * @param feed the feed
+	 * @param content content pushed by the feed's hub or null to download the feed
 	 * @return the new feed's data
 	 * @throws IOException when the download fails
 	 */
-	private OriginalFeedData updateOriginalFeed(Feed feed) throws IOException {
+	private OriginalFeedData mergeOriginalFeed(Feed feed, @Nullable SyndFeed content) throws IOException {
 		SyndFeed feedData;
 
-		// Does a local (original) file exist?
-		Path originalFile = this.feedManager.getContentManager().getFile(feed.getName(),
-				ContentManager.ORIGINAL_FEED_FILE);
-		boolean originalFileExists = Files.exists(originalFile);
-
-		// Download the feed
-		try(DownloadResponse response = this.feedManager.getContentManager().download(feed, !originalFileExists)) {
-			if(response.isUnchanged()) {
-				// Feed is unchanged and original file exists (cannot normally happen otherwise). Load feed and return.
-				LOG.debug("Feed not updated and original file exists. Loading original file at '{}'.", originalFile);
-				return new OriginalFeedData(FeedUtils.read(originalFile), false);
-			}
+		// Does the store hold the original feed?
+		boolean originalExists = this.originalStore.exists(feed.getName());
+
+		// Download the feed, unless the hub has sent the new content already.
+		if(content != null) {
+			LOG.debug("Using content pushed by the hub of feed '{}'.", feed);
+			feedData = content;
+		} else {
+			FeedUpdateEvent downloadEvent = new FeedUpdateEvent(feed.getName(), FeedUpdateEvent.PHASE_DOWNLOAD);
+
+			try(DownloadResponse response = this.feedManager.getContentManager().download(feed, !originalExists)) {
+				downloadEvent.commit();
 
-			// Load to memory using Rome API
-			LOG.debug("Loading new original feed from download response.");
-			feedData = FeedUtils.read(response.getContent());
+				if(response.isUnchanged()) {
+					// Feed is unchanged and original exists (cannot normally happen otherwise). Load feed and return.
+					LOG.debug("Feed not updated and original exists. Loading original feed '{}'.", feed);
+					return new OriginalFeedData(loadOriginalFeed(feed), false, Collections.emptyList());
+				}
+
+				// Load to memory using Rome API
+				LOG.debug("Loading new original feed from download response.");
+				FeedUpdateEvent parseEvent = new FeedUpdateEvent(feed.getName(), FeedUpdateEvent.PHASE_PARSE);
+				feedData = FeedUtils.read(response.getContent());
+				parseEvent.commit(feedData.getEntries().size());
+
+				// The feed may have started or stopped advertising a hub.
+				this.webSubSubscriber.discover(feed.getName(), feed.getUrl(), feedData);
+			}
 		}
 
-		// Create a backup of the original file (which will exist at
-		if(originalFileExists) {
-			Path backupFile = originalFile.resolveSibling(originalFile.getFileName().toString() + ".save");
-			LOG.debug("Creating backup of original stream at '{}'.", backupFile);
-			Files.copy(originalFile, backupFile, StandardCopyOption.REPLACE_EXISTING);
+		// Don't add pruned entries again.
+		Set<String> prunedURIs = this.originalStore.getPrunedEntries(feed.getName());
+
+		if(!prunedURIs.isEmpty()) {
+			Set<String> upstreamURIs = new HashSet<>(FeedUtils.getURIs(feedData.getEntries()));
+			feedData.getEntries().removeIf((entry) -> prunedURIs.contains(entry.getUri()));
 
-			// Original file exists. Load, merge entries and save.
-			LOG.debug("Loading ");
-			SyndFeed originalData = FeedUtils.read(originalFile);
-			FeedUtils.mergeEntries(originalData, feedData);
+			// A downloaded feed is complete. Forget entries the feed doesn't list anymore.
+			if(content == null && prunedURIs.retainAll(upstreamURIs))
+				this.originalStore.setPrunedEntries(feed.getName(), prunedURIs);
+		}
+
+		if(!originalExists) {
+			// Without an original, all entries are new.
+			FeedUpdateEvent mergeEvent = new FeedUpdateEvent(feed.getName(), FeedUpdateEvent.PHASE_MERGE);
+			this.originalStore.create(feed.getName(), feedData);
+			mergeEvent.commit(feedData.getEntries().size());
 
-			// Also set new data variable to the merged feed.
-			feedData = originalData;
+			return new OriginalFeedData(feedData, true, new ArrayList<>(feedData.getEntries()));
 		}
 
-		// Save the original feed data (may be merged data now)
-		FeedUtils.write(feedData, originalFile);
+		// Original exists. Load, merge entries and store the new ones only.
+		SyndFeed originalData = loadOriginalFeed(feed);
+
+		FeedUpdateEvent mergeEvent = new FeedUpdateEvent(feed.getName(), FeedUpdateEvent.PHASE_MERGE);
+		List<SyndEntry> addedEntries = FeedUtils.mergeEntries(originalData, feedData);
+		this.originalStore.append(feed.getName(), feedData, addedEntries);
+		mergeEvent.commit(addedEntries.size());
+
+		return new OriginalFeedData(originalData, true, addedEntries);
+	}
+
+	/**
+	 * Load the original feed from the {@link OriginalFeedStore}.
+	 * 
+	 * @param feed the feed
+	 * @return the original feed's data
+	 * @throws IOException when the feed cannot be read
+	 */
+	private SyndFeed loadOriginalFeed(Feed feed) throws IOException {
+		FeedUpdateEvent event = new FeedUpdateEvent(feed.getName(), FeedUpdateEvent.PHASE_LOAD);
+		SyndFeed originalData = this.originalStore.load(feed.getName());
+
+		if(originalData == null)
+			throw new IOException(String.format("Original content of feed '%s' is missing.", feed));
 
-		return new OriginalFeedData(feedData, true);
+		event.commit(originalData.getEntries().size());
+		return originalData;
 	}
 
 	/**
-	 * Update the given feed's content by downloading new data. Will then also download all content files and Note that
-	 * this logic will not update the feed in the database.
+	 * Update the given feed's content by downloading new data. Will then also queue all missing content files. Note
+	 * that this logic will not update the feed in the database.
 	 * 
 	 * @param feed feed
 	 * @param forceUpdateURLs true to force update of files and URLs
+	 * @param content content pushed by the feed's hub or null to download the feed
 	 * @throws IOException when downloading fail
 	 * @return true if the content was updated
 	 */
-	private boolean update(Feed feed, boolean forceUpdateURLs) throws IOException {
+	private boolean update(Feed feed, boolean forceUpdateURLs, @Nullable SyndFeed content) throws IOException {
 		// Download the feed and load original feed.
-		OriginalFeedData originalFeedData = updateOriginalFeed(feed);
+		OriginalFeedData originalFeedData = updateOriginalFeed(feed, content);
 		boolean updated = originalFeedData.isUpdated();
+
+		// Index the new entries.
+		this.searchIndex.update(feed.getName(), originalFeedData.getData().getEntries(),
+				originalFeedData.getAddedEntries());
+
+		// Remove pruned entries and their files.
+		if(!originalFeedData.getPrunedEntries().isEmpty()) {
+			this.searchIndex.remove(feed.getName(), FeedUtils.getURIs(originalFeedData.getPrunedEntries()));
+			this.pruner.deleteFiles(feed, originalFeedData.getPrunedEntries(), originalFeedData.getData());
+		}
 		
 		// Update the URLs found in the feed (if any new data was downloaded)
 		Path feedFile = this.feedManager.getFeedFile(feed.getName());
 
 		if(updated || forceUpdateURLs || !feed.isAllFilesUpdated() || Files.notExists(feedFile)) {
-			LOG.debug("Downloading missing content files for feed '{}'.", feed);
+			LOG.debug("Queueing missing content files for feed '{}'.", feed);
 
-			if(updateContentFiles(feed, originalFeedData.getData())) {
-				feed.setAllFilesUpdated(true);
+			FeedUpdateEvent enclosuresEvent = new FeedUpdateEvent(feed.getName(), FeedUpdateEvent.PHASE_ENCLOSURES);
+			boolean urlsUpdated = updateContentFiles(feed, originalFeedData.getData());
+			enclosuresEvent.commit(originalFeedData.getData().getEntries().size());
 
+			if(urlsUpdated || originalFeedData.isUpdated() || Files.notExists(feedFile)) {
 				// Save feed file.
 				LOG.debug("Saving updated feed data for feed '{}' to '{}'", feed, feedFile);
+				FeedUpdateEvent writeEvent = new FeedUpdateEvent(feed.getName(), FeedUpdateEvent.PHASE_WRITE);
 				FeedUtils.write(originalFeedData.getData(), feedFile);
-				return true;
-			} else {
+				this.versionManager.addVersion(feed.getName(), FeedUtils.getURIs(originalFeedData.getAddedEntries()));
+				writeEvent.commit(originalFeedData.getData().getEntries().size());
+				updated = true;
+			} else
 				LOG.debug("Feed content  of '{}' hasn't been updated.", feed);
-				return false;
+
+			// All files are updated once the queue holds no more downloads for this feed.
+			boolean allFilesUpdated = !this.downloadQueue.hasPending(feed.getName());
+
+			if(allFilesUpdated != feed.isAllFilesUpdated()) {
+				feed.setAllFilesUpdated(allFilesUpdated);
+				updated = true;
 			}
 		}
 
@@ -201,22 +461,33 @@ public class FeedUpdater {
 	}
 
 	/**
-	 * Download and update attachment files for the given feed.
+	 * Queue missing attachment and artwork files for the given feed and update the feed's URLs to the local files.
+	 * 
+	 * <p>
+	 * URLs are updated right away. Until a file has been downloaded, requests for it are redirected to the original
+	 * URL.
+	 * </p>
 	 * 
 	 * @param feed feed
 	 * @param feedData RSS feed
-	 * @throws IOException when a download fails
 	 * @return true if any entry was updated
 	 */
-	private boolean updateContentFiles(Feed feed, SyndFeed feedData) throws IOException {
+	private boolean updateContentFiles(Feed feed, SyndFeed feedData) {
 		boolean anyUpdated = false;
 
+		// The feed's artwork is shown first, download it before any entry.
+		if(this.artworkManager.isEnabled())
+			anyUpdated |= updateArtwork(feed, feedData.getImage(), feedData.getForeignMarkup(), Long.MAX_VALUE);
+
 		for(SyndEntry entry : feedData.getEntries()) {
 			String entryLink = entry.getLink();
+			Date published = entry.getPublishedDate();
+
+			// Newest entries are downloaded first.
+			long priority = (published != null ? published.getTime() : 0);
 
-			// Next we download all the attachments.
+			// Next we queue all the missing attachments.
 			for(SyndEnclosure enclosure : entry.getEnclosures()) {
-				Path newContentFile;
 				String enclosureUrl = enclosure.getUrl();
 
 				// Handle NULL value in enclosure URL (broken feed)
@@ -225,39 +496,91 @@ public class FeedUpdater {
 					continue;
 				}
 
-				try {
-					newContentFile = this.feedManager.getContentManager().download(feed.getName(),
-							new URL(enclosureUrl), false);
-				} catch(IOException e) {
-					LOG.error(
-							String.format("Failed to download entry '%s' of feed '%s'. Will continue with next entry.",
-									enclosure.getUrl(), feed.getName()),
-							e);
-					continue;
-				}
-
-				String localURL = this.urlBuilder.getURL(feed.getName(), newContentFile.getFileName().toString())
-						.toString();
+				String localURL = getLocalURL(feed, enclosureUrl, priority, 0);
 
 				// If the URL matches the entry's, update that URL as well.
-				if(entryLink.equals(enclosure.getUrl()) && !localURL.equals(entryLink)) {
+				if(enclosureUrl.equals(entryLink) && !localURL.equals(entryLink)) {
 					LOG.debug("Updating entry URL to '{}'.", localURL);
 					entry.setLink(localURL);
 					anyUpdated = true;
 				}
 
 				// Update the attachment's URL
-				if(!localURL.equals(enclosure.getUrl())) {
+				if(!localURL.equals(enclosureUrl)) {
 					LOG.debug("Updating enclosure with local URL '{}'.", localURL);
 					enclosure.setUrl(localURL);
 					anyUpdated = true;
 				}
 			}
+
+			if(this.artworkManager.isEnabled())
+				anyUpdated |= updateArtwork(feed, null, entry.getForeignMarkup(), priority);
 		}
 
 		return anyUpdated;
 	}
 
+	/**
+	 * Queue the given artwork and update its URLs to the local files. Feeds may reference the same image several
+	 * times, it is only downloaded once.
+	 * 
+	 * @param feed feed
+	 * @param image the channel's image, if any
+	 * @param foreignMarkup foreign markup of the channel or entry, holding <code>itunes:image</code>
+	 * @param priority download priority
+	 * @return true if any URL was updated
+	 */
+	private boolean updateArtwork(Feed feed, @Nullable SyndImage image, List<Element> foreignMarkup, long priority) {
+		boolean anyUpdated = false;
+		int size = this.artworkManager.getFeedSize();
+
+		if(image != null && image.getUrl() != null && !image.getUrl().isEmpty()) {
+			String localURL = getLocalURL(feed, image.getUrl(), priority, size);
+
+			if(!localURL.equals(image.getUrl())) {
+				LOG.debug("Updating feed image with local URL '{}'.", localURL);
+				image.setUrl(localURL);
+				anyUpdated = true;
+			}
+		}
+
+		for(Element element : FeedUtils.getITunesImages(foreignMarkup)) {
+			String imageUrl = element.getAttributeValue(FeedUtils.ITUNES_IMAGE_HREF);
+
+			if(imageUrl == null || imageUrl.isEmpty())
+				continue;
+
+			String localURL = getLocalURL(feed, imageUrl, priority, size);
+
+			if(!localURL.equals(imageUrl)) {
+				LOG.debug("Updating artwork with local URL '{}'.", localURL);
+				element.setAttribute(FeedUtils.ITUNES_IMAGE_HREF, localURL);
+				anyUpdated = true;
+			}
+		}
+
+		return anyUpdated;
+	}
+
+	/**
+	 * Returns the local URL for the given remote file and queues the file if it hasn't been downloaded yet. URLs with
+	 * the same canonical URL share the same file.
+	 * 
+	 * @param feed feed
+	 * @param url remote URL as found in the feed
+	 * @param priority download priority
+	 * @param size size of the image variant to reference or 0 for the file itself
+	 * @return local URL
+	 */
+	private String getLocalURL(Feed feed, String url, long priority, int size) {
+		String fileName = this.enclosureResolver.resolve(feed.getName(), url).getFileName();
+
+		if(Files.notExists(this.feedManager.getContentManager().getFile(feed.getName(), fileName)))
+			this.downloadQueue.enqueue(feed.getName(), url, fileName, priority);
+
+		return this.urlBuilder.getURL(feed.getName(), fileName, size).toString();
+	}
+
 	/**
 	 * Utility structure holding feed data and update information.
 	 * 
@@ -270,6 +593,12 @@ public class FeedUpdater {
 		/** True if new data was downloaded */
 		private final boolean updated;
 
+		/** Entries that have been added by the download */
+		private final List<SyndEntry> addedEntries;
+
+		/** Entries that have been removed by retention settings */
+		private final List<SyndEntry> prunedEntries;
+
 		/**
 		 * Returns the feed' data.
 		 * 
@@ -288,15 +617,49 @@ public class FeedUpdater {
 			return updated;
 		}
 
+		/**
+		 * Returns the entries that have been added by the download.
+		 * 
+		 * @return entries
+		 */
+		public List<SyndEntry> getAddedEntries() {
+			return addedEntries;
+		}
+
+		/**
+		 * Returns the entries that have been removed by retention settings.
+		 * 
+		 * @return entries
+		 */
+		public List<SyndEntry> getPrunedEntries() {
+			return prunedEntries;
+		}
+
+		/**
+		 * Creates a new instance.
+		 * 
+		 * @param data feed data
+		 * @param updated true if new data was downloaded
+		 * @param addedEntries entries added by the download
+		 */
+		public OriginalFeedData(SyndFeed data, boolean updated, List<SyndEntry> addedEntries) {
+			this(data, updated, addedEntries, Collections.emptyList());
+		}
+
 		/**
 		 * Creates a new instance.
 		 * 
 		 * @param data feed data
 		 * @param updated true if new data was downloaded
+		 * @param addedEntries entries added by the download
+		 * @param prunedEntries entries removed by retention settings
 		 */
-		public OriginalFeedData(SyndFeed data, boolean updated) {
+		public OriginalFeedData(SyndFeed data, boolean updated, List<SyndEntry> addedEntries,
+				List<SyndEntry> prunedEntries) {
 			this.data = data;
 			this.updated = updated;
+			this.addedEntries = addedEntries;
+			this.prunedEntries = prunedEntries;
 		}
 	}
 }
@@ -0,0 +1,147 @@
+package at.dire.podcache;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import at.dire.podcache.data.FeedVersion;
+import at.dire.podcache.data.FeedVersionRepository;
+
+/**
+ * Component that keeps the version history of the {@link ContentManager#FEED_FILE feed files}. Used to answer delta
+ * requests (RFC 3229) with only the entries a client has not seen yet.
+ *
+ * @author diredev
+ */
+@Component
+public class FeedVersionManager {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(FeedVersionManager.class);
+
+	/** The DB repository for versions */
+	private final FeedVersionRepository versionRepo;
+
+	/** Number of versions to keep per feed */
+	private final int historySize;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param versionRepo DB repository
+	 * @param historySize number of versions to keep per feed
+	 */
+	@Autowired
+	public FeedVersionManager(FeedVersionRepository versionRepo,
+			@Value("${podcache.feed.history}") int historySize) {
+		this.versionRepo = Objects.requireNonNull(versionRepo);
+		this.historySize = historySize;
+	}
+
+	/**
+	 * Record a new version of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @param addedEntries URIs of the entries added in this version
+	 * @return the new version number
+	 */
+	@Transactional
+	public int addVersion(String feedName, Collection<String> addedEntries) {
+		int version = getCurrentVersion(feedName) + 1;
+
+		LOG.debug("Recording version {} of feed '{}' with {} new entries.", version, feedName, addedEntries.size());
+		this.versionRepo.save(new FeedVersion(feedName, version, addedEntries));
+		this.versionRepo.deleteOlderThan(feedName, version - this.historySize + 1);
+
+		return version;
+	}
+
+	/**
+	 * Returns the current version of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return version or 0 if no version has been recorded
+	 */
+	@Transactional(readOnly = true)
+	public int getCurrentVersion(String feedName) {
+		FeedVersion latest = this.versionRepo.findFirstByFeedNameOrderByVersionDesc(feedName);
+		return (latest != null ? latest.getVersion() : 0);
+	}
+
+	/**
+	 * Returns the URIs of all entries added after the given version.
+	 *
+	 * @param feedName name of the feed
+	 * @param version the version known to the client
+	 * @return URIs or null if the history does not reach back to the given version
+	 */
+	@Transactional(readOnly = true)
+	public @Nullable Set<String> getEntriesSince(String feedName, int version) {
+		List<FeedVersion> versions = this.versionRepo.findByFeedNameAndVersionGreaterThanOrderByVersionAsc(feedName,
+				version);
+
+		// Versions must be complete. Older ones may have been removed already.
+		if(versions.isEmpty() || versions.get(0).getVersion() != version + 1)
+			return null;
+
+		Set<String> result = new LinkedHashSet<>();
+		versions.forEach((feedVersion) -> result.addAll(feedVersion.getAddedEntries()));
+		return result;
+	}
+
+	/**
+	 * Remove the history of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 */
+	@Transactional
+	public void delete(String feedName) {
+		this.versionRepo.deleteByFeedName(feedName);
+	}
+
+	/**
+	 * Returns the entity tag for the given version.
+	 *
+	 * @param version version
+	 * @return entity tag including quotes
+	 */
+	public static String toETag(int version) {
+		return "\"v" + version + "\"";
+	}
+
+	/**
+	 * Returns the highest version referenced by the given <code>If-None-Match</code> header.
+	 *
+	 * @param ifNoneMatch header value
+	 * @return version or -1 if none found
+	 */
+	public static int parseETags(String ifNoneMatch) {
+		int result = -1;
+
+		for(String etag : ifNoneMatch.split(",")) {
+			String value = etag.trim();
+
+			if(value.startsWith("W/"))
+				value = value.substring(2);
+
+			if(value.length() > 3 && value.startsWith("\"v") && value.endsWith("\"")) {
+				try {
+					result = Math.max(result, Integer.parseInt(value.substring(2, value.length() - 1)));
+				} catch(NumberFormatException e) {
+					// Not one of ours.
+				}
+			}
+		}
+
+		return result;
+	}
+}
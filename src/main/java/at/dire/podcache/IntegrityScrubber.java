@@ -0,0 +1,377 @@
+package at.dire.podcache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataAccessException;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import at.dire.podcache.data.Enclosure;
+import at.dire.podcache.event.FeedEvent;
+import at.dire.podcache.util.FileDigest;
+
+/**
+ * Verifies stored content files against the {@link FileDigest digest} recorded when they were downloaded. Files that
+ * are shorter than recorded or whose checksum does not match are removed and queued for download again.
+ *
+ * <p>
+ * Runs on a single low priority thread and reads no more than the configured number of bytes per second, so that
+ * serving content is not slowed down. Files downloaded before checksums were recorded are checked against their
+ * content length, if known, and their digest is recorded on first verification.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class IntegrityScrubber implements ApplicationRunner {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(IntegrityScrubber.class);
+
+	/** Size of the buffer used to read files. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Number of enclosures read from the database at once. */
+	private static final int BATCH_SIZE = 50;
+
+	/** The content manager */
+	private final ContentManager contentManager;
+
+	/** Holds the recorded digests */
+	private final EnclosureResolver enclosureResolver;
+
+	/** Used to download damaged files again */
+	private final DownloadQueue downloadQueue;
+
+	/** Publishes damaged files */
+	private final ApplicationEventPublisher eventPublisher;
+
+	/** Role of this process */
+	private final Role role;
+
+	/** Elects the process verifying files */
+	private final FeedLeaseManager leaseManager;
+
+	/** Files are verified again after this time in milliseconds or 0 if disabled */
+	private final long interval;
+
+	/** Maximum number of bytes to read per second or 0 for no limit */
+	private final long rate;
+
+	/** Interval in milliseconds in which the scrubber checks for files due for verification */
+	private final long pollInterval;
+
+	/** The scrubber thread or null if not running */
+	private @Nullable Thread thread;
+
+	/** Time in nanoseconds at which the next buffer may be read */
+	private long nextRead = System.nanoTime();
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param contentManager content manager
+	 * @param enclosureResolver enclosure resolver
+	 * @param downloadQueue download queue
+	 * @param eventPublisher publishes damaged files
+	 * @param role role of this process
+	 * @param leaseManager elects the process verifying files
+	 * @param intervalDays number of days after which files are verified again, 0 to disable
+	 * @param rate maximum KB to read per second, 0 for no limit
+	 * @param pollInterval interval in milliseconds in which files due for verification are checked
+	 */
+	@Autowired
+	public IntegrityScrubber(ContentManager contentManager, EnclosureResolver enclosureResolver,
+			DownloadQueue downloadQueue, ApplicationEventPublisher eventPublisher, Role role,
+			FeedLeaseManager leaseManager, @Value("${podcache.scrub.interval-days}") int intervalDays, @Value("${podcache.scrub.rate}") long rate,
+			@Value("${podcache.scrub.poll-interval}") long pollInterval) {
+		this.contentManager = Objects.requireNonNull(contentManager);
+		this.enclosureResolver = Objects.requireNonNull(enclosureResolver);
+		this.downloadQueue = Objects.requireNonNull(downloadQueue);
+		this.eventPublisher = Objects.requireNonNull(eventPublisher);
+		this.role = Objects.requireNonNull(role);
+		this.leaseManager = Objects.requireNonNull(leaseManager);
+		this.interval = TimeUnit.DAYS.toMillis(Math.max(intervalDays, 0));
+		this.rate = Math.max(rate, 0) * 1024;
+		this.pollInterval = pollInterval;
+	}
+
+	/**
+	 * Start the scrubber thread. Not started by serving processes or if disabled. Of several updating processes, only
+	 * the {@link FeedLeaseManager#isPrimary() primary} one verifies files.
+	 */
+	@Override
+	public synchronized void run(ApplicationArguments args) {
+		if(this.thread != null || this.interval == 0 || !this.role.isUpdating())
+			return;
+
+		Thread scrubber = new Thread(this::work, "integrity-scrubber");
+		scrubber.setDaemon(true);
+		scrubber.setPriority(Thread.MIN_PRIORITY);
+		scrubber.start();
+
+		this.thread = scrubber;
+	}
+
+	/**
+	 * Stop the scrubber thread.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		Thread scrubber = this.thread;
+
+		if(scrubber == null)
+			return;
+
+		this.thread = null;
+		scrubber.interrupt();
+	}
+
+	/**
+	 * The loop run by the scrubber thread.
+	 */
+	private void work() {
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				int count;
+
+				try {
+					count = (this.leaseManager.isPrimary() ? verifyDue() : 0);
+				} catch(DataAccessException e) {
+					LOG.error("Failed to read enclosures due for verification.", e);
+					count = 0;
+				}
+
+				if(count == 0)
+					Thread.sleep(this.pollInterval);
+			}
+		} catch(InterruptedException | InterruptedIOException e) {
+			LOG.debug("Integrity scrubber stopped.");
+		}
+	}
+
+	/**
+	 * Verify the next batch of files due for verification.
+	 *
+	 * @return number of verified files
+	 * @throws InterruptedIOException when interrupted
+	 */
+	private int verifyDue() throws InterruptedIOException {
+		Date before = new Date(System.currentTimeMillis() - this.interval);
+		Map<String, Enclosure> files = new LinkedHashMap<>();
+
+		// Several enclosures may share a file.
+		for(Enclosure enclosure : this.enclosureResolver.findUnverified(before, BATCH_SIZE))
+			files.putIfAbsent(enclosure.getFeedName() + "/" + enclosure.getFileName(), enclosure);
+
+		for(Enclosure enclosure : files.values()) {
+			try {
+				verify(enclosure);
+			} catch(InterruptedIOException e) {
+				throw e;
+			} catch(IOException | DataAccessException e) {
+				LOG.error("Failed to verify file '{}'.", enclosure, e);
+				postpone(enclosure);
+			}
+		}
+
+		return files.size();
+	}
+
+	/**
+	 * Verify the file of the given enclosure and queue it for download if it is damaged.
+	 *
+	 * @param enclosure enclosure
+	 * @throws IOException when reading the file fails
+	 */
+	private void verify(Enclosure enclosure) throws IOException {
+		String feedName = enclosure.getFeedName();
+		String fileName = enclosure.getFileName();
+		Path file = this.contentManager.getFile(feedName, fileName);
+
+		// Not downloaded yet or removed? Missing files are queued by feed updates.
+		if(Files.notExists(file)) {
+			LOG.debug("File '{}' does not exist. Not verifying.", enclosure);
+
+			if(isUnchanged(enclosure))
+				this.enclosureResolver.recordVerification(feedName, fileName, null);
+
+			return;
+		}
+
+		FileDigest expected = getRecordedDigest(enclosure);
+		Long contentLength = enclosure.getContentLength();
+		long expectedSize = (expected != null ? expected.getSize()
+				: (contentLength != null ? contentLength : -1));
+
+		// Short files are detected without reading them.
+		FileTime modified = Files.getLastModifiedTime(file);
+		long size = Files.size(file);
+		FileDigest actual = null;
+
+		if(expectedSize < 0 || size == expectedSize) {
+			try {
+				actual = read(file);
+			} catch(NoSuchFileException e) {
+				LOG.debug("File '{}' was moved or removed while verifying.", enclosure);
+				postpone(enclosure);
+				return;
+			}
+
+			// Replaced while reading?
+			if(!modified.equals(Files.getLastModifiedTime(file))) {
+				LOG.debug("File '{}' was changed while verifying.", enclosure);
+				postpone(enclosure);
+				return;
+			}
+
+			if(expected == null || expected.equals(actual)) {
+				LOG.debug("File '{}' is intact: {}.", enclosure, actual);
+				this.enclosureResolver.recordVerification(feedName, fileName, actual);
+				return;
+			}
+		}
+
+		repair(enclosure, expected, expectedSize, actual != null ? actual.toString() : size + " bytes");
+	}
+
+	/**
+	 * Remove the damaged file of the given enclosure and queue it for download again.
+	 *
+	 * @param enclosure enclosure
+	 * @param expected digest recorded for the file or null if unknown
+	 * @param expectedSize expected size of the file
+	 * @param actual description of the file found
+	 * @throws IOException when removing the file fails
+	 */
+	private void repair(Enclosure enclosure, @Nullable FileDigest expected, long expectedSize, String actual)
+			throws IOException {
+		String feedName = enclosure.getFeedName();
+		String fileName = enclosure.getFileName();
+
+		// Has the file been downloaded again in the meantime?
+		if(!isUnchanged(enclosure))
+			return;
+
+		String message = String.format("File is damaged: expected %s, found %s.",
+				(expected != null ? expected.toString() : expectedSize + " bytes"), actual);
+		LOG.warn("File '{}' is damaged: expected {}, found {}. Will download again.", enclosure,
+				(expected != null ? expected : expectedSize + " bytes"), actual);
+
+		this.contentManager.deleteFile(feedName, fileName);
+		this.enclosureResolver.recordVerification(feedName, fileName, null);
+		this.downloadQueue.enqueue(feedName, enclosure.getSourceUrl(), fileName, System.currentTimeMillis());
+		this.eventPublisher.publishEvent(FeedEvent.failed(feedName, fileName, message));
+	}
+
+	/**
+	 * Verify the file of the given enclosure again in the next interval, keeping the recorded digest. Nothing is
+	 * recorded if the file has been downloaded again in the meantime.
+	 *
+	 * @param enclosure enclosure
+	 */
+	private void postpone(Enclosure enclosure) {
+		if(isUnchanged(enclosure))
+			this.enclosureResolver.recordVerification(enclosure.getFeedName(), enclosure.getFileName(),
+					getRecordedDigest(enclosure));
+	}
+
+	/**
+	 * Returns true if no enclosure stored in the same file has been updated since the given enclosure was read.
+	 *
+	 * @param enclosure enclosure
+	 * @return boolean
+	 */
+	private boolean isUnchanged(Enclosure enclosure) {
+		for(Enclosure current : this.enclosureResolver.findByFile(enclosure.getFeedName(), enclosure.getFileName())) {
+			if(!Objects.equals(current.getChecksum(), enclosure.getChecksum())
+					|| !Objects.equals(current.getVerified(), enclosure.getVerified()))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Read the given file at the configured rate and return its digest.
+	 *
+	 * @param file the file
+	 * @return digest
+	 * @throws IOException when reading fails or when interrupted
+	 */
+	private FileDigest read(Path file) throws IOException {
+		MessageDigest digest = FileDigest.newMessageDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long size = 0;
+		int read;
+
+		try(InputStream in = Files.newInputStream(file)) {
+			while((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+				size += read;
+				throttle(read);
+			}
+		}
+
+		return FileDigest.of(digest, size);
+	}
+
+	/**
+	 * Wait until the next buffer may be read.
+	 *
+	 * @param bytes number of bytes just read
+	 * @throws InterruptedIOException when interrupted
+	 */
+	private void throttle(int bytes) throws InterruptedIOException {
+		if(Thread.currentThread().isInterrupted())
+			throw new InterruptedIOException("Interrupted while verifying files.");
+
+		if(this.rate == 0)
+			return;
+
+		long now = System.nanoTime();
+
+		// Do not save up reads while idle.
+		this.nextRead = Math.max(this.nextRead, now) + TimeUnit.SECONDS.toNanos(bytes) / this.rate;
+
+		try {
+			TimeUnit.NANOSECONDS.sleep(this.nextRead - now);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while verifying files.");
+		}
+	}
+
+	/**
+	 * Returns the digest recorded for the file of the given enclosure.
+	 *
+	 * @param enclosure enclosure
+	 * @return digest or null if unknown
+	 */
+	private static @Nullable FileDigest getRecordedDigest(Enclosure enclosure) {
+		String checksum = enclosure.getChecksum();
+		Long fileSize = enclosure.getFileSize();
+
+		return (checksum != null && fileSize != null ? new FileDigest(checksum, fileSize) : null);
+	}
+}
@@ -0,0 +1,533 @@
+package at.dire.podcache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndFeed;
+
+import at.dire.podcache.util.FeedUtils;
+
+/**
+ * Append-only store for the original (merged) content of feeds.
+ *
+ * <p>
+ * The entries of a feed are stored in immutable segment files below the feed's {@link #ORIGIN_DIR origin directory}.
+ * Every update that adds entries writes a small new segment holding only these entries. The {@link #MANIFEST manifest}
+ * lists the segments of the current version of the feed, newest first. The oldest segment also provides the feed's
+ * channel data.
+ * </p>
+ *
+ * <p>
+ * Before the manifest is replaced, the current manifest is kept as a snapshot. Since segments are never changed, a
+ * snapshot is enough to restore a previous version: copy it over the manifest. Feeds with many segments are compacted
+ * into a single segment in the background. When updating together with other processes, feeds are compacted right
+ * away instead, while the process still holds the feed's lease and no other process writes its manifest.
+ * </p>
+ *
+ * <p>
+ * The store also remembers the URIs of entries that have been {@link #setPrunedEntries(String, Set) pruned} by a
+ * retention policy, so that they are not added again while the feed still lists them.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class OriginalFeedStore {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(OriginalFeedStore.class);
+
+	/** Directory within the feed's directory holding the segments. */
+	public static final String ORIGIN_DIR = "_origin";
+
+	/** File listing the current segments, newest first. */
+	private static final String MANIFEST = "manifest";
+
+	/** File listing the URIs of pruned entries. */
+	private static final String PRUNED = "pruned";
+
+	/** Directory holding previous manifests. */
+	private static final String SNAPSHOT_DIR = "snapshots";
+
+	/** Pattern for segment file names. */
+	private static final Pattern SEGMENT_PATTERN = Pattern.compile("^segment-(\\d+)\\.xml$");
+
+	/** Used to access feed directories */
+	private final ContentManager contentManager;
+
+	/** Number of snapshots to keep per feed */
+	private final int snapshots;
+
+	/** Feeds are compacted once they have more than this number of segments */
+	private final int compactionThreshold;
+
+	/** True to compact feeds when appending instead of in the background */
+	private final boolean compactImmediately;
+
+	/** Feeds waiting for compaction */
+	private final Set<String> compactionCandidates = ConcurrentHashMap.newKeySet();
+
+	/** Locks used to synchronize access to a feed's segments */
+	private final Map<String, Object> locks = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param contentManager content manager
+	 * @param snapshots number of snapshots to keep per feed
+	 * @param compactionThreshold maximum number of segments before a feed is compacted
+	 * @param compactImmediately true to compact feeds when appending, used when updating together with other
+	 *        processes
+	 */
+	@Autowired
+	public OriginalFeedStore(ContentManager contentManager, @Value("${podcache.feed.snapshots}") int snapshots,
+			@Value("${podcache.feed.compaction.segments}") int compactionThreshold,
+			@Value("${podcache.cluster.enabled}") boolean compactImmediately) {
+		this.contentManager = Objects.requireNonNull(contentManager);
+		this.snapshots = snapshots;
+		this.compactionThreshold = Math.max(compactionThreshold, 1);
+		this.compactImmediately = compactImmediately;
+	}
+
+	/**
+	 * Returns the time the content of the given feed has last been changed. Changes by other processes are included,
+	 * so this can be used to detect them.
+	 *
+	 * @param feedName name of the feed
+	 * @return time in milliseconds or 0 if the store holds no content for the feed
+	 * @throws IOException when reading the time fails
+	 */
+	public long getModified(String feedName) throws IOException {
+		Path manifest = getOriginDir(feedName).resolve(MANIFEST);
+
+		if(Files.notExists(manifest))
+			return 0;
+
+		return Files.getLastModifiedTime(manifest).toMillis();
+	}
+
+	/**
+	 * Returns true if the store holds content for the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return boolean
+	 * @throws IOException when migrating a legacy file fails
+	 */
+	public boolean exists(String feedName) throws IOException {
+		synchronized(getLock(feedName)) {
+			return !readManifest(feedName).isEmpty();
+		}
+	}
+
+	/**
+	 * Load the current content of the given feed. All segments are merged into a single feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return feed or null if the store holds no content for the feed
+	 * @throws IOException when reading fails
+	 */
+	public @Nullable SyndFeed load(String feedName) throws IOException {
+		synchronized(getLock(feedName)) {
+			return load(feedName, readManifest(feedName));
+		}
+	}
+
+	/**
+	 * Replace the content of the given feed by the given file. The file is moved into the store.
+	 *
+	 * @param feedName name of the feed
+	 * @param file feed file
+	 * @throws IOException when writing fails
+	 */
+	public void create(String feedName, Path file) throws IOException {
+		synchronized(getLock(feedName)) {
+			Path segment = nextSegment(feedName);
+			Files.move(file, segment, StandardCopyOption.REPLACE_EXISTING);
+			writeManifest(feedName, Collections.singletonList(segment.getFileName().toString()));
+		}
+	}
+
+	/**
+	 * Replace the content of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @param feedData feed
+	 * @throws IOException when writing fails
+	 */
+	public void create(String feedName, SyndFeed feedData) throws IOException {
+		synchronized(getLock(feedName)) {
+			Path segment = nextSegment(feedName);
+			FeedUtils.write(feedData, segment);
+			writeManifest(feedName, Collections.singletonList(segment.getFileName().toString()));
+		}
+	}
+
+	/**
+	 * Add the given entries to the feed. The entries are written to a new segment, together with the given feed's
+	 * channel data. Nothing is written if there are no entries.
+	 *
+	 * @param feedName name of the feed
+	 * @param feedData the feed the entries belong to
+	 * @param entries new entries
+	 * @throws IOException when writing fails
+	 */
+	public void append(String feedName, SyndFeed feedData, List<SyndEntry> entries) throws IOException {
+		if(entries.isEmpty())
+			return;
+
+		synchronized(getLock(feedName)) {
+			List<String> manifest = new ArrayList<>(readManifest(feedName));
+			Path segment = nextSegment(feedName);
+
+			LOG.debug("Adding {} entries to feed '{}' in segment '{}'.", entries.size(), feedName, segment);
+			writeSegment(feedData, entries, segment);
+
+			manifest.add(0, segment.getFileName().toString());
+			writeManifest(feedName, manifest);
+
+			if(manifest.size() <= this.compactionThreshold)
+				return;
+
+			if(!this.compactImmediately) {
+				this.compactionCandidates.add(feedName);
+				return;
+			}
+
+			try {
+				compact(feedName);
+			} catch(IOException e) {
+				LOG.error("Failed to compact feed '{}'.", feedName, e);
+			}
+		}
+	}
+
+	/**
+	 * Merge all segments of the given feed into a single segment. Segments only referenced by removed snapshots are
+	 * deleted.
+	 *
+	 * @param feedName name of the feed
+	 * @throws IOException when reading or writing fails
+	 */
+	public void compact(String feedName) throws IOException {
+		synchronized(getLock(feedName)) {
+			List<String> manifest = readManifest(feedName);
+
+			if(manifest.size() > 1) {
+				SyndFeed feedData = load(feedName, manifest);
+
+				if(feedData != null) {
+					Path segment = nextSegment(feedName);
+
+					LOG.info("Compacting {} segments of feed '{}' into '{}'.", manifest.size(), feedName, segment);
+					FeedUtils.write(feedData, segment);
+					writeManifest(feedName, Collections.singletonList(segment.getFileName().toString()));
+				}
+			}
+
+			this.compactionCandidates.remove(feedName);
+		}
+	}
+
+	/**
+	 * Runs regularly to compact feeds with too many segments.
+	 */
+	@Scheduled(fixedDelayString = "${podcache.feed.compaction.interval}")
+	public void compactAll() {
+		for(String feedName : new ArrayList<>(this.compactionCandidates)) {
+			try {
+				compact(feedName);
+			} catch(IOException e) {
+				LOG.error("Failed to compact feed '{}'.", feedName, e);
+			}
+		}
+	}
+
+	/**
+	 * Returns the URIs of entries that have been pruned from the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return URIs
+	 * @throws IOException when reading fails
+	 */
+	public Set<String> getPrunedEntries(String feedName) throws IOException {
+		synchronized(getLock(feedName)) {
+			Path file = getOriginDir(feedName).resolve(PRUNED);
+
+			if(Files.notExists(file))
+				return new HashSet<>();
+
+			return new HashSet<>(Files.readAllLines(file, StandardCharsets.UTF_8));
+		}
+	}
+
+	/**
+	 * Replace the URIs of entries that have been pruned from the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @param uris URIs
+	 * @throws IOException when writing fails
+	 */
+	public void setPrunedEntries(String feedName, Set<String> uris) throws IOException {
+		synchronized(getLock(feedName)) {
+			Path originDir = getOriginDir(feedName);
+			Path file = originDir.resolve(PRUNED);
+
+			if(uris.isEmpty()) {
+				Files.deleteIfExists(file);
+				return;
+			}
+
+			// Replace atomically.
+			Files.createDirectories(originDir);
+			Path tempFile = originDir.resolve(PRUNED + ".tmp");
+			Files.write(tempFile, uris, StandardCharsets.UTF_8);
+			Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+	}
+
+	/**
+	 * Remove the lock of the given feed, after the feed's directory has been deleted.
+	 *
+	 * @param feedName name of the feed
+	 */
+	public void delete(String feedName) {
+		this.compactionCandidates.remove(feedName);
+		this.locks.remove(feedName);
+	}
+
+	/**
+	 * Load the feed made up of the given segments.
+	 *
+	 * @param feedName name of the feed
+	 * @param manifest segment names, newest first
+	 * @return feed or null if there are no segments
+	 * @throws IOException when reading fails
+	 */
+	private @Nullable SyndFeed load(String feedName, List<String> manifest) throws IOException {
+		if(manifest.isEmpty())
+			return null;
+
+		Path originDir = getOriginDir(feedName);
+
+		// The oldest segment provides the channel. Newer entries are added in front.
+		SyndFeed result = FeedUtils.read(originDir.resolve(manifest.get(manifest.size() - 1)));
+
+		for(int i = manifest.size() - 2; i >= 0; i--)
+			result.getEntries().addAll(0, FeedUtils.read(originDir.resolve(manifest.get(i))).getEntries());
+
+		return result;
+	}
+
+	/**
+	 * Write a segment holding the given entries.
+	 *
+	 * @param feedData the feed providing the channel data
+	 * @param entries entries to write
+	 * @param segment target file
+	 * @throws IOException when writing fails
+	 */
+	private static void writeSegment(SyndFeed feedData, List<SyndEntry> entries, Path segment) throws IOException {
+		List<SyndEntry> allEntries = feedData.getEntries();
+
+		try {
+			feedData.setEntries(entries);
+			FeedUtils.write(feedData, segment);
+		} finally {
+			feedData.setEntries(allEntries);
+		}
+	}
+
+	/**
+	 * Read the manifest of the given feed. Migrates the legacy {@link ContentManager#ORIGINAL_FEED_FILE original feed
+	 * file} if necessary.
+	 *
+	 * @param feedName name of the feed
+	 * @return segment names, newest first
+	 * @throws IOException when reading fails
+	 */
+	private List<String> readManifest(String feedName) throws IOException {
+		Path manifest = getOriginDir(feedName).resolve(MANIFEST);
+
+		if(Files.exists(manifest))
+			return Files.readAllLines(manifest, StandardCharsets.UTF_8);
+
+		// Stores without manifest may still have the original file.
+		Path legacyFile = this.contentManager.getFile(feedName, ContentManager.ORIGINAL_FEED_FILE);
+
+		if(Files.notExists(legacyFile))
+			return Collections.emptyList();
+
+		LOG.info("Moving original feed file '{}' to segment store.", legacyFile);
+		Path segment = nextSegment(feedName);
+		Files.move(legacyFile, segment);
+		Files.deleteIfExists(legacyFile.resolveSibling(legacyFile.getFileName().toString() + ".save"));
+
+		List<String> result = Collections.singletonList(segment.getFileName().toString());
+		writeManifest(feedName, result);
+		return result;
+	}
+
+	/**
+	 * Replace the manifest of the given feed. The previous manifest is kept as a snapshot and segments no longer
+	 * referenced by any manifest are removed.
+	 *
+	 * @param feedName name of the feed
+	 * @param segments segment names, newest first
+	 * @throws IOException when writing fails
+	 */
+	private void writeManifest(String feedName, List<String> segments) throws IOException {
+		Path originDir = getOriginDir(feedName);
+		Path manifest = originDir.resolve(MANIFEST);
+		Path snapshotDir = originDir.resolve(SNAPSHOT_DIR);
+
+		// Keep the current manifest as a snapshot. Manifests may be written twice within a millisecond.
+		if(Files.exists(manifest) && this.snapshots > 0) {
+			Files.createDirectories(snapshotDir);
+
+			long now = System.currentTimeMillis();
+			Path snapshot = snapshotDir.resolve(Long.toString(now));
+
+			for(int i = 1; Files.exists(snapshot); i++)
+				snapshot = snapshotDir.resolve(now + "-" + i);
+
+			Files.copy(manifest, snapshot);
+		}
+
+		// Replace atomically.
+		Path tempFile = originDir.resolve(MANIFEST + ".tmp");
+		Files.write(tempFile, segments, StandardCharsets.UTF_8);
+		Files.move(tempFile, manifest, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		removeUnreferenced(feedName, segments);
+	}
+
+	/**
+	 * Remove snapshots exceeding the {@link #snapshots maximum number} and all segments no longer referenced by the
+	 * current manifest or any remaining snapshot.
+	 *
+	 * @param feedName name of the feed
+	 * @param segments segments of the current manifest
+	 * @throws IOException when deleting fails
+	 */
+	private void removeUnreferenced(String feedName, List<String> segments) throws IOException {
+		Path originDir = getOriginDir(feedName);
+		Path snapshotDir = originDir.resolve(SNAPSHOT_DIR);
+		Set<String> referenced = new HashSet<>(segments);
+
+		if(Files.isDirectory(snapshotDir)) {
+			List<Path> snapshotFiles = new ArrayList<>();
+
+			try(DirectoryStream<Path> stream = Files.newDirectoryStream(snapshotDir)) {
+				stream.forEach(snapshotFiles::add);
+			}
+
+			// Newest first
+			snapshotFiles.sort(Comparator.comparing((Path file) -> toNumbers(file.getFileName().toString()),
+					Comparator.comparingLong((long[] numbers) -> numbers[0]).thenComparingLong((numbers) -> numbers[1]))
+					.reversed());
+
+			for(int i = 0; i < snapshotFiles.size(); i++) {
+				if(i < this.snapshots)
+					referenced.addAll(Files.readAllLines(snapshotFiles.get(i), StandardCharsets.UTF_8));
+				else
+					Files.delete(snapshotFiles.get(i));
+			}
+		}
+
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(originDir, "segment-*.xml")) {
+			for(Path segment : stream) {
+				if(!referenced.contains(segment.getFileName().toString())) {
+					LOG.debug("Removing unreferenced segment '{}'.", segment);
+					Files.delete(segment);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the file for a new segment of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return segment file, does not exist yet
+	 * @throws IOException when accessing the directory fails
+	 */
+	private Path nextSegment(String feedName) throws IOException {
+		Path originDir = getOriginDir(feedName);
+		Files.createDirectories(originDir);
+		long last = 0;
+
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(originDir, "segment-*.xml")) {
+			for(Path segment : stream) {
+				Matcher matcher = SEGMENT_PATTERN.matcher(segment.getFileName().toString());
+
+				if(matcher.matches())
+					last = Math.max(last, Long.parseLong(matcher.group(1)));
+			}
+		}
+
+		return originDir.resolve(String.format("segment-%06d.xml", last + 1));
+	}
+
+	/**
+	 * Returns the origin directory of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return directory
+	 */
+	private Path getOriginDir(String feedName) {
+		return this.contentManager.getFile(feedName, ORIGIN_DIR);
+	}
+
+	/**
+	 * Returns the lock for the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return lock
+	 */
+	private Object getLock(String feedName) {
+		return this.locks.computeIfAbsent(feedName, (name) -> new Object());
+	}
+
+	/**
+	 * Parse the given snapshot name, made of the time it was taken and an optional sequence number.
+	 *
+	 * @param name file name, e.g. <code>1530000000000</code> or <code>1530000000000-1</code>
+	 * @return time and sequence number, both 0 if invalid
+	 */
+	private static long[] toNumbers(String name) {
+		int separator = name.indexOf('-');
+
+		try {
+			if(separator < 0)
+				return new long[] { Long.parseLong(name), 0 };
+
+			return new long[] { Long.parseLong(name.substring(0, separator)),
+					Long.parseLong(name.substring(separator + 1)) };
+		} catch(NumberFormatException e) {
+			return new long[] { 0, 0 };
+		}
+	}
+}
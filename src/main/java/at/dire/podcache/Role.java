@@ -0,0 +1,67 @@
+package at.dire.podcache;
+
+import java.util.List;
+import java.util.Locale;
+
+import org.springframework.boot.ApplicationArguments;
+
+/**
+ * The role of this process, selected with {@link Arguments#ROLE}. Several processes sharing the data directory and
+ * the database may run with different roles, e.g. one updating process next to several serving processes.
+ *
+ * @author diredev
+ */
+public enum Role {
+	/** Serve clients and update feeds. The default. */
+	ALL,
+
+	/**
+	 * Serve clients only. Feeds are neither updated on schedule nor on startup and no files are downloaded. New feed
+	 * files written by the updating process are picked up as they are.
+	 */
+	SERVE,
+
+	/** Update feeds and download files only. No web server is started. */
+	UPDATE;
+
+	/**
+	 * Returns true if this process serves clients.
+	 *
+	 * @return boolean
+	 */
+	public boolean isServing() {
+		return this != UPDATE;
+	}
+
+	/**
+	 * Returns true if this process updates feeds and runs background jobs changing stored files.
+	 *
+	 * @return boolean
+	 */
+	public boolean isUpdating() {
+		return this != SERVE;
+	}
+
+	/**
+	 * Returns the role selected by the given command line arguments.
+	 *
+	 * @param args command line arguments
+	 * @return role, {@link #ALL} if none has been selected
+	 * @throws IllegalArgumentException if the role is unknown
+	 */
+	public static Role fromArguments(ApplicationArguments args) {
+		List<String> values = args.getOptionValues(Arguments.ROLE);
+
+		if(values == null || values.isEmpty())
+			return ALL;
+
+		String value = values.get(values.size() - 1);
+
+		try {
+			return valueOf(value.trim().toUpperCase(Locale.ROOT));
+		} catch(IllegalArgumentException e) {
+			throw new IllegalArgumentException(String.format("Unknown role '%s'. Use one of 'all', 'serve' or "
+					+ "'update'.", value), e);
+		}
+	}
+}
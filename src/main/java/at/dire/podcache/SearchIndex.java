@@ -0,0 +1,1014 @@
+package at.dire.podcache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.rometools.rome.feed.synd.SyndContent;
+import com.rometools.rome.feed.synd.SyndEntry;
+import com.rometools.rome.feed.synd.SyndFeed;
+
+import at.dire.podcache.data.Feed;
+
+/**
+ * In-memory inverted index over the titles, descriptions and authors of all feed entries.
+ *
+ * <p>
+ * The index is updated incrementally with the entries added by each feed update. It is written to disk regularly and
+ * on shutdown, so it does not have to be rebuilt on startup. Feeds missing from the index are indexed on startup.
+ * </p>
+ *
+ * <p>
+ * Serving processes never write the index. They load it again whenever the updating process has written it. When
+ * several processes update feeds together, only the {@link FeedLeaseManager#isPrimary() primary} one writes the index.
+ * The others load it like serving processes. Since they don't index their updates for the primary process, it
+ * regularly compares the modification times of all feeds in the {@link OriginalFeedStore} to those recorded when
+ * indexing them, and indexes changed feeds again.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class SearchIndex implements ApplicationRunner {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(SearchIndex.class);
+
+	/** Version of the file format. */
+	private static final int FILE_VERSION = 2;
+
+	/** Weight of terms found in titles. */
+	private static final float TITLE_WEIGHT = 3;
+
+	/** Weight of terms found in authors. */
+	private static final float AUTHOR_WEIGHT = 2;
+
+	/** Weight of terms found in descriptions. */
+	private static final float DESCRIPTION_WEIGHT = 1;
+
+	/** Maximum length of stored texts. */
+	private static final int MAX_TEXT_LENGTH = 1024;
+
+	/** Matches HTML tags. */
+	private static final Pattern HTML_TAG = Pattern.compile("<[^>]*>");
+
+	/** Matches combining marks. */
+	private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
+	/** Splits text into terms. */
+	private static final Pattern TERM_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+	/** Used to list feeds */
+	private final FeedManager feedManager;
+
+	/** Used to load feeds that are missing from the index */
+	private final OriginalFeedStore originalStore;
+
+	/** Elects the process writing the index */
+	private final FeedLeaseManager leaseManager;
+
+	/** The index file */
+	private final Path indexFile;
+
+	/** Role of this process */
+	private final Role role;
+
+	/** Guards all data below */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/** All documents by ID */
+	private final List<Document> documents = new ArrayList<>();
+
+	/** IDs of removed documents */
+	private final BitSet deleted = new BitSet();
+
+	/** Postings by term */
+	private final Map<String, Postings> postings = new HashMap<>();
+
+	/** Modification times of the indexed feeds in the store when they were indexed, by feed name */
+	private final Map<String, Long> feeds = new HashMap<>();
+
+	/** True if the index has been changed since it was written */
+	private boolean dirty = false;
+
+	/** Modification time of the index file when it was loaded or 0 */
+	private volatile long loadedModified = 0;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param feedManager feed manager
+	 * @param originalStore store for original feed content
+	 * @param leaseManager elects the process writing the index
+	 * @param indexFile file holding the index
+	 * @param role role of this process
+	 */
+	@Autowired
+	public SearchIndex(FeedManager feedManager, OriginalFeedStore originalStore, FeedLeaseManager leaseManager,
+			@Value("${podcache.search.file}") Path indexFile, Role role) {
+		this.feedManager = Objects.requireNonNull(feedManager);
+		this.originalStore = Objects.requireNonNull(originalStore);
+		this.leaseManager = Objects.requireNonNull(leaseManager);
+		this.indexFile = Objects.requireNonNull(indexFile).toAbsolutePath();
+		this.role = Objects.requireNonNull(role);
+	}
+
+	/**
+	 * Load the index from disk.
+	 */
+	@PostConstruct
+	public void init() {
+		if(Files.notExists(this.indexFile))
+			return;
+
+		try {
+			load();
+		} catch(IOException e) {
+			LOG.warn("Failed to load search index '{}'. Rebuilding index.", this.indexFile, e);
+			clear();
+		}
+	}
+
+	/**
+	 * Add all feeds missing from the index. Left to the process writing the index.
+	 */
+	@Override
+	public void run(ApplicationArguments args) throws IOException {
+		sync();
+	}
+
+	/**
+	 * Runs regularly in the process writing the index to add feeds missing from the index, index feeds changed by
+	 * other processes again and remove deleted feeds. The index is written afterwards.
+	 *
+	 * @throws IOException when writing fails
+	 */
+	@Scheduled(fixedDelayString = "${podcache.search.save-interval}")
+	public synchronized void sync() throws IOException {
+		if(!isWriter())
+			return;
+
+		Set<String> existing = new HashSet<>();
+
+		for(Feed feed : this.feedManager.getFeeds()) {
+			if(feed.isMarkedForDeletion())
+				continue;
+
+			existing.add(feed.getName());
+
+			try {
+				sync(feed);
+			} catch(IOException e) {
+				LOG.error("Failed to add feed '{}' to the search index.", feed, e);
+			}
+		}
+
+		List<String> removed;
+		this.lock.readLock().lock();
+
+		try {
+			removed = new ArrayList<>(this.feeds.keySet());
+		} finally {
+			this.lock.readLock().unlock();
+		}
+
+		removed.removeAll(existing);
+
+		for(String feedName : removed) {
+			LOG.info("Removing deleted feed '{}' from the search index.", feedName);
+			remove(feedName);
+		}
+
+		save();
+	}
+
+	/**
+	 * Add the new entries of a feed to the index. If the feed has not been indexed yet, all entries are added.
+	 *
+	 * @param feedName name of the feed
+	 * @param allEntries all entries of the feed
+	 * @param addedEntries new entries
+	 */
+	public void update(String feedName, Collection<SyndEntry> allEntries, Collection<SyndEntry> addedEntries) {
+		long modified;
+
+		try {
+			modified = this.originalStore.getModified(feedName);
+		} catch(IOException e) {
+			// The feed is indexed again on the next sync.
+			LOG.debug("Failed to read modification time of feed '{}'.", feedName, e);
+			modified = 0;
+		}
+
+		this.lock.writeLock().lock();
+
+		try {
+			Collection<SyndEntry> entries = (this.feeds.put(feedName, modified) == null ? allEntries : addedEntries);
+
+			for(SyndEntry entry : entries) {
+				addDocument(feedName, entry);
+				this.dirty = true;
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove all entries of the given feed from the index.
+	 *
+	 * @param feedName name of the feed
+	 */
+	public void remove(String feedName) {
+		this.lock.writeLock().lock();
+
+		try {
+			for(int id = 0; id < this.documents.size(); id++) {
+				if(this.documents.get(id).feedName.equals(feedName)) {
+					this.deleted.set(id);
+					this.dirty = true;
+				}
+			}
+
+			this.feeds.remove(feedName);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove the given entries of a feed from the index.
+	 *
+	 * @param feedName name of the feed
+	 * @param uris URIs of the entries
+	 */
+	public void remove(String feedName, Collection<String> uris) {
+		if(uris.isEmpty())
+			return;
+
+		Set<String> uriSet = new HashSet<>(uris);
+		this.lock.writeLock().lock();
+
+		try {
+			for(int id = 0; id < this.documents.size(); id++) {
+				Document document = this.documents.get(id);
+
+				if(document.feedName.equals(feedName) && uriSet.contains(document.uri)) {
+					this.deleted.set(id);
+					this.dirty = true;
+				}
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns true if the given feed has been indexed.
+	 *
+	 * @param feedName name of the feed
+	 * @return boolean
+	 */
+	public boolean isIndexed(String feedName) {
+		this.lock.readLock().lock();
+
+		try {
+			return this.feeds.containsKey(feedName);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Search for entries containing all terms of the given query. Results are ordered by relevance, then by date.
+	 *
+	 * @param query the query
+	 * @param page number of the page, starting at 0
+	 * @param size size of a page
+	 * @return the requested page of results
+	 */
+	public Page search(String query, int page, int size) {
+		Set<String> terms = new LinkedHashSet<>(tokenize(query));
+
+		if(terms.isEmpty())
+			return new Page(query, 0, page, size, Collections.emptyList());
+
+		this.lock.readLock().lock();
+
+		try {
+			// Rarest term first, to keep the candidates small.
+			List<Postings> termPostings = new ArrayList<>();
+
+			for(String term : terms) {
+				Postings termPosting = this.postings.get(term);
+
+				if(termPosting == null)
+					return new Page(query, 0, page, size, Collections.emptyList());
+
+				termPostings.add(termPosting);
+			}
+
+			termPostings.sort((a, b) -> Integer.compare(a.size, b.size));
+
+			// Intersect postings, summing up scores.
+			int liveDocuments = this.documents.size() - this.deleted.cardinality();
+			Postings first = termPostings.get(0);
+			int[] candidates = Arrays.copyOf(first.documents, first.size);
+			float[] scores = new float[first.size];
+			int count = first.size;
+
+			for(int i = 0; i < count; i++)
+				scores[i] = first.weights[i] * first.getIdf(liveDocuments);
+
+			for(int p = 1; p < termPostings.size() && count > 0; p++)
+				count = termPostings.get(p).intersect(candidates, scores, count, liveDocuments);
+
+			// Keep the best results up to the requested page only. The queue holds the worst result first.
+			int limit = (int)Math.min((long)(page + 1) * size, count);
+			Comparator<Integer> ranking = (a, b) -> {
+				int result = Float.compare(scores[a], scores[b]);
+				return (result != 0 ? result
+						: Long.compare(this.documents.get(candidates[a]).published,
+								this.documents.get(candidates[b]).published));
+			};
+			PriorityQueue<Integer> best = new PriorityQueue<>(Math.max(limit, 1) + 1, ranking);
+			int total = 0;
+
+			for(int i = 0; i < count; i++) {
+				if(this.deleted.get(candidates[i]))
+					continue;
+
+				total++;
+				best.offer(i);
+
+				if(best.size() > limit)
+					best.poll();
+			}
+
+			// Best result first.
+			List<Hit> hits = new ArrayList<>(best.size());
+
+			while(!best.isEmpty()) {
+				int i = best.poll();
+				hits.add(new Hit(this.documents.get(candidates[i]), scores[i]));
+			}
+
+			Collections.reverse(hits);
+			int from = Math.min(page * size, hits.size());
+
+			return new Page(query, total, page, size, new ArrayList<>(hits.subList(from, hits.size())));
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Write the index if it has been changed. Called after each {@link #sync() sync} and on shutdown.
+	 *
+	 * @throws IOException when writing fails
+	 */
+	@PreDestroy
+	public void save() throws IOException {
+		if(!isWriter())
+			return;
+
+		// Writes are blocked while saving. Only read access is needed, but dirty must not change.
+		this.lock.writeLock().lock();
+
+		try {
+			if(!this.dirty)
+				return;
+
+			LOG.debug("Writing search index to '{}'.", this.indexFile);
+			write();
+			this.dirty = false;
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Runs regularly in processes not writing the index to load it again if it has been written by the process
+	 * writing it.
+	 */
+	@Scheduled(fixedDelayString = "${podcache.search.save-interval}")
+	public void reload() {
+		if(isWriter())
+			return;
+
+		try {
+			if(Files.notExists(this.indexFile)
+					|| Files.getLastModifiedTime(this.indexFile).toMillis() == this.loadedModified)
+				return;
+
+			this.lock.writeLock().lock();
+
+			try {
+				clear();
+				load();
+			} finally {
+				this.lock.writeLock().unlock();
+			}
+		} catch(IOException e) {
+			LOG.warn("Failed to reload search index '{}'. Trying again later.", this.indexFile, e);
+			clear();
+			this.loadedModified = 0;
+		}
+	}
+
+	/**
+	 * Returns true if this process writes the index.
+	 *
+	 * @return boolean
+	 */
+	private boolean isWriter() {
+		return this.role.isUpdating() && this.leaseManager.isPrimary();
+	}
+
+	/**
+	 * Index the given feed if it is missing from the index or has been changed since it was indexed.
+	 *
+	 * @param feed the feed
+	 * @throws IOException when reading the feed fails
+	 */
+	private void sync(Feed feed) throws IOException {
+		String feedName = feed.getName();
+		long modified = this.originalStore.getModified(feedName);
+		Long indexed;
+		this.lock.readLock().lock();
+
+		try {
+			indexed = this.feeds.get(feedName);
+		} finally {
+			this.lock.readLock().unlock();
+		}
+
+		if(indexed != null && indexed == modified)
+			return;
+
+		SyndFeed feedData = this.originalStore.load(feedName);
+
+		if(feedData == null)
+			return;
+
+		if(indexed == null)
+			LOG.info("Adding feed '{}' to the search index.", feed);
+		else
+			LOG.debug("Indexing changed feed '{}' again.", feed);
+
+		this.lock.writeLock().lock();
+
+		try {
+			remove(feedName);
+			update(feedName, feedData.getEntries(), Collections.emptyList());
+			this.feeds.put(feedName, modified);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Add a single document.
+	 *
+	 * @param feedName name of the feed
+	 * @param entry the entry
+	 */
+	private void addDocument(String feedName, SyndEntry entry) {
+		String uri = entry.getUri();
+		Date published = entry.getPublishedDate();
+		SyndContent description = entry.getDescription();
+		String title = Objects.toString(entry.getTitle(), "");
+		String author = Objects.toString(entry.getAuthor(), "");
+
+		Document document = new Document(feedName, Objects.toString(uri, ""), truncate(title), truncate(author),
+				truncate(Objects.toString(entry.getLink(), "")), (published != null ? published.getTime() : 0));
+
+		int id = this.documents.size();
+		this.documents.add(document);
+
+		Map<String, Float> weights = new HashMap<>();
+		addTerms(weights, title, TITLE_WEIGHT);
+		addTerms(weights, author, AUTHOR_WEIGHT);
+
+		if(description != null && description.getValue() != null)
+			addTerms(weights, HTML_TAG.matcher(description.getValue()).replaceAll(" "), DESCRIPTION_WEIGHT);
+
+		weights.forEach((term, weight) -> this.postings.computeIfAbsent(term, (t) -> new Postings()).add(id, weight));
+	}
+
+	/**
+	 * Add the weight of all terms of the given text.
+	 *
+	 * @param weights weight by term
+	 * @param text text
+	 * @param weight weight of each occurrence
+	 */
+	private static void addTerms(Map<String, Float> weights, String text, float weight) {
+		for(String term : tokenize(text))
+			weights.merge(term, weight, Float::sum);
+	}
+
+	/**
+	 * Split the given text into normalized terms.
+	 *
+	 * @param text text
+	 * @return terms
+	 */
+	private static List<String> tokenize(String text) {
+		String normalized = Normalizer.normalize(text, Normalizer.Form.NFD);
+		normalized = COMBINING_MARKS.matcher(normalized).replaceAll("").toLowerCase(Locale.ROOT);
+
+		List<String> result = new ArrayList<>();
+
+		for(String term : TERM_SEPARATOR.split(normalized)) {
+			if(term.length() > 1)
+				result.add(term);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Truncate the given text to the {@link #MAX_TEXT_LENGTH maximum length}.
+	 *
+	 * @param text text
+	 * @return truncated text
+	 */
+	private static String truncate(String text) {
+		return (text.length() > MAX_TEXT_LENGTH ? text.substring(0, MAX_TEXT_LENGTH) : text);
+	}
+
+	/**
+	 * Remove all data.
+	 */
+	private void clear() {
+		this.lock.writeLock().lock();
+
+		try {
+			this.documents.clear();
+			this.deleted.clear();
+			this.postings.clear();
+			this.feeds.clear();
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Read the index from the {@link #indexFile index file}.
+	 *
+	 * @throws IOException when reading fails
+	 */
+	private void load() throws IOException {
+		long start = System.currentTimeMillis();
+		long modified = Files.getLastModifiedTime(this.indexFile).toMillis();
+		this.lock.writeLock().lock();
+
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.indexFile)))) {
+			if(in.readInt() != FILE_VERSION)
+				throw new IOException("Unsupported search index version.");
+
+			int feedCount = in.readInt();
+
+			for(int i = 0; i < feedCount; i++)
+				this.feeds.put(in.readUTF(), in.readLong());
+
+			int documentCount = in.readInt();
+
+			for(int i = 0; i < documentCount; i++)
+				this.documents.add(new Document(in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(),
+						in.readLong()));
+
+			int termCount = in.readInt();
+
+			for(int i = 0; i < termCount; i++) {
+				String term = in.readUTF();
+				int size = in.readInt();
+				Postings termPostings = new Postings(size);
+
+				for(int j = 0; j < size; j++)
+					termPostings.add(in.readInt(), in.readFloat());
+
+				this.postings.put(term, termPostings);
+			}
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+
+		this.loadedModified = modified;
+		LOG.info("Loaded search index with {} entries in {} ms.", this.documents.size(),
+				System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Write the index to the {@link #indexFile index file}. Removed documents are left out. Call while holding the
+	 * lock.
+	 *
+	 * @throws IOException when writing fails
+	 */
+	private void write() throws IOException {
+		Files.createDirectories(this.indexFile.getParent());
+		Path tempFile = this.indexFile.resolveSibling(this.indexFile.getFileName() + ".tmp");
+
+		// New IDs without removed documents.
+		int[] newIds = new int[this.documents.size()];
+		int liveDocuments = 0;
+
+		for(int id = 0; id < newIds.length; id++)
+			newIds[id] = (this.deleted.get(id) ? -1 : liveDocuments++);
+
+		try(DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+			out.writeInt(FILE_VERSION);
+			out.writeInt(this.feeds.size());
+
+			for(Map.Entry<String, Long> feed : this.feeds.entrySet()) {
+				out.writeUTF(feed.getKey());
+				out.writeLong(feed.getValue());
+			}
+
+			out.writeInt(liveDocuments);
+
+			for(int id = 0; id < newIds.length; id++) {
+				if(newIds[id] < 0)
+					continue;
+
+				Document document = this.documents.get(id);
+				out.writeUTF(document.feedName);
+				out.writeUTF(document.uri);
+				out.writeUTF(document.title);
+				out.writeUTF(document.author);
+				out.writeUTF(document.link);
+				out.writeLong(document.published);
+			}
+
+			out.writeInt(this.postings.size());
+
+			for(Map.Entry<String, Postings> entry : this.postings.entrySet()) {
+				Postings termPostings = entry.getValue();
+				int live = 0;
+
+				for(int i = 0; i < termPostings.size; i++) {
+					if(newIds[termPostings.documents[i]] >= 0)
+						live++;
+				}
+
+				out.writeUTF(entry.getKey());
+				out.writeInt(live);
+
+				for(int i = 0; i < termPostings.size; i++) {
+					int newId = newIds[termPostings.documents[i]];
+
+					if(newId >= 0) {
+						out.writeInt(newId);
+						out.writeFloat(termPostings.weights[i]);
+					}
+				}
+			}
+		}
+
+		Files.move(tempFile, this.indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Postings of a single term, ordered by document ID.
+	 *
+	 * @author diredev
+	 */
+	private static final class Postings {
+		/** Document IDs */
+		private int[] documents;
+
+		/** Weight of the term per document */
+		private float[] weights;
+
+		/** Number of postings */
+		private int size = 0;
+
+		/**
+		 * Creates an empty instance.
+		 */
+		public Postings() {
+			this(4);
+		}
+
+		/**
+		 * Creates an empty instance.
+		 *
+		 * @param capacity initial capacity
+		 */
+		public Postings(int capacity) {
+			this.documents = new int[Math.max(capacity, 1)];
+			this.weights = new float[Math.max(capacity, 1)];
+		}
+
+		/**
+		 * Add a document. IDs must be added in ascending order.
+		 *
+		 * @param id document ID
+		 * @param weight weight of the term
+		 */
+		public void add(int id, float weight) {
+			if(this.size == this.documents.length) {
+				this.documents = Arrays.copyOf(this.documents, this.size * 2);
+				this.weights = Arrays.copyOf(this.weights, this.size * 2);
+			}
+
+			this.documents[this.size] = id;
+			this.weights[this.size] = weight;
+			this.size++;
+		}
+
+		/**
+		 * Returns the inverse document frequency of the term.
+		 *
+		 * @param documentCount total number of documents
+		 * @return IDF
+		 */
+		public float getIdf(int documentCount) {
+			return (float)Math.log(1 + (double)documentCount / this.size);
+		}
+
+		/**
+		 * Keep only those candidates that contain this term and add the term's score.
+		 *
+		 * @param candidates candidate IDs in ascending order, will be changed
+		 * @param scores scores of the candidates, will be changed
+		 * @param count number of candidates
+		 * @param documentCount total number of documents
+		 * @return new number of candidates
+		 */
+		public int intersect(int[] candidates, float[] scores, int count, int documentCount) {
+			float idf = getIdf(documentCount);
+			int result = 0;
+			int j = 0;
+
+			for(int i = 0; i < count && j < this.size; i++) {
+				// Postings are sorted, so binary search for the next candidate.
+				int position = Arrays.binarySearch(this.documents, j, this.size, candidates[i]);
+
+				if(position >= 0) {
+					candidates[result] = candidates[i];
+					scores[result] = scores[i] + this.weights[position] * idf;
+					result++;
+					j = position + 1;
+				} else
+					j = -position - 1;
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Stored data of an indexed entry.
+	 *
+	 * @author diredev
+	 */
+	private static final class Document {
+		/** Name of the feed */
+		private final String feedName;
+
+		/** URI of the entry */
+		private final String uri;
+
+		/** Title */
+		private final String title;
+
+		/** Author */
+		private final String author;
+
+		/** Link */
+		private final String link;
+
+		/** Publishing date in milliseconds or 0 if unknown */
+		private final long published;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param feedName name of the feed
+		 * @param uri URI of the entry
+		 * @param title title
+		 * @param author author
+		 * @param link link
+		 * @param published publishing date
+		 */
+		public Document(String feedName, String uri, String title, String author, String link, long published) {
+			this.feedName = feedName;
+			this.uri = uri;
+			this.title = title;
+			this.author = author;
+			this.link = link;
+			this.published = published;
+		}
+	}
+
+	/**
+	 * A single search result.
+	 *
+	 * @author diredev
+	 */
+	public static final class Hit {
+		/** The found document */
+		private final Document document;
+
+		/** Relevance */
+		private final float score;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param document found document
+		 * @param score relevance
+		 */
+		private Hit(Document document, float score) {
+			this.document = document;
+			this.score = score;
+		}
+
+		/**
+		 * Returns the name of the feed.
+		 *
+		 * @return feed name
+		 */
+		public String getFeedName() {
+			return this.document.feedName;
+		}
+
+		/**
+		 * Returns the URI of the entry.
+		 *
+		 * @return URI
+		 */
+		public String getUri() {
+			return this.document.uri;
+		}
+
+		/**
+		 * Returns the title of the entry.
+		 *
+		 * @return title
+		 */
+		public String getTitle() {
+			return this.document.title;
+		}
+
+		/**
+		 * Returns the author of the entry.
+		 *
+		 * @return author
+		 */
+		public String getAuthor() {
+			return this.document.author;
+		}
+
+		/**
+		 * Returns the link of the entry as found in the original feed.
+		 *
+		 * @return link
+		 */
+		public String getLink() {
+			return this.document.link;
+		}
+
+		/**
+		 * Returns the publishing date of the entry.
+		 *
+		 * @return date or null if unknown
+		 */
+		public @Nullable Date getPublished() {
+			return (this.document.published != 0 ? new Date(this.document.published) : null);
+		}
+
+		/**
+		 * Returns the relevance of the entry.
+		 *
+		 * @return score
+		 */
+		public float getScore() {
+			return this.score;
+		}
+	}
+
+	/**
+	 * A page of search results.
+	 *
+	 * @author diredev
+	 */
+	public static final class Page {
+		/** The query */
+		private final String query;
+
+		/** Total number of results */
+		private final int total;
+
+		/** Page number */
+		private final int page;
+
+		/** Page size */
+		private final int size;
+
+		/** Results of this page */
+		private final List<Hit> hits;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param query the query
+		 * @param total total number of results
+		 * @param page page number
+		 * @param size page size
+		 * @param hits results of this page
+		 */
+		private Page(String query, int total, int page, int size, List<Hit> hits) {
+			this.query = query;
+			this.total = total;
+			this.page = page;
+			this.size = size;
+			this.hits = hits;
+		}
+
+		/**
+		 * Returns the query.
+		 *
+		 * @return query
+		 */
+		public String getQuery() {
+			return this.query;
+		}
+
+		/**
+		 * Returns the total number of results.
+		 *
+		 * @return count
+		 */
+		public int getTotal() {
+			return this.total;
+		}
+
+		/**
+		 * Returns the page number, starting at 0.
+		 *
+		 * @return page number
+		 */
+		public int getPage() {
+			return this.page;
+		}
+
+		/**
+		 * Returns the page size.
+		 *
+		 * @return size
+		 */
+		public int getSize() {
+			return this.size;
+		}
+
+		/**
+		 * Returns the results of this page.
+		 *
+		 * @return results
+		 */
+		public List<Hit> getHits() {
+			return this.hits;
+		}
+	}
+}
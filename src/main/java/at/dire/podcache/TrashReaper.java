@@ -0,0 +1,209 @@
+package at.dire.podcache;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Removes the directories of deleted feeds from the {@link ContentManager#getTrashDirectories() trash}. Runs on a
+ * single low priority thread and deletes no more than the configured number of files per second, so that serving
+ * content is not slowed down by large deletions.
+ *
+ * @author diredev
+ */
+@Component
+public class TrashReaper implements ApplicationRunner {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(TrashReaper.class);
+
+	/** The content manager */
+	private final ContentManager contentManager;
+
+	/** Role of this process */
+	private final Role role;
+
+	/** Elects the process removing directories */
+	private final FeedLeaseManager leaseManager;
+
+	/** Maximum number of files to delete per second or 0 for no limit */
+	private final int rate;
+
+	/** Interval in milliseconds in which the trash is checked */
+	private final long interval;
+
+	/** The reaper thread or null if not running */
+	private @Nullable Thread thread;
+
+	/** Time in nanoseconds at which the next file may be deleted */
+	private long nextDelete = System.nanoTime();
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param contentManager content manager
+	 * @param role role of this process
+	 * @param leaseManager elects the process removing directories
+	 * @param rate maximum number of files to delete per second, 0 for no limit
+	 * @param interval interval in milliseconds in which the trash is checked
+	 */
+	@Autowired
+	public TrashReaper(ContentManager contentManager, Role role, FeedLeaseManager leaseManager,
+			@Value("${podcache.trash.rate}") int rate, @Value("${podcache.trash.interval}") long interval) {
+		this.contentManager = Objects.requireNonNull(contentManager);
+		this.role = Objects.requireNonNull(role);
+		this.leaseManager = Objects.requireNonNull(leaseManager);
+		this.rate = Math.max(rate, 0);
+		this.interval = interval;
+	}
+
+	/**
+	 * Start the reaper thread. Will also remove directories left over from the last run. Not started by serving
+	 * processes. Of several updating processes, only the {@link FeedLeaseManager#isPrimary() primary} one removes
+	 * directories.
+	 */
+	@Override
+	public synchronized void run(ApplicationArguments args) {
+		if(this.thread != null || !this.role.isUpdating())
+			return;
+
+		Thread reaper = new Thread(this::work, "trash-reaper");
+		reaper.setDaemon(true);
+		reaper.setPriority(Thread.MIN_PRIORITY);
+		reaper.start();
+
+		this.thread = reaper;
+	}
+
+	/**
+	 * Stop the reaper thread. Remaining files are removed on next start.
+	 */
+	@PreDestroy
+	public synchronized void stop() {
+		Thread reaper = this.thread;
+
+		if(reaper == null)
+			return;
+
+		this.thread = null;
+		reaper.interrupt();
+	}
+
+	/**
+	 * The loop run by the reaper thread.
+	 */
+	private void work() {
+		try {
+			while(!Thread.currentThread().isInterrupted()) {
+				if(this.leaseManager.isPrimary()) {
+					for(Path trashDir : this.contentManager.getTrashDirectories())
+						reap(trashDir);
+				}
+
+				Thread.sleep(this.interval);
+			}
+		} catch(InterruptedException | InterruptedIOException e) {
+			LOG.debug("Trash reaper stopped.");
+		}
+	}
+
+	/**
+	 * Remove all directories in the given trash directory.
+	 *
+	 * @param trashDir trash directory
+	 * @throws InterruptedIOException when interrupted
+	 */
+	private void reap(Path trashDir) throws InterruptedIOException {
+		if(Files.notExists(trashDir))
+			return;
+
+		try(DirectoryStream<Path> stream = Files.newDirectoryStream(trashDir)) {
+			for(Path directory : stream) {
+				LOG.info("Removing deleted feed directory '{}'.", directory);
+				long start = System.currentTimeMillis();
+				int count = delete(directory);
+
+				LOG.info("Removed {} files of deleted feed directory '{}' in {} ms.", count, directory,
+						System.currentTimeMillis() - start);
+			}
+		} catch(InterruptedIOException e) {
+			throw e;
+		} catch(IOException e) {
+			LOG.error("Failed to empty trash directory '{}'.", trashDir, e);
+		}
+	}
+
+	/**
+	 * Delete the given directory and all content at the configured rate.
+	 *
+	 * @param directory directory
+	 * @return number of deleted files
+	 * @throws IOException when deleting fails
+	 */
+	private int delete(Path directory) throws IOException {
+		int[] count = { 0 };
+
+		Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				throttle();
+				Files.delete(file);
+				count[0]++;
+
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, @Nullable IOException exc) throws IOException {
+				if(exc != null)
+					throw exc;
+
+				throttle();
+				Files.delete(dir);
+
+				return FileVisitResult.CONTINUE;
+			}
+		});
+
+		return count[0];
+	}
+
+	/**
+	 * Wait until the next file may be deleted.
+	 *
+	 * @throws InterruptedIOException when interrupted
+	 */
+	private void throttle() throws InterruptedIOException {
+		if(this.rate == 0)
+			return;
+
+		long now = System.nanoTime();
+
+		// Do not save up deletions while idle.
+		this.nextDelete = Math.max(this.nextDelete, now) + TimeUnit.SECONDS.toNanos(1) / this.rate;
+
+		try {
+			TimeUnit.NANOSECONDS.sleep(this.nextDelete - now);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while emptying trash.");
+		}
+	}
+}
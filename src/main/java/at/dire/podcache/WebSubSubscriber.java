@@ -0,0 +1,433 @@
+package at.dire.podcache;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.jdom2.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.rometools.rome.feed.synd.SyndFeed;
+import com.rometools.rome.feed.synd.SyndLink;
+
+import at.dire.podcache.data.WebSubSubscription;
+import at.dire.podcache.data.WebSubSubscription.State;
+import at.dire.podcache.data.WebSubSubscriptionRepository;
+import at.dire.podcache.util.Downloader;
+
+/**
+ * Component that subscribes to the WebSub (PubSubHubbub) hubs advertised by feeds. Hubs push new content to the
+ * callback handled by {@link at.dire.podcache.service.WebSubController}, which then updates the single feed. Regular
+ * polling stays active as a fallback.
+ *
+ * <p>
+ * Subscriptions are requested after the surrounding transaction has been committed, as hubs may verify the
+ * subscription before answering the request. Leases are renewed automatically before they expire.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class WebSubSubscriber {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(WebSubSubscriber.class);
+
+	/** Namespace of Atom links embedded in RSS feeds. */
+	private static final String ATOM_NAMESPACE = "http://www.w3.org/2005/Atom";
+
+	/** Subscription mode. */
+	public static final String MODE_SUBSCRIBE = "subscribe";
+
+	/** Unsubscription mode. */
+	public static final String MODE_UNSUBSCRIBE = "unsubscribe";
+
+	/** Mode used by hubs to deny a subscription. */
+	public static final String MODE_DENIED = "denied";
+
+	/** MAC algorithms by the signature methods allowed by the WebSub specification. */
+	private static final Map<String, String> SIGNATURE_ALGORITHMS = new HashMap<>();
+
+	static {
+		SIGNATURE_ALGORITHMS.put("sha1", "HmacSHA1");
+		SIGNATURE_ALGORITHMS.put("sha256", "HmacSHA256");
+		SIGNATURE_ALGORITHMS.put("sha384", "HmacSHA384");
+		SIGNATURE_ALGORITHMS.put("sha512", "HmacSHA512");
+	}
+
+	/** Unverified subscriptions are requested again after this number of milliseconds. */
+	private static final long RETRY_DELAY = 60 * 60 * 1000;
+
+	/** Used to generate secrets. */
+	private final SecureRandom random = new SecureRandom();
+
+	/** The DB repository for subscriptions */
+	private final WebSubSubscriptionRepository subscriptionRepo;
+
+	/** Used to send requests to hubs */
+	private final Downloader downloader;
+
+	/** Role of this process */
+	private final Role role;
+
+	/** True if subscriptions are enabled */
+	private final boolean enabled;
+
+	/** Base URL for callbacks, followed by the feed name */
+	private final String callbackUrl;
+
+	/** Lease requested from hubs in seconds */
+	private final long leaseSeconds;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param subscriptionRepo DB repository
+	 * @param downloader downloader used to send requests to hubs
+	 * @param role role of this process
+	 * @param enabled true to enable subscriptions
+	 * @param callbackUrl base URL for callbacks
+	 * @param leaseSeconds lease requested from hubs in seconds
+	 */
+	@Autowired
+	public WebSubSubscriber(WebSubSubscriptionRepository subscriptionRepo, Downloader downloader, Role role,
+			@Value("${podcache.websub.enabled}") boolean enabled,
+			@Value("${podcache.websub.callback.url}") String callbackUrl,
+			@Value("${podcache.websub.lease}") long leaseSeconds) {
+		this.subscriptionRepo = Objects.requireNonNull(subscriptionRepo);
+		this.downloader = Objects.requireNonNull(downloader);
+		this.role = Objects.requireNonNull(role);
+		this.enabled = enabled;
+		this.callbackUrl = callbackUrl.endsWith("/") ? callbackUrl : callbackUrl + "/";
+		this.leaseSeconds = leaseSeconds;
+	}
+
+	/**
+	 * Returns true if subscriptions are enabled.
+	 *
+	 * @return boolean
+	 */
+	public boolean isEnabled() {
+		return this.enabled;
+	}
+
+	/**
+	 * Look for a hub link in the given feed data and subscribe to it. An existing subscription is cancelled if the
+	 * feed no longer advertises its hub.
+	 *
+	 * @param feedName name of the feed
+	 * @param feedUrl URL of the feed, used as topic if the feed has no self link
+	 * @param feedData content of the feed
+	 */
+	@Transactional
+	public void discover(String feedName, URL feedUrl, SyndFeed feedData) {
+		if(!this.enabled)
+			return;
+
+		Map<String, String> links = getLinks(feedData);
+		String hub = links.get("hub");
+		String topic = links.getOrDefault("self", feedUrl.toString());
+		WebSubSubscription subscription = this.subscriptionRepo.findOneByFeedName(feedName);
+
+		if(subscription != null) {
+			if(subscription.getHub().equals(hub) && subscription.getTopic().equals(topic))
+				return;
+
+			LOG.info("Hub of feed '{}' has changed. Cancelling subscription at '{}'.", feedName, subscription.getHub());
+			unsubscribe(subscription);
+		}
+
+		if(hub != null) {
+			LOG.info("Feed '{}' advertises hub '{}'. Subscribing to topic '{}'.", feedName, hub, topic);
+			subscribe(this.subscriptionRepo.save(new WebSubSubscription(feedName, hub, topic, createSecret())));
+		}
+	}
+
+	/**
+	 * Cancel the subscription of the given feed, if any.
+	 *
+	 * @param feedName name of the feed
+	 */
+	@Transactional
+	public void unsubscribe(String feedName) {
+		WebSubSubscription subscription = this.subscriptionRepo.findOneByFeedName(feedName);
+
+		if(subscription != null)
+			unsubscribe(subscription);
+	}
+
+	/**
+	 * Handle a verification request sent by a hub.
+	 *
+	 * @param feedName name of the feed
+	 * @param mode requested mode
+	 * @param topic topic URL
+	 * @param leaseSeconds granted lease in seconds or null
+	 * @return true if the request is confirmed
+	 */
+	@Transactional
+	public boolean verify(String feedName, String mode, String topic, @Nullable Long leaseSeconds) {
+		WebSubSubscription subscription = this.subscriptionRepo.findOneByFeedName(feedName);
+
+		switch(mode) {
+		case MODE_SUBSCRIBE:
+			if(subscription == null || !subscription.getTopic().equals(topic)) {
+				LOG.warn("Hub tried to verify unknown subscription of feed '{}' to '{}'.", feedName, topic);
+				return false;
+			}
+
+			// Renew well before the lease expires.
+			long lease = (leaseSeconds != null ? leaseSeconds : this.leaseSeconds) * 1000;
+			long now = System.currentTimeMillis();
+
+			subscription.setState(State.ACTIVE);
+			subscription.setLeaseExpires(new Date(now + lease));
+			subscription.setRenewAt(new Date(now + lease * 4 / 5));
+			this.subscriptionRepo.save(subscription);
+
+			LOG.info("Subscription {} has been verified.", subscription);
+			return true;
+		case MODE_UNSUBSCRIBE:
+			// We only unsubscribe after removing our subscription.
+			return(subscription == null || !subscription.getTopic().equals(topic));
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Handle a denied subscription. The subscription is requested again later.
+	 *
+	 * @param feedName name of the feed
+	 * @param topic topic URL
+	 * @param reason reason given by the hub or null
+	 */
+	@Transactional
+	public void denied(String feedName, String topic, @Nullable String reason) {
+		WebSubSubscription subscription = this.subscriptionRepo.findOneByFeedName(feedName);
+
+		if(subscription != null && subscription.getTopic().equals(topic)) {
+			LOG.warn("Hub has denied subscription {}: {}", subscription, reason);
+			subscription.setState(State.REQUESTED);
+			subscription.setLeaseExpires(null);
+			subscription.setRenewAt(new Date(System.currentTimeMillis() + RETRY_DELAY));
+			this.subscriptionRepo.save(subscription);
+		}
+	}
+
+	/**
+	 * Returns true if the given feed has a subscription, verified or not.
+	 *
+	 * @param feedName name of the feed
+	 * @return boolean
+	 */
+	@Transactional(readOnly = true)
+	public boolean isSubscribed(String feedName) {
+		return this.subscriptionRepo.existsById(feedName);
+	}
+
+	/**
+	 * Returns true if the given notification belongs to an active subscription and has been signed with the
+	 * subscription's secret. Only the signature methods allowed by the WebSub specification are accepted, i.e. SHA-1
+	 * and SHA-2.
+	 *
+	 * @param feedName name of the feed
+	 * @param content content of the notification
+	 * @param signature value of the <code>X-Hub-Signature</code> header, e.g. <code>sha1=...</code>
+	 * @return true if the signature is valid
+	 */
+	@Transactional(readOnly = true)
+	public boolean isValidNotification(String feedName, byte[] content, @Nullable String signature) {
+		WebSubSubscription subscription = this.subscriptionRepo.findOneByFeedName(feedName);
+
+		if(subscription == null || signature == null)
+			return false;
+
+		int separator = signature.indexOf('=');
+
+		if(separator < 0)
+			return false;
+
+		String method = signature.substring(0, separator).trim().toLowerCase(Locale.ROOT);
+		String algorithm = SIGNATURE_ALGORITHMS.get(method);
+
+		if(algorithm == null) {
+			LOG.warn("Unsupported signature '{}' for feed '{}'.", signature, feedName);
+			return false;
+		}
+
+		try {
+			Mac mac = Mac.getInstance(algorithm);
+			mac.init(new SecretKeySpec(subscription.getSecret().getBytes(StandardCharsets.UTF_8), algorithm));
+			byte[] expected = toHex(mac.doFinal(content)).getBytes(StandardCharsets.US_ASCII);
+			byte[] actual = signature.substring(separator + 1).trim().toLowerCase(Locale.ROOT)
+					.getBytes(StandardCharsets.US_ASCII);
+
+			return MessageDigest.isEqual(expected, actual);
+		} catch(NoSuchAlgorithmException | InvalidKeyException e) {
+			LOG.warn("Unsupported signature '{}' for feed '{}'.", signature, feedName);
+			return false;
+		}
+	}
+
+	/**
+	 * Runs regularly to renew leases and retry unverified subscriptions. Skipped by serving processes.
+	 */
+	@Scheduled(fixedDelayString = "${podcache.websub.renew-interval}")
+	@Transactional
+	public void renew() {
+		if(!this.enabled || !this.role.isUpdating())
+			return;
+
+		for(WebSubSubscription subscription : this.subscriptionRepo.findByRenewAtBefore(new Date())) {
+			LOG.info("Renewing subscription {}.", subscription);
+			subscribe(subscription);
+		}
+	}
+
+	/**
+	 * Request the given subscription at the hub after the current transaction has been committed.
+	 *
+	 * @param subscription subscription
+	 */
+	private void subscribe(WebSubSubscription subscription) {
+		// Retry later if the hub does not verify the subscription.
+		subscription.setRenewAt(new Date(System.currentTimeMillis() + RETRY_DELAY));
+		this.subscriptionRepo.save(subscription);
+
+		Map<String, String> form = new LinkedHashMap<>();
+		form.put("hub.callback", this.callbackUrl + subscription.getFeedName());
+		form.put("hub.mode", MODE_SUBSCRIBE);
+		form.put("hub.topic", subscription.getTopic());
+		form.put("hub.secret", subscription.getSecret());
+		form.put("hub.lease_seconds", Long.toString(this.leaseSeconds));
+
+		afterCommit(subscription.getHub(), form);
+	}
+
+	/**
+	 * Remove the given subscription and cancel it at the hub after the current transaction has been committed.
+	 *
+	 * @param subscription subscription
+	 */
+	private void unsubscribe(WebSubSubscription subscription) {
+		this.subscriptionRepo.delete(subscription);
+
+		Map<String, String> form = new LinkedHashMap<>();
+		form.put("hub.callback", this.callbackUrl + subscription.getFeedName());
+		form.put("hub.mode", MODE_UNSUBSCRIBE);
+		form.put("hub.topic", subscription.getTopic());
+
+		afterCommit(subscription.getHub(), form);
+	}
+
+	/**
+	 * Send the given request to the hub once the current transaction has been committed.
+	 *
+	 * @param hub URL of the hub
+	 * @param form request parameters
+	 */
+	private void afterCommit(String hub, Map<String, String> form) {
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+				@Override
+				public void afterCommit() {
+					send(hub, form);
+				}
+			});
+		} else
+			send(hub, form);
+	}
+
+	/**
+	 * Send the given request to the hub. Failures are only logged, subscriptions are retried later.
+	 *
+	 * @param hub URL of the hub
+	 * @param form request parameters
+	 */
+	private void send(String hub, Map<String, String> form) {
+		try {
+			int statusCode = this.downloader.post(new URL(hub), form);
+			LOG.debug("Hub '{}' has accepted {} request with status {}.", hub, form.get("hub.mode"), statusCode);
+		} catch(MalformedURLException e) {
+			LOG.warn("Invalid hub URL '{}'.", hub);
+		} catch(IOException e) {
+			LOG.warn("Failed to send {} request to hub '{}': {}", form.get("hub.mode"), hub, e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the first link for each relation advertised by the feed. Atom links embedded in RSS feeds are included.
+	 *
+	 * @param feedData content of the feed
+	 * @return map of relation to URL
+	 */
+	private static Map<String, String> getLinks(SyndFeed feedData) {
+		Map<String, String> result = new LinkedHashMap<>();
+
+		for(SyndLink link : feedData.getLinks()) {
+			if(link.getRel() != null && link.getHref() != null)
+				result.putIfAbsent(link.getRel(), link.getHref());
+		}
+
+		for(Element element : feedData.getForeignMarkup()) {
+			if("link".equals(element.getName()) && ATOM_NAMESPACE.equals(element.getNamespaceURI())) {
+				String rel = element.getAttributeValue("rel");
+				String href = element.getAttributeValue("href");
+
+				if(rel != null && href != null)
+					result.putIfAbsent(rel, href.trim());
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns a new random secret.
+	 *
+	 * @return secret
+	 */
+	private String createSecret() {
+		byte[] bytes = new byte[24];
+		this.random.nextBytes(bytes);
+		return toHex(bytes);
+	}
+
+	/**
+	 * Hex encode the given bytes.
+	 *
+	 * @param bytes bytes
+	 * @return lower case hex string
+	 */
+	private static String toHex(byte[] bytes) {
+		StringBuilder result = new StringBuilder();
+
+		for(byte b : bytes)
+			result.append(String.format("%02x", b));
+
+		return result.toString();
+	}
+}
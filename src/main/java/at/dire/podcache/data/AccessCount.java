@@ -0,0 +1,123 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Number of requests and bytes served for a single file of a feed. Requests of the feed file itself are feed polls,
+ * requests of content files are downloads.
+ *
+ * @author diredev
+ * @see at.dire.podcache.AccessStatistics
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = { "feedName", "fileName" }))
+public class AccessCount {
+	/** Generated ID. */
+	@Id
+	@GeneratedValue
+	@Nullable
+	private Long id;
+
+	/** Name of the feed. */
+	@Column(nullable = false)
+	private String feedName;
+
+	/** Local file name within the feed's directory. */
+	@Column(nullable = false)
+	private String fileName;
+
+	/** Number of requests. */
+	@Column(nullable = false)
+	private long requestCount;
+
+	/** Number of bytes served. */
+	@Column(nullable = false)
+	private long bytesServed;
+
+	/** Date the counts have last been increased. */
+	@Column(nullable = false)
+	private Date lastAccess;
+
+	/**
+	 * For serialization.
+	 */
+	@SuppressWarnings("initialization.fields.uninitialized")
+	protected AccessCount() {}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @param requestCount number of requests
+	 * @param bytesServed number of bytes served
+	 * @param lastAccess date of the last request
+	 */
+	public AccessCount(String feedName, String fileName, long requestCount, long bytesServed, Date lastAccess) {
+		this.feedName = Objects.requireNonNull(feedName);
+		this.fileName = Objects.requireNonNull(fileName);
+		this.requestCount = requestCount;
+		this.bytesServed = bytesServed;
+		this.lastAccess = Objects.requireNonNull(lastAccess);
+	}
+
+	/**
+	 * Returns the name of the feed.
+	 *
+	 * @return feed name
+	 */
+	public String getFeedName() {
+		return feedName;
+	}
+
+	/**
+	 * Returns the local file name.
+	 *
+	 * @return file name
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Returns the number of requests.
+	 *
+	 * @return count
+	 */
+	public long getRequestCount() {
+		return requestCount;
+	}
+
+	/**
+	 * Returns the number of bytes served.
+	 *
+	 * @return bytes
+	 */
+	public long getBytesServed() {
+		return bytesServed;
+	}
+
+	/**
+	 * Returns the date the counts have last been increased.
+	 *
+	 * @return date
+	 */
+	public Date getLastAccess() {
+		return lastAccess;
+	}
+
+	@Override
+	public String toString() {
+		return this.feedName + "/" + this.fileName;
+	}
+}
@@ -0,0 +1,63 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Database repository to access {@link AccessCount access counts}.
+ *
+ * @author diredev
+ */
+public interface AccessCountRepository extends CrudRepository<AccessCount, Long> {
+	/**
+	 * Find all counts of the given feed, most requested files first.
+	 *
+	 * @param feedName name of the feed
+	 * @return counts
+	 */
+	List<AccessCount> findByFeedNameOrderByRequestCountDesc(String feedName);
+
+	/**
+	 * Returns the sums of the counts of all feeds.
+	 *
+	 * @param feedFile name of the feed file, its requests are counted as polls
+	 * @return statistics per feed
+	 */
+	@Query("select new at.dire.podcache.data.FeedStatistics(a.feedName, "
+			+ "sum(case when a.fileName = ?1 then a.requestCount else 0 end), "
+			+ "sum(case when a.fileName = ?1 then 0 else a.requestCount end), sum(a.bytesServed)) "
+			+ "from AccessCount a group by a.feedName order by a.feedName")
+	List<FeedStatistics> findFeedStatistics(String feedFile);
+
+	/**
+	 * Add to the counts of the given file. Adding works across processes sharing the database, unlike saving.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @param requestCount number of requests to add
+	 * @param bytesServed number of bytes to add
+	 * @param lastAccess date of the last request
+	 * @return number of updated rows, 0 if the file has no counts yet
+	 */
+	@Modifying
+	@Transactional
+	@Query("update AccessCount a set a.requestCount = a.requestCount + ?3, a.bytesServed = a.bytesServed + ?4, "
+			+ "a.lastAccess = ?5 where a.feedName = ?1 and a.fileName = ?2")
+	int add(String feedName, String fileName, long requestCount, long bytesServed, Date lastAccess);
+
+	/**
+	 * Remove all counts of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return number of removed rows
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from AccessCount a where a.feedName = ?1")
+	int deleteByFeedName(String feedName);
+}
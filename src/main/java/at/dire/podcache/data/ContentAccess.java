@@ -0,0 +1,100 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Records when a content file of a feed has last been served. Used to move files nobody listens to to cold storage.
+ *
+ * @author diredev
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = { "feedName", "fileName" }))
+public class ContentAccess {
+	/** Generated ID. */
+	@Id
+	@GeneratedValue
+	@Nullable
+	private Long id;
+
+	/** Name of the feed. */
+	@Column(nullable = false)
+	private String feedName;
+
+	/** Local file name within the feed's directory. */
+	@Column(nullable = false)
+	private String fileName;
+
+	/** Date the file has last been served. */
+	@Column(nullable = false)
+	private Date lastServed;
+
+	/**
+	 * For serialization.
+	 */
+	@SuppressWarnings("initialization.fields.uninitialized")
+	protected ContentAccess() {}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @param lastServed date the file has last been served
+	 */
+	public ContentAccess(String feedName, String fileName, Date lastServed) {
+		this.feedName = Objects.requireNonNull(feedName);
+		this.fileName = Objects.requireNonNull(fileName);
+		this.lastServed = Objects.requireNonNull(lastServed);
+	}
+
+	/**
+	 * Returns the name of the feed.
+	 *
+	 * @return feed name
+	 */
+	public String getFeedName() {
+		return feedName;
+	}
+
+	/**
+	 * Returns the local file name.
+	 *
+	 * @return file name
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Returns the date the file has last been served.
+	 *
+	 * @return date
+	 */
+	public Date getLastServed() {
+		return lastServed;
+	}
+
+	/**
+	 * Set the date the file has last been served.
+	 *
+	 * @param lastServed date
+	 */
+	public void setLastServed(Date lastServed) {
+		this.lastServed = lastServed;
+	}
+
+	@Override
+	public String toString() {
+		return this.feedName + "/" + this.fileName;
+	}
+}
@@ -0,0 +1,45 @@
+package at.dire.podcache.data;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Database repository to access {@link ContentAccess content access records}.
+ *
+ * @author diredev
+ */
+public interface ContentAccessRepository extends CrudRepository<ContentAccess, Long> {
+	/**
+	 * Find the record of the given file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @return record or null
+	 */
+	@Nullable
+	ContentAccess findOneByFeedNameAndFileName(String feedName, String fileName);
+
+	/**
+	 * Find all records of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return records
+	 */
+	List<ContentAccess> findByFeedName(String feedName);
+
+	/**
+	 * Remove all records of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return number of removed rows
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from ContentAccess a where a.feedName = ?1")
+	int deleteByFeedName(String feedName);
+}
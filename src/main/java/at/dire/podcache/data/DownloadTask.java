@@ -0,0 +1,255 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * A single content file download waiting in the persistent download queue.
+ *
+ * <p>
+ * Tasks are removed once the file has been downloaded. Failed tasks are retried with an increasing delay until
+ * they are finally marked as {@link State#FAILED failed}.
+ * </p>
+ *
+ * @author diredev
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = { "feedName", "fileName" }))
+public class DownloadTask {
+	/**
+	 * The state of a task.
+	 */
+	public enum State {
+		/** Waiting to be picked up by a worker. */
+		PENDING,
+
+		/** Currently downloading. */
+		RUNNING,
+
+		/** Gave up after too many attempts. */
+		FAILED
+	}
+
+	/** Generated ID. */
+	@Id
+	@GeneratedValue
+	@Nullable
+	private Long id;
+
+	/** Name of the feed the file belongs to. */
+	@Column(nullable = false)
+	private String feedName;
+
+	/** The URL to download. */
+	@Column(nullable = false, length = 2048)
+	private String url;
+
+	/** Local file name within the feed's directory. */
+	@Column(nullable = false)
+	private String fileName;
+
+	/** Higher values are downloaded first. */
+	@Column(nullable = false)
+	private long priority;
+
+	/** Current state. */
+	@Column(nullable = false)
+	@Enumerated(EnumType.STRING)
+	private State state = State.PENDING;
+
+	/** Number of failed attempts so far. */
+	@Column(nullable = false)
+	private int attempts = 0;
+
+	/** The task must not be started before this date. */
+	@Column(nullable = false)
+	private Date nextAttempt;
+
+	/** Message of the last error, if any. */
+	@Column(length = 1024)
+	@Nullable
+	private String lastError;
+
+	/** ID of the process running the task or null if not running. */
+	@Column
+	@Nullable
+	private String owner;
+
+	/** Date the claim of a running task expires unless renewed or null if not running. */
+	@Column
+	@Nullable
+	private Date expires;
+
+	/**
+	 * For serialization.
+	 */
+	@SuppressWarnings("initialization.fields.uninitialized")
+	protected DownloadTask() {}
+
+	/**
+	 * Creates a new pending task.
+	 *
+	 * @param feedName name of the feed
+	 * @param url URL to download
+	 * @param fileName local file name
+	 * @param priority priority, higher values first
+	 */
+	public DownloadTask(String feedName, String url, String fileName, long priority) {
+		this.feedName = Objects.requireNonNull(feedName);
+		this.url = Objects.requireNonNull(url);
+		this.fileName = Objects.requireNonNull(fileName);
+		this.priority = priority;
+		this.nextAttempt = new Date();
+	}
+
+	/**
+	 * Returns the generated ID.
+	 *
+	 * @return ID
+	 */
+	public @Nullable Long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the name of the feed.
+	 *
+	 * @return feed name
+	 */
+	public String getFeedName() {
+		return feedName;
+	}
+
+	/**
+	 * Returns the URL to download.
+	 *
+	 * @return URL
+	 */
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Returns the local file name.
+	 *
+	 * @return file name
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Returns the priority. Higher values are downloaded first.
+	 *
+	 * @return priority
+	 */
+	public long getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Returns the task's state.
+	 *
+	 * @return state
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Sets the task's state.
+	 *
+	 * @param state state
+	 */
+	public void setState(State state) {
+		this.state = state;
+	}
+
+	/**
+	 * Returns the number of failed attempts.
+	 *
+	 * @return attempts
+	 */
+	public int getAttempts() {
+		return attempts;
+	}
+
+	/**
+	 * Sets the number of failed attempts.
+	 *
+	 * @param attempts attempts
+	 */
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
+	/**
+	 * Returns the earliest date for the next attempt.
+	 *
+	 * @return date
+	 */
+	public Date getNextAttempt() {
+		return nextAttempt;
+	}
+
+	/**
+	 * Sets the earliest date for the next attempt.
+	 *
+	 * @param nextAttempt date
+	 */
+	public void setNextAttempt(Date nextAttempt) {
+		this.nextAttempt = nextAttempt;
+	}
+
+	/**
+	 * Returns the message of the last error.
+	 *
+	 * @return error message or null
+	 */
+	public @Nullable String getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * Sets the message of the last error.
+	 *
+	 * @param lastError error message
+	 */
+	public void setLastError(@Nullable String lastError) {
+		this.lastError = lastError;
+	}
+
+	/**
+	 * Returns the ID of the process running the task.
+	 *
+	 * @return owner or null if not running
+	 */
+	public @Nullable String getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Returns the date the claim of the running task expires.
+	 *
+	 * @return date or null if not running
+	 */
+	public @Nullable Date getExpires() {
+		return expires;
+	}
+
+	@Override
+	public String toString() {
+		return this.feedName + "/" + this.fileName;
+	}
+}
@@ -0,0 +1,164 @@
+package at.dire.podcache.data;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.annotation.Transactional;
+
+import at.dire.podcache.data.DownloadTask.State;
+
+/**
+ * Database repository to access the queued {@link DownloadTask download tasks}.
+ *
+ * @author diredev
+ */
+public interface DownloadTaskRepository extends CrudRepository<DownloadTask, Long> {
+	/**
+	 * Find the task for the given file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName name of the file
+	 * @return task or null
+	 */
+	@Nullable
+	DownloadTask findOneByFeedNameAndFileName(String feedName, String fileName);
+
+	/**
+	 * Returns the tasks in the given state that are due at the given date. The tasks with the highest priority come
+	 * first.
+	 *
+	 * @param state state
+	 * @param now current date
+	 * @param pageable limits the number of results
+	 * @return tasks
+	 */
+	@Query("select t from DownloadTask t where t.state = ?1 and t.nextAttempt <= ?2 order by t.priority desc, t.id asc")
+	List<DownloadTask> findDue(State state, Date now, Pageable pageable);
+
+	/**
+	 * Returns the number of unfinished tasks for the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @param state state to count
+	 * @return number of tasks
+	 */
+	long countByFeedNameAndState(String feedName, State state);
+
+	/**
+	 * Mark a single task as running by the given process, if it is in the expected state. Used by workers to claim
+	 * tasks.
+	 *
+	 * @param id ID of the task
+	 * @param expected expected current state
+	 * @param state new state
+	 * @param owner ID of the claiming process
+	 * @param expires expiry date of the claim
+	 * @return number of updated rows (max 1)
+	 */
+	@Modifying
+	@Transactional
+	@Query("update DownloadTask t set t.state = ?3, t.owner = ?4, t.expires = ?5 where t.id = ?1 and t.state = ?2")
+	int claim(Long id, State expected, State state, String owner, Date expires);
+
+	/**
+	 * Extend the claims of the given tasks owned by the given process.
+	 *
+	 * @param ids IDs of the tasks
+	 * @param owner ID of the process
+	 * @param expires new expiry date
+	 * @return number of extended claims
+	 */
+	@Modifying
+	@Transactional
+	@Query("update DownloadTask t set t.expires = ?3 where t.id in ?1 and t.owner = ?2")
+	int renew(Collection<Long> ids, String owner, Date expires);
+
+	/**
+	 * Record the result of an attempt of a single task and release its claim, but only if it is still owned by the
+	 * given process. Tasks removed or taken over in the meantime are not changed.
+	 *
+	 * @param id ID of the task
+	 * @param owner ID of the process
+	 * @param state new state
+	 * @param attempts number of attempts
+	 * @param nextAttempt date of the next attempt
+	 * @param lastError error of the last attempt or null
+	 * @return number of updated rows (max 1)
+	 */
+	@Modifying
+	@Transactional
+	@Query("update DownloadTask t set t.state = ?3, t.attempts = ?4, t.nextAttempt = ?5, t.lastError = ?6, "
+			+ "t.owner = null, t.expires = null where t.id = ?1 and t.owner = ?2")
+	int finishAttempt(Long id, String owner, State state, int attempts, Date nextAttempt, @Nullable String lastError);
+
+	/**
+	 * Remove a single task once downloaded, but only if it is still owned by the given process.
+	 *
+	 * @param id ID of the task
+	 * @param owner ID of the process
+	 * @return number of removed rows (max 1)
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from DownloadTask t where t.id = ?1 and t.owner = ?2")
+	int complete(Long id, String owner);
+
+	/**
+	 * Reset tasks in the given state that are owned by the given process, have no owner or whose claims have expired,
+	 * e.g. when the process starts.
+	 *
+	 * @param from state of the tasks to reset
+	 * @param to new state
+	 * @param owner ID of the process
+	 * @param now current date
+	 * @return number of reset tasks
+	 */
+	@Modifying
+	@Transactional
+	@Query("update DownloadTask t set t.state = ?2, t.owner = null, t.expires = null where t.state = ?1 "
+			+ "and (t.owner is null or t.owner = ?3 or t.expires < ?4)")
+	int resetOwned(State from, State to, String owner, Date now);
+
+	/**
+	 * Reset tasks in the given state whose claims have expired, e.g. of crashed processes.
+	 *
+	 * @param from state of the tasks to reset
+	 * @param to new state
+	 * @param now current date
+	 * @return number of reset tasks
+	 */
+	@Modifying
+	@Transactional
+	@Query("update DownloadTask t set t.state = ?2, t.owner = null, t.expires = null where t.state = ?1 "
+			+ "and t.expires < ?3")
+	int resetExpired(State from, State to, Date now);
+
+	/**
+	 * Reset all tasks in the given state.
+	 *
+	 * @param from state of the tasks to reset
+	 * @param to new state
+	 * @return number of reset tasks
+	 */
+	@Modifying
+	@Transactional
+	@Query("update DownloadTask t set t.state = ?2, t.owner = null, t.expires = null where t.state = ?1")
+	int resetAll(State from, State to);
+
+	/**
+	 * Remove all tasks of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return number of removed rows
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from DownloadTask t where t.feedName = ?1")
+	int deleteByFeedName(String feedName);
+}
@@ -0,0 +1,282 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Identity of a single enclosure URL found in a feed and the local file it is stored in.
+ *
+ * <p>
+ * Several URLs may share the same {@link #getCanonicalUrl() canonical URL}, e.g. when a feed wraps its enclosures in
+ * rotating tracking redirects. Those URLs also share the same local file.
+ * </p>
+ *
+ * @author diredev
+ */
+@Entity
+@Table(indexes = { @Index(columnList = "feedName, sourceUrl", unique = true),
+		@Index(columnList = "feedName, canonicalUrl"), @Index(columnList = "feedName, fileName") })
+public class Enclosure {
+	/** Generated ID. */
+	@Id
+	@GeneratedValue
+	@Nullable
+	private Long id;
+
+	/** Name of the feed the enclosure belongs to. */
+	@Column(nullable = false)
+	private String feedName;
+
+	/** The URL as found in the feed. */
+	@Column(nullable = false, length = 2048)
+	private String sourceUrl;
+
+	/** The URL without tracking prefixes and volatile parts. Used to identify the enclosure. */
+	@Column(nullable = false, length = 2048)
+	private String canonicalUrl;
+
+	/** Local file name within the feed's directory. */
+	@Column(nullable = false)
+	private String fileName;
+
+	/** The final URL after following all redirects. Known after download. */
+	@Column(length = 2048)
+	@Nullable
+	private String resolvedUrl;
+
+	/** ETag returned on download. */
+	@Column
+	@Nullable
+	private String etag;
+
+	/** Last modification date returned on download. */
+	@Column
+	@Nullable
+	private Date lastModified;
+
+	/** Content length returned on download. */
+	@Column
+	@Nullable
+	private Long contentLength;
+
+	/** Hex encoded SHA-256 checksum of the local file. Computed on download. */
+	@Column(length = 64)
+	@Nullable
+	private String checksum;
+
+	/** Size of the local file in bytes. Computed on download. */
+	@Column
+	@Nullable
+	private Long fileSize;
+
+	/** Date the local file was last downloaded or verified against its checksum. */
+	@Column
+	@Nullable
+	private Date verified;
+
+	/**
+	 * For serialization.
+	 */
+	@SuppressWarnings("initialization.fields.uninitialized")
+	protected Enclosure() {}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param feedName name of the feed
+	 * @param sourceUrl URL as found in the feed
+	 * @param canonicalUrl canonical URL
+	 * @param fileName local file name
+	 */
+	public Enclosure(String feedName, String sourceUrl, String canonicalUrl, String fileName) {
+		this.feedName = Objects.requireNonNull(feedName);
+		this.sourceUrl = Objects.requireNonNull(sourceUrl);
+		this.canonicalUrl = Objects.requireNonNull(canonicalUrl);
+		this.fileName = Objects.requireNonNull(fileName);
+	}
+
+	/**
+	 * Returns the generated ID.
+	 *
+	 * @return ID
+	 */
+	public @Nullable Long getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the name of the feed.
+	 *
+	 * @return feed name
+	 */
+	public String getFeedName() {
+		return feedName;
+	}
+
+	/**
+	 * Returns the URL as found in the feed.
+	 *
+	 * @return URL
+	 */
+	public String getSourceUrl() {
+		return sourceUrl;
+	}
+
+	/**
+	 * Returns the canonical URL used to identify the enclosure.
+	 *
+	 * @return canonical URL
+	 */
+	public String getCanonicalUrl() {
+		return canonicalUrl;
+	}
+
+	/**
+	 * Returns the local file name.
+	 *
+	 * @return file name
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Returns the final URL after following all redirects.
+	 *
+	 * @return URL or null if not downloaded yet
+	 */
+	public @Nullable String getResolvedUrl() {
+		return resolvedUrl;
+	}
+
+	/**
+	 * Sets the final URL after following all redirects.
+	 *
+	 * @param resolvedUrl URL
+	 */
+	public void setResolvedUrl(@Nullable String resolvedUrl) {
+		this.resolvedUrl = resolvedUrl;
+	}
+
+	/**
+	 * Returns the ETag returned on download.
+	 *
+	 * @return ETag or null
+	 */
+	public @Nullable String getEtag() {
+		return etag;
+	}
+
+	/**
+	 * Sets the ETag returned on download.
+	 *
+	 * @param etag ETag
+	 */
+	public void setEtag(@Nullable String etag) {
+		this.etag = etag;
+	}
+
+	/**
+	 * Returns the last modification date returned on download.
+	 *
+	 * @return date or null
+	 */
+	public @Nullable Date getLastModified() {
+		return lastModified;
+	}
+
+	/**
+	 * Sets the last modification date returned on download.
+	 *
+	 * @param lastModified date
+	 */
+	public void setLastModified(@Nullable Date lastModified) {
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Returns the content length returned on download.
+	 *
+	 * @return length or null
+	 */
+	public @Nullable Long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * Sets the content length returned on download.
+	 *
+	 * @param contentLength length
+	 */
+	public void setContentLength(@Nullable Long contentLength) {
+		this.contentLength = contentLength;
+	}
+
+	/**
+	 * Returns the SHA-256 checksum of the local file.
+	 *
+	 * @return hex encoded checksum or null if unknown
+	 */
+	public @Nullable String getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Sets the SHA-256 checksum of the local file.
+	 *
+	 * @param checksum hex encoded checksum
+	 */
+	public void setChecksum(@Nullable String checksum) {
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Returns the size of the local file.
+	 *
+	 * @return size in bytes or null if unknown
+	 */
+	public @Nullable Long getFileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Sets the size of the local file.
+	 *
+	 * @param fileSize size in bytes
+	 */
+	public void setFileSize(@Nullable Long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	/**
+	 * Returns the date the local file was last downloaded or verified.
+	 *
+	 * @return date or null if never verified
+	 */
+	public @Nullable Date getVerified() {
+		return verified;
+	}
+
+	/**
+	 * Sets the date the local file was last downloaded or verified.
+	 *
+	 * @param verified date
+	 */
+	public void setVerified(@Nullable Date verified) {
+		this.verified = verified;
+	}
+
+	@Override
+	public String toString() {
+		return this.feedName + "/" + this.fileName;
+	}
+}
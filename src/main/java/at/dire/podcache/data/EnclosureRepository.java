@@ -0,0 +1,98 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Database repository to access {@link Enclosure enclosures}.
+ *
+ * @author diredev
+ */
+public interface EnclosureRepository extends CrudRepository<Enclosure, Long> {
+	/**
+	 * Find the enclosure for the given URL as found in the feed.
+	 *
+	 * @param feedName name of the feed
+	 * @param sourceUrl URL
+	 * @return enclosure or null
+	 */
+	@Nullable
+	Enclosure findOneByFeedNameAndSourceUrl(String feedName, String sourceUrl);
+
+	/**
+	 * Find any enclosure with the given canonical URL.
+	 *
+	 * @param feedName name of the feed
+	 * @param canonicalUrl canonical URL
+	 * @return enclosure or null
+	 */
+	@Nullable
+	Enclosure findFirstByFeedNameAndCanonicalUrl(String feedName, String canonicalUrl);
+
+	/**
+	 * Find the names of other files of the given feed with the given content.
+	 *
+	 * @param feedName name of the feed
+	 * @param checksum checksum of the content
+	 * @param fileSize size of the content
+	 * @param fileName local file name to exclude
+	 * @return file names
+	 */
+	@Query("select distinct e.fileName from Enclosure e where e.feedName = ?1 and e.checksum = ?2 "
+			+ "and e.fileSize = ?3 and e.fileName <> ?4")
+	List<String> findFileNamesByContent(String feedName, String checksum, long fileSize, String fileName);
+
+	/**
+	 * Find all enclosures of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return enclosures in the order they were added
+	 */
+	List<Enclosure> findByFeedNameOrderById(String feedName);
+
+	/**
+	 * Find all enclosures stored in the given file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @return enclosures
+	 */
+	List<Enclosure> findByFeedNameAndFileName(String feedName, String fileName);
+
+	/**
+	 * Returns true if any enclosure is stored in the given file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName local file name
+	 * @return true if the file name is in use
+	 */
+	boolean existsByFeedNameAndFileName(String feedName, String fileName);
+
+	/**
+	 * Find enclosures whose files have not been verified since the given date, least recently verified first.
+	 *
+	 * @param before verification date
+	 * @param pageable page to return
+	 * @return enclosures
+	 */
+	@Query("select e from Enclosure e where e.verified is null or e.verified < ?1 order by e.verified, e.id")
+	List<Enclosure> findUnverified(Date before, Pageable pageable);
+
+	/**
+	 * Remove all enclosures of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return number of removed rows
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from Enclosure e where e.feedName = ?1")
+	int deleteByFeedName(String feedName);
+}
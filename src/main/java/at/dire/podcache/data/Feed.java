@@ -48,6 +48,21 @@ public class Feed implements Persistable<String> {
 	@Column(nullable = false)
 	private boolean markedForDeletion = false;
 
+	/** Maximum number of entries to keep or null to keep all. */
+	@Column
+	@Nullable
+	private Integer maxEntries;
+
+	/** Maximum age of entries to keep in days or null to keep all. */
+	@Column
+	@Nullable
+	private Integer maxAgeDays;
+
+	/** Maximum size of all content files to keep in bytes or null to keep all. */
+	@Column
+	@Nullable
+	private Long maxBytes;
+
 	/** True if this is a {@link #isNew() new} item. */
 	@Transient
 	private boolean isNew;
@@ -199,6 +214,64 @@ public class Feed implements Persistable<String> {
 		this.markedForDeletion = markedForDeletion;
 	}
 
+	/**
+	 * Returns the maximum number of entries to keep. Older entries and their files are removed on update.
+	 * 
+	 * @return number of entries or null to keep all
+	 */
+	@JsonProperty
+	public @Nullable Integer getMaxEntries() {
+		return maxEntries;
+	}
+
+	/**
+	 * Set the maximum number of entries to keep.
+	 * 
+	 * @param maxEntries number of entries or null to keep all
+	 */
+	public void setMaxEntries(@Nullable Integer maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Returns the maximum age of entries to keep. Older entries and their files are removed on update.
+	 * 
+	 * @return age in days or null to keep all
+	 */
+	@JsonProperty
+	public @Nullable Integer getMaxAgeDays() {
+		return maxAgeDays;
+	}
+
+	/**
+	 * Set the maximum age of entries to keep.
+	 * 
+	 * @param maxAgeDays age in days or null to keep all
+	 */
+	public void setMaxAgeDays(@Nullable Integer maxAgeDays) {
+		this.maxAgeDays = maxAgeDays;
+	}
+
+	/**
+	 * Returns the maximum size of all content files to keep. The oldest entries exceeding the size are removed on
+	 * update, together with their files.
+	 * 
+	 * @return size in bytes or null to keep all
+	 */
+	@JsonProperty
+	public @Nullable Long getMaxBytes() {
+		return maxBytes;
+	}
+
+	/**
+	 * Set the maximum size of all content files to keep.
+	 * 
+	 * @param maxBytes size in bytes or null to keep all
+	 */
+	public void setMaxBytes(@Nullable Long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
 	@Override
 	public boolean equals(@Nullable Object obj) {
 		if(obj instanceof Feed)
@@ -0,0 +1,91 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.Objects;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Lease of a feed held by one of several updating processes sharing the database. A process may only update a feed
+ * while it holds its lease. Leases expire unless renewed, so feeds of crashed processes are taken over by others.
+ *
+ * @author diredev
+ * @see at.dire.podcache.FeedLeaseManager
+ */
+@Entity
+public class FeedLease {
+	/** Name of the feed. */
+	@Id
+	private String feedName;
+
+	/** ID of the process holding the lease or null if free. */
+	@Nullable
+	private String owner;
+
+	/** Date the lease expires unless renewed or null if free. */
+	@Nullable
+	private Date expires;
+
+	/** Date the last update of the feed has been completed or null if never. */
+	@Nullable
+	private Date completed;
+
+	/**
+	 * For serialization.
+	 */
+	@SuppressWarnings("initialization.fields.uninitialized")
+	protected FeedLease() {}
+
+	/**
+	 * Creates a new, free lease.
+	 *
+	 * @param feedName name of the feed
+	 */
+	public FeedLease(String feedName) {
+		this.feedName = Objects.requireNonNull(feedName);
+	}
+
+	/**
+	 * Returns the name of the feed.
+	 *
+	 * @return feed name
+	 */
+	public String getFeedName() {
+		return feedName;
+	}
+
+	/**
+	 * Returns the ID of the process holding the lease.
+	 *
+	 * @return owner or null if free
+	 */
+	public @Nullable String getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Returns the date the lease expires.
+	 *
+	 * @return date or null if free
+	 */
+	public @Nullable Date getExpires() {
+		return expires;
+	}
+
+	/**
+	 * Returns the date the last update has been completed.
+	 *
+	 * @return date or null if never
+	 */
+	public @Nullable Date getCompleted() {
+		return completed;
+	}
+
+	@Override
+	public String toString() {
+		return this.feedName + (this.owner != null ? " (" + this.owner + " until " + this.expires + ")" : "");
+	}
+}
@@ -0,0 +1,94 @@
+package at.dire.podcache.data;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Database repository to access {@link FeedLease feed leases}. Leases are only changed by conditional updates, so
+ * concurrent processes never take over a lease that is still held by another one.
+ *
+ * @author diredev
+ */
+public interface FeedLeaseRepository extends CrudRepository<FeedLease, String> {
+	/**
+	 * Returns the names of all feeds that have not been updated since the given date and are not leased by another
+	 * process.
+	 *
+	 * @param since start of the update run
+	 * @param now current date, expired leases are free
+	 * @return feed names
+	 */
+	@Query("select l.feedName from FeedLease l where (l.completed is null or l.completed < ?1) "
+			+ "and (l.owner is null or l.expires < ?2)")
+	List<String> findClaimable(Date since, Date now);
+
+	/**
+	 * Returns the names of all feeds that have not been updated since the given date, whether leased or not.
+	 *
+	 * @param since start of the update run
+	 * @return feed names
+	 */
+	@Query("select l.feedName from FeedLease l where l.completed is null or l.completed < ?1")
+	List<String> findPending(Date since);
+
+	/**
+	 * Take the lease of the given feed if it still hasn't been updated since the given date and is still free.
+	 *
+	 * @param feedName name of the feed
+	 * @param owner ID of the claiming process
+	 * @param expires expiry date of the lease
+	 * @param since start of the update run
+	 * @param now current date, expired leases are free
+	 * @return 1 if the lease has been taken, 0 otherwise
+	 */
+	@Modifying
+	@Transactional
+	@Query("update FeedLease l set l.owner = ?2, l.expires = ?3 where l.feedName = ?1 "
+			+ "and (l.completed is null or l.completed < ?4) and (l.owner is null or l.expires < ?5)")
+	int claim(String feedName, String owner, Date expires, Date since, Date now);
+
+	/**
+	 * Extend the given leases held by the given process.
+	 *
+	 * @param feedNames names of the feeds
+	 * @param owner ID of the process
+	 * @param expires new expiry date
+	 * @return number of extended leases
+	 */
+	@Modifying
+	@Transactional
+	@Query("update FeedLease l set l.expires = ?3 where l.feedName in ?1 and l.owner = ?2")
+	int renew(Collection<String> feedNames, String owner, Date expires);
+
+	/**
+	 * Free the lease of the given feed held by the given process and record that the feed has been updated.
+	 *
+	 * @param feedName name of the feed
+	 * @param owner ID of the process
+	 * @param completed date the update has been completed
+	 * @return 1 if the lease has been freed, 0 if it wasn't held by the process anymore
+	 */
+	@Modifying
+	@Transactional
+	@Query("update FeedLease l set l.owner = null, l.expires = null, l.completed = ?3 "
+			+ "where l.feedName = ?1 and l.owner = ?2")
+	int complete(String feedName, String owner, Date completed);
+
+	/**
+	 * Free the leases of all given feeds held by the given process without updating them.
+	 *
+	 * @param feedNames names of the feeds
+	 * @param owner ID of the process
+	 * @return number of freed leases
+	 */
+	@Modifying
+	@Transactional
+	@Query("update FeedLease l set l.owner = null, l.expires = null where l.feedName in ?1 and l.owner = ?2")
+	int release(Collection<String> feedNames, String owner);
+}
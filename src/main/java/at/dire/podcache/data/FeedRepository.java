@@ -32,6 +32,17 @@ public interface FeedRepository extends CrudRepository<Feed, String> {
 	@Lock(LockModeType.PESSIMISTIC_WRITE)
 	Iterable<Feed> findAllPessimistic();
 
+	/**
+	 * The same {@link #findOneByName(String)}, but will lock the feed.
+	 * 
+	 * @param name name of the feed
+	 * @return feed or null
+	 */
+	@Nullable
+	@Query("select f from Feed f where f.name=?1")
+	@Lock(LockModeType.PESSIMISTIC_WRITE)
+	Feed findOneByNamePessimistic(String name);
+
 	/**
 	 * Marks the given feed for {@link Feed#isMarkedForDeletion() deletion}.
 	 * 
@@ -0,0 +1,76 @@
+package at.dire.podcache.data;
+
+import java.util.Objects;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Access counts of a feed, summed over all {@link AccessCount access counts} of its files.
+ *
+ * @author diredev
+ */
+public class FeedStatistics {
+	/** Name of the feed */
+	private final String feedName;
+
+	/** Number of requests of the feed file */
+	private final long polls;
+
+	/** Number of requests of content files */
+	private final long downloads;
+
+	/** Number of bytes served for all files */
+	private final long bytesServed;
+
+	/**
+	 * Creates a new instance. Used by queries, so sums may be null.
+	 *
+	 * @param feedName name of the feed
+	 * @param polls number of requests of the feed file
+	 * @param downloads number of requests of content files
+	 * @param bytesServed number of bytes served for all files
+	 */
+	public FeedStatistics(String feedName, @Nullable Long polls, @Nullable Long downloads,
+			@Nullable Long bytesServed) {
+		this.feedName = Objects.requireNonNull(feedName);
+		this.polls = (polls != null ? polls : 0);
+		this.downloads = (downloads != null ? downloads : 0);
+		this.bytesServed = (bytesServed != null ? bytesServed : 0);
+	}
+
+	/**
+	 * Returns the name of the feed.
+	 *
+	 * @return feed name
+	 */
+	public String getFeedName() {
+		return this.feedName;
+	}
+
+	/**
+	 * Returns the number of requests of the feed file.
+	 *
+	 * @return count
+	 */
+	public long getPolls() {
+		return this.polls;
+	}
+
+	/**
+	 * Returns the number of requests of content files.
+	 *
+	 * @return count
+	 */
+	public long getDownloads() {
+		return this.downloads;
+	}
+
+	/**
+	 * Returns the number of bytes served for all files.
+	 *
+	 * @return bytes
+	 */
+	public long getBytesServed() {
+		return this.bytesServed;
+	}
+}
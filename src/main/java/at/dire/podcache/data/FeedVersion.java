@@ -0,0 +1,115 @@
+package at.dire.podcache.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+import javax.persistence.UniqueConstraint;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * A single version of a feed's file. A new version is created every time the file is written and records which
+ * entries have been added.
+ *
+ * @author diredev
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = { "feedName", "version" }))
+public class FeedVersion {
+	/** Generated ID. */
+	@Id
+	@GeneratedValue
+	@Nullable
+	private Long id;
+
+	/** Name of the feed. */
+	@Column(nullable = false)
+	private String feedName;
+
+	/** Version number, increasing by one for each version of a feed. */
+	@Column(nullable = false)
+	private int version;
+
+	/** Creation date of this version. */
+	@Column(nullable = false)
+	private Date created;
+
+	/** URIs of the entries added in this version, one per line. */
+	@Lob
+	@Column(nullable = false)
+	private String addedEntries;
+
+	/**
+	 * For serialization.
+	 */
+	@SuppressWarnings("initialization.fields.uninitialized")
+	protected FeedVersion() {}
+
+	/**
+	 * Creates a new version.
+	 *
+	 * @param feedName name of the feed
+	 * @param version version number
+	 * @param addedEntries URIs of the added entries
+	 */
+	public FeedVersion(String feedName, int version, Collection<String> addedEntries) {
+		this.feedName = Objects.requireNonNull(feedName);
+		this.version = version;
+		this.created = new Date();
+		this.addedEntries = String.join("\n", addedEntries);
+	}
+
+	/**
+	 * Returns the name of the feed.
+	 *
+	 * @return feed name
+	 */
+	public String getFeedName() {
+		return feedName;
+	}
+
+	/**
+	 * Returns the version number.
+	 *
+	 * @return version
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the creation date.
+	 *
+	 * @return date
+	 */
+	public Date getCreated() {
+		return created;
+	}
+
+	/**
+	 * Returns the URIs of the entries added in this version.
+	 *
+	 * @return URIs
+	 */
+	public List<String> getAddedEntries() {
+		if(this.addedEntries.isEmpty())
+			return Collections.emptyList();
+
+		return Arrays.asList(this.addedEntries.split("\n"));
+	}
+
+	@Override
+	public String toString() {
+		return this.feedName + " v" + this.version;
+	}
+}
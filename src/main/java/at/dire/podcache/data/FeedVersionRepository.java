@@ -0,0 +1,57 @@
+package at.dire.podcache.data;
+
+import java.util.List;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Database repository to access the {@link FeedVersion version history} of feeds.
+ *
+ * @author diredev
+ */
+public interface FeedVersionRepository extends CrudRepository<FeedVersion, Long> {
+	/**
+	 * Returns the latest version of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return version or null
+	 */
+	@Nullable
+	FeedVersion findFirstByFeedNameOrderByVersionDesc(String feedName);
+
+	/**
+	 * Returns all versions of the given feed newer than the given version, oldest first.
+	 *
+	 * @param feedName name of the feed
+	 * @param version version number
+	 * @return versions
+	 */
+	List<FeedVersion> findByFeedNameAndVersionGreaterThanOrderByVersionAsc(String feedName, int version);
+
+	/**
+	 * Remove all versions of the given feed older than the given version.
+	 *
+	 * @param feedName name of the feed
+	 * @param version version number
+	 * @return number of removed rows
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from FeedVersion v where v.feedName = ?1 and v.version < ?2")
+	int deleteOlderThan(String feedName, int version);
+
+	/**
+	 * Remove all versions of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return number of removed rows
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from FeedVersion v where v.feedName = ?1")
+	int deleteByFeedName(String feedName);
+}
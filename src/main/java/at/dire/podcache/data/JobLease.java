@@ -0,0 +1,79 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.Objects;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Lease of a background job that must only run on one of several updating processes sharing the database. Like
+ * {@link FeedLease feed leases}, job leases expire unless renewed, so the job is taken over by another process when
+ * the holder crashes.
+ *
+ * @author diredev
+ * @see at.dire.podcache.FeedLeaseManager#isPrimary()
+ */
+@Entity
+public class JobLease {
+	/** Name of the job. */
+	@Id
+	private String name;
+
+	/** ID of the process holding the lease or null if free. */
+	@Nullable
+	private String owner;
+
+	/** Date the lease expires unless renewed or null if free. */
+	@Nullable
+	private Date expires;
+
+	/**
+	 * For serialization.
+	 */
+	@SuppressWarnings("initialization.fields.uninitialized")
+	protected JobLease() {}
+
+	/**
+	 * Creates a new, free lease.
+	 *
+	 * @param name name of the job
+	 */
+	public JobLease(String name) {
+		this.name = Objects.requireNonNull(name);
+	}
+
+	/**
+	 * Returns the name of the job.
+	 *
+	 * @return job name
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the ID of the process holding the lease.
+	 *
+	 * @return owner or null if free
+	 */
+	public @Nullable String getOwner() {
+		return owner;
+	}
+
+	/**
+	 * Returns the date the lease expires.
+	 *
+	 * @return date or null if free
+	 */
+	public @Nullable Date getExpires() {
+		return expires;
+	}
+
+	@Override
+	public String toString() {
+		return this.name + (this.owner != null ? " (" + this.owner + " until " + this.expires + ")" : "");
+	}
+}
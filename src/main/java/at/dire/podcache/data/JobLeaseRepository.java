@@ -0,0 +1,43 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Database repository to access {@link JobLease job leases}. Leases are only changed by conditional updates, so
+ * concurrent processes never take over a lease that is still held by another one.
+ *
+ * @author diredev
+ */
+public interface JobLeaseRepository extends CrudRepository<JobLease, String> {
+	/**
+	 * Take or extend the lease of the given job if it is free, expired or already held by the given process.
+	 *
+	 * @param name name of the job
+	 * @param owner ID of the claiming process
+	 * @param expires expiry date of the lease
+	 * @param now current date, expired leases are free
+	 * @return 1 if the lease is held by the process, 0 otherwise
+	 */
+	@Modifying
+	@Transactional
+	@Query("update JobLease l set l.owner = ?2, l.expires = ?3 where l.name = ?1 "
+			+ "and (l.owner is null or l.owner = ?2 or l.expires < ?4)")
+	int claim(String name, String owner, Date expires, Date now);
+
+	/**
+	 * Free the lease of the given job held by the given process.
+	 *
+	 * @param name name of the job
+	 * @param owner ID of the process
+	 * @return 1 if the lease has been freed, 0 if it wasn't held by the process
+	 */
+	@Modifying
+	@Transactional
+	@Query("update JobLease l set l.owner = null, l.expires = null where l.name = ?1 and l.owner = ?2")
+	int release(String name, String owner);
+}
@@ -0,0 +1,66 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Refresh of a feed requested from a serving process. Serving processes don't update feeds themselves, the updating
+ * process picks up the request and refreshes the feed instead.
+ *
+ * @author diredev
+ * @see at.dire.podcache.FeedRefresher#request(String)
+ */
+@Entity
+public class RefreshRequest {
+	/** Name of the feed. */
+	@Id
+	private String feedName;
+
+	/** Date of the latest request. */
+	@Column(nullable = false)
+	private Date requested;
+
+	/**
+	 * For serialization.
+	 */
+	@SuppressWarnings("initialization.fields.uninitialized")
+	protected RefreshRequest() {}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param feedName name of the feed
+	 * @param requested date of the request
+	 */
+	public RefreshRequest(String feedName, Date requested) {
+		this.feedName = Objects.requireNonNull(feedName);
+		this.requested = Objects.requireNonNull(requested);
+	}
+
+	/**
+	 * Returns the name of the feed.
+	 *
+	 * @return feed name
+	 */
+	public String getFeedName() {
+		return feedName;
+	}
+
+	/**
+	 * Returns the date of the latest request.
+	 *
+	 * @return date
+	 */
+	public Date getRequested() {
+		return requested;
+	}
+
+	@Override
+	public String toString() {
+		return this.feedName + " (" + this.requested + ")";
+	}
+}
@@ -0,0 +1,28 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Database repository to access {@link RefreshRequest refresh requests}.
+ *
+ * @author diredev
+ */
+public interface RefreshRequestRepository extends CrudRepository<RefreshRequest, String> {
+	/**
+	 * Take the given request, unless it has been requested again in the meantime. Only one process can take a
+	 * request.
+	 *
+	 * @param feedName name of the feed
+	 * @param requested date of the request that has been read
+	 * @return 1 if the request has been taken, 0 otherwise
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from RefreshRequest r where r.feedName = ?1 and r.requested = ?2")
+	int take(String feedName, Date requested);
+}
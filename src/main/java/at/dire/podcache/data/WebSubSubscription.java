@@ -0,0 +1,178 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * A WebSub (PubSubHubbub) subscription of a feed at the hub advertised by the feed. A feed has at most one
+ * subscription.
+ *
+ * @author diredev
+ */
+@Entity
+public class WebSubSubscription {
+	/**
+	 * The state of a subscription.
+	 */
+	public enum State {
+		/** Subscription has been requested but not yet verified by the hub. */
+		REQUESTED,
+
+		/** Subscription has been verified by the hub. */
+		ACTIVE
+	}
+
+	/** Name of the feed. */
+	@Id
+	private String feedName;
+
+	/** URL of the hub. */
+	@Column(nullable = false, length = 2048)
+	private String hub;
+
+	/** URL of the topic, usually the feed's self link. */
+	@Column(nullable = false, length = 2048)
+	private String topic;
+
+	/** Secret used by the hub to sign notifications. */
+	@Column(nullable = false)
+	private String secret;
+
+	/** Current state. */
+	@Column(nullable = false)
+	@Enumerated(EnumType.STRING)
+	private State state = State.REQUESTED;
+
+	/** Date the lease granted by the hub expires. */
+	@Nullable
+	private Date leaseExpires;
+
+	/** The subscription is requested again after this date. */
+	@Column(nullable = false)
+	private Date renewAt;
+
+	/**
+	 * For serialization.
+	 */
+	@SuppressWarnings("initialization.fields.uninitialized")
+	protected WebSubSubscription() {}
+
+	/**
+	 * Creates a new subscription.
+	 *
+	 * @param feedName name of the feed
+	 * @param hub URL of the hub
+	 * @param topic URL of the topic
+	 * @param secret secret used to sign notifications
+	 */
+	public WebSubSubscription(String feedName, String hub, String topic, String secret) {
+		this.feedName = Objects.requireNonNull(feedName);
+		this.hub = Objects.requireNonNull(hub);
+		this.topic = Objects.requireNonNull(topic);
+		this.secret = Objects.requireNonNull(secret);
+		this.renewAt = new Date();
+	}
+
+	/**
+	 * Returns the name of the feed.
+	 *
+	 * @return feed name
+	 */
+	public String getFeedName() {
+		return feedName;
+	}
+
+	/**
+	 * Returns the URL of the hub.
+	 *
+	 * @return URL
+	 */
+	public String getHub() {
+		return hub;
+	}
+
+	/**
+	 * Returns the URL of the topic.
+	 *
+	 * @return URL
+	 */
+	public String getTopic() {
+		return topic;
+	}
+
+	/**
+	 * Returns the secret used to sign notifications.
+	 *
+	 * @return secret
+	 */
+	public String getSecret() {
+		return secret;
+	}
+
+	/**
+	 * Returns the current state.
+	 *
+	 * @return state
+	 */
+	public State getState() {
+		return state;
+	}
+
+	/**
+	 * Set the current state.
+	 *
+	 * @param state state
+	 */
+	public void setState(State state) {
+		this.state = state;
+	}
+
+	/**
+	 * Returns the date the lease expires.
+	 *
+	 * @return date or null if not verified yet
+	 */
+	public @Nullable Date getLeaseExpires() {
+		return leaseExpires;
+	}
+
+	/**
+	 * Set the date the lease expires.
+	 *
+	 * @param leaseExpires date
+	 */
+	public void setLeaseExpires(@Nullable Date leaseExpires) {
+		this.leaseExpires = leaseExpires;
+	}
+
+	/**
+	 * Returns the date after which the subscription is requested again.
+	 *
+	 * @return date
+	 */
+	public Date getRenewAt() {
+		return renewAt;
+	}
+
+	/**
+	 * Set the date after which the subscription is requested again.
+	 *
+	 * @param renewAt date
+	 */
+	public void setRenewAt(Date renewAt) {
+		this.renewAt = renewAt;
+	}
+
+	@Override
+	public String toString() {
+		return this.feedName + " at " + this.hub;
+	}
+}
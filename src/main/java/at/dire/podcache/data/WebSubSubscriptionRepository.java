@@ -0,0 +1,31 @@
+package at.dire.podcache.data;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.lang.Nullable;
+
+/**
+ * Database repository to access {@link WebSubSubscription WebSub subscriptions}.
+ *
+ * @author diredev
+ */
+public interface WebSubSubscriptionRepository extends CrudRepository<WebSubSubscription, String> {
+	/**
+	 * Returns the subscription of the given feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return subscription or null
+	 */
+	@Nullable
+	WebSubSubscription findOneByFeedName(String feedName);
+
+	/**
+	 * Returns all subscriptions that have to be requested again.
+	 *
+	 * @param date current date
+	 * @return subscriptions
+	 */
+	List<WebSubSubscription> findByRenewAtBefore(Date date);
+}
@@ -0,0 +1,229 @@
+package at.dire.podcache.event;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.springframework.lang.Nullable;
+
+import com.fasterxml.jackson.annotation.JsonAnyGetter;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import at.dire.podcache.data.Feed;
+
+/**
+ * Application event describing a change of a feed or the progress of updates and downloads. Published through
+ * Spring's event publisher and sent to clients of the web interface as server-sent events.
+ *
+ * <p>
+ * Changes of feeds are only sent once their transaction has committed. All other events are sent right away, so
+ * progress is visible while a long update is still running.
+ * </p>
+ *
+ * @author diredev
+ */
+@JsonInclude(Include.NON_NULL)
+public class FeedEvent {
+	/**
+	 * Types of events.
+	 */
+	public enum Type {
+		/** A feed has been added or changed. Holds the feed. */
+		FEED_CHANGED,
+
+		/** A feed has been removed. */
+		FEED_REMOVED,
+
+		/** An update of a single feed or of all feeds has been started. */
+		UPDATE_STARTED,
+
+		/** A single feed has been updated as part of an update. */
+		UPDATE_PROGRESS,
+
+		/** An update of a single feed or of all feeds has finished. */
+		UPDATE_FINISHED,
+
+		/** A content file has been downloaded. */
+		DOWNLOAD_COMPLETED,
+
+		/** An update or download has failed. Not named "error", which is used by browsers for connection errors. */
+		FAILED;
+
+		/**
+		 * Returns the name used for server-sent events, e.g. "feed-changed".
+		 *
+		 * @return name
+		 */
+		public String getEventName() {
+			return name().toLowerCase(Locale.ROOT).replace('_', '-');
+		}
+	}
+
+	/** Type of the event */
+	private final Type type;
+
+	/** Name of the feed or null if not related to a single feed */
+	private final @Nullable String feedName;
+
+	/** Additional properties */
+	private final Map<String, Object> properties;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param type type of the event
+	 * @param feedName name of the feed or null
+	 * @param properties additional properties
+	 */
+	private FeedEvent(Type type, @Nullable String feedName, Map<String, Object> properties) {
+		this.type = type;
+		this.feedName = feedName;
+		this.properties = properties;
+	}
+
+	/**
+	 * Returns the type of the event.
+	 *
+	 * @return type
+	 */
+	@JsonIgnore
+	public Type getType() {
+		return this.type;
+	}
+
+	/**
+	 * Returns the name used for server-sent events.
+	 *
+	 * @return name
+	 */
+	@JsonProperty("type")
+	public String getEventName() {
+		return this.type.getEventName();
+	}
+
+	/**
+	 * Returns the name of the feed.
+	 *
+	 * @return name or null if not related to a single feed
+	 */
+	@JsonProperty("name")
+	public @Nullable String getFeedName() {
+		return this.feedName;
+	}
+
+	/**
+	 * Returns additional properties, depending on the type.
+	 *
+	 * @return properties
+	 */
+	@JsonAnyGetter
+	public Map<String, Object> getProperties() {
+		return Collections.unmodifiableMap(this.properties);
+	}
+
+	/**
+	 * Returns true if the event must only be sent once the current transaction has committed.
+	 *
+	 * @return boolean
+	 */
+	@JsonIgnore
+	public boolean isTransactional() {
+		return(this.type == Type.FEED_CHANGED || this.type == Type.FEED_REMOVED);
+	}
+
+	@Override
+	public String toString() {
+		return this.type.getEventName() + (this.feedName != null ? " " + this.feedName : "") + " " + this.properties;
+	}
+
+	/**
+	 * Creates an event for a new or changed feed.
+	 *
+	 * @param feed the feed
+	 * @return event
+	 */
+	public static FeedEvent changed(Feed feed) {
+		return new FeedEvent(Type.FEED_CHANGED, feed.getName(), Collections.singletonMap("feed", feed));
+	}
+
+	/**
+	 * Creates an event for a removed feed.
+	 *
+	 * @param feedName name of the feed
+	 * @return event
+	 */
+	public static FeedEvent removed(String feedName) {
+		return new FeedEvent(Type.FEED_REMOVED, feedName, Collections.emptyMap());
+	}
+
+	/**
+	 * Creates an event for a started update.
+	 *
+	 * @param feedName name of the feed or null for all feeds
+	 * @return event
+	 */
+	public static FeedEvent updateStarted(@Nullable String feedName) {
+		return new FeedEvent(Type.UPDATE_STARTED, feedName, Collections.emptyMap());
+	}
+
+	/**
+	 * Creates an event for a feed that has been updated as part of an update.
+	 *
+	 * @param feedName name of the feed
+	 * @param index number of feeds updated so far, including this one
+	 * @param total number of feeds to update
+	 * @param updated true if the feed's content has changed
+	 * @return event
+	 */
+	public static FeedEvent updateProgress(String feedName, int index, int total, boolean updated) {
+		Map<String, Object> properties = new LinkedHashMap<>();
+		properties.put("index", index);
+		properties.put("total", total);
+		properties.put("updated", updated);
+
+		return new FeedEvent(Type.UPDATE_PROGRESS, feedName, properties);
+	}
+
+	/**
+	 * Creates an event for a finished update.
+	 *
+	 * @param feedName name of the feed or null for all feeds
+	 * @return event
+	 */
+	public static FeedEvent updateFinished(@Nullable String feedName) {
+		return new FeedEvent(Type.UPDATE_FINISHED, feedName, Collections.emptyMap());
+	}
+
+	/**
+	 * Creates an event for a downloaded content file.
+	 *
+	 * @param feedName name of the feed
+	 * @param fileName name of the file
+	 * @return event
+	 */
+	public static FeedEvent downloadCompleted(String feedName, String fileName) {
+		return new FeedEvent(Type.DOWNLOAD_COMPLETED, feedName, Collections.singletonMap("file", fileName));
+	}
+
+	/**
+	 * Creates an event for a failed update or download.
+	 *
+	 * @param feedName name of the feed or null if not related to a single feed
+	 * @param fileName name of the file or null if not related to a download
+	 * @param message error message
+	 * @return event
+	 */
+	public static FeedEvent failed(@Nullable String feedName, @Nullable String fileName, @Nullable String message) {
+		Map<String, Object> properties = new LinkedHashMap<>();
+
+		if(fileName != null)
+			properties.put("file", fileName);
+
+		properties.put("message", String.valueOf(message));
+		return new FeedEvent(Type.FAILED, feedName, properties);
+	}
+}
@@ -0,0 +1,68 @@
+package at.dire.podcache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a single response of the {@link at.dire.podcache.service.ContentController}.
+ *
+ * @author diredev
+ */
+@Name("at.dire.podcache.ContentResponse")
+@Label("Content Response")
+@Description("A feed or content file served to a client")
+@Category({ "PodCache", "Serving" })
+@StackTrace(false)
+public class ContentResponseEvent extends Event {
+	/** Request path. */
+	@Label("Path")
+	private final String path;
+
+	/** HTTP method. */
+	@Label("Method")
+	private final String method;
+
+	/** True if a range was requested. */
+	@Label("Range Request")
+	private final boolean range;
+
+	/** HTTP status code. */
+	@Label("Status")
+	private int status;
+
+	/** Content length of the response or -1 if unknown. */
+	@Label("Bytes")
+	@DataAmount
+	private long bytes = -1;
+
+	/**
+	 * Creates a new event and starts timing.
+	 *
+	 * @param path request path
+	 * @param method HTTP method
+	 * @param range true if a range was requested
+	 */
+	public ContentResponseEvent(String path, String method, boolean range) {
+		this.path = path;
+		this.method = method;
+		this.range = range;
+		begin();
+	}
+
+	/**
+	 * Set the response data and commit the event.
+	 *
+	 * @param status HTTP status code
+	 * @param bytes content length or -1 if unknown
+	 */
+	public void commit(int status, long bytes) {
+		this.status = status;
+		this.bytes = bytes;
+		commit();
+	}
+}
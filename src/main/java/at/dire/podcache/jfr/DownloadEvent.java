@@ -0,0 +1,115 @@
+package at.dire.podcache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Flight recorder event for a single request sent by the {@link at.dire.podcache.util.Downloader}. The event lasts
+ * until the response has been closed.
+ *
+ * @author diredev
+ */
+@Name("at.dire.podcache.Download")
+@Label("Download")
+@Description("An upstream HTTP request, including the transfer of the response content")
+@Category({ "PodCache", "Downloads" })
+@StackTrace(false)
+public class DownloadEvent extends Event {
+	/** Host and port. */
+	@Label("Host")
+	private final String host;
+
+	/** Requested URL. */
+	@Label("URL")
+	private final String url;
+
+	/** HTTP method. */
+	@Label("Method")
+	private final String method;
+
+	/** HTTP status code or 0 if no response was received. */
+	@Label("Status")
+	private int status;
+
+	/** Number of content bytes read. */
+	@Label("Bytes")
+	@DataAmount
+	private long bytes;
+
+	/** Time until the response headers have been received. */
+	@Label("Time to First Byte")
+	@Timespan(Timespan.NANOSECONDS)
+	private long timeToFirstByte;
+
+	/** Error message of a failed request. */
+	@Label("Error")
+	@Nullable
+	private String error;
+
+	/** True if no request was sent, as the last response is still fresh. */
+	@Label("Fresh")
+	private boolean fresh;
+
+	/** Start of the request, used to calculate {@link #timeToFirstByte}. */
+	private final transient long start = System.nanoTime();
+
+	/**
+	 * Creates a new event and starts timing.
+	 *
+	 * @param host host and port
+	 * @param url requested URL
+	 * @param method HTTP method
+	 */
+	public DownloadEvent(String host, String url, String method) {
+		this.host = host;
+		this.url = url;
+		this.method = method;
+		begin();
+	}
+
+	/**
+	 * Record the received response headers.
+	 *
+	 * @param status HTTP status code
+	 */
+	public void responseReceived(int status) {
+		this.status = status;
+		this.timeToFirstByte = System.nanoTime() - this.start;
+	}
+
+	/**
+	 * Record that no request was sent, as the last response is still fresh. The caller's copy is reported as not
+	 * modified.
+	 */
+	public void fresh() {
+		this.fresh = true;
+		responseReceived(304);
+	}
+
+	/**
+	 * Add to the number of content bytes read.
+	 *
+	 * @param count number of bytes
+	 */
+	public void addBytes(long count) {
+		this.bytes += count;
+	}
+
+	/**
+	 * Commit the event for a failed request.
+	 *
+	 * @param message error message
+	 */
+	public void failed(String message) {
+		this.error = message;
+		commit();
+	}
+}
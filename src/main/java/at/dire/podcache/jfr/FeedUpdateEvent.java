@@ -0,0 +1,72 @@
+package at.dire.podcache.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a single phase of a feed update, see {@link at.dire.podcache.FeedUpdater}.
+ *
+ * @author diredev
+ */
+@Name("at.dire.podcache.FeedUpdate")
+@Label("Feed Update Phase")
+@Description("A single phase of a feed update")
+@Category({ "PodCache", "Feeds" })
+@StackTrace(false)
+public class FeedUpdateEvent extends Event {
+	/** Requesting the feed until the response headers have been received. */
+	public static final String PHASE_DOWNLOAD = "download";
+
+	/** Reading and parsing the downloaded feed. */
+	public static final String PHASE_PARSE = "parse";
+
+	/** Loading the stored original feed. */
+	public static final String PHASE_LOAD = "load";
+
+	/** Merging new entries into the original feed and storing them. */
+	public static final String PHASE_MERGE = "merge";
+
+	/** Mapping enclosures to local files and queueing downloads. */
+	public static final String PHASE_ENCLOSURES = "enclosures";
+
+	/** Writing the feed file. */
+	public static final String PHASE_WRITE = "write";
+
+	/** Name of the feed. */
+	@Label("Feed")
+	private final String feedName;
+
+	/** The phase. */
+	@Label("Phase")
+	private final String phase;
+
+	/** Number of entries handled by the phase. */
+	@Label("Entries")
+	private int entries;
+
+	/**
+	 * Creates a new event and starts timing.
+	 *
+	 * @param feedName name of the feed
+	 * @param phase the phase
+	 */
+	public FeedUpdateEvent(String feedName, String phase) {
+		this.feedName = feedName;
+		this.phase = phase;
+		begin();
+	}
+
+	/**
+	 * Set the number of handled entries and commit the event.
+	 *
+	 * @param entries number of entries
+	 */
+	public void commit(int entries) {
+		this.entries = entries;
+		commit();
+	}
+}
@@ -0,0 +1,63 @@
+package at.dire.podcache.service;
+
+import java.util.Collection;
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import at.dire.podcache.util.HostHealth;
+import at.dire.podcache.util.HostHealthTracker;
+
+/**
+ * REST controller that gives access to internal state for administration.
+ *
+ * @author diredev
+ */
+@RestController
+@RequestMapping("/admin")
+public class AdminController {
+	/** Health of upstream hosts */
+	private final HostHealthTracker hostHealth;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param hostHealth health tracker for upstream hosts
+	 */
+	@Autowired
+	public AdminController(HostHealthTracker hostHealth) {
+		this.hostHealth = Objects.requireNonNull(hostHealth);
+	}
+
+	/**
+	 * Returns the health and circuit state of all upstream hosts requested so far.
+	 *
+	 * @return hosts
+	 */
+	@GetMapping(path = "/hosts", produces = MediaType.APPLICATION_JSON_VALUE)
+	public Collection<HostHealth> getHosts() {
+		return this.hostHealth.getHosts();
+	}
+
+	/**
+	 * Reset the health of the given host. Requests to the host will be allowed again.
+	 *
+	 * @param host name of the host
+	 * @return response
+	 */
+	@DeleteMapping(path = "/hosts/{host:.+}")
+	public ResponseEntity<Void> resetHost(@PathVariable("host") String host) {
+		if(!this.hostHealth.reset(host))
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+		return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+	}
+}
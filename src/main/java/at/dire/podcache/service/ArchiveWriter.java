@@ -0,0 +1,253 @@
+package at.dire.podcache.service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.springframework.lang.Nullable;
+import org.springframework.util.StreamUtils;
+
+import at.dire.podcache.util.ArchiveEntry;
+import at.dire.podcache.util.FileDigest;
+import at.dire.podcache.util.TarFormat;
+
+import io.undertow.servlet.spec.ServletOutputStreamImpl;
+
+/**
+ * Writes {@link ArchiveEntry archive entries} to a response, either as tar or as zip archive.
+ *
+ * <p>
+ * The layout of the tar archive is computed up front from the sizes of the entries. Its length and entity tag are
+ * known before any content is read and any range of it can be written without reading the preceding content, so
+ * interrupted downloads can be resumed. File content is sent using zero-copy transfers where supported by the
+ * servlet container.
+ * </p>
+ *
+ * <p>
+ * Zip archives are streamed without compression. Their length is not known up front, as the local headers depend on
+ * the checksums of the content, so they can not be resumed.
+ * </p>
+ *
+ * @author diredev
+ */
+class ArchiveWriter {
+	/** Zeros used for padding */
+	private static final byte[] ZEROS = new byte[TarFormat.END_OF_ARCHIVE_SIZE];
+
+	/** The entries */
+	private final List<ArchiveEntry> entries;
+
+	/** Parts of the tar archive in order */
+	private final List<Part> parts = new ArrayList<>();
+
+	/** Length of the tar archive */
+	private final long length;
+
+	/** Strong entity tag of the tar archive */
+	private final String etag;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param entries the entries
+	 */
+	ArchiveWriter(List<ArchiveEntry> entries) {
+		this.entries = Objects.requireNonNull(entries);
+
+		// Headers hold name, size and modification date of each entry.
+		MessageDigest digest = FileDigest.newMessageDigest();
+		long offset = 0;
+
+		for(ArchiveEntry entry : entries) {
+			byte[] header = TarFormat.createHeader(entry);
+			byte[] content = entry.getContent();
+
+			offset = add(new Part(offset, header.length, header, null));
+			digest.update(header);
+
+			if(content != null) {
+				offset = add(new Part(offset, content.length, content, null));
+				digest.update(content);
+			} else
+				offset = add(new Part(offset, entry.getSize(), null, entry.getFile()));
+
+			offset = add(new Part(offset, TarFormat.getPadding(entry.getSize()), ZEROS, null));
+		}
+
+		this.length = add(new Part(offset, TarFormat.END_OF_ARCHIVE_SIZE, ZEROS, null));
+		this.etag = "\"" + FileDigest.of(digest, this.length).getChecksum().substring(0, 32) + "\"";
+	}
+
+	/**
+	 * Add a part of the tar archive.
+	 *
+	 * @param part the part
+	 * @return offset after the part
+	 */
+	private long add(Part part) {
+		if(part.length > 0)
+			this.parts.add(part);
+
+		return part.offset + part.length;
+	}
+
+	/**
+	 * Returns the length of the tar archive.
+	 *
+	 * @return length in bytes
+	 */
+	long getLength() {
+		return this.length;
+	}
+
+	/**
+	 * Returns the strong entity tag of the tar archive. Changes whenever an entry is added, removed, resized or
+	 * modified.
+	 *
+	 * @return quoted entity tag
+	 */
+	String getETag() {
+		return this.etag;
+	}
+
+	/**
+	 * Write the given range of the tar archive.
+	 *
+	 * @param out target stream
+	 * @param position position of the first byte to write
+	 * @param count number of bytes to write
+	 * @throws IOException when writing fails or a file has been changed
+	 */
+	void writeTar(OutputStream out, long position, long count) throws IOException {
+		long end = position + count;
+
+		for(Part part : this.parts) {
+			long partEnd = part.offset + part.length;
+
+			if(partEnd <= position)
+				continue;
+
+			if(part.offset >= end)
+				break;
+
+			long from = Math.max(position, part.offset) - part.offset;
+			long to = Math.min(end, partEnd) - part.offset;
+
+			part.write(out, from, to - from);
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Write all entries as zip archive.
+	 *
+	 * @param out target stream, not closed
+	 * @throws IOException when writing fails
+	 */
+	void writeZip(OutputStream out) throws IOException {
+		ZipOutputStream zip = new ZipOutputStream(StreamUtils.nonClosing(out));
+		zip.setLevel(Deflater.NO_COMPRESSION);
+
+		for(ArchiveEntry entry : this.entries) {
+			ZipEntry zipEntry = new ZipEntry(entry.getName());
+			zipEntry.setTime(entry.getLastModified());
+			zip.putNextEntry(zipEntry);
+
+			try(InputStream in = entry.open()) {
+				StreamUtils.copy(in, zip);
+			}
+
+			zip.closeEntry();
+		}
+
+		zip.close();
+	}
+
+	/**
+	 * A contiguous part of the tar archive, either held in memory or read from a file.
+	 */
+	private static final class Part {
+		/** Offset within the archive */
+		private final long offset;
+
+		/** Length in bytes */
+		private final long length;
+
+		/** Content, at least {@link #length} bytes, or null for a file */
+		private final @Nullable byte[] data;
+
+		/** The file or null */
+		private final @Nullable Path file;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param offset offset within the archive
+		 * @param length length in bytes
+		 * @param data content or null
+		 * @param file file or null
+		 */
+		Part(long offset, long length, @Nullable byte[] data, @Nullable Path file) {
+			this.offset = offset;
+			this.length = length;
+			this.data = data;
+			this.file = file;
+		}
+
+		/**
+		 * Write the given range of this part.
+		 *
+		 * @param out target stream
+		 * @param position position within this part
+		 * @param count number of bytes
+		 * @throws IOException when writing fails or the file has been changed
+		 */
+		void write(OutputStream out, long position, long count) throws IOException {
+			if(this.data != null) {
+				out.write(this.data, (int) position, (int) count);
+				return;
+			}
+
+			Path file = Objects.requireNonNull(this.file);
+
+			try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+				// The layout depends on the size read before.
+				if(channel.size() != this.length)
+					throw new IOException(String.format("File '%s' has been changed while archiving: expected %d, "
+							+ "found %d bytes.", file, this.length, channel.size()));
+
+				// Undertow sends the rest of a file without copying it to user space.
+				if(position + count == this.length && out instanceof ServletOutputStreamImpl) {
+					channel.position(position);
+					((ServletOutputStreamImpl) out).transferFrom(channel);
+					return;
+				}
+
+				WritableByteChannel target = Channels.newChannel(out);
+
+				while(count > 0) {
+					long sent = channel.transferTo(position, count, target);
+
+					if(sent <= 0)
+						throw new IOException(String.format("File '%s' ended while archiving.", file));
+
+					position += sent;
+					count -= sent;
+				}
+			}
+		}
+	}
+}
@@ -1,31 +1,61 @@
 package at.dire.podcache.service;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Date;
+import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ByteArrayResource;
 import org.springframework.core.io.PathResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.MediaTypeFactory;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.ResponseEntity.BodyBuilder;
+import org.springframework.lang.Nullable;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.ServletWebRequest;
 import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.util.UriUtils;
 
+import com.rometools.rome.feed.synd.SyndFeed;
+
+import at.dire.podcache.AccessStatistics;
+import at.dire.podcache.ArtworkManager;
+import at.dire.podcache.ColdStorageMover;
+import at.dire.podcache.DownloadQueue;
+import at.dire.podcache.FeedArchiver;
 import at.dire.podcache.FeedManager;
+import at.dire.podcache.FeedVersionManager;
+import at.dire.podcache.data.DownloadTask;
 import at.dire.podcache.data.Feed;
+import at.dire.podcache.util.ArchiveEntry;
+import at.dire.podcache.util.FeedUtils;
 
 /**
  * REST controller that gives access to a {@link Feed}'s content and attachment files.
@@ -35,31 +65,109 @@ import at.dire.podcache.data.Feed;
 @RestController
 @RequestMapping("/content")
 public class ContentController {
+	/** Request parameter selecting a resized variant of an image. */
+	public static final String PARAM_SIZE = "size";
+
+	/** Request parameter selecting the format of an archive. */
+	public static final String PARAM_FORMAT = "format";
+
 	/** Logger */
 	private static final Logger LOG = LoggerFactory.getLogger(ContentController.class);
 
+	/** Header used by clients to request instance manipulations (RFC 3229). */
+	private static final String HEADER_A_IM = "A-IM";
+
+	/** Header listing the applied instance manipulations (RFC 3229). */
+	private static final String HEADER_IM = "IM";
+
+	/** Instance manipulation that returns only new feed entries. */
+	private static final String IM_FEED = "feed";
+
+	/** Request headers the base URL of rendered feeds may be taken from. */
+	private static final String VARY_FROM_REQUEST = String.join(", ", HttpHeaders.HOST, "Forwarded",
+			"X-Forwarded-Host", "X-Forwarded-Proto", "X-Forwarded-Port");
+
 	/** The database repository */
 	private final FeedManager manager;
 
+	/** Queue of files that have not been downloaded yet */
+	private final DownloadQueue downloadQueue;
+
+	/** Version history of the feed files */
+	private final FeedVersionManager versionManager;
+
+	/** Tracks access to content files for cold storage */
+	private final ColdStorageMover coldStorage;
+
+	/** Limits bandwidth used per client */
+	private final ContentThrottle throttle;
+
+	/** Creates resized variants of artwork */
+	private final ArtworkManager artworkManager;
+
+	/** Provides the base URL of content files */
+	private final FeedURLBuilder urlBuilder;
+
+	/** Fills in the base URL of feed files */
+	private final FeedRenderer renderer;
+
+	/** Counts polls and downloads */
+	private final AccessStatistics statistics;
+
+	/** Exports feeds as archives */
+	private final FeedArchiver archiver;
+
 	/**
 	 * Creates a new instance.
 	 * 
 	 * @param manager the feed manager
+	 * @param downloadQueue the download queue
+	 * @param versionManager version history of feed files
+	 * @param coldStorage tracks access to content files
+	 * @param throttle limits bandwidth used per client
+	 * @param artworkManager creates resized variants of artwork
+	 * @param urlBuilder provides the base URL of content files
+	 * @param renderer fills in the base URL of feed files
+	 * @param statistics counts polls and downloads
+	 * @param archiver exports feeds as archives
 	 */
 	@Autowired
-	public ContentController(FeedManager manager) {
+	public ContentController(FeedManager manager, DownloadQueue downloadQueue, FeedVersionManager versionManager,
+			ColdStorageMover coldStorage, ContentThrottle throttle, ArtworkManager artworkManager,
+			FeedURLBuilder urlBuilder, FeedRenderer renderer, AccessStatistics statistics, FeedArchiver archiver) {
 		this.manager = Objects.requireNonNull(manager);
+		this.downloadQueue = Objects.requireNonNull(downloadQueue);
+		this.versionManager = Objects.requireNonNull(versionManager);
+		this.coldStorage = Objects.requireNonNull(coldStorage);
+		this.throttle = Objects.requireNonNull(throttle);
+		this.artworkManager = Objects.requireNonNull(artworkManager);
+		this.urlBuilder = Objects.requireNonNull(urlBuilder);
+		this.renderer = Objects.requireNonNull(renderer);
+		this.statistics = Objects.requireNonNull(statistics);
+		this.archiver = Objects.requireNonNull(archiver);
 	}
 
 	/**
-	 * Returns the feed's content. Will check the last modification date and
+	 * Returns the feed's content. Will check the entity tag and last modification date and may return
+	 * {@link HttpStatus#NOT_MODIFIED}.
+	 * 
+	 * <p>
+	 * Clients that send <code>A-IM: feed</code> together with the entity tag of a previous version will only receive
+	 * the entries added since that version (RFC 3229).
+	 * </p>
+	 * 
+	 * <p>
+	 * URLs of content files are rendered with the base URL used by the client, see {@link FeedURLBuilder}.
+	 * </p>
 	 *
 	 * @param request request
 	 * @param feedName name of the feed
 	 * @return feed file
+	 * @throws IOException when reading the feed fails
 	 */
 	@GetMapping(path = "/{name}")
-	public ResponseEntity<Resource> getContent(WebRequest request, @PathVariable("name") String feedName) {
+	public ResponseEntity<Resource> getContent(ServletWebRequest request, @PathVariable("name") String feedName)
+			throws IOException {
 		Feed feed = this.manager.getFeed(feedName);
 
 		if(feed == null) {
@@ -67,14 +175,6 @@ public class ContentController {
 			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 		}
 
-		// Check last modified, may return NOT_MODIFIED.
-		Date lastModified = feed.getLastModified();
-
-		if(lastModified != null && request.checkNotModified(lastModified.getTime())) {
-			LOG.debug("Feed '{}' hasn't been changed ({}). Returning.", feedName, lastModified);
-			return new ResponseEntity<>(HttpStatus.NOT_MODIFIED);
-		}
-
 		// Check if the file exists.
 		Path file = this.manager.getFeedFile(feedName);
 
@@ -83,43 +183,410 @@ public class ContentController {
 			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 		}
 
-		PathResource resource = new PathResource(file);
-		return ResponseEntity.ok().contentType(MediaType.parseMediaType(feed.getContentType())).body(resource);
+		// Bytes served are added by the filter once the response is complete.
+		request.setAttribute(ContentEventFilter.COUNTER_ATTRIBUTE, this.statistics.recordPoll(feedName),
+				RequestAttributes.SCOPE_REQUEST);
+
+		// The content depends on the host name used by the client.
+		if(this.urlBuilder.isFromRequest() && request.getResponse() != null)
+			request.getResponse().addHeader(HttpHeaders.VARY, VARY_FROM_REQUEST);
+
+		// Check entity tag and last modified, may return NOT_MODIFIED.
+		Date lastModified = feed.getLastModified();
+		int version = this.versionManager.getCurrentVersion(feedName);
+		String etag = (version > 0 ? FeedVersionManager.toETag(version) : null);
+		long lastModifiedTime = (lastModified != null ? lastModified.getTime() : -1);
+
+		if((etag != null || lastModified != null) && request.checkNotModified(etag, lastModifiedTime)) {
+			LOG.debug("Feed '{}' hasn't been changed ({}, {}). Returning.", feedName, etag, lastModified);
+			return new ResponseEntity<>(HttpStatus.NOT_MODIFIED);
+		}
+
+		MediaType contentType = MediaType.parseMediaType(feed.getContentType());
+		String baseURL = this.urlBuilder.getBaseURL(request.getRequest());
+
+		// Delta request?
+		if(etag != null && isFeedDeltaRequested(request)) {
+			ResponseEntity<Resource> delta = getContentDelta(request, feedName, file, version, contentType, baseURL);
+
+			if(delta != null)
+				return delta;
+		}
+
+		byte[] content = this.renderer.render(feedName, file, baseURL);
+		return ResponseEntity.ok().contentType(contentType).body(new ByteArrayResource(content));
 	}
 
 	/**
-	 * Returns one of a feed's attachments.
+	 * Returns a response holding only the entries added since the version known to the client.
 	 * 
+	 * @param request request
+	 * @param feedName name of the feed
+	 * @param file the feed's file
+	 * @param version current version
+	 * @param contentType content type of the feed
+	 * @param baseURL base URL of content files
+	 * @return delta response or null if a full response is needed
+	 * @throws IOException when reading the feed fails
+	 */
+	private @Nullable ResponseEntity<Resource> getContentDelta(WebRequest request, String feedName, Path file,
+			int version, MediaType contentType, String baseURL) throws IOException {
+		String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+
+		if(ifNoneMatch == null)
+			return null;
+
+		int clientVersion = FeedVersionManager.parseETags(ifNoneMatch);
+
+		if(clientVersion < 1 || clientVersion >= version)
+			return null;
+
+		Set<String> addedEntries = this.versionManager.getEntriesSince(feedName, clientVersion);
+
+		if(addedEntries == null) {
+			LOG.debug("History of feed '{}' does not reach back to version {}. Returning full feed.", feedName,
+					clientVersion);
+			return null;
+		}
+
+		LOG.debug("Returning {} entries of feed '{}' added since version {}.", addedEntries.size(), feedName,
+				clientVersion);
+
+		SyndFeed feedData = FeedUtils.read(file);
+		feedData.setEntries(feedData.getEntries().stream().filter((entry) -> addedEntries.contains(entry.getUri()))
+				.collect(Collectors.toList()));
+
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		FeedUtils.write(feedData, content);
+
+		// Note: The entity tag of the current version has already been set by checkNotModified.
+		return ResponseEntity.status(HttpStatus.IM_USED).contentType(contentType).header(HEADER_IM, IM_FEED)
+				.header(HttpHeaders.CACHE_CONTROL, "no-store, im")
+				.body(new ByteArrayResource(this.renderer.render(content.toByteArray(), baseURL)));
+	}
+
+	/**
+	 * Returns true if the client accepts feed deltas (<code>A-IM: feed</code>).
+	 * 
+	 * @param request request
+	 * @return true if accepted
+	 */
+	private static boolean isFeedDeltaRequested(WebRequest request) {
+		String acceptedIMs = request.getHeader(HEADER_A_IM);
+
+		if(acceptedIMs == null)
+			return false;
+
+		for(String acceptedIM : acceptedIMs.split(",")) {
+			// Ignore parameters, e.g. "feed;q=1.0".
+			String name = acceptedIM.split(";", 2)[0].trim();
+
+			if(IM_FEED.equalsIgnoreCase(name))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns an archive of the whole feed, holding its settings, the feed file, the original feed store and all
+	 * content files, see {@link FeedArchiver}. The archive can be imported by {@link FeedController}.
+	 * 
+	 * <p>
+	 * Archives are requested from the feed's URL with the {@link #PARAM_FORMAT format} parameter, so that they can't
+	 * be confused with content files of the same name.
+	 * </p>
+	 * 
+	 * <p>
+	 * Tar archives are sent with a strong entity tag and support a single byte range, so interrupted downloads can be
+	 * resumed using <code>If-Range</code>. File content is sent without copying where possible. Zip archives are
+	 * streamed without compression and can not be resumed.
+	 * </p>
+	 * 
+	 * <p>
+	 * Archives are not counted as downloads. If a bandwidth limit is configured, they are sent at the client's rate
+	 * using a {@link ThrottledOutputStream}, which holds the request's thread and sends files by copying them.
+	 * </p>
+	 * 
+	 * @param request request
+	 * @param response response
+	 * @param feedName name of the feed
+	 * @param extension format of the archive, "tar" or "zip"
+	 * @throws IOException when sending the archive fails
+	 */
+	@GetMapping(path = "/{name}", params = PARAM_FORMAT)
+	public void getArchive(HttpServletRequest request, HttpServletResponse response,
+			@PathVariable("name") String feedName, @RequestParam(PARAM_FORMAT) String extension) throws IOException {
+		FeedArchiver.Format format = FeedArchiver.Format.of(extension);
+
+		if(format == null) {
+			LOG.debug("Requested archive format '{}' is not supported.", extension);
+			response.sendError(HttpStatus.BAD_REQUEST.value());
+			return;
+		}
+
+		List<ArchiveEntry> entries = this.archiver.getEntries(feedName);
+
+		if(entries == null) {
+			LOG.debug("Feed '{}' not found.", feedName);
+			response.sendError(HttpStatus.NOT_FOUND.value());
+			return;
+		}
+
+		ArchiveWriter writer = new ArchiveWriter(entries);
+
+		if(format == FeedArchiver.Format.ZIP) {
+			setArchiveHeaders(response, feedName, format);
+
+			if(!HttpMethod.HEAD.matches(request.getMethod()))
+				writer.writeZip(getArchiveStream(request, response));
+
+			return;
+		}
+
+		// Sets the entity tag, may return NOT_MODIFIED.
+		if(new ServletWebRequest(request, response).checkNotModified(writer.getETag()))
+			return;
+
+		long length = writer.getLength();
+		long position = 0;
+		long count = length;
+		String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+
+		// Send the whole archive if it has been changed since the client's range request.
+		if(ifRange == null || ifRange.trim().equals(writer.getETag())) {
+			try {
+				List<HttpRange> ranges = HttpRange.parseRanges(request.getHeader(HttpHeaders.RANGE));
+
+				if(ranges.size() == 1) {
+					position = ranges.get(0).getRangeStart(length);
+					count = ranges.get(0).getRangeEnd(length) - position + 1;
+
+					if(position >= length || count < 1)
+						throw new IllegalArgumentException("Range '" + ranges.get(0) + "' exceeds archive size "
+								+ length);
+
+					response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+					response.setHeader(HttpHeaders.CONTENT_RANGE,
+							"bytes " + position + "-" + (position + count - 1) + "/" + length);
+				}
+			} catch(IllegalArgumentException e) {
+				response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+				response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+				return;
+			}
+		}
+
+		setArchiveHeaders(response, feedName, format);
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		response.setContentLengthLong(count);
+
+		if(HttpMethod.HEAD.matches(request.getMethod()))
+			return;
+
+		LOG.debug("Sending {} bytes of archive of feed '{}' from position {}.", count, feedName, position);
+		writer.writeTar(getArchiveStream(request, response), position, count);
+	}
+
+	/**
+	 * Returns the stream to write an archive to, paced by the client's {@link ContentThrottle.Stream stream} if a
+	 * bandwidth limit is configured.
+	 * 
+	 * @param request request
+	 * @param response response
+	 * @return stream
+	 * @throws IOException when getting the response stream fails
+	 */
+	private OutputStream getArchiveStream(HttpServletRequest request, HttpServletResponse response)
+			throws IOException {
+		ContentThrottle.Stream stream = (ContentThrottle.Stream) request
+				.getAttribute(ContentThrottleFilter.STREAM_ATTRIBUTE);
+
+		if(stream != null && this.throttle.isRateLimited())
+			return new ThrottledOutputStream(response.getOutputStream(), stream);
+
+		return response.getOutputStream();
+	}
+
+	/**
+	 * Set content type and file name of an archive. Not set for errors, so that error pages can be rendered.
+	 * 
+	 * @param response response
+	 * @param feedName name of the feed
+	 * @param format format of the archive
+	 */
+	private static void setArchiveHeaders(HttpServletResponse response, String feedName,
+			FeedArchiver.Format format) {
+		response.setContentType(format.getMediaType().toString());
+		response.setHeader(HttpHeaders.CONTENT_DISPOSITION,
+				"attachment; filename=" + feedName + "." + format.getExtension());
+	}
+
+	/**
+	 * Returns one of a feed's attachments. If the file is still waiting in the {@link DownloadQueue}, the client is
+	 * redirected to the original URL instead. Files are served from cold storage transparently.
+	 * 
+	 * <p>
+	 * Requests of the whole file or of a range starting at its first byte count as a download, see
+	 * {@link AccessStatistics}.
+	 * </p>
+	 * 
+	 * <p>
+	 * If a bandwidth limit is configured, the file is sent asynchronously by a {@link ThrottledFileTransfer} and no
+	 * response entity is returned.
+	 * </p>
+	 * 
+	 * <p>
+	 * Images may be requested in one of the configured sizes, see {@link ArtworkManager}. Images are sent with a long
+	 * cache lifetime, as their files never change.
+	 * </p>
+	 * 
+	 * @param request request
+	 * @param response response
 	 * @param feedName name of the feed
 	 * @param fileName file name to get
-	 * @return attachment file
+	 * @param size size of the image variant or null for the file itself
+	 * @return attachment file or null if sent asynchronously
+	 * @throws IOException when sending the file fails
 	 */
 	@GetMapping(path = "/{name}/{fileName:.+}")
-	public ResponseEntity<Resource> getAttachment(@PathVariable("name") String feedName,
-			@PathVariable("fileName") String fileName) {
+	public @Nullable ResponseEntity<Resource> getAttachment(HttpServletRequest request, HttpServletResponse response,
+			@PathVariable("name") String feedName, @PathVariable("fileName") String fileName,
+			@RequestParam(name = PARAM_SIZE, required = false) @Nullable Integer size) throws IOException {
 		Path file = this.manager.getAttachment(feedName, fileName);
+		boolean download = isDownloadStarted(request);
 
 		if(Files.notExists(file)) {
+			DownloadTask task = this.downloadQueue.getTask(feedName, fileName);
+
+			if(task != null) {
+				if(download)
+					this.statistics.recordDownload(feedName, fileName);
+
+				LOG.debug("Requested feed attachment file '{}' not downloaded yet. Redirecting to '{}'.", file,
+						task.getUrl());
+				return ResponseEntity.status(HttpStatus.TEMPORARY_REDIRECT).location(URI.create(task.getUrl()))
+						.build();
+			}
+
 			LOG.debug("Requested feed attachment file '{}' not found.", file);
 			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
 		}
 
+		this.coldStorage.recordAccess(feedName, fileName);
+		request.setAttribute(ContentEventFilter.COUNTER_ATTRIBUTE, (download
+				? this.statistics.recordDownload(feedName, fileName) : this.statistics.getCounter(feedName, fileName)));
+
+		// Serve from cold storage for now, the file will be available in the main directory on the next request.
+		if(this.coldStorage.isPromoteEnabled() && this.manager.getContentManager().isCold(file))
+			this.coldStorage.promote(feedName, fileName);
+
+		if(size != null) {
+			if(!this.artworkManager.isSupportedSize(size)) {
+				LOG.debug("Requested size {} of file '{}' is not supported.", size, file);
+				return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+			}
+
+			Path variant = this.artworkManager.getVariant(feedName, fileName, size);
+
+			if(variant == null)
+				return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+			file = variant;
+		}
+
 		PathResource resource = new PathResource(file);
 		BodyBuilder responseBuilder = ResponseEntity.ok();
 
 		// Fix download of files as "f.txt" when extensions aren't matched (".+" above) by adding our own filename.
 		// See https://pivotal.io/security/cve-2015-5211 for details on this behavior.
 		HttpHeaders headers = new HttpHeaders();
-		responseBuilder.header(HttpHeaders.CONTENT_DISPOSITION,
+		headers.set(HttpHeaders.CONTENT_DISPOSITION,
 				"inline; filename=" + UriUtils.encodePathSegment(file.getFileName().toString(), "UTF-8"));
-		responseBuilder.headers(headers);
 
 		// Set content type for the given file.
 		Optional<MediaType> fileMediaType = MediaTypeFactory.getMediaType(resource);
 
-		if(fileMediaType.isPresent())
-			responseBuilder.contentType(fileMediaType.get());
+		if(fileMediaType.isPresent()) {
+			headers.setContentType(fileMediaType.get());
+
+			// File names are derived from the source URL, so the content of images does not change.
+			if("image".equals(fileMediaType.get().getType()))
+				headers.setCacheControl(CacheControl.maxAge(this.artworkManager.getMaxAge(), TimeUnit.SECONDS)
+						.cachePublic().getHeaderValue());
+		}
+
+		// Send throttled files ourselves.
+		ContentThrottle.Stream stream = (ContentThrottle.Stream) request
+				.getAttribute(ContentThrottleFilter.STREAM_ATTRIBUTE);
+
+		if(stream != null && this.throttle.isRateLimited()) {
+			sendThrottled(request, response, stream, file, headers);
+			return null;
+		}
+
+		return responseBuilder.headers(headers).body(resource);
+	}
+
+	/**
+	 * Returns true if the given request starts a new download, i.e. it is not a HEAD request and it either has no
+	 * range or a range starting at the first byte. Clients request further ranges while playing.
+	 * 
+	 * @param request request
+	 * @return boolean
+	 */
+	private static boolean isDownloadStarted(HttpServletRequest request) {
+		if(HttpMethod.HEAD.matches(request.getMethod()))
+			return false;
+
+		String range = request.getHeader(HttpHeaders.RANGE);
+		return(range == null || range.trim().startsWith("bytes=0-"));
+	}
+
+	/**
+	 * Send the given file using a {@link ThrottledFileTransfer}. Supports a single byte range, multiple ranges are
+	 * ignored and the whole file is sent.
+	 * 
+	 * @param request request
+	 * @param response response
+	 * @param stream stream to pace the transfer
+	 * @param file file to send
+	 * @param headers headers to set
+	 * @throws IOException when sending fails
+	 */
+	private void sendThrottled(HttpServletRequest request, HttpServletResponse response,
+			ContentThrottle.Stream stream, Path file, HttpHeaders headers) throws IOException {
+		long length = Files.size(file);
+		long position = 0;
+		long count = length;
+
+		try {
+			List<HttpRange> ranges = HttpRange.parseRanges(request.getHeader(HttpHeaders.RANGE));
+
+			if(ranges.size() == 1) {
+				position = ranges.get(0).getRangeStart(length);
+				count = ranges.get(0).getRangeEnd(length) - position + 1;
+
+				if(position >= length || count < 1)
+					throw new IllegalArgumentException("Range '" + ranges.get(0) + "' exceeds file size " + length);
+
+				response.setStatus(HttpStatus.PARTIAL_CONTENT.value());
+				response.setHeader(HttpHeaders.CONTENT_RANGE,
+						"bytes " + position + "-" + (position + count - 1) + "/" + length);
+			}
+		} catch(IllegalArgumentException e) {
+			response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + length);
+			response.sendError(HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value());
+			return;
+		}
+
+		headers.forEach((name, values) -> values.forEach((value) -> response.addHeader(name, value)));
+		response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+		response.setContentLengthLong(count);
+
+		if(HttpMethod.HEAD.matches(request.getMethod()))
+			return;
 
-		return responseBuilder.body(resource);
+		new ThrottledFileTransfer(this.throttle, stream, request, response, file, position, count).start();
 	}
 }
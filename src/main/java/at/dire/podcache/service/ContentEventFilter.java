@@ -0,0 +1,256 @@
+package at.dire.podcache.service;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+import at.dire.podcache.AccessStatistics;
+import at.dire.podcache.jfr.ContentResponseEvent;
+
+/**
+ * Filter that records a {@link ContentResponseEvent flight recorder event} for every response of the
+ * {@link ContentController}. Bytes served are also added to the {@link AccessStatistics.Counter counter} set by the
+ * controller, if any. Only the bytes actually written to the response are counted, so aborted downloads don't count
+ * as complete.
+ *
+ * @author diredev
+ */
+@Component
+public class ContentEventFilter extends OncePerRequestFilter {
+	/** Request attribute holding the {@link AccessStatistics.Counter} of the requested file. */
+	public static final String COUNTER_ATTRIBUTE = ContentEventFilter.class.getName() + ".counter";
+
+	/** Path of the content controller. */
+	private static final String CONTENT_PATH = "/content/";
+
+	/** Used to resolve request paths */
+	private final UrlPathHelper pathHelper = new UrlPathHelper();
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		return !this.pathHelper.getPathWithinApplication(request).startsWith(CONTENT_PATH);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		ContentResponseEvent event = new ContentResponseEvent(this.pathHelper.getPathWithinApplication(request),
+				request.getMethod(), request.getHeader(HttpHeaders.RANGE) != null);
+		CountingResponse countingResponse = new CountingResponse(request, response);
+
+		try {
+			filterChain.doFilter(request, countingResponse);
+		} finally {
+			// Throttled files are sent asynchronously.
+			if(request.isAsyncStarted())
+				request.getAsyncContext().addListener(new EventCommitter(event, request, countingResponse));
+			else
+				complete(event, request, countingResponse);
+		}
+	}
+
+	/**
+	 * Commit the event and count the bytes served once the response is complete.
+	 *
+	 * @param event the event
+	 * @param request the request
+	 * @param response the response
+	 */
+	private static void complete(ContentResponseEvent event, HttpServletRequest request,
+			CountingResponse response) {
+		long bytesWritten = response.getBytesWritten();
+		AccessStatistics.Counter counter = (AccessStatistics.Counter) request.getAttribute(COUNTER_ATTRIBUTE);
+
+		if(counter != null && bytesWritten > 0 && response.getStatus() < HttpStatus.MULTIPLE_CHOICES.value()
+				&& !HttpMethod.HEAD.matches(request.getMethod()))
+			counter.addBytes(bytesWritten);
+
+		if(event.shouldCommit())
+			event.commit(response.getStatus(), (bytesWritten >= 0 ? bytesWritten : getContentLength(response)));
+	}
+
+	/**
+	 * Commits the event once an asynchronous response is complete.
+	 */
+	private static class EventCommitter implements AsyncListener {
+		/** The event */
+		private final ContentResponseEvent event;
+
+		/** The request */
+		private final HttpServletRequest request;
+
+		/** The response */
+		private final CountingResponse response;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param event event to commit
+		 * @param request the request
+		 * @param response the response
+		 */
+		EventCommitter(ContentResponseEvent event, HttpServletRequest request, CountingResponse response) {
+			this.event = event;
+			this.request = request;
+			this.response = response;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent asyncEvent) {
+			complete(this.event, this.request, this.response);
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent asyncEvent) {
+			// Committed on completion.
+		}
+
+		@Override
+		public void onError(AsyncEvent asyncEvent) {
+			// Committed on completion.
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent asyncEvent) {
+			// Still the same response.
+		}
+	}
+
+	/**
+	 * Counts the bytes written to the response body. Only responses of requests with a
+	 * {@link ContentEventFilter#COUNTER_ATTRIBUTE counter} are counted, others get the stream of the container, which
+	 * may send files without copying them.
+	 */
+	private static class CountingResponse extends HttpServletResponseWrapper {
+		/** The request */
+		private final HttpServletRequest request;
+
+		/** The counting stream or null if not requested yet */
+		private @Nullable CountingOutputStream out;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param request the request
+		 * @param response the response to wrap
+		 */
+		CountingResponse(HttpServletRequest request, HttpServletResponse response) {
+			super(response);
+			this.request = request;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() throws IOException {
+			ServletOutputStream stream = super.getOutputStream();
+
+			if(this.request.getAttribute(COUNTER_ATTRIBUTE) == null)
+				return stream;
+
+			CountingOutputStream countingStream = this.out;
+
+			if(countingStream == null) {
+				countingStream = new CountingOutputStream(stream);
+				this.out = countingStream;
+			}
+
+			return countingStream;
+		}
+
+		/**
+		 * Returns the number of bytes written to the response body.
+		 *
+		 * @return bytes written or -1 if not counted
+		 */
+		long getBytesWritten() {
+			CountingOutputStream countingStream = this.out;
+			return (countingStream != null ? countingStream.count : -1);
+		}
+	}
+
+	/**
+	 * Counts the bytes written to a stream. Writes that fail are not counted.
+	 */
+	private static class CountingOutputStream extends ServletOutputStream {
+		/** The stream */
+		private final ServletOutputStream out;
+
+		/** Number of bytes written. Only written by one thread at a time. */
+		private volatile long count = 0;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param out stream to write to
+		 */
+		CountingOutputStream(ServletOutputStream out) {
+			this.out = out;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.count++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.count += len;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			this.out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			this.out.close();
+		}
+
+		@Override
+		public boolean isReady() {
+			return this.out.isReady();
+		}
+
+		@Override
+		public void setWriteListener(WriteListener writeListener) {
+			this.out.setWriteListener(writeListener);
+		}
+	}
+
+	/**
+	 * Returns the content length of the given response.
+	 *
+	 * @param response response
+	 * @return length or -1 if unknown
+	 */
+	private static long getContentLength(HttpServletResponse response) {
+		String header = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+
+		if(header == null)
+			return -1;
+
+		try {
+			return Long.parseLong(header.trim());
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+}
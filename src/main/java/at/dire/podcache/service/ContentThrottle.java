@@ -0,0 +1,277 @@
+package at.dire.podcache.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits the number of concurrent streams and the bandwidth used per client when serving content files. Clients
+ * are identified by their address or, if configured, by a token passed as request parameter.
+ *
+ * <p>
+ * Bandwidth is shared between all streams of a client. If a total rate is configured, it is split equally between
+ * all active clients, so a client downloading many files at once does not slow down everybody else.
+ * </p>
+ *
+ * @author diredev
+ * @see ContentThrottleFilter
+ * @see ThrottledFileTransfer
+ */
+@Component
+public class ContentThrottle {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ContentThrottle.class);
+
+	/** Maximum time in nanoseconds a client may send ahead of its rate. */
+	private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+
+	/** Maximum number of concurrent streams per client or 0 for no limit */
+	private final int maxStreams;
+
+	/** Maximum bytes per second per client or 0 for no limit */
+	private final long clientRate;
+
+	/** Maximum bytes per second for all clients or 0 for no limit */
+	private final long totalRate;
+
+	/** Name of the request parameter identifying clients or an empty string to use addresses only */
+	private final String tokenParameter;
+
+	/** Time in nanoseconds after which throttled transfers are aborted if the client doesn't read */
+	private final long idleTimeout;
+
+	/** Active clients by key. Synchronized on this instance. */
+	private final Map<String, Client> clients = new HashMap<>();
+
+	/** Used to resume throttled transfers */
+	private final ScheduledExecutorService scheduler;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param maxStreams maximum number of concurrent streams per client, 0 for no limit
+	 * @param clientRate maximum KB per second per client, 0 for no limit
+	 * @param totalRate maximum KB per second for all clients, 0 for no limit
+	 * @param tokenParameter name of the request parameter identifying clients, may be empty
+	 * @param idleTimeout time in milliseconds after which throttled transfers are aborted if the client doesn't read
+	 */
+	@Autowired
+	public ContentThrottle(@Value("${podcache.content.limit.streams}") int maxStreams,
+			@Value("${podcache.content.limit.rate}") long clientRate,
+			@Value("${podcache.content.limit.total-rate}") long totalRate,
+			@Value("${podcache.content.limit.token-parameter}") String tokenParameter,
+			@Value("${podcache.content.limit.idle-timeout}") long idleTimeout) {
+		this.maxStreams = Math.max(maxStreams, 0);
+		this.clientRate = Math.max(clientRate, 0) * 1024;
+		this.totalRate = Math.max(totalRate, 0) * 1024;
+		this.tokenParameter = tokenParameter.trim();
+		this.idleTimeout = TimeUnit.MILLISECONDS.toNanos(Math.max(idleTimeout, 1));
+		this.scheduler = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "content-throttle");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Returns true if streams need to be paced.
+	 *
+	 * @return boolean
+	 */
+	public boolean isRateLimited() {
+		return(this.clientRate > 0 || this.totalRate > 0);
+	}
+
+	/**
+	 * Returns true if any limit is configured.
+	 *
+	 * @return boolean
+	 */
+	public boolean isEnabled() {
+		return(this.maxStreams > 0 || isRateLimited());
+	}
+
+	/**
+	 * Returns the time after which throttled transfers are aborted if the client doesn't read.
+	 *
+	 * @return time in nanoseconds
+	 */
+	long getIdleTimeout() {
+		return this.idleTimeout;
+	}
+
+	/**
+	 * Open a new stream for the client of the given request.
+	 *
+	 * @param request request
+	 * @return stream or null if the client already has the maximum number of streams open
+	 */
+	public synchronized @Nullable Stream open(HttpServletRequest request) {
+		String key = getClientKey(request);
+		Client client = this.clients.get(key);
+
+		if(client == null) {
+			client = new Client(key);
+			this.clients.put(key, client);
+		} else if(this.maxStreams > 0 && client.streams >= this.maxStreams) {
+			LOG.debug("Client '{}' already has {} streams open.", key, client.streams);
+			return null;
+		}
+
+		client.streams++;
+		return new Stream(client);
+	}
+
+	/**
+	 * Schedule the given task.
+	 *
+	 * @param task task
+	 * @param delay delay in nanoseconds
+	 * @return future
+	 */
+	ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return this.scheduler.schedule(task, delay, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Stop resuming transfers.
+	 */
+	@PreDestroy
+	public void close() {
+		this.scheduler.shutdownNow();
+	}
+
+	/**
+	 * Returns the key identifying the client of the given request.
+	 *
+	 * @param request request
+	 * @return key
+	 */
+	private String getClientKey(HttpServletRequest request) {
+		if(!this.tokenParameter.isEmpty()) {
+			String token = request.getParameter(this.tokenParameter);
+
+			if(token != null && !token.isEmpty())
+				return "token:" + token;
+		}
+
+		return "address:" + request.getRemoteAddr();
+	}
+
+	/**
+	 * Returns the bytes per second currently available to a single client.
+	 *
+	 * @return rate or 0 for no limit
+	 */
+	private long getClientRate() {
+		if(this.totalRate == 0)
+			return this.clientRate;
+
+		long share = this.totalRate / Math.max(this.clients.size(), 1);
+		return(this.clientRate > 0 ? Math.min(this.clientRate, share) : share);
+	}
+
+	/**
+	 * State of a single client.
+	 */
+	private static class Client {
+		/** Key identifying the client */
+		private final String key;
+
+		/** Number of open streams */
+		private int streams = 0;
+
+		/** Time in nanoseconds at which all bytes sent so far are paid for */
+		private long paidUntil = System.nanoTime();
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param key client key
+		 */
+		Client(String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * A single stream of a client. Must be {@link #close() closed} once the response is complete.
+	 */
+	public class Stream {
+		/** The client */
+		private final Client client;
+
+		/** True once closed */
+		private boolean closed = false;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param client client
+		 */
+		Stream(Client client) {
+			this.client = client;
+		}
+
+		/**
+		 * Returns the number of bytes to send at once, about a tenth of a second at the current rate.
+		 *
+		 * @return number of bytes
+		 */
+		public int getChunkSize() {
+			synchronized(ContentThrottle.this) {
+				long rate = getClientRate();
+				return(rate > 0 ? (int) Math.max(Math.min(rate / 10, 64 * 1024), 1024) : 64 * 1024);
+			}
+		}
+
+		/**
+		 * Reserve the given number of bytes of the client's bandwidth.
+		 *
+		 * @param bytes number of bytes
+		 * @return time in nanoseconds to wait before sending the bytes
+		 */
+		public long reserve(int bytes) {
+			synchronized(ContentThrottle.this) {
+				long rate = getClientRate();
+
+				if(rate == 0)
+					return 0;
+
+				long now = System.nanoTime();
+				this.client.paidUntil = Math.max(this.client.paidUntil, now - BURST_NANOS)
+						+ TimeUnit.SECONDS.toNanos(bytes) / rate;
+
+				return Math.max(this.client.paidUntil - now - BURST_NANOS, 0);
+			}
+		}
+
+		/**
+		 * Close this stream. Does nothing if already closed.
+		 */
+		public void close() {
+			synchronized(ContentThrottle.this) {
+				if(this.closed)
+					return;
+
+				this.closed = true;
+
+				if(--this.client.streams == 0)
+					clients.remove(this.client.key);
+			}
+		}
+	}
+}
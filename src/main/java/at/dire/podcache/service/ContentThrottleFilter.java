@@ -0,0 +1,127 @@
+package at.dire.podcache.service;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+
+/**
+ * Filter that opens a {@link ContentThrottle.Stream stream} for each request of a content file or archive and rejects
+ * clients that have too many streams open.
+ *
+ * @author diredev
+ */
+@Component
+public class ContentThrottleFilter extends OncePerRequestFilter {
+	/** Request attribute holding the stream of the current request. */
+	public static final String STREAM_ATTRIBUTE = ContentThrottleFilter.class.getName() + ".stream";
+
+	/** Path of the content controller. */
+	private static final String CONTENT_PATH = "/content/";
+
+	/** Seconds after which rejected clients should try again. */
+	private static final String RETRY_AFTER = "5";
+
+	/** Used to resolve request paths */
+	private final UrlPathHelper pathHelper = new UrlPathHelper();
+
+	/** The throttle */
+	private final ContentThrottle throttle;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param throttle content throttle
+	 */
+	@Autowired
+	public ContentThrottleFilter(ContentThrottle throttle) {
+		this.throttle = Objects.requireNonNull(throttle);
+	}
+
+	@Override
+	protected boolean shouldNotFilter(HttpServletRequest request) {
+		if(!this.throttle.isEnabled())
+			return true;
+
+		// Only content files, i.e. "/content/{name}/{file}", and archives, i.e. "/content/{name}?format={format}".
+		String path = this.pathHelper.getPathWithinApplication(request);
+
+		if(!path.startsWith(CONTENT_PATH))
+			return true;
+
+		return (path.indexOf('/', CONTENT_PATH.length()) < 0
+				&& request.getParameter(ContentController.PARAM_FORMAT) == null);
+	}
+
+	@Override
+	protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+			throws ServletException, IOException {
+		ContentThrottle.Stream stream = this.throttle.open(request);
+
+		if(stream == null) {
+			response.setHeader(HttpHeaders.RETRY_AFTER, RETRY_AFTER);
+			response.sendError(HttpStatus.TOO_MANY_REQUESTS.value());
+			return;
+		}
+
+		request.setAttribute(STREAM_ATTRIBUTE, stream);
+
+		try {
+			filterChain.doFilter(request, response);
+		} finally {
+			if(request.isAsyncStarted())
+				request.getAsyncContext().addListener(new StreamCloser(stream));
+			else
+				stream.close();
+		}
+	}
+
+	/**
+	 * Closes the stream once an asynchronous response is complete.
+	 */
+	private static class StreamCloser implements AsyncListener {
+		/** The stream */
+		private final ContentThrottle.Stream stream;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param stream stream to close
+		 */
+		StreamCloser(ContentThrottle.Stream stream) {
+			this.stream = stream;
+		}
+
+		@Override
+		public void onComplete(AsyncEvent event) {
+			this.stream.close();
+		}
+
+		@Override
+		public void onTimeout(AsyncEvent event) {
+			this.stream.close();
+		}
+
+		@Override
+		public void onError(AsyncEvent event) {
+			this.stream.close();
+		}
+
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+			// Still the same stream.
+		}
+	}
+}
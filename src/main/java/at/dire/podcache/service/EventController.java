@@ -0,0 +1,306 @@
+package at.dire.podcache.service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.MediaType;
+import org.springframework.lang.Nullable;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import at.dire.podcache.event.FeedEvent;
+
+/**
+ * REST controller that streams {@link FeedEvent feed events} to clients as server-sent events. Clients receive
+ * changes only, the full list of feeds is available from the {@link FeedController}.
+ *
+ * <p>
+ * The most recent events are kept, so clients reconnecting with the <code>Last-Event-ID</code> header receive the
+ * events they have missed. If these are not available anymore, a <code>reset</code> event tells the client to reload
+ * all feeds.
+ * </p>
+ *
+ * @author diredev
+ */
+@RestController
+@RequestMapping("/events")
+public class EventController {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(EventController.class);
+
+	/** Event telling clients to reload all feeds. */
+	private static final String EVENT_RESET = "reset";
+
+	/** Used to write event data */
+	private final ObjectMapper objectMapper;
+
+	/** Time in milliseconds after which streams are closed, clients will reconnect */
+	private final long timeout;
+
+	/** Maximum number of events kept for reconnecting clients */
+	private final int historySize;
+
+	/** Sends all events, in order. Clients are only accessed by this thread. */
+	private final ExecutorService sender;
+
+	/** Connected clients */
+	private final List<Client> clients = new ArrayList<>();
+
+	/** Recent events, oldest first. Synchronized on this instance. */
+	private final Deque<SentEvent> history = new ArrayDeque<>();
+
+	/** ID of the last event. Synchronized on this instance. */
+	private long lastId = 0;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param objectMapper used to write event data
+	 * @param timeout time in milliseconds after which streams are closed
+	 * @param historySize number of events kept for reconnecting clients
+	 */
+	@Autowired
+	public EventController(ObjectMapper objectMapper, @Value("${podcache.events.timeout}") long timeout,
+			@Value("${podcache.events.history}") int historySize) {
+		this.objectMapper = Objects.requireNonNull(objectMapper);
+		this.timeout = timeout;
+		this.historySize = historySize;
+		this.sender = Executors.newSingleThreadExecutor((runnable) -> {
+			Thread thread = new Thread(runnable, "events");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * Opens a stream of events.
+	 *
+	 * @param lastEventId ID of the last event received by a reconnecting client
+	 * @return stream
+	 */
+	@GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	public SseEmitter getEvents(@RequestHeader(name = "Last-Event-ID", required = false) @Nullable Long lastEventId) {
+		Client client = new Client(new SseEmitter(this.timeout));
+
+		client.emitter.onCompletion(() -> {
+			if(!this.sender.isShutdown())
+				this.sender.execute(() -> this.clients.remove(client));
+		});
+		client.emitter.onTimeout(client.emitter::complete);
+
+		this.sender.execute(() -> connect(client, lastEventId));
+		return client.emitter;
+	}
+
+	/**
+	 * Sends events to all clients right away.
+	 *
+	 * @param event event
+	 */
+	@EventListener(condition = "!#event.transactional")
+	public void onEvent(FeedEvent event) {
+		broadcast(event);
+	}
+
+	/**
+	 * Sends events to all clients once the transaction has committed. Events are dropped on rollback.
+	 *
+	 * @param event event
+	 */
+	@TransactionalEventListener(fallbackExecution = true, condition = "#event.transactional")
+	public void onTransactionalEvent(FeedEvent event) {
+		broadcast(event);
+	}
+
+	/**
+	 * Close all streams.
+	 */
+	@PreDestroy
+	public void close() {
+		this.sender.execute(() -> {
+			this.clients.forEach((client) -> client.emitter.complete());
+			this.clients.clear();
+		});
+
+		this.sender.shutdown();
+	}
+
+	/**
+	 * Send the given event to all connected clients. The event is written right away, as it may change later.
+	 *
+	 * @param event event
+	 */
+	private void broadcast(FeedEvent event) {
+		String data;
+
+		try {
+			data = this.objectMapper.writeValueAsString(event);
+		} catch(JsonProcessingException e) {
+			LOG.error("Failed to write event '{}'.", event, e);
+			return;
+		}
+
+		SentEvent sentEvent;
+
+		synchronized(this) {
+			sentEvent = new SentEvent(++this.lastId, event.getEventName(), data);
+			this.history.addLast(sentEvent);
+
+			while(this.history.size() > this.historySize)
+				this.history.removeFirst();
+
+			// Keep the order of IDs.
+			this.sender.execute(() -> sendToAll(sentEvent));
+		}
+	}
+
+	/**
+	 * Send missed events to the given client and add it to the list of clients. Called by the sender thread only.
+	 *
+	 * @param client client
+	 * @param lastEventId ID of the last event received by the client or null for a new client
+	 */
+	private void connect(Client client, @Nullable Long lastEventId) {
+		List<SentEvent> missed;
+
+		synchronized(this) {
+			missed = (lastEventId != null ? getEventsSince(lastEventId) : new ArrayList<>());
+
+			// Events sent later are queued for all clients already.
+			client.lastId = this.lastId;
+		}
+
+		try {
+			if(missed == null) {
+				LOG.debug("Events since {} are not available anymore. Resetting client.", lastEventId);
+				client.emitter.send(SseEmitter.event().name(EVENT_RESET).data(""));
+			} else {
+				for(SentEvent event : missed)
+					event.send(client.emitter);
+			}
+
+			this.clients.add(client);
+		} catch(IOException | IllegalStateException e) {
+			LOG.debug("Failed to send missed events. Client may have disconnected.", e);
+			client.emitter.completeWithError(e);
+		}
+	}
+
+	/**
+	 * Send the given event to all clients. Called by the sender thread only.
+	 *
+	 * @param event event
+	 */
+	private void sendToAll(SentEvent event) {
+		for(Client client : new ArrayList<>(this.clients)) {
+			// Already sent when the client connected?
+			if(event.id <= client.lastId)
+				continue;
+
+			try {
+				event.send(client.emitter);
+			} catch(IOException | IllegalStateException e) {
+				LOG.debug("Failed to send event. Client may have disconnected.", e);
+				this.clients.remove(client);
+				client.emitter.completeWithError(e);
+			}
+		}
+	}
+
+	/**
+	 * Returns all events after the given ID. Call while synchronized on this instance.
+	 *
+	 * @param lastEventId ID of the last event known to the client
+	 * @return events or null if some of them are not available anymore
+	 */
+	private @Nullable List<SentEvent> getEventsSince(long lastEventId) {
+		List<SentEvent> result = new ArrayList<>();
+		long expectedId = lastEventId + 1;
+
+		for(SentEvent event : this.history) {
+			if(event.id >= expectedId)
+				result.add(event);
+		}
+
+		// Are we missing any events, e.g. because we have been restarted?
+		long firstId = (result.isEmpty() ? this.lastId + 1 : result.get(0).id);
+		return(firstId == expectedId ? result : null);
+	}
+
+	/**
+	 * A connected client.
+	 */
+	private static class Client {
+		/** The client's stream */
+		private final SseEmitter emitter;
+
+		/** ID of the last event sent to the client. Accessed by the sender thread only. */
+		private long lastId = 0;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param emitter the client's stream
+		 */
+		Client(SseEmitter emitter) {
+			this.emitter = emitter;
+		}
+	}
+
+	/**
+	 * An event as written to clients.
+	 */
+	private static class SentEvent {
+		/** ID of the event */
+		private final long id;
+
+		/** Name of the event */
+		private final String name;
+
+		/** JSON data */
+		private final String data;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param id ID of the event
+		 * @param name name of the event
+		 * @param data JSON data
+		 */
+		SentEvent(long id, String name, String data) {
+			this.id = id;
+			this.name = name;
+			this.data = data;
+		}
+
+		/**
+		 * Send this event to the given client.
+		 *
+		 * @param client client
+		 * @throws IOException when sending fails
+		 */
+		void send(SseEmitter client) throws IOException {
+			client.send(SseEmitter.event().id(Long.toString(this.id)).name(this.name).data(this.data));
+		}
+	}
+}
@@ -1,10 +1,22 @@
 package at.dire.podcache.service;
 
+import java.io.EOFException;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -15,8 +27,16 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import at.dire.podcache.AccessStatistics;
+import at.dire.podcache.ContentManager;
+import at.dire.podcache.FeedArchiver;
 import at.dire.podcache.FeedManager;
+import at.dire.podcache.FeedPruner;
+import at.dire.podcache.FeedRefresher;
+import at.dire.podcache.data.AccessCount;
 import at.dire.podcache.data.Feed;
+import at.dire.podcache.data.FeedStatistics;
+import at.dire.podcache.util.InvalidArchiveException;
 
 /**
  * REST CRUD-style controller that gives access to managed {@link Feed feeds} and their content.
@@ -26,17 +46,39 @@ import at.dire.podcache.data.Feed;
 @RestController
 @RequestMapping("/feed")
 public class FeedController {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(FeedController.class);
+
+	/** Seconds after which rejected refreshes should be tried again. */
+	private static final String RETRY_AFTER = "60";
+
 	/** The database repository */
 	private final FeedManager manager;
 
+	/** Runs feed updates */
+	private final FeedRefresher refresher;
+
+	/** Counts polls and downloads */
+	private final AccessStatistics statistics;
+
+	/** Imports feeds from archives */
+	private final FeedArchiver archiver;
+
 	/**
 	 * Creates a new instance.
 	 * 
 	 * @param manager the feed manager
+	 * @param refresher runs feed updates
+	 * @param statistics counts polls and downloads
+	 * @param archiver imports feeds from archives
 	 */
 	@Autowired
-	public FeedController(FeedManager manager) {
+	public FeedController(FeedManager manager, FeedRefresher refresher, AccessStatistics statistics,
+			FeedArchiver archiver) {
 		this.manager = Objects.requireNonNull(manager);
+		this.refresher = Objects.requireNonNull(refresher);
+		this.statistics = Objects.requireNonNull(statistics);
+		this.archiver = Objects.requireNonNull(archiver);
 	}
 
 	/**
@@ -49,6 +91,32 @@ public class FeedController {
 		return manager.getFeeds();
 	}
 
+	/**
+	 * Returns the number of polls, downloads and bytes served of all feeds that have been requested. Counts are
+	 * written to the database periodically, recent requests may be missing.
+	 * 
+	 * @return statistics per feed
+	 */
+	@GetMapping(path = "/statistics", produces = MediaType.APPLICATION_JSON_VALUE)
+	public List<FeedStatistics> getStatistics() {
+		return this.statistics.getFeedStatistics();
+	}
+
+	/**
+	 * Returns the number of requests and bytes served of all files of the given feed. Requests of the feed file
+	 * ({@value ContentManager#FEED_FILE}) are polls.
+	 * 
+	 * @param name feed name
+	 * @return counts, most requested files first
+	 */
+	@GetMapping(path = "/{name}/statistics", produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<List<AccessCount>> getStatistics(@PathVariable String name) {
+		if(this.manager.getFeed(name) == null)
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+		return ResponseEntity.ok(this.statistics.getFileStatistics(name));
+	}
+
 	/**
 	 * Add a new feed.
 	 * 
@@ -61,32 +129,112 @@ public class FeedController {
 		return manager.add(Objects.requireNonNull(feed.getName()), Objects.requireNonNull(feed.getUrl()));
 	}
 
+	/**
+	 * Import a feed from an archive exported by {@link ContentController}. The archive is sent as tar
+	 * (<code>application/x-tar</code>) or zip (<code>application/zip</code>) and unpacked while it is received. The
+	 * feed keeps the name it was exported with.
+	 * 
+	 * @param request request holding the archive
+	 * @return the added feed, {@link HttpStatus#CONFLICT} if the feed exists already or
+	 *         {@link HttpStatus#BAD_REQUEST} if the archive is invalid
+	 * @throws IOException when reading the archive or writing files fails
+	 */
+	@PostMapping(path = "/import", consumes = { "application/x-tar", "application/zip" },
+			produces = MediaType.APPLICATION_JSON_VALUE)
+	public ResponseEntity<Feed> importFeed(HttpServletRequest request) throws IOException {
+		FeedArchiver.Format format = FeedArchiver.Format.of(MediaType.parseMediaType(request.getContentType()));
+
+		if(format == null)
+			return new ResponseEntity<>(HttpStatus.UNSUPPORTED_MEDIA_TYPE);
+
+		try {
+			return ResponseEntity.ok(this.archiver.importArchive(request.getInputStream(), format));
+		} catch(FileAlreadyExistsException e) {
+			LOG.warn("Not importing feed '{}', it exists already.", e.getFile());
+			return new ResponseEntity<>(HttpStatus.CONFLICT);
+		} catch(InvalidArchiveException | EOFException e) {
+			LOG.warn("Failed to import feed: {}", e.getMessage());
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+	}
+
 	/**
 	 * Update a feed in the database.
 	 * 
 	 * @param name name of the existing feed
 	 * @param feed updated feed information
+	 * @return response, {@link HttpStatus#BAD_REQUEST} if a retention limit is below 1
 	 */
 	@PutMapping(path = "/{name}", consumes = MediaType.APPLICATION_JSON_VALUE)
-	public void updateFeed(@PathVariable String name, @RequestBody Feed feed) {
+	public ResponseEntity<Void> updateFeed(@PathVariable String name, @RequestBody Feed feed) {
+		if(!FeedPruner.isValidRetention(feed)) {
+			LOG.warn("Not updating feed '{}', retention limits must be at least 1.", name);
+			return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+		}
+
 		// Make sure that the feed is not considered new (do not update on PUT)
 		feed.setNew(false);
 		feed.setName(name);
 		
 		manager.update(feed);
+		return ResponseEntity.ok().build();
 	}
 
 	/**
 	 * Add or update feeds in the database. Can also be used to {@link #deleteFeed(String) undelete} feeds.
 	 *
 	 * @param feeds feeds
+	 * @return response, {@link HttpStatus#BAD_REQUEST} if a retention limit of any feed is below 1
 	 */
 	@PutMapping(consumes = MediaType.APPLICATION_JSON_VALUE)
-	public void updateFeeds(@RequestBody Iterable<Feed> feeds) {
+	public ResponseEntity<Void> updateFeeds(@RequestBody Iterable<Feed> feeds) {
+		for(Feed feed : feeds) {
+			if(!FeedPruner.isValidRetention(feed)) {
+				LOG.warn("Not updating feeds, retention limits of feed '{}' must be at least 1.", feed.getName());
+				return new ResponseEntity<>(HttpStatus.BAD_REQUEST);
+			}
+		}
+
 		// Make sure that the feeds aren't considered new
 		feeds.forEach((feed) -> feed.setNew(false));
 
 		manager.update(Objects.requireNonNull(feeds));
+		return ResponseEntity.ok().build();
+	}
+
+	/**
+	 * Update the given feed now and queue its missing files. Completes once the update is done. Concurrent requests
+	 * for the same feed share a single update. Serving processes hand the update off to the updating process and
+	 * return at once.
+	 * 
+	 * @param name feed name
+	 * @return response, {@link HttpStatus#ACCEPTED} if handed off, {@link HttpStatus#SERVICE_UNAVAILABLE} if too
+	 *         many updates are waiting or {@link HttpStatus#BAD_GATEWAY} if the update failed
+	 */
+	@PostMapping(path = "/{name}/refresh")
+	public CompletableFuture<ResponseEntity<Void>> refreshFeed(@PathVariable String name) {
+		Feed feed = this.manager.getFeed(name);
+
+		if(feed == null || feed.isMarkedForDeletion())
+			return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+
+		if(!this.refresher.isUpdating()) {
+			this.refresher.request(name);
+			return CompletableFuture.completedFuture(new ResponseEntity<>(HttpStatus.ACCEPTED));
+		}
+
+		try {
+			return this.refresher.refresh(name).handle((updated, error) -> {
+				if(error != null)
+					return new ResponseEntity<>(HttpStatus.BAD_GATEWAY);
+
+				return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+			});
+		} catch(RejectedExecutionException e) {
+			LOG.warn("Rejected refresh of feed '{}', too many updates are waiting.", name);
+			return CompletableFuture.completedFuture(ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+					.header(HttpHeaders.RETRY_AFTER, RETRY_AFTER).build());
+		}
 	}
 
 	/**
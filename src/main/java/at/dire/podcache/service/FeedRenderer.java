@@ -0,0 +1,351 @@
+package at.dire.podcache.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import at.dire.podcache.util.SingleFlight;
+
+/**
+ * Renders feed files for clients by replacing the {@link FeedURLBuilder#PLACEHOLDER} with the actual base URL. The
+ * file is copied in a single streaming pass, it is not parsed.
+ *
+ * <p>
+ * Rendered feeds are cached in memory per feed and base URL, up to the configured size. Cached feeds are rendered
+ * again once their file has been changed.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class FeedRenderer {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(FeedRenderer.class);
+
+	/** Size of the buffer used for copying */
+	private static final int BUFFER_SIZE = 8192;
+
+	/** Maximum size of all cached feeds in bytes */
+	private final long cacheSize;
+
+	/** Cached feeds, least recently used first. Synchronized on this instance. */
+	private final LinkedHashMap<CacheKey, Rendered> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+	/** Total size of the cached feeds in bytes. Synchronized on this instance. */
+	private long cachedBytes = 0;
+
+	/** Feeds currently being rendered */
+	private final SingleFlight<CacheKey, Rendered> inFlight = new SingleFlight<>();
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param cacheSize maximum size of all cached feeds in MB, 0 to disable caching
+	 */
+	@Autowired
+	public FeedRenderer(@Value("${podcache.content.url.cache}") long cacheSize) {
+		this.cacheSize = cacheSize * 1024 * 1024;
+	}
+
+	/**
+	 * Returns the content of the given feed file with the given base URL.
+	 *
+	 * @param feedName name of the feed
+	 * @param file the feed's file
+	 * @param baseURL base URL of content files
+	 * @return rendered content
+	 * @throws IOException when reading the file fails
+	 */
+	public byte[] render(String feedName, Path file, String baseURL) throws IOException {
+		CacheKey key = new CacheKey(feedName, baseURL);
+		long lastModified = Files.getLastModifiedTime(file).toMillis();
+		long size = Files.size(file);
+
+		Rendered rendered = getCached(key);
+
+		if(rendered != null && rendered.lastModified == lastModified && rendered.fileSize == size)
+			return rendered.content;
+
+		rendered = this.inFlight.run(key, () -> {
+			LOG.debug("Rendering feed '{}' for base URL '{}'.", feedName, baseURL);
+			ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.min(size + BUFFER_SIZE,
+					Integer.MAX_VALUE));
+
+			try(InputStream in = Files.newInputStream(file)) {
+				replace(in, out, baseURL);
+			}
+
+			return new Rendered(lastModified, size, out.toByteArray());
+		});
+
+		putCached(key, rendered);
+		return rendered.content;
+	}
+
+	/**
+	 * Returns the given feed content with the given base URL. The result is not cached.
+	 *
+	 * @param content feed content as written by {@link at.dire.podcache.util.FeedUtils}
+	 * @param baseURL base URL of content files
+	 * @return rendered content
+	 * @throws IOException when rendering fails
+	 */
+	public byte[] render(byte[] content, String baseURL) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(content.length + BUFFER_SIZE);
+		replace(new ByteArrayInputStream(content), out, baseURL);
+		return out.toByteArray();
+	}
+
+	/**
+	 * Returns a cached feed.
+	 *
+	 * @param key key
+	 * @return cached feed or null
+	 */
+	private synchronized @Nullable Rendered getCached(CacheKey key) {
+		return this.cache.get(key);
+	}
+
+	/**
+	 * Add a feed to the cache, removing the least recently used feeds if the cache is full. Feeds larger than the
+	 * whole cache are not cached.
+	 *
+	 * @param key key
+	 * @param rendered rendered feed
+	 */
+	private synchronized void putCached(CacheKey key, Rendered rendered) {
+		if(rendered.content.length > this.cacheSize)
+			return;
+
+		Rendered previous = this.cache.put(key, rendered);
+
+		if(previous != null)
+			this.cachedBytes -= previous.content.length;
+
+		this.cachedBytes += rendered.content.length;
+
+		Iterator<Rendered> iterator = this.cache.values().iterator();
+
+		while(this.cachedBytes > this.cacheSize && iterator.hasNext()) {
+			this.cachedBytes -= iterator.next().content.length;
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * Copy the given stream, replacing all occurrences of the placeholder. Feeds are written in their original
+	 * encoding, so the encoding of the placeholder is detected from the first bytes of the stream (UTF-16 or any
+	 * ASCII-compatible encoding).
+	 *
+	 * @param in source stream
+	 * @param out target stream
+	 * @param baseURL replacement of the placeholder, escaped before it is written
+	 * @throws IOException when reading or writing fails
+	 */
+	private static void replace(InputStream in, OutputStream out, String baseURL) throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		int length = readFully(in, buffer, 0);
+
+		Charset charset = detectCharset(buffer, length);
+		byte[] pattern = FeedURLBuilder.PLACEHOLDER.getBytes(charset);
+		byte[] replacement = escapeXml(baseURL).getBytes(charset);
+
+		while(length > 0) {
+			int start = 0;
+			int match;
+
+			while((match = indexOf(buffer, start, length, pattern)) >= 0) {
+				out.write(buffer, start, match - start);
+				out.write(replacement);
+				start = match + pattern.length;
+			}
+
+			// Keep a possible partial match at the end of the buffer.
+			int keep = Math.min(length - start, pattern.length - 1);
+			out.write(buffer, start, length - start - keep);
+			System.arraycopy(buffer, length - keep, buffer, 0, keep);
+
+			int read = readFully(in, buffer, keep);
+
+			if(read == keep) {
+				out.write(buffer, 0, keep);
+				break;
+			}
+
+			length = read;
+		}
+	}
+
+	/**
+	 * Escape the given text for use in XML content and attribute values. The placeholder only occurs in these.
+	 *
+	 * @param text text
+	 * @return escaped text
+	 */
+	private static String escapeXml(String text) {
+		StringBuilder result = new StringBuilder(text.length());
+
+		for(char c : text.toCharArray()) {
+			switch(c) {
+			case '&':
+				result.append("&amp;");
+				break;
+			case '<':
+				result.append("&lt;");
+				break;
+			case '>':
+				result.append("&gt;");
+				break;
+			case '"':
+				result.append("&quot;");
+				break;
+			case '\'':
+				result.append("&apos;");
+				break;
+			default:
+				result.append(c);
+			}
+		}
+
+		return result.toString();
+	}
+
+	/**
+	 * Fill the given buffer from the stream.
+	 *
+	 * @param in stream
+	 * @param buffer buffer
+	 * @param offset number of bytes already in the buffer
+	 * @return number of bytes in the buffer, less than its size only at the end of the stream
+	 * @throws IOException when reading fails
+	 */
+	private static int readFully(InputStream in, byte[] buffer, int offset) throws IOException {
+		int length = offset;
+		int read;
+
+		while(length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) >= 0)
+			length += read;
+
+		return length;
+	}
+
+	/**
+	 * Returns the index of the first occurrence of the pattern.
+	 *
+	 * @param buffer buffer to search
+	 * @param start first index to search
+	 * @param length number of bytes in the buffer
+	 * @param pattern pattern
+	 * @return index or -1 if not found
+	 */
+	private static int indexOf(byte[] buffer, int start, int length, byte[] pattern) {
+		outer: for(int i = start; i <= length - pattern.length; i++) {
+			for(int j = 0; j < pattern.length; j++) {
+				if(buffer[i + j] != pattern[j])
+					continue outer;
+			}
+
+			return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Detect UTF-16 from a byte order mark or the start of the XML declaration. All other encodings used for feeds
+	 * encode URLs like ASCII.
+	 *
+	 * @param buffer start of the file
+	 * @param length number of bytes in the buffer
+	 * @return charset
+	 */
+	private static Charset detectCharset(byte[] buffer, int length) {
+		if(length >= 2) {
+			if((buffer[0] == (byte) 0xFE && buffer[1] == (byte) 0xFF) || (buffer[0] == 0 && buffer[1] == '<'))
+				return StandardCharsets.UTF_16BE;
+			if((buffer[0] == (byte) 0xFF && buffer[1] == (byte) 0xFE) || (buffer[0] == '<' && buffer[1] == 0))
+				return StandardCharsets.UTF_16LE;
+		}
+
+		return StandardCharsets.UTF_8;
+	}
+
+	/**
+	 * Key of cached feeds.
+	 */
+	private static class CacheKey {
+		/** Name of the feed */
+		private final String feedName;
+
+		/** Base URL */
+		private final String baseURL;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param feedName name of the feed
+		 * @param baseURL base URL
+		 */
+		CacheKey(String feedName, String baseURL) {
+			this.feedName = feedName;
+			this.baseURL = baseURL;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if(!(obj instanceof CacheKey))
+				return false;
+
+			CacheKey other = (CacheKey) obj;
+			return this.feedName.equals(other.feedName) && this.baseURL.equals(other.baseURL);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(this.feedName, this.baseURL);
+		}
+	}
+
+	/**
+	 * A rendered feed.
+	 */
+	private static class Rendered {
+		/** Modification time of the feed file when rendered */
+		private final long lastModified;
+
+		/** Size of the feed file when rendered */
+		private final long fileSize;
+
+		/** Rendered content */
+		private final byte[] content;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param lastModified modification time of the feed file
+		 * @param fileSize size of the feed file
+		 * @param content rendered content
+		 */
+		Rendered(long lastModified, long fileSize, byte[] content) {
+			this.lastModified = lastModified;
+			this.fileSize = fileSize;
+			this.content = content;
+		}
+	}
+}
@@ -3,38 +3,121 @@ package at.dire.podcache.service;
 import java.net.MalformedURLException;
 import java.net.URL;
 
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
+import org.springframework.web.util.UriComponents;
 
 /**
  * A small utility component used to build URLs to my local files.
  * 
+ * <p>
+ * Feed files are stored with URLs below the host-neutral {@link #PLACEHOLDER}. The actual base URL is only filled in
+ * by the {@link FeedRenderer} when a feed is served, so the same files can be served under different host names.
+ * </p>
+ * 
  * @author diredev
  * @see ContentController
  */
 @Component
 public class FeedURLBuilder {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(FeedURLBuilder.class);
+
+	/** Base URL written to feed files in place of the actual one. Uses a reserved domain, see RFC 2606. */
+	public static final String PLACEHOLDER = "http://podcache.invalid/content/";
+
+	/** Path of the content files below the context path */
+	private static final String CONTENT_PATH = "/content/";
+
+	/** Placeholder URL */
+	private static final URL PLACEHOLDER_URL;
+
+	static {
+		try {
+			PLACEHOLDER_URL = new URL(PLACEHOLDER);
+		} catch(MalformedURLException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
 	/** Address for service via properties. */
 	private final URL baseURL;
 
+	/** True to take the base URL from the request instead of the properties. */
+	private final boolean fromRequest;
+
+	/** Host names taken from requests in lower case, any host if empty */
+	private final Set<String> allowedHosts;
+
 	/**
 	 * Creates a new instance.
 	 * 
 	 * @param baseUrl base URL for file access
+	 * @param fromRequest true to take the base URL from requests
+	 * @param allowedHosts host names that may be taken from requests, any host if empty
 	 */
 	@Autowired
-	public FeedURLBuilder(@Value("${podcache.content.url}") String baseUrl) {
+	public FeedURLBuilder(@Value("${podcache.content.url}") String baseUrl,
+			@Value("${podcache.content.url.from-request}") boolean fromRequest,
+			@Value("${podcache.content.url.allowed-hosts}") String[] allowedHosts) {
 		try {
 			this.baseURL = new URL(baseUrl);
 		} catch(MalformedURLException e) {
 			throw new IllegalArgumentException(String.format(
 					"Invalid base URL %s.", baseUrl), e);
 		}
+
+		this.fromRequest = fromRequest;
+		this.allowedHosts = Arrays.stream(allowedHosts).map((host) -> host.trim().toLowerCase(Locale.ROOT))
+				.filter((host) -> !host.isEmpty()).collect(Collectors.toSet());
+	}
+
+	/**
+	 * Returns true if the base URL depends on the request.
+	 * 
+	 * @return boolean
+	 */
+	public boolean isFromRequest() {
+		return this.fromRequest;
+	}
+
+	/**
+	 * Returns the base URL substituted for the {@link #PLACEHOLDER} when serving the given request. This is either
+	 * the URL the client used to reach us (honoring forwarded headers) or the configured one. Clients can send any
+	 * host name, so the configured URL is used unless the host is allowed.
+	 * 
+	 * @param request request
+	 * @return base URL ending with a slash
+	 */
+	public String getBaseURL(HttpServletRequest request) {
+		if(!this.fromRequest)
+			return this.baseURL.toString();
+
+		UriComponents url = ServletUriComponentsBuilder.fromContextPath(request).path(CONTENT_PATH).build();
+		String host = url.getHost();
+
+		if(host == null || !("http".equals(url.getScheme()) || "https".equals(url.getScheme()))
+				|| !(this.allowedHosts.isEmpty() || this.allowedHosts.contains(host.toLowerCase(Locale.ROOT)))) {
+			LOG.debug("Host '{}' of request is not allowed. Using configured base URL.", host);
+			return this.baseURL.toString();
+		}
+
+		return url.toUriString();
 	}
 
 	/**
-	 * Returns the url used to access the given file.
+	 * Returns the url used to access the given file, below the {@link #PLACEHOLDER}.
 	 * 
 	 * @param feedName name of the feed
 	 * @param fileName name of the file
@@ -42,7 +125,27 @@ public class FeedURLBuilder {
 	 */
 	public URL getURL(String feedName, String fileName) {
 		try {
-			return new URL(baseURL, feedName + "/" + fileName);
+			return new URL(PLACEHOLDER_URL, feedName + "/" + fileName);
+		} catch(MalformedURLException e) {
+			throw new IllegalArgumentException("Invalid url", e);
+		}
+	}
+
+	/**
+	 * Returns the url used to access a resized variant of the given image, below the {@link #PLACEHOLDER}.
+	 * 
+	 * @param feedName name of the feed
+	 * @param fileName name of the file
+	 * @param size size of the variant or 0 for the original
+	 * @return URL
+	 * @see ContentController#getAttachment
+	 */
+	public URL getURL(String feedName, String fileName, int size) {
+		if(size == 0)
+			return getURL(feedName, fileName);
+
+		try {
+			return new URL(PLACEHOLDER_URL, feedName + "/" + fileName + "?" + ContentController.PARAM_SIZE + "=" + size);
 		} catch(MalformedURLException e) {
 			throw new IllegalArgumentException("Invalid url", e);
 		}
@@ -0,0 +1,52 @@
+package at.dire.podcache.service;
+
+import java.util.Objects;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import at.dire.podcache.SearchIndex;
+
+/**
+ * REST controller used to search the entries of all feeds.
+ *
+ * @author diredev
+ */
+@RestController
+@RequestMapping("/search")
+public class SearchController {
+	/** Maximum number of results per page. */
+	private static final int MAX_PAGE_SIZE = 100;
+
+	/** The search index */
+	private final SearchIndex searchIndex;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param searchIndex search index
+	 */
+	@Autowired
+	public SearchController(SearchIndex searchIndex) {
+		this.searchIndex = Objects.requireNonNull(searchIndex);
+	}
+
+	/**
+	 * Search for entries whose title, description or author contain all words of the given query.
+	 *
+	 * @param query the query
+	 * @param page number of the page, starting at 0
+	 * @param size number of results per page
+	 * @return the requested page of results, ordered by relevance
+	 */
+	@GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+	public SearchIndex.Page search(@RequestParam("q") String query,
+			@RequestParam(name = "page", defaultValue = "0") int page,
+			@RequestParam(name = "size", defaultValue = "20") int size) {
+		return this.searchIndex.search(query, Math.max(page, 0), Math.min(Math.max(size, 1), MAX_PAGE_SIZE));
+	}
+}
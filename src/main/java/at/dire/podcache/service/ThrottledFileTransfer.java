@@ -0,0 +1,267 @@
+package at.dire.podcache.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.lang.Nullable;
+
+/**
+ * Writes a file to an asynchronous response at the rate allowed by a {@link ContentThrottle.Stream stream}. Uses
+ * non-blocking IO, no thread is held while waiting for the client or the throttle.
+ *
+ * <p>
+ * Since the asynchronous context never times out, the transfer is aborted once the client hasn't been ready to
+ * receive data for the {@link ContentThrottle#getIdleTimeout() idle timeout}. Otherwise clients that stop reading
+ * would keep their stream and the file open forever.
+ * </p>
+ *
+ * @author diredev
+ */
+class ThrottledFileTransfer implements WriteListener, AsyncListener {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(ThrottledFileTransfer.class);
+
+	/** The throttle, used to schedule resumption */
+	private final ContentThrottle throttle;
+
+	/** The stream to pace the transfer */
+	private final ContentThrottle.Stream stream;
+
+	/** The asynchronous context */
+	private final AsyncContext asyncContext;
+
+	/** The response stream */
+	private final ServletOutputStream out;
+
+	/** The file */
+	private final FileChannel channel;
+
+	/** Position of the next byte to send */
+	private long position;
+
+	/** Position after the last byte to send */
+	private final long end;
+
+	/** Bytes read from the file but not sent yet */
+	private byte[] buffer = new byte[0];
+
+	/** Number of bytes in {@link #buffer} */
+	private int buffered = 0;
+
+	/** True while waiting for the throttle */
+	private boolean waiting = false;
+
+	/** True once the transfer is complete or failed */
+	private boolean done = false;
+
+	/** Time in nanoseconds the client has last been ready to receive data */
+	private long lastWrite = System.nanoTime();
+
+	/** Checks whether the client is idle or null if not scheduled */
+	private @Nullable ScheduledFuture<?> idleCheck;
+
+	/**
+	 * Creates a new instance and starts asynchronous processing of the given request. Headers must be set already.
+	 *
+	 * @param throttle the throttle
+	 * @param stream stream used to pace the transfer
+	 * @param request request
+	 * @param response response
+	 * @param file file to send
+	 * @param position position of the first byte to send
+	 * @param count number of bytes to send
+	 * @throws IOException when opening the file fails
+	 */
+	ThrottledFileTransfer(ContentThrottle throttle, ContentThrottle.Stream stream, HttpServletRequest request,
+			HttpServletResponse response, Path file, long position, long count) throws IOException {
+		this.throttle = throttle;
+		this.stream = stream;
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.position = position;
+		this.end = position + count;
+
+		try {
+			this.out = response.getOutputStream();
+		} catch(IOException | RuntimeException e) {
+			this.channel.close();
+			throw e;
+		}
+
+		// Throttled transfers of large files take a while.
+		this.asyncContext = request.startAsync(request, response);
+		this.asyncContext.setTimeout(0);
+		this.asyncContext.addListener(this);
+	}
+
+	/**
+	 * Start sending the file.
+	 */
+	void start() {
+		synchronized(this) {
+			this.idleCheck = this.throttle.schedule(this::checkIdle, this.throttle.getIdleTimeout());
+		}
+
+		this.out.setWriteListener(this);
+	}
+
+	@Override
+	public synchronized void onWritePossible() throws IOException {
+		// Wait for the throttle, it will resume the transfer.
+		if(this.waiting || this.done)
+			return;
+
+		this.lastWrite = System.nanoTime();
+
+		while(this.out.isReady()) {
+			if(this.buffered == 0) {
+				if(this.position >= this.end) {
+					finish();
+					return;
+				}
+
+				read();
+
+				// Reserve bandwidth for the bytes just read.
+				long delay = this.stream.reserve(this.buffered);
+
+				if(delay > 0) {
+					this.waiting = true;
+					this.throttle.schedule(this::resume, delay);
+					return;
+				}
+			}
+
+			this.out.write(this.buffer, 0, this.buffered);
+			this.buffered = 0;
+		}
+	}
+
+	/**
+	 * Continue after waiting for the throttle.
+	 */
+	private void resume() {
+		synchronized(this) {
+			this.waiting = false;
+		}
+
+		try {
+			onWritePossible();
+		} catch(IOException e) {
+			onError(e);
+		}
+	}
+
+	/**
+	 * Abort the transfer if the client hasn't been ready to receive data for too long. Time spent waiting for the
+	 * throttle doesn't count. Checks again later otherwise.
+	 */
+	private synchronized void checkIdle() {
+		if(this.done)
+			return;
+
+		long idleTimeout = this.throttle.getIdleTimeout();
+		long remaining = (this.waiting ? idleTimeout : this.lastWrite + idleTimeout - System.nanoTime());
+
+		if(remaining > 0) {
+			this.idleCheck = this.throttle.schedule(this::checkIdle, remaining);
+			return;
+		}
+
+		LOG.debug("Client hasn't received data for {} ms. Aborting transfer.",
+				TimeUnit.NANOSECONDS.toMillis(idleTimeout));
+		finish();
+	}
+
+	/**
+	 * Read the next chunk from the file.
+	 *
+	 * @throws IOException when reading fails
+	 */
+	private void read() throws IOException {
+		int size = (int) Math.min(this.stream.getChunkSize(), this.end - this.position);
+
+		if(this.buffer.length < size)
+			this.buffer = new byte[size];
+
+		ByteBuffer target = ByteBuffer.wrap(this.buffer, 0, size);
+
+		while(target.hasRemaining()) {
+			int read = this.channel.read(target, this.position + target.position());
+
+			if(read < 0)
+				throw new IOException("File has been truncated while sending.");
+		}
+
+		this.buffered = size;
+		this.position += size;
+	}
+
+	/**
+	 * Complete the response. Resources are released once the container has completed the request.
+	 */
+	private void finish() {
+		if(this.done)
+			return;
+
+		this.done = true;
+
+		ScheduledFuture<?> check = this.idleCheck;
+
+		if(check != null)
+			check.cancel(false);
+
+		this.asyncContext.complete();
+	}
+
+	/**
+	 * Release the file. The stream is closed by the {@link ContentThrottleFilter}.
+	 */
+	private void release() {
+		try {
+			this.channel.close();
+		} catch(IOException e) {
+			LOG.warn("Failed to close file.", e);
+		}
+	}
+
+	@Override
+	public synchronized void onError(Throwable t) {
+		LOG.debug("Failed to send file, client may have disconnected.", t);
+		finish();
+	}
+
+	@Override
+	public void onComplete(AsyncEvent event) {
+		release();
+	}
+
+	@Override
+	public void onTimeout(AsyncEvent event) {
+		release();
+	}
+
+	@Override
+	public void onError(AsyncEvent event) {
+		release();
+	}
+
+	@Override
+	public void onStartAsync(AsyncEvent event) {
+		// Not restarted.
+	}
+}
@@ -0,0 +1,69 @@
+package at.dire.podcache.service;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream that writes at the rate allowed by a {@link ContentThrottle.Stream stream}. Unlike the
+ * {@link ThrottledFileTransfer}, the writing thread is blocked while waiting for the throttle. Used for responses
+ * that are generated while sending, like archives.
+ *
+ * @author diredev
+ */
+class ThrottledOutputStream extends FilterOutputStream {
+	/** The stream to pace the transfer */
+	private final ContentThrottle.Stream stream;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param out stream to write to
+	 * @param stream stream used to pace the transfer
+	 */
+	ThrottledOutputStream(OutputStream out, ContentThrottle.Stream stream) {
+		super(out);
+		this.stream = stream;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		pace(1);
+		this.out.write(b);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while(len > 0) {
+			int size = Math.min(len, this.stream.getChunkSize());
+
+			pace(size);
+			this.out.write(b, off, size);
+
+			off += size;
+			len -= size;
+		}
+	}
+
+	/**
+	 * Reserve bandwidth for the given number of bytes and wait until they may be sent.
+	 *
+	 * @param bytes number of bytes
+	 * @throws InterruptedIOException when interrupted while waiting
+	 */
+	private void pace(int bytes) throws InterruptedIOException {
+		long delay = this.stream.reserve(bytes);
+
+		if(delay <= 0)
+			return;
+
+		try {
+			TimeUnit.NANOSECONDS.sleep(delay);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the throttle.");
+		}
+	}
+}
@@ -1,8 +1,8 @@
 package at.dire.podcache.service;
 
-import java.io.IOException;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,7 +13,9 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import at.dire.podcache.Arguments;
+import at.dire.podcache.FeedRefresher;
 import at.dire.podcache.FeedUpdater;
+import at.dire.podcache.Role;
 import at.dire.podcache.data.Feed;
 
 /**
@@ -21,8 +23,8 @@ import at.dire.podcache.data.Feed;
  * feed's files with local versions.
  * 
  * <p>
- * The logic for this is mostly implemented in {@link FeedUpdater}. This component is needed to allow transaction
- * handling.
+ * The logic for this is mostly implemented in {@link FeedUpdater}. Updates are run by the {@link FeedRefresher}, so
+ * they never overlap with each other or with refreshes of single feeds.
  * </p>
  * 
  * @author diredev
@@ -38,42 +40,54 @@ public class UpdateService implements ApplicationRunner {
 	/** Force update of file URLs when using {@link Arguments#UPDATE}. */
 	private static final String UPDATE_MODE_FORCE = "force";
 
-	/** The actual updater. */
-	private final FeedUpdater updater;
+	/** Runs the updates. */
+	private final FeedRefresher refresher;
+
+	/** Role of this process */
+	private final Role role;
 
 	/**
 	 * Creates a new instance.
 	 * 
-	 * @param updater updater component
+	 * @param refresher runs feed updates
+	 * @param role role of this process
 	 */
 	@Autowired
-	public UpdateService(FeedUpdater updater) {
-		this.updater = Objects.requireNonNull(updater);
+	public UpdateService(FeedRefresher refresher, Role role) {
+		this.refresher = Objects.requireNonNull(refresher);
+		this.role = Objects.requireNonNull(role);
 	}
 
 	/**
 	 * Run daily as a scheduled task to update feeds. Will also remove any {@link Feed#isMarkedForDeletion() marked}
-	 * feed.
-	 * 
-	 * @throws IOException when the update fails
+	 * feed. Does not wait for the update, so the scheduler stays free for other tasks. If the previous update is still
+	 * running, no new one is started. Skipped by serving processes.
 	 */
 	@Scheduled(cron = "${podcache.update.interval}")
-	public synchronized void update() throws IOException {
+	public void update() {
+		if(!this.role.isUpdating())
+			return;
+
+		// Failures are logged by the refresher.
 		try {
-			this.updater.updateAll(false);
-		} catch(IOException e) {
-			LOG.error("Failed to update feeds.", e);
-			throw e;
+			this.refresher.refreshAll(false);
+		} catch(RejectedExecutionException e) {
+			LOG.error("Failed to start update of all feeds, too many updates are waiting.", e);
 		}
 	}
 
 	@Override
-	public synchronized void run(ApplicationArguments args) throws Exception {
+	public void run(ApplicationArguments args) {
 		List<String> updateArgs = args.getOptionValues(Arguments.UPDATE);
 
 		if(updateArgs == null)
 			return;
 
+		if(!this.role.isUpdating()) {
+			LOG.warn("Ignoring '--{}' in role {}.", Arguments.UPDATE, this.role);
+			return;
+		}
+
 		String updateMode;
 		if(updateArgs.isEmpty())
 			updateMode = UPDATE_MODE_DEFAULT;
@@ -83,7 +97,6 @@ public class UpdateService implements ApplicationRunner {
 		// Interpret mode
 		boolean forceUpdate = UPDATE_MODE_FORCE.equalsIgnoreCase(updateMode);
 
-		// updateAsync(forceUpdate);
-		this.updater.updateAllAsync(forceUpdate);
+		this.refresher.refreshAll(forceUpdate);
 	}
 }
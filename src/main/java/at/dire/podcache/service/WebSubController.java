@@ -0,0 +1,150 @@
+package at.dire.podcache.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.lang.Nullable;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.rometools.rome.feed.synd.SyndFeed;
+
+import at.dire.podcache.FeedRefresher;
+import at.dire.podcache.WebSubSubscriber;
+import at.dire.podcache.util.FeedUtils;
+
+/**
+ * REST controller that receives verification requests and content notifications from WebSub hubs. See
+ * {@link WebSubSubscriber}.
+ *
+ * @author diredev
+ */
+@RestController
+@RequestMapping("/websub")
+public class WebSubController {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(WebSubController.class);
+
+	/** Header holding the signature of notifications. */
+	private static final String HEADER_SIGNATURE = "X-Hub-Signature";
+
+	/** Manages the subscriptions */
+	private final WebSubSubscriber subscriber;
+
+	/** Seconds after which rejected notifications should be sent again. */
+	private static final String RETRY_AFTER = "60";
+
+	/** Updates feeds on notifications */
+	private final FeedRefresher refresher;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param subscriber WebSub subscriber
+	 * @param refresher feed refresher
+	 */
+	@Autowired
+	public WebSubController(WebSubSubscriber subscriber, FeedRefresher refresher) {
+		this.subscriber = Objects.requireNonNull(subscriber);
+		this.refresher = Objects.requireNonNull(refresher);
+	}
+
+	/**
+	 * Handle a hub's request to verify a (un)subscription of the given feed.
+	 *
+	 * @param name name of the feed
+	 * @param mode requested mode
+	 * @param topic topic URL
+	 * @param challenge challenge to echo or null when the subscription was denied
+	 * @param leaseSeconds granted lease or null
+	 * @param reason reason for denied subscriptions or null
+	 * @return the challenge if confirmed
+	 */
+	@GetMapping(path = "/{name}", produces = MediaType.TEXT_PLAIN_VALUE)
+	public ResponseEntity<String> verify(@PathVariable("name") String name, @RequestParam("hub.mode") String mode,
+			@RequestParam("hub.topic") String topic,
+			@RequestParam(name = "hub.challenge", required = false) @Nullable String challenge,
+			@RequestParam(name = "hub.lease_seconds", required = false) @Nullable Long leaseSeconds,
+			@RequestParam(name = "hub.reason", required = false) @Nullable String reason) {
+		if(WebSubSubscriber.MODE_DENIED.equals(mode)) {
+			this.subscriber.denied(name, topic, reason);
+			return new ResponseEntity<>(HttpStatus.OK);
+		}
+
+		if(challenge == null || !this.subscriber.verify(name, mode, topic, leaseSeconds))
+			return new ResponseEntity<>(HttpStatus.NOT_FOUND);
+
+		return new ResponseEntity<>(challenge, HttpStatus.OK);
+	}
+
+	/**
+	 * Handle a content notification for the given feed. Signed notifications trigger an update of the feed, using
+	 * the content sent by the hub if possible. Serving processes have the updating process download the feed instead.
+	 *
+	 * @param name name of the feed
+	 * @param content content of the notification
+	 * @param signature signature of the content
+	 * @return response
+	 * @throws IOException when the update fails
+	 */
+	@PostMapping(path = "/{name}")
+	public ResponseEntity<Void> notify(@PathVariable("name") String name,
+			@RequestBody(required = false) @Nullable byte[] content,
+			@RequestHeader(name = HEADER_SIGNATURE, required = false) @Nullable String signature) throws IOException {
+		if(!this.subscriber.isSubscribed(name))
+			return new ResponseEntity<>(HttpStatus.GONE);
+
+		byte[] body = (content != null ? content : new byte[0]);
+
+		// Hubs expect a success status even if the signature does not match. The notification is ignored though.
+		if(!this.subscriber.isValidNotification(name, body, signature)) {
+			LOG.warn("Ignoring notification for feed '{}' with invalid signature.", name);
+			return new ResponseEntity<>(HttpStatus.ACCEPTED);
+		}
+
+		LOG.info("Received notification for feed '{}'.", name);
+
+		// Serving processes leave the update to the updating process, which downloads the feed instead.
+		if(!this.refresher.isUpdating()) {
+			this.refresher.request(name);
+			return new ResponseEntity<>(HttpStatus.ACCEPTED);
+		}
+
+		// Hubs may only notify about the change instead of sending the content.
+		SyndFeed feedData = null;
+
+		if(body.length > 0) {
+			try {
+				feedData = FeedUtils.read(new ByteArrayInputStream(body));
+			} catch(IOException e) {
+				LOG.debug("Notification for feed '{}' has no feed content. Downloading feed instead.", name);
+			}
+		}
+
+		// Hubs send the notification again on failure.
+		try {
+			this.refresher.refresh(name, feedData);
+		} catch(RejectedExecutionException e) {
+			LOG.warn("Rejected notification for feed '{}', too many updates are waiting.", name);
+			return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, RETRY_AFTER)
+					.build();
+		}
+
+		return new ResponseEntity<>(HttpStatus.ACCEPTED);
+	}
+}
@@ -0,0 +1,138 @@
+package at.dire.podcache.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * A file within an archive, either backed by a file on disk or held in memory. Size and modification date of files
+ * are read once, when the entry is created, so the layout of an archive does not change while it is written.
+ *
+ * @author diredev
+ * @see TarFormat
+ */
+public final class ArchiveEntry {
+	/** Path within the archive, using '/' as separator */
+	private final String name;
+
+	/** The file or null if held in memory */
+	private final @Nullable Path file;
+
+	/** The content or null if backed by a file */
+	private final @Nullable byte[] content;
+
+	/** Size in bytes */
+	private final long size;
+
+	/** Modification date in milliseconds since the epoch */
+	private final long lastModified;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param name path within the archive
+	 * @param file the file or null
+	 * @param content the content or null
+	 * @param size size in bytes
+	 * @param lastModified modification date
+	 */
+	private ArchiveEntry(String name, @Nullable Path file, @Nullable byte[] content, long size, long lastModified) {
+		this.name = Objects.requireNonNull(name);
+		this.file = file;
+		this.content = content;
+		this.size = size;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Creates an entry for the given file.
+	 *
+	 * @param name path within the archive, using '/' as separator
+	 * @param file the file
+	 * @return entry
+	 * @throws IOException when reading the file's attributes fails
+	 */
+	public static ArchiveEntry of(String name, Path file) throws IOException {
+		return new ArchiveEntry(name, file, null, Files.size(file), Files.getLastModifiedTime(file).toMillis());
+	}
+
+	/**
+	 * Creates an entry holding the given content.
+	 *
+	 * @param name path within the archive, using '/' as separator
+	 * @param content the content
+	 * @param lastModified modification date in milliseconds since the epoch
+	 * @return entry
+	 */
+	public static ArchiveEntry of(String name, byte[] content, long lastModified) {
+		return new ArchiveEntry(name, null, Objects.requireNonNull(content), content.length, lastModified);
+	}
+
+	/**
+	 * Returns the path within the archive.
+	 *
+	 * @return name
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * Returns the file backing this entry.
+	 *
+	 * @return file or null if held in memory
+	 */
+	public @Nullable Path getFile() {
+		return this.file;
+	}
+
+	/**
+	 * Returns the content of this entry.
+	 *
+	 * @return content or null if backed by a file
+	 */
+	public @Nullable byte[] getContent() {
+		return this.content;
+	}
+
+	/**
+	 * Returns the size of this entry.
+	 *
+	 * @return size in bytes
+	 */
+	public long getSize() {
+		return this.size;
+	}
+
+	/**
+	 * Returns the modification date of this entry.
+	 *
+	 * @return milliseconds since the epoch
+	 */
+	public long getLastModified() {
+		return this.lastModified;
+	}
+
+	/**
+	 * Open the content of this entry for reading.
+	 *
+	 * @return stream
+	 * @throws IOException when opening the file fails
+	 */
+	public InputStream open() throws IOException {
+		if(this.content != null)
+			return new ByteArrayInputStream(this.content);
+
+		return Files.newInputStream(Objects.requireNonNull(this.file));
+	}
+
+	@Override
+	public String toString() {
+		return this.name;
+	}
+}
@@ -1,16 +1,25 @@
 package at.dire.podcache.util;
 
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.util.Date;
 import java.util.Objects;
 
 import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ConnectionReleaseTrigger;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.client.utils.DateUtils;
 import org.springframework.lang.Nullable;
 
+import at.dire.podcache.jfr.DownloadEvent;
+
 /**
  * Response of a {@link Downloader#request(java.net.URL, Date) request}. Gives access to the content, if any was
  * downloaded.
@@ -21,13 +30,45 @@ public class DownloadResponse implements ResourceInfo, AutoCloseable {
 	/** The response */
 	private final CloseableHttpResponse response;
 
+	/** The final location after following all redirects */
+	private final URI location;
+
+	/** Flight recorder event, committed on close */
+	private final DownloadEvent event;
+
+	/** Aborts the transfer if it is too slow */
+	private final TransferMonitor monitor;
+
+	/** True once the response has been closed */
+	private boolean closed = false;
+
 	/**
 	 * Creates a new instance for the given response.
 	 * 
 	 * @param response response
+	 * @param location final location after following all redirects
+	 * @param event flight recorder event for the request
+	 * @param monitor watches the progress of the transfer
 	 */
-	public DownloadResponse(CloseableHttpResponse response) {
+	DownloadResponse(CloseableHttpResponse response, URI location, DownloadEvent event, TransferMonitor monitor) {
 		this.response = Objects.requireNonNull(response);
+		this.location = Objects.requireNonNull(location);
+		this.event = Objects.requireNonNull(event);
+		this.monitor = Objects.requireNonNull(monitor);
+	}
+
+	/**
+	 * Creates a "not modified" response for a resource whose last response is still fresh. No request is sent.
+	 *
+	 * @param location the resource
+	 * @param event flight recorder event for the skipped request
+	 * @param monitor watches the progress of the transfer
+	 * @return response
+	 * @see FreshnessTracker
+	 */
+	static DownloadResponse fresh(URI location, DownloadEvent event, TransferMonitor monitor) {
+		event.fresh();
+		return new DownloadResponse(new FreshResponse(), location, event, monitor);
 	}
 
 	/**
@@ -40,6 +81,45 @@ public class DownloadResponse implements ResourceInfo, AutoCloseable {
 		return(response.getStatusLine().getStatusCode() == 304);
 	}
 
+	/**
+	 * Returns the HTTP status code of the response.
+	 *
+	 * @return status code
+	 */
+	public int getStatusCode() {
+		return response.getStatusLine().getStatusCode();
+	}
+
+	/**
+	 * Returns true if the server has returned the given range of the resource.
+	 * 
+	 * @param first position of the first byte
+	 * @param last position of the last byte
+	 * @return true for a matching partial response
+	 */
+	public boolean isPartialContent(long first, long last) {
+		if(response.getStatusLine().getStatusCode() != HttpStatus.SC_PARTIAL_CONTENT)
+			return false;
+
+		Header header = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+		return(header != null && header.getValue().trim().startsWith("bytes " + first + "-" + last + "/"));
+	}
+
+	/**
+	 * Returns true if the server supports range requests for this resource.
+	 * 
+	 * @return true if ranges are supported
+	 */
+	public boolean isRangeSupported() {
+		Header header = response.getFirstHeader(HttpHeaders.ACCEPT_RANGES);
+		return(header != null && "bytes".equalsIgnoreCase(header.getValue().trim()));
+	}
+
+	@Override
+	public long getContentLength() {
+		return response.getEntity().getContentLength();
+	}
+
 	/**
 	 * Returns the last modification date.
 	 * 
@@ -55,6 +135,21 @@ public class DownloadResponse implements ResourceInfo, AutoCloseable {
 		return DateUtils.parseDate(header.getValue());
 	}
 
+	@Override
+	public @Nullable String getETag() {
+		Header header = response.getFirstHeader(HttpHeaders.ETAG);
+
+		if(header == null)
+			return null;
+
+		return header.getValue();
+	}
+
+	@Override
+	public URI getLocation() {
+		return this.location;
+	}
+
 	/**
 	 * Returns the content type of the resource.
 	 * 
@@ -71,18 +166,122 @@ public class DownloadResponse implements ResourceInfo, AutoCloseable {
 	}
 
 	/**
-	 * Returns the resource content.
+	 * Returns the resource content. Reading fails with a {@link StalledDownloadException} if the server stops sending
+	 * or sends too slowly.
 	 * 
 	 * @return content stream
 	 * @throws IOException when opening fails
 	 * @see #isUnchanged()
 	 */
 	public InputStream getContent() throws IOException {
-		return this.response.getEntity().getContent();
+		// Count the bytes read for the flight recorder and watch the throughput.
+		return new FilterInputStream(this.response.getEntity().getContent()) {
+			@Override
+			public int read() throws IOException {
+				try {
+					int result = super.read();
+
+					if(result >= 0)
+						received(1);
+
+					return result;
+				} catch(SocketTimeoutException e) {
+					abort();
+					throw stalled(e);
+				} catch(StalledDownloadException e) {
+					abort();
+					throw e;
+				}
+			}
+
+			@Override
+			public int read(byte[] buffer, int offset, int length) throws IOException {
+				try {
+					int result = super.read(buffer, offset, length);
+
+					if(result > 0)
+						received(result);
+
+					return result;
+				} catch(SocketTimeoutException e) {
+					abort();
+					throw stalled(e);
+				} catch(StalledDownloadException e) {
+					abort();
+					throw e;
+				}
+			}
+
+			/**
+			 * Close the connection. Closing the stream would try to read the remaining content.
+			 * 
+			 * @throws IOException when closing fails
+			 */
+			private void abort() throws IOException {
+				if(this.in instanceof ConnectionReleaseTrigger)
+					((ConnectionReleaseTrigger) this.in).abortConnection();
+			}
+		};
+	}
+
+	/**
+	 * Record the given number of received bytes.
+	 * 
+	 * @param bytes number of bytes
+	 * @throws StalledDownloadException if the transfer is too slow
+	 */
+	private void received(int bytes) throws StalledDownloadException {
+		this.event.addBytes(bytes);
+
+		try {
+			this.monitor.received(bytes);
+		} catch(StalledDownloadException e) {
+			this.event.failed(e.getMessage());
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns the exception to throw if the server has stopped sending.
+	 * 
+	 * @param cause the read timeout
+	 * @return exception
+	 */
+	private StalledDownloadException stalled(SocketTimeoutException cause) {
+		String message = String.format("Server has stopped sending '%s'.", this.location);
+		this.event.failed(message);
+
+		return new StalledDownloadException(message, cause);
 	}
 
 	@Override
 	public void close() throws IOException {
-		this.response.close();
+		if(this.closed)
+			return;
+
+		this.closed = true;
+
+		try {
+			this.response.close();
+		} finally {
+			this.event.commit();
+		}
+	}
+
+	/**
+	 * Stands in for the response of a request that was not sent, as the last response is still fresh.
+	 */
+	private static final class FreshResponse extends BasicHttpResponse implements CloseableHttpResponse {
+		/**
+		 * Creates a new instance.
+		 */
+		FreshResponse() {
+			super(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_MODIFIED, "Not Modified");
+		}
+
+		@Override
+		public void close() {
+			// Nothing to release.
+		}
 	}
 }
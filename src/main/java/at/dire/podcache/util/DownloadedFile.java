@@ -0,0 +1,66 @@
+package at.dire.podcache.util;
+
+import java.net.URI;
+import java.util.Date;
+import java.util.Objects;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * A resource that has been {@link Downloader#download(java.net.URL, java.nio.file.Path, Date) downloaded} to a file,
+ * together with the digest of the stored file.
+ *
+ * @author diredev
+ */
+public class DownloadedFile implements ResourceInfo {
+	/** The downloaded resource */
+	private final ResourceInfo resource;
+
+	/** Digest of the stored file */
+	private final FileDigest digest;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param resource the downloaded resource
+	 * @param digest digest of the stored file
+	 */
+	public DownloadedFile(ResourceInfo resource, FileDigest digest) {
+		this.resource = Objects.requireNonNull(resource);
+		this.digest = Objects.requireNonNull(digest);
+	}
+
+	/**
+	 * Returns the checksum and size of the stored file.
+	 *
+	 * @return digest
+	 */
+	public FileDigest getDigest() {
+		return this.digest;
+	}
+
+	@Override
+	public @Nullable String getContentType() {
+		return this.resource.getContentType();
+	}
+
+	@Override
+	public @Nullable Date getLastModified() {
+		return this.resource.getLastModified();
+	}
+
+	@Override
+	public @Nullable String getETag() {
+		return this.resource.getETag();
+	}
+
+	@Override
+	public long getContentLength() {
+		return this.resource.getContentLength();
+	}
+
+	@Override
+	public @Nullable URI getLocation() {
+		return this.resource.getLocation();
+	}
+}
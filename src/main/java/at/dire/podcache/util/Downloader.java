@@ -3,31 +3,79 @@ package at.dire.podcache.util;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
 import java.net.URL;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
 
+import org.apache.http.Header;
 import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.DateUtils;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicNameValuePair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 
+import at.dire.podcache.jfr.DownloadEvent;
+
 /**
  * This component will download resources. HTTP headers are used to ensure that files are only downloaded if necessary.
+ * Requests to hosts that have failed repeatedly or have asked to slow down are skipped, see {@link HostHealthTracker}.
+ * Resources are not requested again while the last response is fresh, see {@link FreshnessTracker}.
+ * 
+ * <p>
+ * Large files can optionally be downloaded using multiple connections in parallel, if the server supports range
+ * requests.
+ * </p>
+ * 
+ * <p>
+ * Transfers that stall are aborted with a {@link StalledDownloadException}: when no data arrives for the idle
+ * timeout, when the throughput stays below a minimum rate or when a deadline scaled to the content length has
+ * passed. See {@link TransferMonitor}.
+ * </p>
+ * 
+ * <p>
+ * The SHA-256 checksum and size of downloaded files are computed while writing them, see {@link FileDigest}. Files
+ * that don't match the announced content length are rejected.
+ * </p>
  * 
  * @author diredev
  * @see HttpClient
@@ -37,31 +85,243 @@ public class Downloader implements Closeable {
 	/** Logger */
 	private static final Logger LOG = LoggerFactory.getLogger(Downloader.class);
 
+	/** Suffix of temporary files used while downloading. */
+	public static final String PARTIAL_SUFFIX = ".partial";
+
+	/** Size of the buffer used by downloads. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Status "Too Many Requests" (RFC 6585), not defined by {@link HttpStatus}. */
+	private static final int SC_TOO_MANY_REQUESTS = 429;
+
 	/** The actual HTTP Client. Thread-safe according to documentation. */
-	private final CloseableHttpClient httpClient = HttpClients.createDefault();
+	private final CloseableHttpClient httpClient;
+
+	/** Tracks the health of upstream hosts */
+	private final HostHealthTracker hostHealth;
+
+	/** Tracks the freshness of responses */
+	private final FreshnessTracker freshness;
+
+	/** Number of parallel connections used for large files. Segmented downloads are disabled if less than 2. */
+	private final int segments;
+
+	/** Minimum size in bytes for segmented downloads. */
+	private final long segmentThreshold;
+
+	/** Runs the segment downloads. */
+	private final ExecutorService segmentExecutor;
+
+	/** Time in milliseconds a transfer may take in addition to the time required at the minimum rate. */
+	private final long baseTimeout;
+
+	/** Minimum bytes per second or 0 to disable. */
+	private final long minRate;
+
+	/** Window in milliseconds over which the minimum rate is measured. */
+	private final long minRateWindow;
+
+	/**
+	 * Creates a new instance.
+	 * 
+	 * @param hostHealth health tracker for upstream hosts
+	 * @param freshness freshness tracker for responses
+	 * @param segments number of parallel connections for large files
+	 * @param segmentThreshold minimum size in MB for segmented downloads
+	 * @param connectTimeout timeout in seconds for connecting
+	 * @param idleTimeout timeout in seconds while waiting for data
+	 * @param baseTimeout time in seconds a transfer may take in addition to the time required at the minimum rate
+	 * @param minRate minimum KB per second or 0 to disable
+	 * @param minRateWindow window in seconds over which the minimum rate is measured
+	 */
+	@Autowired
+	public Downloader(HostHealthTracker hostHealth, FreshnessTracker freshness,
+			@Value("${podcache.download.segments.count}") int segments,
+			@Value("${podcache.download.segments.threshold}") long segmentThreshold,
+			@Value("${podcache.download.timeout.connect}") int connectTimeout,
+			@Value("${podcache.download.timeout.idle}") int idleTimeout,
+			@Value("${podcache.download.timeout.base}") long baseTimeout,
+			@Value("${podcache.download.min-rate}") long minRate,
+			@Value("${podcache.download.min-rate.window}") long minRateWindow) {
+		this.hostHealth = Objects.requireNonNull(hostHealth);
+		this.freshness = Objects.requireNonNull(freshness);
+		this.segments = segments;
+		this.segmentThreshold = segmentThreshold * 1024 * 1024;
+		this.baseTimeout = baseTimeout * 1000;
+		this.minRate = Math.max(minRate, 0) * 1024;
+		this.minRateWindow = minRateWindow * 1000;
+
+		RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeout * 1000)
+				.setConnectionRequestTimeout(connectTimeout * 1000).setSocketTimeout(idleTimeout * 1000).build();
+
+		// Every segment needs its own connection.
+		int connectionsPerRoute = Math.max(segments, 1) * 2;
+		this.httpClient = HttpClients.custom().useSystemProperties().setDefaultRequestConfig(requestConfig)
+				.setMaxConnPerRoute(connectionsPerRoute).setMaxConnTotal(Math.max(connectionsPerRoute, 20)).build();
+
+		this.segmentExecutor = Executors.newCachedThreadPool((runnable) -> {
+			Thread thread = new Thread(runnable, "download-segment");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
 
 	/**
-	 * Request the given resource if it was changed.
+	 * Request the given resource if it was changed. If a modification date is given, the caller holds a copy of the
+	 * resource. No request is sent for it while the last response is fresh, the resource is reported as unchanged.
 	 * 
 	 * @param url the URL to download
 	 * @param lastModified date of last modification or null
 	 * @return the downloaded resource
 	 * @throws IOException if the request fails or returns an error code
+	 * @throws HostUnavailableException if the request was skipped because the host has failed repeatedly or has asked
+	 *             to slow down
 	 */
 	public DownloadResponse request(URL url, @Nullable Date lastModified) throws IOException {
+		if(lastModified != null && this.freshness.isFresh(url)) {
+			LOG.debug("Response of '{}' is still fresh. Not requesting it again.", url);
+
+			DownloadEvent event = new DownloadEvent(HostHealthTracker.getHost(url), url.toString(),
+					HttpGet.METHOD_NAME);
+			return DownloadResponse.fresh(URI.create(url.toString()), event,
+					new TransferMonitor(url.toString(), -1, this.baseTimeout, this.minRate, this.minRateWindow));
+		}
+
 		HttpGet httpGet = new HttpGet(url.toString());
 
 		if(lastModified != null)
 			httpGet.setHeader(HttpHeaders.IF_MODIFIED_SINCE, DateUtils.formatDate(lastModified));
 
+		return execute(url, httpGet);
+	}
+
+	/**
+	 * Send the given form using a POST request. The response content is discarded.
+	 * 
+	 * @param url the target URL
+	 * @param form form parameters
+	 * @return the status code of the response
+	 * @throws IOException if the request fails or returns an error code
+	 * @throws HostUnavailableException if the request was skipped because the host has failed repeatedly or has asked
+	 *             to slow down
+	 */
+	public int post(URL url, Map<String, String> form) throws IOException {
+		List<NameValuePair> parameters = new ArrayList<>();
+		form.forEach((name, value) -> parameters.add(new BasicNameValuePair(name, value)));
+
+		HttpPost httpPost = new HttpPost(url.toString());
+		httpPost.setEntity(new UrlEncodedFormEntity(parameters, StandardCharsets.UTF_8));
+
+		try(DownloadResponse response = execute(url, httpPost)) {
+			return response.getStatusCode();
+		}
+	}
+
+	/**
+	 * Execute the given request and record the result in the {@link HostHealthTracker}. The freshness of complete
+	 * and "not modified" responses to GET requests is recorded in the {@link FreshnessTracker}.
+	 * 
+	 * @param url the requested URL
+	 * @param request the request
+	 * @return the response
+	 * @throws IOException if the request fails or returns an error code
+	 * @throws HostUnavailableException if the request was skipped because the host has failed repeatedly or has asked
+	 *             to slow down
+	 */
+	private DownloadResponse execute(URL url, HttpRequestBase request) throws IOException {
+		// Skip hosts that are known to be down.
+		String host = HostHealthTracker.getHost(url);
+		this.hostHealth.acquire(host);
+
 		// Request
-		CloseableHttpResponse response = httpClient.execute(httpGet);
+		long start = System.currentTimeMillis();
+		CloseableHttpResponse response;
+		HttpClientContext context = HttpClientContext.create();
+		DownloadEvent event = new DownloadEvent(host, url.toString(), request.getMethod());
+
+		try {
+			response = httpClient.execute(request, context);
+		} catch(IOException | RuntimeException e) {
+			this.hostHealth.failure(host, String.valueOf(e.getMessage()));
+			event.failed(String.valueOf(e.getMessage()));
+			throw e;
+		}
+
+		// Hosts asking to slow down are skipped until the date they request. Does not count as failure.
+		int statusCode = response.getStatusLine().getStatusCode();
+		event.responseReceived(statusCode);
+
+		if(statusCode == SC_TOO_MANY_REQUESTS || (statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE
+				&& response.containsHeader(HttpHeaders.RETRY_AFTER))) {
+			String error = response.getStatusLine().toString();
+			Date retryAt = this.hostHealth.throttle(host, error, getRetryAfter(response));
+
+			response.close();
+			event.failed(error);
+			throw new HostUnavailableException(host, retryAt, error);
+		}
+
+		// Server errors count as host failures, client errors (404, etc.) do not.
+		if(statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR)
+			this.hostHealth.failure(host, response.getStatusLine().toString());
+		else
+			this.hostHealth.success(host, System.currentTimeMillis() - start);
 
 		// Handle common error (404, 500, etc.)
-		if(response.getStatusLine().getStatusCode() >= HttpStatus.SC_BAD_REQUEST)
+		if(statusCode >= HttpStatus.SC_BAD_REQUEST) {
+			response.close();
+			event.failed(response.getStatusLine().toString());
 			throw new IOException(String.format("Request to '%s' has returned '%s'", url, response.getStatusLine()));
+		}
+
+		if(HttpGet.METHOD_NAME.equals(request.getMethod())
+				&& (statusCode == HttpStatus.SC_OK || statusCode == HttpStatus.SC_NOT_MODIFIED))
+			this.freshness.update(url, response, start, System.currentTimeMillis());
+
+		// Remember where we ended up.
+		List<URI> redirects = context.getRedirectLocations();
+		URI location = (redirects != null && !redirects.isEmpty() ? redirects.get(redirects.size() - 1)
+				: request.getURI());
+
+		// No entity for "not modified".
+		long contentLength = (response.getEntity() != null ? response.getEntity().getContentLength() : -1);
+		TransferMonitor monitor = new TransferMonitor(url.toString(), contentLength, this.baseTimeout, this.minRate,
+				this.minRateWindow);
+
+		return new DownloadResponse(response, location, event, monitor);
+	}
+
+	/**
+	 * Returns the date requested by the <code>Retry-After</code> header of the given response. Dates are converted to
+	 * local time using the <code>Date</code> header, if present.
+	 * 
+	 * @param response the response
+	 * @return date or null if missing or invalid
+	 */
+	private static @Nullable Date getRetryAfter(HttpResponse response) {
+		Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+
+		if(header == null)
+			return null;
+
+		long now = System.currentTimeMillis();
+		String value = header.getValue().trim();
+
+		try {
+			return new Date(now + Math.max(Long.parseLong(value), 0) * 1000);
+		} catch(NumberFormatException e) {
+			// Not a number of seconds, try a date.
+		}
+
+		Date retryAt = DateUtils.parseDate(value);
+
+		if(retryAt == null)
+			return null;
+
+		Header dateHeader = response.getFirstHeader(HttpHeaders.DATE);
+		Date date = (dateHeader != null ? DateUtils.parseDate(dateHeader.getValue()) : null);
 
-		return new DownloadResponse(response);
+		return (date != null ? new Date(now + retryAt.getTime() - date.getTime()) : retryAt);
 	}
 
 	/**
@@ -74,7 +334,7 @@ public class Downloader implements Closeable {
 	 * @return new downloaded resource or null
 	 * @throws IOException if the request or download fails
 	 */
-	public @Nullable ResourceInfo download(URL url, Path targetFile, @Nullable Date lastModified) throws IOException {
+	public @Nullable DownloadedFile download(URL url, Path targetFile, @Nullable Date lastModified) throws IOException {
 		// Does the local file exist?
 		if(lastModified != null && Files.notExists(targetFile)) {
 			LOG.debug("I was given a last modification date but my file '{}' does not exist. Will force download.");
@@ -89,31 +349,61 @@ public class Downloader implements Closeable {
 				return null;
 			}
 
+			// Large file? Use multiple connections instead.
+			long contentLength = resource.getContentLength();
+
+			if(this.segments > 1 && contentLength >= this.segmentThreshold && resource.isRangeSupported()) {
+				// Closing the response will abort the transfer.
+				resource.close();
+
+				LOG.debug("Downloading content to '{}' using {} segments.", targetFile, this.segments);
+				return new DownloadedFile(resource, downloadSegmented(url, targetFile, contentLength));
+			}
+
 			// Download
 			try(InputStream content = resource.getContent()) {
 				LOG.debug("Downloading content to '{}'.", targetFile);
-				download(content, targetFile);
+				return new DownloadedFile(resource, download(content, targetFile, contentLength));
 			}
-
-			return resource;
 		}
 	}
 
 	/**
-	 * Simple download using NIO. Will use a temporary file.
+	 * Simple download using NIO. Will use a temporary file that is unique to this download, so that concurrent
+	 * downloads to the same target do not interfere. The checksum is computed from the same buffer that is written.
 	 * 
 	 * @param stream stream to download
 	 * @param targetFile target path
-	 * @throws IOException when the download fails
+	 * @param contentLength expected number of bytes or a negative number if unknown
+	 * @return digest of the downloaded file
+	 * @throws IOException when the download fails or is incomplete
 	 */
-	public static void download(InputStream stream, Path targetFile) throws IOException {
+	public static FileDigest download(InputStream stream, Path targetFile, long contentLength) throws IOException {
 		// Download to a temporary file first.
-		Path tempFile = targetFile.resolveSibling(targetFile.getFileName() + ".partial");
+		Path tempFile = createTempFile(targetFile);
+		MessageDigest digest = FileDigest.newMessageDigest();
+		long total = 0;
 
 		try(ReadableByteChannel inChannel = Channels.newChannel(stream);
 				FileChannel outChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
 						StandardOpenOption.TRUNCATE_EXISTING)) {
-			outChannel.transferFrom(inChannel, 0, Long.MAX_VALUE);
+			// Do not use transferFrom, it reports read errors as end of stream once some bytes were transferred.
+			ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+			while(inChannel.read(buffer) != -1) {
+				// Call through Buffer. Calls compiled against the overrides in ByteBuffer since Java 9 fail on Java 8.
+				((Buffer)buffer).flip();
+				digest.update(buffer.array(), 0, buffer.limit());
+
+				while(buffer.hasRemaining())
+					total += outChannel.write(buffer);
+
+				((Buffer)buffer).clear();
+			}
+
+			if(contentLength >= 0 && total != contentLength)
+				throw new IOException(String.format("Download to '%s' is incomplete: %d of %d bytes.", targetFile,
+						total, contentLength));
 		} catch(IOException e) {
 			LOG.warn("Failed to download file '{}'. Will remove temporary file.", tempFile);
 			Files.deleteIfExists(tempFile);
@@ -123,10 +413,153 @@ public class Downloader implements Closeable {
 
 		// Have downloaded successfully. Move over original file.
 		Files.move(tempFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+		return FileDigest.of(digest, total);
+	}
+
+	/**
+	 * Creates a new, unique temporary file next to the given target file. Unlike
+	 * {@link Files#createTempFile(Path, String, String, java.nio.file.attribute.FileAttribute...)}, the file gets the
+	 * default permissions, so other users serving the files can read it once it has been moved into place.
+	 * 
+	 * @param targetFile the target file
+	 * @return temporary file
+	 * @throws IOException when creating the file fails
+	 */
+	public static Path createTempFile(Path targetFile) throws IOException {
+		while(true) {
+			Path tempFile = targetFile.resolveSibling(targetFile.getFileName() + "."
+					+ Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + PARTIAL_SUFFIX);
+
+			try {
+				return Files.createFile(tempFile);
+			} catch(FileAlreadyExistsException e) {
+				LOG.debug("Temporary file '{}' exists already. Trying another name.", tempFile);
+			}
+		}
+	}
+
+	/**
+	 * Download the given URL using multiple connections in parallel. Each connection will request one range of the
+	 * file and write it to its position in a preallocated temporary file. As segments arrive out of order, the
+	 * checksum is computed by reading the complete file once before moving it into place.
+	 * 
+	 * @param url the URL to download
+	 * @param targetFile the target file
+	 * @param contentLength total size of the file
+	 * @return digest of the downloaded file
+	 * @throws IOException when the download fails
+	 */
+	private FileDigest downloadSegmented(URL url, Path targetFile, long contentLength) throws IOException {
+		Path tempFile = createTempFile(targetFile);
+		FileDigest digest;
+		long segmentSize = (contentLength + this.segments - 1) / this.segments;
+		List<Future<Long>> futures = new ArrayList<>();
+
+		try(FileChannel outChannel = FileChannel.open(tempFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			// Preallocate the file.
+			try(RandomAccessFile file = new RandomAccessFile(tempFile.toFile(), "rw")) {
+				file.setLength(contentLength);
+			}
+
+			for(long start = 0; start < contentLength; start += segmentSize) {
+				long first = start;
+				long last = Math.min(start + segmentSize, contentLength) - 1;
+				futures.add(this.segmentExecutor.submit(() -> downloadSegment(url, outChannel, first, last)));
+			}
+
+			// Wait for all segments and verify the total size.
+			long total = 0;
+
+			for(Future<Long> future : futures)
+				total += getSegmentResult(future);
+
+			if(total != contentLength || outChannel.size() != contentLength)
+				throw new IOException(String.format("Segmented download of '%s' is incomplete: %d of %d bytes.", url,
+						total, contentLength));
+
+			outChannel.force(false);
+			digest = FileDigest.compute(tempFile);
+		} catch(IOException | RuntimeException e) {
+			LOG.warn("Failed to download file '{}'. Will remove temporary file.", tempFile);
+			futures.forEach((future) -> future.cancel(true));
+			Files.deleteIfExists(tempFile);
+
+			throw e;
+		}
+
+		// Have downloaded successfully. Move over original file.
+		Files.move(tempFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return digest;
+	}
+
+	/**
+	 * Download a single range of the given URL and write it to the channel using positional writes.
+	 * 
+	 * @param url the URL to download
+	 * @param outChannel the target file
+	 * @param first position of the first byte
+	 * @param last position of the last byte
+	 * @return number of bytes written
+	 * @throws IOException when the download fails or the server did not return the requested range
+	 */
+	private long downloadSegment(URL url, FileChannel outChannel, long first, long last) throws IOException {
+		HttpGet httpGet = new HttpGet(url.toString());
+		httpGet.setHeader(HttpHeaders.RANGE, "bytes=" + first + "-" + last);
+
+		try(DownloadResponse response = execute(url, httpGet)) {
+			if(!response.isPartialContent(first, last))
+				throw new IOException(String.format("Server has not returned requested range %d-%d of '%s'.", first,
+						last, url));
+
+			try(ReadableByteChannel inChannel = Channels.newChannel(response.getContent())) {
+				ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+				long position = first;
+
+				while(position <= last && inChannel.read(buffer) != -1) {
+					((Buffer)buffer).flip();
+
+					// Do not write more than requested.
+					if(buffer.remaining() > last - position + 1)
+						((Buffer)buffer).limit((int)(last - position + 1));
+
+					while(buffer.hasRemaining())
+						position += outChannel.write(buffer, position);
+
+					((Buffer)buffer).clear();
+				}
+
+				return position - first;
+			}
+		}
+	}
+
+	/**
+	 * Wait for a segment download and return the number of bytes written.
+	 * 
+	 * @param future the segment download
+	 * @return number of bytes written
+	 * @throws IOException when the segment download failed
+	 */
+	private static long getSegmentResult(Future<Long> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for segment download.");
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+
+			throw new IOException("Segment download failed.", cause);
+		}
 	}
 
 	@Override
 	public void close() throws IOException {
+		this.segmentExecutor.shutdownNow();
 		this.httpClient.close();
 	}
 }
@@ -2,11 +2,21 @@ package at.dire.podcache.util;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import org.jdom2.Element;
+
 import com.rometools.rome.feed.synd.SyndEntry;
 import com.rometools.rome.feed.synd.SyndFeed;
 import com.rometools.rome.io.FeedException;
@@ -20,6 +30,12 @@ import com.rometools.rome.io.XmlReader;
  * @author diredev
  */
 public final class FeedUtils {
+	/** Namespace of the iTunes podcast extensions */
+	public static final String ITUNES_NAMESPACE = "http://www.itunes.com/dtds/podcast-1.0.dtd";
+
+	/** Attribute of <code>itunes:image</code> holding the image's URL */
+	public static final String ITUNES_IMAGE_HREF = "href";
+
 	private FeedUtils() {}
 
 	/**
@@ -53,20 +69,55 @@ public final class FeedUtils {
 	}
 
 	/**
-	 * Write the given feed to the target file.
+	 * Write the given feed to the target file. The file is replaced atomically, so processes reading it concurrently
+	 * never see a partially written feed.
 	 * 
 	 * @param feed feed
 	 * @param toFile target file
 	 * @throws IOException when writing fails
 	 */
 	public static void write(SyndFeed feed, Path toFile) throws IOException {
+		Path tempFile = Downloader.createTempFile(toFile);
+
 		try {
-			new SyndFeedOutput().output(feed, toFile.toFile(), false);
+			new SyndFeedOutput().output(feed, tempFile.toFile(), false);
+			Files.move(tempFile, toFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 		} catch(FeedException e) {
 			throw new IOException("Failed to write feed.", e);
+		} finally {
+			Files.deleteIfExists(tempFile);
 		}
 	}
 
+	/**
+	 * Write the given feed to the target stream. The stream is not closed.
+	 * 
+	 * @param feed feed
+	 * @param stream target stream
+	 * @throws IOException when writing fails
+	 */
+	public static void write(SyndFeed feed, OutputStream stream) throws IOException {
+		String encoding = feed.getEncoding();
+		Writer writer = new OutputStreamWriter(stream, (encoding != null ? encoding : StandardCharsets.UTF_8.name()));
+
+		try {
+			new SyndFeedOutput().output(feed, writer, false);
+			writer.flush();
+		} catch(FeedException e) {
+			throw new IOException("Failed to write feed.", e);
+		}
+	}
+
+	/**
+	 * Returns the {@link SyndEntry#getUri() URIs} of the given entries. Entries without URI are skipped.
+	 * 
+	 * @param entries entries
+	 * @return URIs
+	 */
+	public static List<String> getURIs(List<SyndEntry> entries) {
+		return entries.stream().map((entry) -> entry.getUri()).filter(Objects::nonNull).collect(Collectors.toList());
+	}
+
 	/**
 	 * Utility method that will return the {@link SyndEntry#getUri() URIs} or all {@link SyndFeed#getEntries()} as key.
 	 * 
@@ -82,12 +133,32 @@ public final class FeedUtils {
 	 * 
 	 * @param feedData the feed to merge into
 	 * @param feedToMerge the source for new entries
-	 * @return true if anything was added
+	 * @return the added entries
 	 */
-	public static boolean mergeEntries(SyndFeed feedData, SyndFeed feedToMerge) {
+	public static List<SyndEntry> mergeEntries(SyndFeed feedData, SyndFeed feedToMerge) {
 		Set<String> existingEntryIds = getExistingEntryURIs(feedData);
 		List<SyndEntry> newEntries = feedToMerge.getEntries().stream()
 				.filter((newEntry) -> !existingEntryIds.contains(newEntry.getUri())).collect(Collectors.toList());
-		return feedData.getEntries().addAll(0, newEntries);
+		feedData.getEntries().addAll(0, newEntries);
+		return newEntries;
+	}
+
+	/**
+	 * Returns all <code>itunes:image</code> elements of the given foreign markup, as found in
+	 * {@link SyndFeed#getForeignMarkup()} and {@link SyndEntry#getForeignMarkup()}. Rome keeps these elements as they
+	 * are, so changes to their {@link #ITUNES_IMAGE_HREF href} are written back.
+	 * 
+	 * @param foreignMarkup foreign markup of a feed or entry
+	 * @return image elements
+	 */
+	public static List<Element> getITunesImages(List<Element> foreignMarkup) {
+		List<Element> result = new ArrayList<>();
+
+		for(Element element : foreignMarkup) {
+			if("image".equals(element.getName()) && ITUNES_NAMESPACE.equals(element.getNamespaceURI()))
+				result.add(element);
+		}
+
+		return result;
 	}
 }
@@ -0,0 +1,131 @@
+package at.dire.podcache.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Objects;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * SHA-256 checksum and size of a file. Computed while the file is downloaded, so a damaged copy can be detected when
+ * the file is read again later.
+ *
+ * @author diredev
+ */
+public final class FileDigest {
+	/** Algorithm of the checksum */
+	public static final String ALGORITHM = "SHA-256";
+
+	/** Size of the buffer used to read files. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** Hex encoded checksum */
+	private final String checksum;
+
+	/** Size in bytes */
+	private final long size;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param checksum hex encoded SHA-256 checksum
+	 * @param size size in bytes
+	 */
+	public FileDigest(String checksum, long size) {
+		this.checksum = Objects.requireNonNull(checksum);
+		this.size = size;
+	}
+
+	/**
+	 * Creates a new instance from a message digest that has been updated with the whole file.
+	 *
+	 * @param digest digest created by {@link #newMessageDigest()}
+	 * @param size number of bytes passed to the digest
+	 * @return file digest
+	 */
+	public static FileDigest of(MessageDigest digest, long size) {
+		StringBuilder result = new StringBuilder();
+
+		for(byte b : digest.digest())
+			result.append(String.format("%02x", b));
+
+		return new FileDigest(result.toString(), size);
+	}
+
+	/**
+	 * Read the given file and return its digest.
+	 *
+	 * @param file the file
+	 * @return digest
+	 * @throws IOException when reading fails
+	 */
+	public static FileDigest compute(Path file) throws IOException {
+		MessageDigest digest = newMessageDigest();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		long size = 0;
+		int read;
+
+		try(InputStream in = Files.newInputStream(file)) {
+			while((read = in.read(buffer)) != -1) {
+				digest.update(buffer, 0, read);
+				size += read;
+			}
+		}
+
+		return of(digest, size);
+	}
+
+	/**
+	 * Returns a new message digest for the checksum algorithm.
+	 *
+	 * @return message digest
+	 */
+	public static MessageDigest newMessageDigest() {
+		try {
+			return MessageDigest.getInstance(ALGORITHM);
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException(ALGORITHM + " not supported.", e);
+		}
+	}
+
+	/**
+	 * Returns the hex encoded SHA-256 checksum.
+	 *
+	 * @return lower case hex string
+	 */
+	public String getChecksum() {
+		return this.checksum;
+	}
+
+	/**
+	 * Returns the size of the file.
+	 *
+	 * @return size in bytes
+	 */
+	public long getSize() {
+		return this.size;
+	}
+
+	@Override
+	public boolean equals(@Nullable Object obj) {
+		if(!(obj instanceof FileDigest))
+			return false;
+
+		FileDigest other = (FileDigest)obj;
+		return this.size == other.size && this.checksum.equals(other.checksum);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(this.checksum, this.size);
+	}
+
+	@Override
+	public String toString() {
+		return this.checksum + " (" + this.size + " bytes)";
+	}
+}
@@ -0,0 +1,200 @@
+package at.dire.podcache.util;
+
+import java.net.URL;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.utils.DateUtils;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Remembers how long responses of upstream resources stay fresh, as announced by the <code>Cache-Control</code> and
+ * <code>Expires</code> headers (RFC 7234). The {@link Downloader} will not ask for changes of a resource while its last
+ * response is fresh.
+ *
+ * <p>
+ * Only the freshness is kept, not the content. The caller holds the content and decides whether it can be used, see
+ * {@link Downloader#request(URL, Date)}. Freshness is kept in memory, so every process starts with stale resources.
+ * Lifetimes are only taken from explicit headers, never guessed from the modification date.
+ * </p>
+ *
+ * @author diredev
+ */
+@Component
+public class FreshnessTracker {
+	/** Expiration date in milliseconds since the epoch by URL */
+	private final ConcurrentMap<String, Long> freshUntil = new ConcurrentHashMap<>();
+
+	/** Maximum lifetime in milliseconds or 0 if disabled */
+	private final long maxAge;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param maxAge maximum lifetime in seconds, longer lifetimes are shortened. 0 to disable.
+	 */
+	@Autowired
+	public FreshnessTracker(@Value("${podcache.download.cache.max-age}") long maxAge) {
+		this.maxAge = Math.max(maxAge, 0) * 1000;
+	}
+
+	/**
+	 * Check if the last response of the given resource is still fresh.
+	 *
+	 * @param url the resource
+	 * @return true if fresh
+	 */
+	public boolean isFresh(URL url) {
+		return getFreshUntil(url) != null;
+	}
+
+	/**
+	 * Returns the date until which the last response of the given resource is fresh.
+	 *
+	 * @param url the resource
+	 * @return expiration date or null if not fresh
+	 */
+	public @Nullable Date getFreshUntil(URL url) {
+		String key = url.toString();
+		Long until = this.freshUntil.get(key);
+
+		if(until == null)
+			return null;
+
+		if(until <= System.currentTimeMillis()) {
+			this.freshUntil.remove(key, until);
+			return null;
+		}
+
+		return new Date(until);
+	}
+
+	/**
+	 * Record a response of the given resource.
+	 *
+	 * @param url the resource
+	 * @param response the response, either complete or "not modified"
+	 * @param requestTime time the request was sent in milliseconds since the epoch
+	 * @param responseTime time the response was received in milliseconds since the epoch
+	 */
+	public void update(URL url, HttpResponse response, long requestTime, long responseTime) {
+		long lifetime = (this.maxAge > 0 ? getFreshnessLifetime(response) : 0);
+
+		if(lifetime <= 0) {
+			this.freshUntil.remove(url.toString());
+			return;
+		}
+
+		long until = responseTime + Math.min(lifetime, this.maxAge) - getAge(response, requestTime, responseTime);
+
+		if(until > System.currentTimeMillis())
+			this.freshUntil.put(url.toString(), until);
+		else
+			this.freshUntil.remove(url.toString());
+	}
+
+	/**
+	 * Forget the freshness of the given resource, so the next request will ask for changes.
+	 *
+	 * @param url the resource
+	 */
+	public void expire(URL url) {
+		this.freshUntil.remove(url.toString());
+	}
+
+	/**
+	 * Returns the time the response stays fresh after it has been created (RFC 7234, section 4.2.1). Responses that
+	 * must not be cached or must be validated first have no lifetime.
+	 *
+	 * @param response the response
+	 * @return lifetime in milliseconds or 0
+	 */
+	private static long getFreshnessLifetime(HttpResponse response) {
+		long maxAge = -1;
+
+		for(Header header : response.getHeaders(HttpHeaders.CACHE_CONTROL)) {
+			for(HeaderElement directive : header.getElements()) {
+				String name = directive.getName();
+
+				if("no-store".equalsIgnoreCase(name) || "no-cache".equalsIgnoreCase(name))
+					return 0;
+
+				// s-maxage only applies to shared caches.
+				if("max-age".equalsIgnoreCase(name))
+					maxAge = parseSeconds(directive.getValue());
+			}
+		}
+
+		// RFC 7234 suggests treating larger values as 2^31 seconds.
+		if(maxAge >= 0)
+			return Math.min(maxAge, Integer.MAX_VALUE) * 1000;
+
+		Header expires = response.getFirstHeader(HttpHeaders.EXPIRES);
+
+		if(expires == null)
+			return 0;
+
+		// Invalid dates, like "0", mean already expired.
+		Date expiresDate = DateUtils.parseDate(expires.getValue());
+		Date date = getDate(response);
+
+		if(expiresDate == null || date == null)
+			return 0;
+
+		return Math.max(expiresDate.getTime() - date.getTime(), 0);
+	}
+
+	/**
+	 * Returns the age of the response when it was received (RFC 7234, section 4.2.3).
+	 *
+	 * @param response the response
+	 * @param requestTime time the request was sent
+	 * @param responseTime time the response was received
+	 * @return age in milliseconds
+	 */
+	private static long getAge(HttpResponse response, long requestTime, long responseTime) {
+		Date date = getDate(response);
+		long apparentAge = (date != null ? Math.max(responseTime - date.getTime(), 0) : 0);
+
+		Header ageHeader = response.getFirstHeader(HttpHeaders.AGE);
+		long age = (ageHeader != null ? Math.max(parseSeconds(ageHeader.getValue()), 0) * 1000 : 0);
+
+		return Math.max(apparentAge, age + (responseTime - requestTime));
+	}
+
+	/**
+	 * Returns the creation date of the response.
+	 *
+	 * @param response the response
+	 * @return date or null if missing or invalid
+	 */
+	private static @Nullable Date getDate(HttpResponse response) {
+		Header header = response.getFirstHeader(HttpHeaders.DATE);
+		return (header != null ? DateUtils.parseDate(header.getValue()) : null);
+	}
+
+	/**
+	 * Parses a number of seconds.
+	 *
+	 * @param value the value
+	 * @return seconds or -1 if invalid
+	 */
+	private static long parseSeconds(@Nullable String value) {
+		if(value == null)
+			return -1;
+
+		try {
+			return Long.parseLong(value.trim());
+		} catch(NumberFormatException e) {
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package at.dire.podcache.util;
+
+import java.util.Date;
+import java.util.Objects;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Health information and circuit state for a single upstream host.
+ *
+ * <p>
+ * After a number of consecutive failures, the circuit is {@link State#OPEN opened} and requests to the host are
+ * skipped. Once the cool-down has passed, a single probe request is let through. The circuit is closed again if that
+ * request succeeds.
+ * </p>
+ *
+ * <p>
+ * Hosts asking to slow down are {@link #throttle(String, Date, long, long) throttled}: the circuit is opened right away
+ * until the date requested by the host. Throttled requests do not count as failures.
+ * </p>
+ *
+ * @author diredev
+ * @see HostHealthTracker
+ */
+public class HostHealth {
+	/** Weight of the latest request for the average latency. */
+	private static final double LATENCY_WEIGHT = 0.2;
+
+	/** Time in milliseconds skipped requests wait while the probe request is running. */
+	private static final long PROBE_WAIT = 30 * 1000;
+
+	/**
+	 * State of the circuit.
+	 */
+	public enum State {
+		/** Requests are allowed. */
+		CLOSED,
+
+		/** Requests are skipped. */
+		OPEN,
+
+		/** A single probe request is running. */
+		HALF_OPEN
+	}
+
+	/** Name of the host */
+	private final String host;
+
+	/** Current state */
+	private State state = State.CLOSED;
+
+	/** Number of failures since the last success */
+	private int consecutiveFailures = 0;
+
+	/** Total number of requests */
+	private long requests = 0;
+
+	/** Total number of failed requests */
+	private long failures = 0;
+
+	/** Total number of requests the host has asked to slow down */
+	private long throttled = 0;
+
+	/** Number of requests the host has asked to slow down since the last success */
+	private int consecutiveThrottles = 0;
+
+	/** Moving average of the time to response in milliseconds */
+	private double averageLatency = 0;
+
+	/** Date of the last failure */
+	private @Nullable Date lastFailure;
+
+	/** Message of the last failure */
+	private @Nullable String lastError;
+
+	/** Open circuits will allow a probe request after this date */
+	private @Nullable Date retryAt;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param host name of the host
+	 */
+	public HostHealth(String host) {
+		this.host = Objects.requireNonNull(host);
+	}
+
+	/**
+	 * Check if a request to this host is allowed. Will switch an open circuit to {@link State#HALF_OPEN} once the
+	 * cool-down has passed. Requests skipped while the probe request is running are asked to retry a little later, so
+	 * they are not retried right away.
+	 *
+	 * @throws HostUnavailableException if the request must be skipped
+	 */
+	public synchronized void acquire() throws HostUnavailableException {
+		long now = System.currentTimeMillis();
+		Date retryAt = this.retryAt;
+
+		switch(this.state) {
+		case CLOSED:
+			return;
+		case OPEN:
+			if(retryAt != null && retryAt.getTime() <= now) {
+				this.state = State.HALF_OPEN;
+				return;
+			}
+			break;
+		case HALF_OPEN:
+			// Only the probe request is allowed.
+			break;
+		}
+
+		// The date of the circuit has passed while the probe is running.
+		if(retryAt == null || this.state == State.HALF_OPEN)
+			retryAt = new Date(now + PROBE_WAIT);
+
+		throw new HostUnavailableException(this.host, retryAt);
+	}
+
+	/**
+	 * Record a successful request.
+	 *
+	 * @param latency time to response in milliseconds
+	 */
+	public synchronized void success(long latency) {
+		this.requests++;
+		this.consecutiveFailures = 0;
+		this.consecutiveThrottles = 0;
+		this.state = State.CLOSED;
+		this.retryAt = null;
+
+		if(this.requests == 1)
+			this.averageLatency = latency;
+		else
+			this.averageLatency += LATENCY_WEIGHT * (latency - this.averageLatency);
+	}
+
+	/**
+	 * Record a failed request. Will open the circuit if there were too many failures.
+	 *
+	 * @param error message of the failure
+	 * @param threshold number of consecutive failures that open the circuit
+	 * @param coolDown time until the next probe request in milliseconds
+	 * @return true if the circuit has been opened by this failure
+	 */
+	public synchronized boolean failure(String error, int threshold, long coolDown) {
+		long now = System.currentTimeMillis();
+
+		this.requests++;
+		this.failures++;
+		this.consecutiveFailures++;
+		this.lastFailure = new Date(now);
+		this.lastError = error;
+
+		// A failed probe or too many failures will (re-)open the circuit.
+		if(this.state == State.HALF_OPEN || (this.state == State.CLOSED && this.consecutiveFailures >= threshold)) {
+			this.state = State.OPEN;
+			this.retryAt = new Date(now + coolDown);
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Record a request the host has asked to slow down, e.g. with "429 Too Many Requests". Will open the circuit until
+	 * the requested date. If the host has not requested a date, the delay doubles with every throttled request since
+	 * the last success.
+	 *
+	 * @param error message of the response
+	 * @param requested date requested by the host or null
+	 * @param backoff delay of the first throttled request without a requested date in milliseconds
+	 * @param maxDelay maximum delay in milliseconds
+	 * @return date of the next probe request
+	 */
+	public synchronized Date throttle(String error, @Nullable Date requested, long backoff, long maxDelay) {
+		long now = System.currentTimeMillis();
+
+		this.requests++;
+		this.throttled++;
+		this.consecutiveThrottles++;
+		this.lastError = error;
+
+		long delay = (requested != null ? requested.getTime() - now
+				: backoff << Math.min(this.consecutiveThrottles - 1, 20));
+		Date retryAt = new Date(now + Math.max(Math.min(delay, maxDelay), 0));
+
+		this.state = State.OPEN;
+		this.retryAt = retryAt;
+		return retryAt;
+	}
+
+	/**
+	 * Returns the name of the host.
+	 *
+	 * @return host
+	 */
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Returns the state of the circuit.
+	 *
+	 * @return state
+	 */
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * Returns the number of failures since the last successful request.
+	 *
+	 * @return failures
+	 */
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * Returns the total number of requests.
+	 *
+	 * @return requests
+	 */
+	public synchronized long getRequests() {
+		return requests;
+	}
+
+	/**
+	 * Returns the total number of failed requests.
+	 *
+	 * @return failures
+	 */
+	public synchronized long getFailures() {
+		return failures;
+	}
+
+	/**
+	 * Returns the total number of requests the host has asked to slow down.
+	 *
+	 * @return throttled requests
+	 */
+	public synchronized long getThrottled() {
+		return throttled;
+	}
+
+	/**
+	 * Returns the ratio of failed requests.
+	 *
+	 * @return error rate between 0 and 1
+	 */
+	public synchronized double getErrorRate() {
+		return (this.requests == 0 ? 0 : (double)this.failures / this.requests);
+	}
+
+	/**
+	 * Returns the moving average of the time to response.
+	 *
+	 * @return latency in milliseconds
+	 */
+	public synchronized long getAverageLatency() {
+		return Math.round(averageLatency);
+	}
+
+	/**
+	 * Returns the date of the last failure.
+	 *
+	 * @return date or null
+	 */
+	public synchronized @Nullable Date getLastFailure() {
+		return lastFailure;
+	}
+
+	/**
+	 * Returns the message of the last failure.
+	 *
+	 * @return message or null
+	 */
+	public synchronized @Nullable String getLastError() {
+		return lastError;
+	}
+
+	/**
+	 * Returns the date at which an open circuit will allow the next probe.
+	 *
+	 * @return date or null
+	 */
+	public synchronized @Nullable Date getRetryAt() {
+		return retryAt;
+	}
+
+	@Override
+	public String toString() {
+		return this.host;
+	}
+}
@@ -0,0 +1,152 @@
+package at.dire.podcache.util;
+
+import java.net.URL;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+/**
+ * Tracks the {@link HostHealth health} of upstream hosts for the {@link Downloader}. Hosts that fail repeatedly are
+ * skipped for a while, so that dead hosts do not slow down updates.
+ *
+ * @author diredev
+ */
+@Component
+public class HostHealthTracker {
+	/** Logger */
+	private static final Logger LOG = LoggerFactory.getLogger(HostHealthTracker.class);
+
+	/** Health by host name */
+	private final ConcurrentMap<String, HostHealth> hosts = new ConcurrentHashMap<>();
+
+	/** Number of consecutive failures that will open the circuit */
+	private final int threshold;
+
+	/** Time until an open circuit allows the next probe in milliseconds */
+	private final long coolDown;
+
+	/** Delay after the first throttled request without a requested date in milliseconds */
+	private final long backoff;
+
+	/** Maximum delay after a throttled request in milliseconds */
+	private final long maxDelay;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param threshold number of consecutive failures that will open the circuit
+	 * @param coolDown time until an open circuit allows the next probe in seconds
+	 * @param backoff delay in seconds after the first throttled request without a requested date
+	 * @param maxDelay maximum delay in seconds after a throttled request
+	 */
+	@Autowired
+	public HostHealthTracker(@Value("${podcache.download.circuit.failures}") int threshold,
+			@Value("${podcache.download.circuit.cool-down}") long coolDown,
+			@Value("${podcache.download.throttle.backoff}") long backoff,
+			@Value("${podcache.download.throttle.max-delay}") long maxDelay) {
+		this.threshold = threshold;
+		this.coolDown = coolDown * 1000;
+		this.backoff = backoff * 1000;
+		this.maxDelay = maxDelay * 1000;
+	}
+
+	/**
+	 * Check if a request to the given host is allowed.
+	 *
+	 * @param host the host
+	 * @throws HostUnavailableException if the request must be skipped
+	 */
+	public void acquire(String host) throws HostUnavailableException {
+		get(host).acquire();
+	}
+
+	/**
+	 * Record a successful request.
+	 *
+	 * @param host the host
+	 * @param latency time to response in milliseconds
+	 */
+	public void success(String host, long latency) {
+		get(host).success(latency);
+	}
+
+	/**
+	 * Record a failed request.
+	 *
+	 * @param host the host
+	 * @param error message of the failure
+	 */
+	public void failure(String host, String error) {
+		HostHealth health = get(host);
+
+		if(health.failure(error, this.threshold, this.coolDown))
+			LOG.warn("Host '{}' has failed {} times in a row. Skipping requests until {}.", host,
+					health.getConsecutiveFailures(), health.getRetryAt());
+	}
+
+	/**
+	 * Record a request the host has asked to slow down. Requests to the host are skipped until the requested date or,
+	 * if none was given, for an increasing delay.
+	 *
+	 * @param host the host
+	 * @param error message of the response
+	 * @param requested date requested by the host, e.g. from <code>Retry-After</code>, or null
+	 * @return date of the next request
+	 */
+	public Date throttle(String host, String error, @Nullable Date requested) {
+		Date retryAt = get(host).throttle(error, requested, this.backoff, this.maxDelay);
+		LOG.warn("Host '{}' has asked to slow down ({}). Skipping requests until {}.", host, error, retryAt);
+		return retryAt;
+	}
+
+	/**
+	 * Returns the health of all hosts that have been requested so far.
+	 *
+	 * @return hosts
+	 */
+	public Collection<HostHealth> getHosts() {
+		return Collections.unmodifiableCollection(this.hosts.values());
+	}
+
+	/**
+	 * Forget everything known about the given host. This will also close its circuit.
+	 *
+	 * @param host the host
+	 * @return true if the host was known
+	 */
+	public boolean reset(String host) {
+		return this.hosts.remove(host) != null;
+	}
+
+	/**
+	 * Returns the host name used to track the given URL. Includes the port, if specified.
+	 *
+	 * @param url URL
+	 * @return host name
+	 */
+	public static String getHost(URL url) {
+		if(url.getPort() == -1)
+			return url.getHost();
+		else
+			return url.getHost() + ":" + url.getPort();
+	}
+
+	/**
+	 * Returns the health of the given host, creating it if necessary.
+	 *
+	 * @param host the host
+	 * @return health
+	 */
+	private HostHealth get(String host) {
+		return this.hosts.computeIfAbsent(host, HostHealth::new);
+	}
+}
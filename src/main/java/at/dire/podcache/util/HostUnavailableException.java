@@ -0,0 +1,51 @@
+package at.dire.podcache.util;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.Objects;
+
+/**
+ * Thrown when a request is skipped because its host has failed repeatedly or has asked to slow down.
+ *
+ * @author diredev
+ * @see HostHealthTracker
+ */
+public class HostUnavailableException extends IOException {
+	/** Serial version */
+	private static final long serialVersionUID = 1L;
+
+	/** Date at which the host will be tried again. */
+	private final Date retryAt;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param host the unavailable host
+	 * @param retryAt date at which the host will be tried again
+	 */
+	public HostUnavailableException(String host, Date retryAt) {
+		super(String.format("Host '%s' is unavailable. Will retry at %s.", host, retryAt));
+		this.retryAt = Objects.requireNonNull(retryAt);
+	}
+
+	/**
+	 * Creates a new instance for a host that has asked to slow down.
+	 *
+	 * @param host the unavailable host
+	 * @param retryAt date at which the host will be tried again
+	 * @param reason the host's response, e.g. "429 Too Many Requests"
+	 */
+	public HostUnavailableException(String host, Date retryAt, String reason) {
+		super(String.format("Host '%s' has asked to slow down (%s). Will retry at %s.", host, reason, retryAt));
+		this.retryAt = Objects.requireNonNull(retryAt);
+	}
+
+	/**
+	 * Returns the date at which the host will be tried again.
+	 *
+	 * @return date
+	 */
+	public Date getRetryAt() {
+		return retryAt;
+	}
+}
@@ -0,0 +1,33 @@
+package at.dire.podcache.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown when an imported archive is malformed or does not hold a valid feed.
+ *
+ * @author diredev
+ * @see TarFormat
+ */
+public class InvalidArchiveException extends IOException {
+	/** Serial version */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param message detail message
+	 */
+	public InvalidArchiveException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param message detail message
+	 * @param cause cause
+	 */
+	public InvalidArchiveException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
@@ -1,5 +1,6 @@
 package at.dire.podcache.util;
 
+import java.net.URI;
 import java.util.Date;
 
 import org.springframework.lang.Nullable;
@@ -23,4 +24,25 @@ public interface ResourceInfo {
 	 * @return last modification date
 	 */
 	public @Nullable Date getLastModified();
+
+	/**
+	 * The entity tag.
+	 * 
+	 * @return ETag
+	 */
+	public @Nullable String getETag();
+
+	/**
+	 * The size of the content.
+	 * 
+	 * @return content length or a negative number if unknown
+	 */
+	public long getContentLength();
+
+	/**
+	 * The final location of the resource, after following all redirects.
+	 * 
+	 * @return location
+	 */
+	public @Nullable URI getLocation();
 }
@@ -0,0 +1,102 @@
+package at.dire.podcache.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces concurrent calls for the same key. While a call is in flight, further callers with the same key will
+ * wait for it and receive its result instead of running the call again.
+ *
+ * @author diredev
+ * @param <K> key type
+ * @param <V> result type
+ */
+public class SingleFlight<K, V> {
+	/** Calls currently in flight */
+	private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Run the given call unless a call for the same key is already running. In that case, wait for the running call
+	 * and return its result.
+	 *
+	 * @param key key
+	 * @param call the call to run
+	 * @return result of the call
+	 * @throws IOException when the call fails
+	 */
+	public V run(K key, IOCallable<V> call) throws IOException {
+		CompletableFuture<V> future = new CompletableFuture<>();
+		CompletableFuture<V> running = this.inFlight.putIfAbsent(key, future);
+
+		if(running != null)
+			return await(running);
+
+		try {
+			V result = call.call();
+			future.complete(result);
+			return result;
+		} catch(IOException | RuntimeException | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			this.inFlight.remove(key, future);
+		}
+	}
+
+	/**
+	 * Returns true if a call for the given key is currently running.
+	 *
+	 * @param key key
+	 * @return true if running
+	 */
+	public boolean isRunning(K key) {
+		return this.inFlight.containsKey(key);
+	}
+
+	/**
+	 * Wait for the given call and return its result.
+	 *
+	 * @param future the running call
+	 * @return result
+	 * @throws IOException when the call has failed
+	 */
+	private V await(CompletableFuture<V> future) throws IOException {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for running call.");
+		} catch(ExecutionException e) {
+			Throwable cause = e.getCause();
+
+			if(cause instanceof IOException)
+				throw (IOException)cause;
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof Error)
+				throw (Error)cause;
+
+			throw new IOException("Running call has failed.", cause);
+		}
+	}
+
+	/**
+	 * A call that may throw an {@link IOException}.
+	 *
+	 * @param <V> result type
+	 */
+	@FunctionalInterface
+	public interface IOCallable<V> {
+		/**
+		 * Run the call.
+		 *
+		 * @return result
+		 * @throws IOException when the call fails
+		 */
+		V call() throws IOException;
+	}
+}
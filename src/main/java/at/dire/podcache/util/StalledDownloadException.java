@@ -0,0 +1,34 @@
+package at.dire.podcache.util;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a transfer is aborted because the server stopped sending or sends too slowly. The download may
+ * succeed when retried later.
+ *
+ * @author diredev
+ * @see TransferMonitor
+ */
+public class StalledDownloadException extends IOException {
+	/** Serial version */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param message detail message
+	 */
+	public StalledDownloadException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param message detail message
+	 * @param cause cause
+	 */
+	public StalledDownloadException(String message, Throwable cause) {
+		super(message, cause);
+	}
+}
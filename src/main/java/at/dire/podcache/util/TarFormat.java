@@ -0,0 +1,593 @@
+package at.dire.podcache.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.lang.Nullable;
+
+/**
+ * Reads and writes tar archives in the POSIX.1-2001 (pax) format. Names longer than 100 bytes, names that are not
+ * plain ASCII and files of 8 GiB or more are stored in an extended header.
+ *
+ * <p>
+ * Headers are created for single entries, so the layout of an archive is known before any content is written. The
+ * archive is made up of each entry's {@link #createHeader(ArchiveEntry) header}, its content and
+ * {@link #getPadding(long) padding}, followed by {@link #END_OF_ARCHIVE_SIZE two empty blocks}.
+ * </p>
+ *
+ * @author diredev
+ */
+public final class TarFormat {
+	/** Size of a block, headers and content are aligned to blocks. */
+	public static final int BLOCK_SIZE = 512;
+
+	/** Size of the empty blocks that end an archive. */
+	public static final int END_OF_ARCHIVE_SIZE = 2 * BLOCK_SIZE;
+
+	/** Type of regular files. */
+	private static final byte TYPE_FILE = '0';
+
+	/** Type of regular files used by old archives. */
+	private static final byte TYPE_FILE_OLD = 0;
+
+	/** Type of directories. */
+	private static final byte TYPE_DIRECTORY = '5';
+
+	/** Type of extended headers that apply to the next entry. */
+	private static final byte TYPE_PAX = 'x';
+
+	/** Type of extended headers that apply to all entries. */
+	private static final byte TYPE_PAX_GLOBAL = 'g';
+
+	/** Type of GNU long name entries. */
+	private static final byte TYPE_GNU_LONG_NAME = 'L';
+
+	/** Name of extended headers. */
+	private static final String PAX_NAME = "PaxHeader";
+
+	/** Largest size that fits into the size field. */
+	private static final long MAX_OCTAL_SIZE = 077777777777L;
+
+	/** Length of the name field. */
+	private static final int NAME_LENGTH = 100;
+
+	private TarFormat() {}
+
+	/**
+	 * Returns the header of the given entry, including an extended header if needed. The length is a multiple of the
+	 * {@link #BLOCK_SIZE block size}.
+	 *
+	 * @param entry entry
+	 * @return header
+	 */
+	public static byte[] createHeader(ArchiveEntry entry) {
+		byte[] name = entry.getName().getBytes(StandardCharsets.UTF_8);
+		boolean plainName = (name.length <= NAME_LENGTH && isAscii(name));
+		boolean plainSize = (entry.getSize() <= MAX_OCTAL_SIZE);
+		long mtime = TimeUnit.MILLISECONDS.toSeconds(entry.getLastModified());
+		byte[] header = createBlock(plainName ? name : toAsciiName(name), TYPE_FILE,
+				(plainSize ? entry.getSize() : 0), mtime);
+
+		if(plainName && plainSize)
+			return header;
+
+		// Extended header: "<length> <key>=<value>\n" records.
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+
+		if(!plainName)
+			writeRecord(records, "path", entry.getName());
+
+		if(!plainSize)
+			writeRecord(records, "size", Long.toString(entry.getSize()));
+
+		byte[] data = records.toByteArray();
+		byte[] result = new byte[BLOCK_SIZE + data.length + getPadding(data.length) + header.length];
+
+		System.arraycopy(createBlock(PAX_NAME.getBytes(StandardCharsets.US_ASCII), TYPE_PAX, data.length, mtime), 0,
+				result, 0, BLOCK_SIZE);
+		System.arraycopy(data, 0, result, BLOCK_SIZE, data.length);
+		System.arraycopy(header, 0, result, result.length - header.length, header.length);
+
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes needed after content of the given size to fill its last block.
+	 *
+	 * @param size size of the content
+	 * @return padding
+	 */
+	public static int getPadding(long size) {
+		int remainder = (int) (size % BLOCK_SIZE);
+		return (remainder == 0 ? 0 : BLOCK_SIZE - remainder);
+	}
+
+	/**
+	 * Creates a ustar header block.
+	 *
+	 * @param name ASCII name of at most 100 bytes
+	 * @param type type of the entry
+	 * @param size size of the content
+	 * @param mtime modification date in seconds since the epoch
+	 * @return header block
+	 */
+	private static byte[] createBlock(byte[] name, byte type, long size, long mtime) {
+		byte[] block = new byte[BLOCK_SIZE];
+
+		System.arraycopy(name, 0, block, 0, name.length);
+		writeOctal(block, 100, 8, 0644);
+		writeOctal(block, 108, 8, 0);
+		writeOctal(block, 116, 8, 0);
+		writeOctal(block, 124, 12, size);
+		writeOctal(block, 136, 12, Math.max(mtime, 0));
+		block[156] = type;
+		System.arraycopy("ustar\00000".getBytes(StandardCharsets.US_ASCII), 0, block, 257, 8);
+
+		// The checksum is computed with the checksum field filled with spaces.
+		Arrays.fill(block, 148, 156, (byte) ' ');
+		writeOctal(block, 148, 7, computeChecksum(block));
+
+		return block;
+	}
+
+	/**
+	 * Write a number as zero padded octal string ending with a NUL byte.
+	 *
+	 * @param block target block
+	 * @param offset offset of the field
+	 * @param length length of the field
+	 * @param value value
+	 */
+	private static void writeOctal(byte[] block, int offset, int length, long value) {
+		String octal = Long.toOctalString(value);
+
+		for(int i = 0; i < length - 1; i++) {
+			int digit = i - (length - 1 - octal.length());
+			block[offset + i] = (byte) (digit >= 0 ? octal.charAt(digit) : '0');
+		}
+
+		block[offset + length - 1] = 0;
+	}
+
+	/**
+	 * Write a record of an extended header.
+	 *
+	 * @param out target
+	 * @param key key
+	 * @param value value
+	 */
+	private static void writeRecord(ByteArrayOutputStream out, String key, String value) {
+		byte[] content = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+
+		// The length includes its own digits.
+		int length = content.length;
+
+		while(length != content.length + Integer.toString(length).length())
+			length = content.length + Integer.toString(length).length();
+
+		byte[] prefix = Integer.toString(length).getBytes(StandardCharsets.US_ASCII);
+		out.write(prefix, 0, prefix.length);
+		out.write(content, 0, content.length);
+	}
+
+	/**
+	 * Returns the checksum of the given header block.
+	 *
+	 * @param block header block
+	 * @return checksum
+	 */
+	private static long computeChecksum(byte[] block) {
+		long sum = 0;
+
+		for(byte b : block)
+			sum += (b & 0xff);
+
+		return sum;
+	}
+
+	/**
+	 * Returns true if the given name only holds printable ASCII characters.
+	 *
+	 * @param name name
+	 * @return boolean
+	 */
+	private static boolean isAscii(byte[] name) {
+		for(byte b : name) {
+			if(b < 0x20 || b > 0x7e)
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns a name for readers that do not support extended headers.
+	 *
+	 * @param name UTF-8 name
+	 * @return ASCII name of at most 100 bytes
+	 */
+	private static byte[] toAsciiName(byte[] name) {
+		byte[] result = Arrays.copyOfRange(name, Math.max(name.length - NAME_LENGTH, 0), name.length);
+
+		for(int i = 0; i < result.length; i++) {
+			if(result[i] < 0x20 || result[i] > 0x7e)
+				result[i] = '_';
+		}
+
+		return result;
+	}
+
+	/**
+	 * Reads the entries of a tar archive from a stream. Supports ustar, pax and GNU long names.
+	 */
+	public static final class Reader {
+		/** The archive */
+		private final InputStream in;
+
+		/** Remaining bytes of the current entry's content */
+		private long remaining = 0;
+
+		/** Padding after the current entry's content */
+		private int padding = 0;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param in the archive, not closed by the reader
+		 */
+		public Reader(InputStream in) {
+			this.in = Objects.requireNonNull(in);
+		}
+
+		/**
+		 * Move to the next entry. Unread content of the current entry is skipped.
+		 *
+		 * @return next entry or null at the end of the archive
+		 * @throws IOException when reading fails or the archive is invalid
+		 */
+		public @Nullable Entry next() throws IOException {
+			Map<String, String> extended = new HashMap<>();
+			byte[] block = new byte[BLOCK_SIZE];
+
+			while(true) {
+				skip(this.remaining + this.padding);
+				this.remaining = 0;
+				this.padding = 0;
+
+				if(!readBlock(block))
+					return null;
+
+				long size = parseNumber(block, 124, 12);
+				byte type = block[156];
+
+				this.remaining = size;
+				this.padding = getPadding(size);
+
+				if(type == TYPE_PAX || type == TYPE_GNU_LONG_NAME) {
+					String data = new String(readContent(size), StandardCharsets.UTF_8);
+
+					if(type == TYPE_PAX)
+						parseRecords(data, extended);
+					else
+						extended.put("path", trimNul(data));
+
+					continue;
+				}
+
+				if(type == TYPE_PAX_GLOBAL)
+					continue;
+
+				String name = parseString(block, 0, NAME_LENGTH);
+				String prefix = parseString(block, 345, 155);
+
+				if(!prefix.isEmpty())
+					name = prefix + "/" + name;
+
+				name = extended.getOrDefault("path", name);
+
+				if(extended.containsKey("size")) {
+					size = Long.parseLong(extended.get("size"));
+					this.remaining = size;
+					this.padding = getPadding(size);
+				}
+
+				return new Entry(name, size, type, TimeUnit.SECONDS.toMillis(parseNumber(block, 136, 12)));
+			}
+		}
+
+		/**
+		 * Returns the content of the current entry. The stream ends at the end of the entry and does not need to be
+		 * closed.
+		 *
+		 * @return content
+		 */
+		public InputStream getContent() {
+			return new InputStream() {
+				@Override
+				public int read() throws IOException {
+					byte[] single = new byte[1];
+					return (read(single, 0, 1) == -1 ? -1 : single[0] & 0xff);
+				}
+
+				@Override
+				public int read(byte[] b, int off, int len) throws IOException {
+					if(remaining == 0)
+						return -1;
+
+					int read = in.read(b, off, (int) Math.min(len, remaining));
+
+					if(read == -1)
+						throw new EOFException("Archive ends within an entry.");
+
+					remaining -= read;
+					return read;
+				}
+			};
+		}
+
+		/**
+		 * Read a header block.
+		 *
+		 * @param block target
+		 * @return false at the end of the archive
+		 * @throws IOException when reading fails or the block is not a valid header
+		 */
+		private boolean readBlock(byte[] block) throws IOException {
+			int total = 0;
+
+			while(total < BLOCK_SIZE) {
+				int read = this.in.read(block, total, BLOCK_SIZE - total);
+
+				if(read == -1) {
+					// Some writers omit the empty blocks.
+					if(total == 0)
+						return false;
+
+					throw new EOFException("Archive ends within a header.");
+				}
+
+				total += read;
+			}
+
+			if(computeChecksum(block) == 0)
+				return false;
+
+			long checksum = parseNumber(block, 148, 8);
+			Arrays.fill(block, 148, 156, (byte) ' ');
+
+			if(computeChecksum(block) != checksum)
+				throw new InvalidArchiveException("Invalid tar header, checksum does not match.");
+
+			return true;
+		}
+
+		/**
+		 * Read the whole content of the current entry.
+		 *
+		 * @param size size of the content
+		 * @return content
+		 * @throws IOException when reading fails
+		 */
+		private byte[] readContent(long size) throws IOException {
+			if(size > Integer.MAX_VALUE)
+				throw new InvalidArchiveException("Extended tar header is too large.");
+
+			byte[] result = new byte[(int) size];
+			InputStream content = getContent();
+			int total = 0;
+
+			while(total < result.length)
+				total += content.read(result, total, result.length - total);
+
+			return result;
+		}
+
+		/**
+		 * Skip the given number of bytes.
+		 *
+		 * @param count number of bytes
+		 * @throws IOException when reading fails
+		 */
+		private void skip(long count) throws IOException {
+			byte[] buffer = new byte[BLOCK_SIZE];
+
+			while(count > 0) {
+				int read = this.in.read(buffer, 0, (int) Math.min(buffer.length, count));
+
+				if(read == -1)
+					throw new EOFException("Archive ends within an entry.");
+
+				count -= read;
+			}
+		}
+
+		/**
+		 * Parse the records of an extended header.
+		 *
+		 * @param data content of the header
+		 * @param target map to add the records to
+		 * @throws IOException when the header is invalid
+		 */
+		private static void parseRecords(String data, Map<String, String> target) throws IOException {
+			byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+			int offset = 0;
+
+			while(offset < bytes.length) {
+				int space = offset;
+
+				while(space < bytes.length && bytes[space] != ' ')
+					space++;
+
+				int length;
+
+				try {
+					length = Integer.parseInt(new String(bytes, offset, space - offset, StandardCharsets.US_ASCII));
+				} catch(NumberFormatException e) {
+					throw new InvalidArchiveException("Invalid extended tar header.", e);
+				}
+
+				if(length <= space - offset || offset + length > bytes.length)
+					throw new InvalidArchiveException("Invalid extended tar header.");
+
+				// Record without length and trailing newline.
+				String record = new String(bytes, space + 1, offset + length - space - 2, StandardCharsets.UTF_8);
+				int separator = record.indexOf('=');
+
+				if(separator > 0)
+					target.put(record.substring(0, separator), record.substring(separator + 1));
+
+				offset += length;
+			}
+		}
+
+		/**
+		 * Parse a numeric header field, either octal or base-256 as written by GNU tar for large values.
+		 *
+		 * @param block header block
+		 * @param offset offset of the field
+		 * @param length length of the field
+		 * @return value
+		 * @throws IOException when the field is invalid
+		 */
+		private static long parseNumber(byte[] block, int offset, int length) throws IOException {
+			if((block[offset] & 0x80) != 0) {
+				long value = block[offset] & 0x7f;
+
+				for(int i = 1; i < length; i++)
+					value = (value << 8) | (block[offset + i] & 0xff);
+
+				return value;
+			}
+
+			String octal = parseString(block, offset, length).trim();
+
+			try {
+				return (octal.isEmpty() ? 0 : Long.parseLong(octal, 8));
+			} catch(NumberFormatException e) {
+				throw new InvalidArchiveException("Invalid tar header, '" + octal + "' is not a number.", e);
+			}
+		}
+
+		/**
+		 * Parse a NUL terminated header field.
+		 *
+		 * @param block header block
+		 * @param offset offset of the field
+		 * @param length length of the field
+		 * @return value
+		 */
+		private static String parseString(byte[] block, int offset, int length) {
+			int end = offset;
+
+			while(end < offset + length && block[end] != 0)
+				end++;
+
+			return new String(block, offset, end - offset, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * Remove trailing NUL characters.
+		 *
+		 * @param value value
+		 * @return trimmed value
+		 */
+		private static String trimNul(String value) {
+			int end = value.length();
+
+			while(end > 0 && value.charAt(end - 1) == 0)
+				end--;
+
+			return value.substring(0, end);
+		}
+	}
+
+	/**
+	 * An entry read by a {@link Reader}.
+	 */
+	public static final class Entry {
+		/** Path within the archive */
+		private final String name;
+
+		/** Size of the content */
+		private final long size;
+
+		/** Type of the entry */
+		private final byte type;
+
+		/** Modification date in milliseconds since the epoch */
+		private final long lastModified;
+
+		/**
+		 * Creates a new instance.
+		 *
+		 * @param name path within the archive
+		 * @param size size of the content
+		 * @param type type of the entry
+		 * @param lastModified modification date
+		 */
+		Entry(String name, long size, byte type, long lastModified) {
+			this.name = name;
+			this.size = size;
+			this.type = type;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * Returns the path within the archive.
+		 *
+		 * @return name
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * Returns the size of the content.
+		 *
+		 * @return size in bytes
+		 */
+		public long getSize() {
+			return this.size;
+		}
+
+		/**
+		 * Returns the modification date.
+		 *
+		 * @return milliseconds since the epoch
+		 */
+		public long getLastModified() {
+			return this.lastModified;
+		}
+
+		/**
+		 * Returns true if this entry is a regular file.
+		 *
+		 * @return boolean
+		 */
+		public boolean isFile() {
+			return (this.type == TYPE_FILE || this.type == TYPE_FILE_OLD);
+		}
+
+		/**
+		 * Returns true if this entry is a directory.
+		 *
+		 * @return boolean
+		 */
+		public boolean isDirectory() {
+			return (this.type == TYPE_DIRECTORY);
+		}
+
+		@Override
+		public String toString() {
+			return this.name;
+		}
+	}
+}
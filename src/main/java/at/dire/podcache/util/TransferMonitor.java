@@ -0,0 +1,91 @@
+package at.dire.podcache.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the progress of a single transfer. The transfer is aborted if it does not finish before a deadline scaled
+ * to the content length, or if it falls below a minimum throughput for a whole measuring window.
+ *
+ * <p>
+ * Checks are performed whenever data arrives. Servers that stop sending entirely are handled by the socket timeout
+ * of the {@link Downloader}.
+ * </p>
+ *
+ * @author diredev
+ */
+class TransferMonitor {
+	/** The URL being downloaded, used for messages */
+	private final String url;
+
+	/** Minimum bytes per second or 0 to disable all checks */
+	private final long minRate;
+
+	/** Length of the measuring window in nanoseconds */
+	private final long window;
+
+	/** Start of the transfer in nanoseconds */
+	private final long start;
+
+	/** Time in nanoseconds the whole transfer may take or {@link Long#MAX_VALUE} */
+	private final long timeLimit;
+
+	/** Start of the current measuring window in nanoseconds */
+	private long windowStart;
+
+	/** Bytes received in the current window */
+	private long windowBytes = 0;
+
+	/**
+	 * Creates a new instance and starts the clock.
+	 *
+	 * @param url the URL being downloaded
+	 * @param contentLength expected number of bytes or a negative number if unknown
+	 * @param baseTimeout time allowed in addition to the time required at the minimum rate in milliseconds
+	 * @param minRate minimum bytes per second or 0 to disable all checks
+	 * @param window length of the measuring window in milliseconds
+	 */
+	TransferMonitor(String url, long contentLength, long baseTimeout, long minRate, long window) {
+		this.url = url;
+		this.minRate = minRate;
+		this.window = TimeUnit.MILLISECONDS.toNanos(window);
+		this.start = System.nanoTime();
+		this.windowStart = this.start;
+
+		if(minRate > 0 && contentLength >= 0)
+			this.timeLimit = TimeUnit.MILLISECONDS
+					.toNanos(baseTimeout + TimeUnit.SECONDS.toMillis(contentLength / minRate));
+		else
+			this.timeLimit = Long.MAX_VALUE;
+	}
+
+	/**
+	 * Record the given number of received bytes and abort if the transfer is too slow.
+	 *
+	 * @param bytes number of bytes received
+	 * @throws StalledDownloadException if the transfer is too slow
+	 */
+	void received(long bytes) throws StalledDownloadException {
+		if(this.minRate == 0)
+			return;
+
+		long now = System.nanoTime();
+		this.windowBytes += bytes;
+
+		if(now - this.start > this.timeLimit)
+			throw new StalledDownloadException(String.format("Download of '%s' has exceeded its deadline.", this.url));
+
+		long elapsed = now - this.windowStart;
+
+		if(elapsed >= this.window) {
+			long rate = this.windowBytes * TimeUnit.SECONDS.toNanos(1) / elapsed;
+
+			if(rate < this.minRate)
+				throw new StalledDownloadException(String.format(
+						"Download of '%s' is too slow: %d bytes per second, expected at least %d.", this.url, rate,
+						this.minRate));
+
+			this.windowStart = now;
+			this.windowBytes = 0;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package at.dire.podcache.util;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Utility methods for handling enclosure URLs.
+ *
+ * @author diredev
+ */
+public final class UrlUtils {
+	private UrlUtils() {}
+
+	/** Known analytics redirect prefixes. These are followed by the actual URL, with or without scheme. */
+	private static final Pattern TRACKING_PREFIX = Pattern.compile("^(?:"
+			+ "(?:dts\\.|www\\.)?podtrac\\.com/(?:pts/)?redirect\\.[a-z0-9]+"
+			+ "|chtbl\\.com/track/[^/]+"
+			+ "|chrt\\.fm/track/[^/]+"
+			+ "|pdst\\.fm/e"
+			+ "|op3\\.dev/e(?:,[^/]*)?"
+			+ "|pfx\\.vpixl\\.com/[^/]+"
+			+ "|arttrk\\.com/p/[^/]+"
+			+ "|verifi\\.podscribe\\.com/rss/p"
+			+ "|mgln\\.ai/e/[^/]+"
+			+ "|claritaspod\\.com/measure"
+			+ "|prfx\\.byspotify\\.com/e"
+			+ ")/(?:https?:/+)?", Pattern.CASE_INSENSITIVE);
+
+	/** Matches the scheme of a URL. */
+	private static final Pattern SCHEME = Pattern.compile("^[a-z][a-z0-9+.-]*://", Pattern.CASE_INSENSITIVE);
+
+	/** Query parameters used for tracking only. */
+	private static final Pattern TRACKING_PARAMETER = Pattern.compile("^(?:utm_[a-z]+|awCollectionId|awEpisodeId)=.*$",
+			Pattern.CASE_INSENSITIVE);
+
+	/** Characters allowed in local file names. */
+	private static final Pattern INVALID_FILE_NAME_CHARS = Pattern.compile("[^A-Za-z0-9._-]+");
+
+	/**
+	 * Returns the canonical form of the given enclosure URL. Removes scheme, known tracking redirect prefixes and
+	 * tracking parameters. All other query parameters are kept, as they may identify the file even if the path ends
+	 * with a file name, e.g. <code>media.php?episode=5</code>.
+	 *
+	 * @param url URL
+	 * @return canonical URL, e.g. <code>example.com/path/episode.mp3</code>
+	 */
+	public static String canonicalize(String url) {
+		String result = SCHEME.matcher(url.trim()).replaceFirst("");
+
+		// Strip tracking prefixes, which may be nested.
+		Matcher matcher = TRACKING_PREFIX.matcher(result);
+
+		while(matcher.find()) {
+			result = result.substring(matcher.end());
+			matcher = TRACKING_PREFIX.matcher(result);
+		}
+
+		// Remove the fragment.
+		int fragmentStart = result.indexOf('#');
+
+		if(fragmentStart >= 0)
+			result = result.substring(0, fragmentStart);
+
+		// Split off the query.
+		String query = null;
+		int queryStart = result.indexOf('?');
+
+		if(queryStart >= 0) {
+			query = result.substring(queryStart + 1);
+			result = result.substring(0, queryStart);
+		}
+
+		// Lower case host.
+		int pathStart = result.indexOf('/');
+		String host = (pathStart >= 0 ? result.substring(0, pathStart) : result);
+		String path = (pathStart >= 0 ? result.substring(pathStart) : "/");
+		result = host.toLowerCase(Locale.ROOT) + path;
+
+		if(query != null) {
+			String filteredQuery = Stream.of(query.split("&"))
+					.filter((parameter) -> !parameter.isEmpty() && !TRACKING_PARAMETER.matcher(parameter).matches())
+					.collect(Collectors.joining("&"));
+
+			if(!filteredQuery.isEmpty())
+				result += "?" + filteredQuery;
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns a file name for the given canonical URL. The name only contains letters, numbers, dots, dashes and
+	 * underscores and will never start with a dot or an underscore.
+	 *
+	 * @param canonicalUrl the {@link #canonicalize(String) canonical URL}
+	 * @return file name
+	 */
+	public static String toFileName(String canonicalUrl) {
+		int queryStart = canonicalUrl.indexOf('?');
+		String path = (queryStart >= 0 ? canonicalUrl.substring(0, queryStart) : canonicalUrl);
+		String name = decode(getLastSegment(path));
+
+		name = INVALID_FILE_NAME_CHARS.matcher(name).replaceAll("_");
+
+		if(name.isEmpty() || name.startsWith(".") || name.startsWith("_"))
+			name = "file-" + name;
+
+		return name;
+	}
+
+	/**
+	 * Adds a short hash of the given value to the file name, before the extension.
+	 *
+	 * @param fileName file name
+	 * @param value value to hash
+	 * @return unique file name
+	 */
+	public static String addHash(String fileName, String value) {
+		String hash = sha1(value).substring(0, 8);
+		int extensionStart = fileName.lastIndexOf('.');
+
+		if(extensionStart > 0)
+			return fileName.substring(0, extensionStart) + "-" + hash + fileName.substring(extensionStart);
+		else
+			return fileName + "-" + hash;
+	}
+
+	/**
+	 * Returns the last segment of the given path.
+	 *
+	 * @param path path
+	 * @return last segment, may be empty
+	 */
+	private static String getLastSegment(String path) {
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * URL decode the given value. Invalid values are returned as is.
+	 *
+	 * @param value value
+	 * @return decoded value
+	 */
+	private static String decode(String value) {
+		try {
+			return URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+		} catch(IllegalArgumentException | UnsupportedEncodingException e) {
+			return value;
+		}
+	}
+
+	/**
+	 * Returns the hex encoded SHA-1 of the given value.
+	 *
+	 * @param value value
+	 * @return hash
+	 */
+	private static String sha1(String value) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8));
+			StringBuilder result = new StringBuilder();
+
+			for(byte b : digest)
+				result.append(String.format("%02x", b));
+
+			return result.toString();
+		} catch(NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 not supported.", e);
+		}
+	}
+}
@@ -5,7 +5,8 @@ var app = angular.module('podcache',[ 'ngResource' ]);
 app.factory('Feed', ['$resource',
     function($resource) {
 	    return $resource('feed/:name', {}, {
-	    	'update': { method:'PUT', isArray: true }
+	    	'update': { method:'PUT', isArray: true },
+	    	'refresh': { method:'POST', url: 'feed/:name/refresh' }
 	    });
   	}
 ]);
@@ -26,8 +27,87 @@ app.controller('feedlist', function(Feed, $scope) {
     	$scope.selectedFeed = feed;
     	$scope.addNew = false;
     }
+    
+	// Apply changes pushed by the server.
+	$scope.status = '';
+	$scope.messages = [];
+	
+	if(window.EventSource) {
+		var events = new EventSource('events');
+		
+		var on = function(name, handler) {
+			events.addEventListener(name, function(message) {
+				$scope.$apply(function() {
+					handler(message.data ? JSON.parse(message.data) : {});
+				});
+			});
+		};
+		
+		var findFeed = function(name) {
+			for(var i = 0; i < $scope.feeds.length; i++) {
+				if($scope.feeds[i].name === name)
+					return i;
+			}
+			
+			return -1;
+		};
+		
+		var addMessage = function(text, failed) {
+			$scope.messages.unshift({ text: text, failed: failed, time: new Date() });
+			$scope.messages.splice(MAX_MESSAGES);
+		};
+		
+		on('feed-changed', function(event) {
+			var index = findFeed(event.name);
+			
+			// Update in place, the feed may be selected.
+			if(index >= 0)
+				angular.extend($scope.feeds[index], event.feed);
+			else
+				$scope.feeds.push(new Feed(event.feed));
+		});
+		
+		on('feed-removed', function(event) {
+			var index = findFeed(event.name);
+			
+			if(index >= 0)
+				$scope.feeds.splice(index, 1);
+			
+			if($scope.selectedFeed && $scope.selectedFeed.name === event.name)
+				$scope.selectedFeed = null;
+		});
+		
+		on('reset', function() {
+			$scope.feeds = Feed.query();
+		});
+		
+		on('update-started', function(event) {
+			$scope.status = event.name ? "Updating feed '" + event.name + "'." : 'Updating all feeds.';
+		});
+		
+		on('update-progress', function(event) {
+			if(event.total > 1)
+				$scope.status = "Updated feed '" + event.name + "' (" + event.index + " of " + event.total + ").";
+		});
+		
+		on('update-finished', function(event) {
+			$scope.status = '';
+			addMessage(event.name ? "Feed '" + event.name + "' has been updated." : 'All feeds have been updated.');
+		});
+		
+		on('download-completed', function(event) {
+			addMessage("Downloaded '" + event.file + "' of feed '" + event.name + "'.");
+		});
+		
+		on('failed', function(event) {
+			addMessage((event.name ? event.name + (event.file ? '/' + event.file : '') + ': ' : '') + event.message, true);
+		});
+	}
 });
 
+// Number of recent events shown.
+var MAX_MESSAGES = 5;
+
 // Sub-Controller for adding additional feeds.
 app.controller('newFeed', function($scope, Feed) {
 	$scope.errorMessage = '';
@@ -62,6 +142,9 @@ app.controller('newFeed', function($scope, Feed) {
     }
 });
 
+// Bytes per megabyte, for retention settings.
+var MEGABYTE = 1024 * 1024;
+
 //Sub-Controller for editing an existing feed.
 app.controller('editFeed', function($scope, Feed) {
 	$scope.success = false;
@@ -73,11 +156,29 @@ app.controller('editFeed', function($scope, Feed) {
 		$scope.url = value.url;
 		$scope.contentType = value.contentType;
 		$scope.markedForDeletion = value.markedForDeletion;
+		$scope.maxEntries = value.maxEntries;
+		$scope.maxAgeDays = value.maxAgeDays;
+		$scope.maxMegabytes = (value.maxBytes != null ? Math.round(value.maxBytes / MEGABYTE) : null);
 		$scope.success = false;
 		$scope.errorMessage = '';
 		$scope.inProgress = false;
 	});
 
+	$scope.refresh = function() {
+		$scope.inProgress = true;
+		$scope.errorMessage = '';
+		$scope.success = false;
+		
+		Feed.refresh({ name: $scope.$parent.selectedFeed.name }, {}, function() {
+			$scope.success = true;
+			$scope.inProgress = false;
+		}, function(response) {
+			$scope.success = false;
+			$scope.errorMessage = (response.data && response.data.message) || response.statusText;
+			$scope.inProgress = false;
+		});
+	}
+
 	$scope.update = function() {
 		$scope.inProgress = true;
 		
@@ -87,6 +188,9 @@ app.controller('editFeed', function($scope, Feed) {
 		updatedFeed.url = $scope.url;
 		updatedFeed.contentType = $scope.contentType;
 		updatedFeed.markedForDeletion = $scope.markedForDeletion;
+		updatedFeed.maxEntries = $scope.maxEntries || null;
+		updatedFeed.maxAgeDays = $scope.maxAgeDays || null;
+		updatedFeed.maxBytes = ($scope.maxMegabytes ? $scope.maxMegabytes * MEGABYTE : null);
 
 		$scope.errorMessage = '';
 		$scope.success = false;
@@ -95,6 +199,9 @@ app.controller('editFeed', function($scope, Feed) {
 			selectedFeed.url = updatedFeed.url;
 			selectedFeed.contentType = updatedFeed.contentType;
 			selectedFeed.markedForDeletion = updatedFeed.markedForDeletion;
+			selectedFeed.maxEntries = updatedFeed.maxEntries;
+			selectedFeed.maxAgeDays = updatedFeed.maxAgeDays;
+			selectedFeed.maxBytes = updatedFeed.maxBytes;
 			
 			$scope.success = true;
 			$scope.inProgress = false;
@@ -0,0 +1,198 @@
+package at.dire.podcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import at.dire.podcache.data.Feed;
+import at.dire.podcache.data.FeedLease;
+import at.dire.podcache.data.FeedLeaseRepository;
+import at.dire.podcache.data.JobLeaseRepository;
+
+/**
+ * Tests two {@link FeedLeaseManager lease managers} sharing an embedded database, like two updating processes do.
+ * Every repository call is committed on its own, as in the application.
+ *
+ * @author diredev
+ */
+@RunWith(SpringRunner.class)
+@DataJpaTest
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+public class FeedLeaseManagerTest {
+	/** Lease time in seconds, the minimum allowed */
+	private static final int LEASE_SECONDS = 3;
+
+	/** Names of the test feeds */
+	private static final List<String> FEEDS = Arrays.asList("a", "b", "c");
+
+	/** Repository for feed leases */
+	@Autowired
+	private FeedLeaseRepository leaseRepo;
+
+	/** Repository for job leases */
+	@Autowired
+	private JobLeaseRepository jobLeaseRepo;
+
+	/** The first process */
+	private FeedLeaseManager first;
+
+	/** The second process */
+	private FeedLeaseManager second;
+
+	/**
+	 * Create two lease managers claiming up to two feeds at once.
+	 *
+	 * @throws Exception on failure
+	 */
+	@Before
+	public void setUp() throws Exception {
+		List<Feed> feeds = new ArrayList<>();
+
+		for(String feedName : FEEDS)
+			feeds.add(new Feed(feedName, new URL("http://example.com/" + feedName), "application/rss+xml",
+					new Date()));
+
+		FeedManager feedManager = mock(FeedManager.class);
+		when(feedManager.getFeeds()).thenReturn(feeds);
+
+		this.first = new FeedLeaseManager(this.leaseRepo, feedManager, this.jobLeaseRepo, Role.UPDATE, true, "first",
+				LEASE_SECONDS, 2);
+		this.second = new FeedLeaseManager(this.leaseRepo, feedManager, this.jobLeaseRepo, Role.UPDATE, true,
+				"second", LEASE_SECONDS, 2);
+	}
+
+	/**
+	 * Stop both managers and remove all leases.
+	 */
+	@After
+	public void tearDown() {
+		this.first.stop();
+		this.second.stop();
+		this.leaseRepo.deleteAll();
+		this.jobLeaseRepo.deleteAll();
+	}
+
+	/**
+	 * Feeds leased by one process are not claimed by the other one.
+	 */
+	@Test
+	public void claimsEachFeedOnce() {
+		Date since = new Date();
+		List<String> firstBatch = this.first.claim(since, Collections.emptySet());
+		List<String> secondBatch = this.second.claim(since, Collections.emptySet());
+
+		assertEquals(2, firstBatch.size());
+		assertEquals(1, secondBatch.size());
+
+		Set<String> claimed = new HashSet<>(firstBatch);
+		claimed.addAll(secondBatch);
+		assertEquals(new HashSet<>(FEEDS), claimed);
+
+		assertTrue(this.first.claim(since, Collections.emptySet()).isEmpty());
+		assertTrue(this.second.claim(since, Collections.emptySet()).isEmpty());
+	}
+
+	/**
+	 * Feeds that have been updated during a run are only claimed again by the next run.
+	 *
+	 * @throws Exception on failure
+	 */
+	@Test
+	public void claimsCompletedFeedsInNextRun() throws Exception {
+		Date since = new Date();
+		List<String> claimed = this.first.claim(since, Arrays.asList("b", "c"));
+
+		assertEquals(Collections.singletonList("a"), claimed);
+		this.first.complete("a");
+
+		assertFalse(this.second.claim(since, Arrays.asList("b", "c")).contains("a"));
+		assertEquals(new HashSet<>(Arrays.asList("b", "c")), new HashSet<>(this.second.getPending(since)));
+
+		Thread.sleep(10);
+		assertEquals(Collections.singletonList("a"), this.second.claim(new Date(), Arrays.asList("b", "c")));
+	}
+
+	/**
+	 * Leases that haven't been renewed are taken over once they expire. The previous holder can't complete them
+	 * afterwards.
+	 *
+	 * @throws Exception on failure
+	 */
+	@Test
+	public void takesOverExpiredLeases() throws Exception {
+		Date since = new Date();
+		List<String> claimed = this.first.claim(since, Collections.singleton("c"));
+
+		assertEquals(2, claimed.size());
+		assertTrue(this.second.claim(since, Collections.singleton("c")).isEmpty());
+
+		// No heartbeat is running, so the leases expire.
+		Thread.sleep(TimeUnit.SECONDS.toMillis(LEASE_SECONDS) + 200);
+
+		assertEquals(new HashSet<>(claimed), new HashSet<>(this.second.claim(since, Collections.singleton("c"))));
+
+		this.first.complete(claimed.get(0));
+		FeedLease lease = this.leaseRepo.findById(claimed.get(0)).get();
+		assertEquals("second", lease.getOwner());
+		assertEquals(null, lease.getCompleted());
+	}
+
+	/**
+	 * Only one process is elected as primary. Another one takes over once it stops.
+	 *
+	 * @throws Exception on failure
+	 */
+	@Test
+	public void electsSinglePrimary() throws Exception {
+		this.first.start();
+		awaitPrimary(this.first);
+		this.second.start();
+
+		// Give the second process a few heartbeats.
+		Thread.sleep(TimeUnit.SECONDS.toMillis(LEASE_SECONDS) / 2);
+		assertFalse(this.second.isPrimary());
+
+		this.first.stop();
+		assertFalse(this.first.isPrimary());
+		awaitPrimary(this.second);
+		assertNotEquals(this.first.isPrimary(), this.second.isPrimary());
+	}
+
+	/**
+	 * Wait until the given manager has become the primary one.
+	 *
+	 * @param manager lease manager
+	 * @throws InterruptedException when interrupted
+	 */
+	private static void awaitPrimary(FeedLeaseManager manager) throws InterruptedException {
+		long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LEASE_SECONDS * 2);
+
+		while(!manager.isPrimary()) {
+			assertTrue("Not elected as primary in time.", System.currentTimeMillis() < end);
+			Thread.sleep(50);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package at.dire.podcache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import at.dire.podcache.data.WebSubSubscription;
+import at.dire.podcache.data.WebSubSubscription.State;
+import at.dire.podcache.data.WebSubSubscriptionRepository;
+import at.dire.podcache.util.Downloader;
+
+/**
+ * Tests the validation of notifications and verification requests by the {@link WebSubSubscriber}.
+ *
+ * @author diredev
+ */
+public class WebSubSubscriberTest {
+	/** Name of the subscribed feed */
+	private static final String FEED = "test";
+
+	/** Topic of the subscription */
+	private static final String TOPIC = "http://example.com/feed.xml";
+
+	/** Secret of the subscription */
+	private static final String SECRET = "secret";
+
+	/** Content of notifications */
+	private static final byte[] CONTENT = "<rss/>".getBytes(StandardCharsets.UTF_8);
+
+	/** The mocked DB repository */
+	private WebSubSubscriptionRepository subscriptionRepo;
+
+	/** The subscription of the feed */
+	private WebSubSubscription subscription;
+
+	/** The tested subscriber */
+	private WebSubSubscriber subscriber;
+
+	/**
+	 * Create a subscriber with a single subscription.
+	 */
+	@Before
+	public void setUp() {
+		this.subscriptionRepo = mock(WebSubSubscriptionRepository.class);
+		this.subscription = new WebSubSubscription(FEED, "http://example.com/hub", TOPIC, SECRET);
+		this.subscriber = new WebSubSubscriber(this.subscriptionRepo, mock(Downloader.class), Role.ALL, true,
+				"http://localhost/websub", 3600);
+
+		when(this.subscriptionRepo.findOneByFeedName(FEED)).thenReturn(this.subscription);
+	}
+
+	/**
+	 * Notifications signed with the subscription's secret are accepted for all SHA variants.
+	 *
+	 * @throws Exception on test failure
+	 */
+	@Test
+	public void acceptsValidSignatures() throws Exception {
+		assertTrue(this.subscriber.isValidNotification(FEED, CONTENT, "sha1=" + sign("HmacSHA1", SECRET)));
+		assertTrue(this.subscriber.isValidNotification(FEED, CONTENT, "sha256=" + sign("HmacSHA256", SECRET)));
+		assertTrue(this.subscriber.isValidNotification(FEED, CONTENT, "sha384=" + sign("HmacSHA384", SECRET)));
+		assertTrue(this.subscriber.isValidNotification(FEED, CONTENT, "SHA512=" + sign("HmacSHA512", SECRET)));
+	}
+
+	/**
+	 * Notifications signed with another secret, for other content or without signature are rejected.
+	 *
+	 * @throws Exception on test failure
+	 */
+	@Test
+	public void rejectsInvalidSignatures() throws Exception {
+		assertFalse(this.subscriber.isValidNotification(FEED, CONTENT, "sha1=" + sign("HmacSHA1", "other")));
+		assertFalse(this.subscriber.isValidNotification(FEED, "<rss></rss>".getBytes(StandardCharsets.UTF_8),
+				"sha1=" + sign("HmacSHA1", SECRET)));
+		assertFalse(this.subscriber.isValidNotification(FEED, CONTENT, sign("HmacSHA1", SECRET)));
+		assertFalse(this.subscriber.isValidNotification(FEED, CONTENT, null));
+		assertFalse(this.subscriber.isValidNotification("unknown", CONTENT, "sha1=" + sign("HmacSHA1", SECRET)));
+	}
+
+	/**
+	 * Notifications signed with MAC algorithms other than those allowed by the specification are rejected, even if
+	 * the signature is correct.
+	 *
+	 * @throws Exception on test failure
+	 */
+	@Test
+	public void rejectsOtherAlgorithms() throws Exception {
+		assertFalse(this.subscriber.isValidNotification(FEED, CONTENT, "md5=" + sign("HmacMD5", SECRET)));
+		assertFalse(this.subscriber.isValidNotification(FEED, CONTENT, "sha224=" + sign("HmacSHA224", SECRET)));
+	}
+
+	/**
+	 * Subscriptions are only confirmed if the feed has a subscription to the given topic.
+	 */
+	@Test
+	public void verifiesKnownSubscriptionsOnly() {
+		assertFalse(this.subscriber.verify("unknown", WebSubSubscriber.MODE_SUBSCRIBE, TOPIC, 600L));
+		assertFalse(this.subscriber.verify(FEED, WebSubSubscriber.MODE_SUBSCRIBE, "http://example.com/other", 600L));
+		verify(this.subscriptionRepo, never()).save(any());
+		assertEquals(State.REQUESTED, this.subscription.getState());
+
+		assertTrue(this.subscriber.verify(FEED, WebSubSubscriber.MODE_SUBSCRIBE, TOPIC, 600L));
+		verify(this.subscriptionRepo).save(this.subscription);
+		assertEquals(State.ACTIVE, this.subscription.getState());
+		assertNotNull(this.subscription.getLeaseExpires());
+	}
+
+	/**
+	 * Unsubscriptions are only confirmed once the subscription has been removed.
+	 */
+	@Test
+	public void verifiesRemovedUnsubscriptionsOnly() {
+		assertFalse(this.subscriber.verify(FEED, WebSubSubscriber.MODE_UNSUBSCRIBE, TOPIC, null));
+		assertTrue(this.subscriber.verify("unknown", WebSubSubscriber.MODE_UNSUBSCRIBE, TOPIC, null));
+		assertFalse(this.subscriber.verify(FEED, "unknown", TOPIC, null));
+	}
+
+	/**
+	 * Sign the test content like a hub.
+	 *
+	 * @param algorithm MAC algorithm
+	 * @param secret secret
+	 * @return signature as hex string
+	 * @throws Exception on failure
+	 */
+	private static String sign(String algorithm, String secret) throws Exception {
+		Mac mac = Mac.getInstance(algorithm);
+		mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), algorithm));
+		StringBuilder result = new StringBuilder();
+
+		for(byte b : mac.doFinal(CONTENT))
+			result.append(String.format("%02x", b));
+
+		return result.toString();
+	}
+}